@@ -0,0 +1,122 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.test.AndroidTestCase;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+/**
+ * Checks on a device that {@link JvmEdgeDetection} matches the RenderScript kernels of
+ * {@link EdgeDetection} within {@link JvmEdgeDetection#VECTOR_TOLERANCE} and
+ * {@link JvmEdgeDetection#ANGLE_TOLERANCE}.
+ */
+public class EdgeDetectionParityTest extends AndroidTestCase {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final float AMPLIFICATION = 2.0f;
+
+    /**
+     * Polar angles of shorter vectors are dominated by the rounding of the components.
+     */
+    private static final float MIN_ANGLE_MAGNITUDE = 1e-3f;
+
+    private RenderScript rs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        rs = RenderScript.create(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        rs.destroy();
+        super.tearDown();
+    }
+
+    public void testOutputsMatchRenderScript() throws Exception {
+        float[] intensity = createIntensity();
+        Allocation intensityBuffer = RsUtils.create2d(rs, WIDTH, HEIGHT, Element.F32(rs));
+        intensityBuffer.copyFrom(intensity);
+
+        for(KernelMode kernelMode : KernelMode.values()) {
+            for(int kernelSize : new int[] { 3, 9, 15 }) {
+                EdgeDetection device = new EdgeDetection(rs, WIDTH, HEIGHT, kernelSize);
+                device.setKernelMode(kernelMode);
+                device.setAmplification(AMPLIFICATION);
+                device.setFftCrossoverKernelSize(Integer.MAX_VALUE);
+                device.calcEdges(intensityBuffer, EnumSet.allOf(EdgeOutput.class));
+
+                JvmEdgeDetection jvm = new JvmEdgeDetection(WIDTH, HEIGHT, kernelSize);
+                jvm.setKernelMode(kernelMode);
+                jvm.setAmplification(AMPLIFICATION);
+                jvm.setFftCrossoverKernelSize(Integer.MAX_VALUE);
+                jvm.calcEdges(intensity, EnumSet.allOf(EdgeOutput.class));
+
+                String name = kernelMode + " " + kernelSize + "x" + kernelSize;
+                float[] vectors = new float[WIDTH * HEIGHT * 2];
+                float[] polarVectors = new float[WIDTH * HEIGHT * 2];
+                float[] magnitudes = new float[WIDTH * HEIGHT];
+                device.getEdgeVectorsBuffer().copyTo(vectors);
+                device.getEdgePolarVectorsBuffer().copyTo(polarVectors);
+                device.getEdgeMagnitudesBuffer().copyTo(magnitudes);
+                device.destroy();
+
+                float vectorTolerance = JvmEdgeDetection.VECTOR_TOLERANCE * AMPLIFICATION;
+                assertWithin(name + " vectors", jvm.getEdgeVectorsBuffer(), vectors, vectorTolerance);
+                assertWithin(name + " magnitudes", jvm.getEdgeMagnitudesBuffer(), magnitudes, vectorTolerance);
+                assertPolarWithin(name + " polar vectors", jvm.getEdgePolarVectorsBuffer(), polarVectors, vectorTolerance);
+            }
+        }
+
+        intensityBuffer.destroy();
+    }
+
+    private static void assertWithin(String name, float[] expected, float[] actual, float tolerance) {
+        for(int c = 0; c < expected.length; c++) {
+            assertTrue(name + " differ at " + c + ": " + expected[c] + " / " + actual[c],
+                    Math.abs(expected[c] - actual[c]) <= tolerance);
+        }
+    }
+
+    private static void assertPolarWithin(String name, float[] expected, float[] actual, float tolerance) {
+        for(int c = 0; c < expected.length; c += 2) {
+            float magnitude = expected[c + 1];
+            assertTrue(name + " magnitudes differ at " + c / 2 + ": " + magnitude + " / " + actual[c + 1],
+                    Math.abs(magnitude - actual[c + 1]) <= tolerance);
+            if(magnitude < MIN_ANGLE_MAGNITUDE) {
+                continue;
+            }
+
+            // The angles wrap around at -PI / PI
+            double difference = Math.abs(expected[c] - actual[c]);
+            difference = Math.min(difference, 2 * Math.PI - difference);
+            assertTrue(name + " angles differ at " + c / 2 + ": " + expected[c] + " / " + actual[c],
+                    difference <= JvmEdgeDetection.ANGLE_TOLERANCE);
+        }
+    }
+
+    /**
+     * A bright disc on a gradient with noise.
+     */
+    private static float[] createIntensity() {
+        Random random = new Random(42);
+        float[] intensity = new float[WIDTH * HEIGHT];
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                float value = 0.3f * x / WIDTH + 0.2f * y / HEIGHT + 0.05f * random.nextFloat();
+                int dx = x - WIDTH / 3;
+                int dy = y - HEIGHT / 2;
+                if(dx * dx + dy * dy < 30 * 30) {
+                    value += 0.4f;
+                }
+                intensity[y * WIDTH + x] = value;
+            }
+        }
+        return intensity;
+    }
+}
@@ -3,6 +3,12 @@ package nl.udev.hellorenderscript.common.algoritm.parts;
 import android.renderscript.Allocation;
 import android.renderscript.Element;
 import android.renderscript.RenderScript;
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import nl.udev.hellorenderscript.video.ScriptC_edgedetection;
 import nl.udev.hellorenderscript.video.ScriptC_utils;
@@ -14,18 +20,76 @@ import nl.udev.hellorenderscript.video.ScriptC_utils;
  */
 public class EdgeDetection {
 
+    private static final String TAG = "EdgeDetection";
+    private static final int DEFAULT_LOW_RANK_PASSES = 3;
+
+    /**
+     * Kernel size from which the full 2D kernel is applied through the FFT engine, unless
+     * a crossover is measured using {@link #measureFftCrossover(Allocation, int)}.
+     */
+    public static final int DEFAULT_FFT_CROSSOVER_KERNEL_SIZE = JvmEdgeDetection.DEFAULT_FFT_CROSSOVER_KERNEL_SIZE;
+
+    /**
+     * Size of the (square) tiles of the incremental mode.
+     */
+    public static final int TILE_SIZE = JvmEdgeDetection.TILE_SIZE;
+
+    /**
+     * Intensity difference from which a tile is changed in the incremental mode, unless set
+     * using {@link #setChangeThreshold(float)}.
+     */
+    public static final float DEFAULT_CHANGE_THRESHOLD = JvmEdgeDetection.DEFAULT_CHANGE_THRESHOLD;
+
+    // Measured crossovers per resolution, so a re-initialize does not measure again
+    private static final Map<String, Integer> MEASURED_FFT_CROSSOVERS = new HashMap<>();
+
     private final RenderScript rs;
     private final ScriptC_edgedetection rsEdge;
     private final ScriptC_utils rsUtils;
 
+    private final int width;
+    private final int height;
+
     private KernelMode kernelMode;
     private int kernelSize;
+    private float scale;
+    private float totalKernelWeight;
+    private int fftCrossoverKernelSize = DEFAULT_FFT_CROSSOVER_KERNEL_SIZE;
+    private int crossoverStep;
+    private long crossoverFftNanos;
+    private boolean fusionEnabled = false;
+    private StoragePrecision storagePrecision = StoragePrecision.F32;
+    private FftConvolution fftConvolution;
+    private float[] fftIntensityArray;
+    private float[] fftEdgeVectorsArray;
+    private int lowRankPasses = DEFAULT_LOW_RANK_PASSES;
+    private KernelBank.VectorKernel kernel;
+    private LowRankKernels.LowRankVectorKernel lowRankKernel;
+
+    private boolean incremental;
+    private boolean incrementalValid;
+    private int incrementalKernelSize;
+    private float incrementalScale;
+    private EnumSet<EdgeOutput> incrementalOutputs;
+    private int tilesX;
+    private int tilesY;
+    private byte[] dirtyTiles;
+    private float recomputedTileFraction = 1.0f;
+    private float changeThreshold = DEFAULT_CHANGE_THRESHOLD;
 
     private Allocation edgeVectorsBuffer;
+    private Allocation edgeVectorsWorkBuffer;
     private Allocation edgeVectorsSeparationStep1Buffer;
     private Allocation edgePolarVectorsBuffer;
     private Allocation edgeMagnitudesBuffer;
     private Allocation kernelVectorsBuffer;
+    private Allocation crossoverKernelBuffer;
+    private Allocation edgeVectorsLowRankStepBuffer;
+    private Allocation lowRankRowKernelsBuffer;
+    private Allocation lowRankColumnKernelsBuffer;
+    private Allocation referenceIntensityBuffer;
+    private Allocation changedTilesBuffer;
+    private Allocation dirtyTilesBuffer;
 
     /**
      * Create new edge detection sub-algorithm.
@@ -39,14 +103,14 @@ public class EdgeDetection {
         this.rs = rs;
         this.rsEdge = new ScriptC_edgedetection(rs);
         this.rsUtils = new ScriptC_utils(rs);
+        this.width = width;
+        this.height = height;
 
         rsEdge.set_sourceWidth(width);
         rsEdge.set_sourceHeight(height);
 
-        edgeVectorsBuffer = RsUtils.create2d(rs, width, height, Element.F32_2(rs));
         edgeVectorsSeparationStep1Buffer = RsUtils.create2d(rs, width, height, Element.F32(rs));
-        edgePolarVectorsBuffer = RsUtils.create2d(rs, width, height, Element.F32_2(rs));
-        edgeMagnitudesBuffer = RsUtils.create2d(rs, width, height, Element.F32(rs));
+        createOutputBuffers();
 
         setKernelSize(initialKernelSize);
         setAmplification(1.0f);
@@ -61,17 +125,115 @@ public class EdgeDetection {
         rsEdge.destroy();
         rsUtils.destroy();
 
-        edgeVectorsBuffer.destroy();
+        destroyOutputBuffers();
         edgeVectorsSeparationStep1Buffer.destroy();
-        edgePolarVectorsBuffer.destroy();
-        edgeMagnitudesBuffer.destroy();
         kernelVectorsBuffer.destroy();
+
+        if(edgeVectorsLowRankStepBuffer != null) {
+            edgeVectorsLowRankStepBuffer.destroy();
+            lowRankRowKernelsBuffer.destroy();
+            lowRankColumnKernelsBuffer.destroy();
+        }
+
+        if(crossoverKernelBuffer != null) {
+            crossoverKernelBuffer.destroy();
+        }
+
+        if(fftConvolution != null) {
+            fftConvolution.release();
+        }
+
+        if(referenceIntensityBuffer != null) {
+            referenceIntensityBuffer.destroy();
+            changedTilesBuffer.destroy();
+            dirtyTilesBuffer.destroy();
+        }
     }
 
     public void setKernelMode(KernelMode kernelMode) {
         this.kernelMode = kernelMode;
     }
 
+    /**
+     * Set the precision of the output buffers (if changed), the buffers are re-created so
+     * previously obtained buffers become invalid.
+     *
+     * @param newPrecision    precision in which the vectors, polar vectors and magnitudes are stored
+     */
+    public void setStoragePrecision(StoragePrecision newPrecision) {
+        if(storagePrecision != newPrecision) {
+            destroyOutputBuffers();
+            storagePrecision = newPrecision;
+            createOutputBuffers();
+        }
+    }
+
+    public StoragePrecision getStoragePrecision() {
+        return storagePrecision;
+    }
+
+    /**
+     * The range needed to read the output buffers in {@link StoragePrecision#I16_NORMALIZED}:
+     * the maximal length of an edge vector, which is the amplification.
+     *
+     * @return  the maximal vector length and magnitude
+     */
+    public float getStorageRange() {
+        return scale;
+    }
+
+    private void createOutputBuffers() {
+        edgeVectorsBuffer = RsUtils.create2d(rs, width, height, createStorageElement(true));
+        edgePolarVectorsBuffer = RsUtils.create2d(rs, width, height, createStorageElement(true));
+        edgeMagnitudesBuffer = RsUtils.create2d(rs, width, height, createStorageElement(false));
+
+        rsEdge.set_storagePrecision(storagePrecision.ordinal());
+        rsEdge.set_fusedVectorBuffer(edgeVectorsBuffer);
+        rsEdge.set_fusedPolarBuffer(edgePolarVectorsBuffer);
+        rsEdge.set_fusedMagnitudeBuffer(edgeMagnitudesBuffer);
+
+        // The kept outputs of the incremental mode are lost
+        incrementalValid = false;
+    }
+
+    private void destroyOutputBuffers() {
+        edgeVectorsBuffer.destroy();
+        edgePolarVectorsBuffer.destroy();
+        edgeMagnitudesBuffer.destroy();
+
+        if(edgeVectorsWorkBuffer != null) {
+            edgeVectorsWorkBuffer.destroy();
+            edgeVectorsWorkBuffer = null;
+        }
+    }
+
+    private Element createStorageElement(boolean vector) {
+        switch (storagePrecision) {
+            case F16:
+                return vector ? Element.F16_2(rs) : Element.F16(rs);
+            case I16_NORMALIZED:
+                return vector ? Element.I16_2(rs) : Element.I16(rs);
+            default:
+                return vector ? Element.F32_2(rs) : Element.F32(rs);
+        }
+    }
+
+    /**
+     * The kernel modes (except the fused one) produce F32 vectors, in F32 storage these are
+     * the output, in the compact storage precisions they are stored into the outputs afterwards.
+     */
+    private Allocation getEdgeVectorsWorkBuffer() {
+        if(storagePrecision == StoragePrecision.F32) {
+            return edgeVectorsBuffer;
+        }
+
+        if(edgeVectorsWorkBuffer == null) {
+            edgeVectorsWorkBuffer = RsUtils.create2d(rs, width, height, Element.F32_2(rs));
+        }
+
+        return edgeVectorsWorkBuffer;
+    }
+
     /**
      * Set new kernel size (if changed)
      *
@@ -88,13 +250,74 @@ public class EdgeDetection {
 
             kernelVectorsBuffer = RsUtils.create2d(rs, newSize, newSize, Element.F32_4(rs));
 
-            float kernelBuffer[] = Kernels.createWeightedAngularVectorKernel(newSize);
-            kernelVectorsBuffer.copyFrom(kernelBuffer);
-            rsEdge.set_kernelBuffer(kernelVectorsBuffer);
-            rsEdge.set_kernelSquareRadius((newSize - 1) / 2);
-            rsEdge.set_totalKernelWeight(Kernels.calculateTotalKernelWeight(kernelBuffer));
-            rsEdge.set_totalKernelWeight2N(Kernels.calculateTotalKernelWeight2N(kernelBuffer));
+            kernel = KernelBank.getInstance().getWeightedAngularVectorKernel(newSize);
+            kernelVectorsBuffer.copyFrom(kernel.getEntries());
+            totalKernelWeight = kernel.getTotalWeight();
+            setKernel(kernelVectorsBuffer, kernel);
+
+            // Decomposed and uploaded on first use, see prepareLowRankKernels()
+            lowRankKernel = null;
+        }
+    }
+
+    private void setKernel(Allocation kernelBuffer, KernelBank.VectorKernel vectorKernel) {
+        rsEdge.set_kernelBuffer(kernelBuffer);
+        rsEdge.set_kernelSquareRadius((vectorKernel.getSize() - 1) / 2);
+        rsEdge.set_totalKernelWeight(vectorKernel.getTotalWeight());
+        rsEdge.set_totalKernelWeight2N(vectorKernel.getTotalWeight2N());
+    }
+
+    /**
+     * Set the number of separable passes used by {@link KernelMode#KernelVector2dLowRank} (if changed)
+     *
+     * More passes give a better approximation of the full 2D kernel, see {@link #getLowRankRelativeError()}.
+     *
+     * @param passes    number of rank-1 row/column passes, clamped to [1, kernelSize]
+     */
+    public void setLowRankPasses(int passes) {
+        if(lowRankPasses != passes) {
+            lowRankPasses = passes;
+            lowRankKernel = null;
+        }
+    }
+
+    /**
+     * @return  relative (Frobenius) error of the low rank kernel against the full 2D kernel
+     */
+    public float getLowRankRelativeError() {
+        return KernelBank.getInstance().getLowRankVectorKernel(kernelSize, lowRankPasses).getRelativeError();
+    }
+
+    /**
+     * Decompose and upload the low rank kernel when the kernel size or the number of passes
+     * changed since the last call, the buffers are only allocated once the mode is used.
+     */
+    private void prepareLowRankKernels() {
+
+        if(lowRankKernel != null) {
+            return;
         }
+
+        lowRankKernel = KernelBank.getInstance().getLowRankVectorKernel(kernelSize, lowRankPasses);
+
+        if(edgeVectorsLowRankStepBuffer == null) {
+            edgeVectorsLowRankStepBuffer = RsUtils.create2d(rs, width, height, Element.F32_2(rs));
+        } else {
+            lowRankRowKernelsBuffer.destroy();
+            lowRankColumnKernelsBuffer.destroy();
+        }
+
+        lowRankRowKernelsBuffer = RsUtils.create2d(rs, kernelSize, lowRankKernel.getPasses(), Element.F32_2(rs));
+        lowRankColumnKernelsBuffer = RsUtils.create2d(rs, kernelSize, lowRankKernel.getPasses(), Element.F32_2(rs));
+        lowRankRowKernelsBuffer.copyFrom(lowRankKernel.getRowKernels());
+        lowRankColumnKernelsBuffer.copyFrom(lowRankKernel.getColumnKernels());
+        rsEdge.set_lowRankRowKernels(lowRankRowKernelsBuffer);
+        rsEdge.set_lowRankColumnKernels(lowRankColumnKernelsBuffer);
+
+        Log.i(TAG, "Low rank kernel " + kernelSize + "x" + kernelSize
+                + ", passes " + lowRankKernel.getPasses()
+                + ", relative error " + lowRankKernel.getRelativeError()
+                + ", max tap error " + lowRankKernel.getMaxError());
     }
 
     /**
@@ -103,9 +326,148 @@ public class EdgeDetection {
      * @param scale    Factor
      */
     public void setAmplification(float scale) {
+        this.scale = scale;
         rsEdge.set_scale(scale);
     }
 
+    /**
+     * Set the kernel size from which {@link KernelMode#KernelVector2D} switches to the FFT engine.
+     *
+     * @param kernelSize    smallest kernel size that uses the FFT, use Integer.MAX_VALUE to disable
+     */
+    public void setFftCrossoverKernelSize(int kernelSize) {
+        this.fftCrossoverKernelSize = kernelSize;
+    }
+
+    public int getFftCrossoverKernelSize() {
+        return fftCrossoverKernelSize;
+    }
+
+    /**
+     * Measure from which kernel size the FFT engine is faster than the direct RenderScript
+     * kernel on this device and use that as the crossover.
+     *
+     * The FFT cost does not depend on the kernel size, so it is timed once and then the direct
+     * kernel is timed for increasing sizes until it is slower. This runs all steps at once, use
+     * {@link #measureFftCrossoverStep(Allocation, int)} to spread them over frames.
+     *
+     * @param intensityBuffer    representative 2D float intensity buffer
+     * @param maxKernelSize      largest kernel size that will be used
+     * @return the new crossover kernel size
+     */
+    public int measureFftCrossover(Allocation intensityBuffer, int maxKernelSize) {
+        while(!measureFftCrossoverStep(intensityBuffer, maxKernelSize)) {
+            // Next kernel size
+        }
+        return fftCrossoverKernelSize;
+    }
+
+    /**
+     * Use the crossover measured earlier for this resolution (e.g. before a re-initialize).
+     *
+     * @return true when there was a measured crossover
+     */
+    public boolean applyMeasuredFftCrossover() {
+        synchronized (MEASURED_FFT_CROSSOVERS) {
+            Integer crossover = MEASURED_FFT_CROSSOVERS.get(width + "x" + height);
+            if(crossover == null) {
+                return false;
+            }
+            fftCrossoverKernelSize = crossover;
+            return true;
+        }
+    }
+
+    /**
+     * Run one step of {@link #measureFftCrossover(Allocation, int)}: time the FFT or the direct
+     * kernel of the next size. Each step costs two kernel runs and the direct kernel is only
+     * timed while it is faster than the FFT, so calling it once per frame costs at most about
+     * two FFT runs per frame instead of stalling the camera for all kernel sizes.
+     *
+     * The candidate sizes are timed with a scratch kernel, the kernel of this instance is not
+     * changed. The crossover is only changed when the measurement is done, it is then also
+     * remembered for this resolution, see {@link #applyMeasuredFftCrossover()}.
+     *
+     * @param intensityBuffer    representative 2D float intensity buffer
+     * @param maxKernelSize      largest kernel size that will be used
+     * @return true when the measurement is done
+     */
+    public boolean measureFftCrossoverStep(Allocation intensityBuffer, int maxKernelSize) {
+
+        // The timed runs overwrite the vectors, so the kept tiles no longer match their references
+        incrementalValid = false;
+
+        if(crossoverStep == 0) {
+            // Warm-up (also fills the spectrum cache) then time the FFT
+            crossoverFftNanos = timeFftKernel(intensityBuffer, maxKernelSize);
+            crossoverStep++;
+            return false;
+        }
+
+        int size = 1 + 2 * crossoverStep;
+        int crossover = Integer.MAX_VALUE;
+        if(size <= maxKernelSize) {
+            if(timeDirectKernel(intensityBuffer, size, maxKernelSize) <= crossoverFftNanos) {
+                crossoverStep++;
+                return false;
+            }
+            crossover = size;
+        }
+
+        Log.i(TAG, "FFT takes " + (crossoverFftNanos / 1000) + "us, crossover kernel size " + crossover);
+        synchronized (MEASURED_FFT_CROSSOVERS) {
+            MEASURED_FFT_CROSSOVERS.put(width + "x" + height, crossover);
+        }
+        fftCrossoverKernelSize = crossover;
+        crossoverStep = 0;
+        if(crossoverKernelBuffer != null) {
+            crossoverKernelBuffer.destroy();
+            crossoverKernelBuffer = null;
+        }
+        return true;
+    }
+
+    private long timeFftKernel(Allocation intensityBuffer, int size) {
+        Allocation workBuffer = getEdgeVectorsWorkBuffer();
+        applyVectorKernelFft(intensityBuffer, size, 1.0f, workBuffer);
+        rs.finish();
+        long start = System.nanoTime();
+        applyVectorKernelFft(intensityBuffer, size, 1.0f, workBuffer);
+        rs.finish();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Time the direct kernel of the given size. It is loaded into the top-left of a scratch buffer
+     * of the largest size (the kernel only reads the taps within its radius), afterwards the kernel
+     * of this instance is set again.
+     */
+    private long timeDirectKernel(Allocation intensityBuffer, int size, int maxKernelSize) {
+
+        if(crossoverKernelBuffer != null && crossoverKernelBuffer.getType().getX() < maxKernelSize) {
+            crossoverKernelBuffer.destroy();
+            crossoverKernelBuffer = null;
+        }
+        if(crossoverKernelBuffer == null) {
+            crossoverKernelBuffer = RsUtils.create2d(rs, maxKernelSize, maxKernelSize, Element.F32_4(rs));
+        }
+        KernelBank.VectorKernel candidate = KernelBank.getInstance().getWeightedAngularVectorKernel(size);
+        crossoverKernelBuffer.copy2DRangeFrom(0, 0, size, size, candidate.getEntries());
+        setKernel(crossoverKernelBuffer, candidate);
+
+        Allocation workBuffer = getEdgeVectorsWorkBuffer();
+        rsEdge.set_intensityBuffer(intensityBuffer);
+        rsEdge.forEach_applyVectorKernel(workBuffer);
+        rs.finish();
+        long start = System.nanoTime();
+        rsEdge.forEach_applyVectorKernel(workBuffer);
+        rs.finish();
+        long nanos = System.nanoTime() - start;
+
+        setKernel(kernelVectorsBuffer, kernel);
+        return nanos;
+    }
+
     /**
      * Calculate the 2D (X, Y) edge vectors.
      *
@@ -113,20 +475,216 @@ public class EdgeDetection {
      * @return 2D (X, Y) edge vectors.
      */
     public Allocation calcEdgeVectors(Allocation intensityBuffer) {
+        calcEdges(intensityBuffer, EnumSet.of(EdgeOutput.VECTORS));
+        return edgeVectorsBuffer;
+    }
+
+    private Allocation calcEdgeVectorsF32(Allocation intensityBuffer) {
+        Allocation workBuffer = getEdgeVectorsWorkBuffer();
         rsEdge.set_intensityBuffer(intensityBuffer);
 
         switch (kernelMode) {
             case KernelVector2D:
-                rsEdge.forEach_applyVectorKernel(edgeVectorsBuffer);
+                if(kernelSize >= fftCrossoverKernelSize) {
+                    applyVectorKernelFft(intensityBuffer, kernelSize, scale / totalKernelWeight, workBuffer);
+                } else {
+                    rsEdge.forEach_applyVectorKernel(workBuffer);
+                }
                 break;
             case KernelVector2dSeparable2N:
                 rsEdge.forEach_applyVectorKernelPart1(edgeVectorsSeparationStep1Buffer);
                 rsEdge.set_step1Buffer(edgeVectorsSeparationStep1Buffer);
-                rsEdge.forEach_applyVectorKernelPart2(edgeVectorsBuffer);
+                rsEdge.forEach_applyVectorKernelPart2(workBuffer);
+                break;
+            case KernelVector2dLowRank:
+                prepareLowRankKernels();
+                rsEdge.set_lowRankStepBuffer(edgeVectorsLowRankStepBuffer);
+                for(int pass = 0; pass < lowRankKernel.getPasses(); pass++) {
+                    rsEdge.set_lowRankPass(pass);
+                    rsEdge.forEach_applyLowRankRowPass(edgeVectorsLowRankStepBuffer);
+                    rsEdge.forEach_applyLowRankColumnPass(workBuffer, workBuffer);
+                }
                 break;
         }
 
-        return edgeVectorsBuffer;
+        return workBuffer;
+    }
+
+    private void applyVectorKernelFft(Allocation intensityBuffer, int size, float factor, Allocation workBuffer) {
+        if(fftConvolution == null) {
+            fftConvolution = new FftConvolution(ForkJoinPool.commonPool(), width, height);
+            fftIntensityArray = new float[width * height];
+            fftEdgeVectorsArray = new float[width * height * 2];
+        }
+
+        intensityBuffer.copyTo(fftIntensityArray);
+        fftConvolution.applyVectorKernel(fftIntensityArray, size, factor, fftEdgeVectorsArray);
+        workBuffer.copyFrom(fftEdgeVectorsArray);
+    }
+
+    /**
+     * Enable or disable (default) the single traversal of {@link #calcEdges}, when disabled the
+     * outputs are always converted from the vectors in extra passes. Disabled by default, the
+     * single traversal is not measured to be faster.
+     *
+     * @param fusionEnabled    true to produce all outputs in a single traversal when possible
+     */
+    public void setFusionEnabled(boolean fusionEnabled) {
+        this.fusionEnabled = fusionEnabled;
+    }
+
+    /**
+     * Enable or disable the incremental mode for mostly static scenes.
+     *
+     * The frame is split into {@link #TILE_SIZE} tiles and only the tiles in which the intensity
+     * changed (plus a halo of the kernel radius) are recomputed, the outputs of the other tiles
+     * are kept from the previous frames. Only the direct {@link KernelMode#KernelVector2D} kernel
+     * runs incrementally, the other modes (and the FFT) always process the whole frame.
+     *
+     * Changing the kernel size, amplification, storage precision or the requested outputs
+     * recomputes the whole frame once.
+     *
+     * @param incremental    true to only recompute the changed tiles
+     */
+    public void setIncremental(boolean incremental) {
+
+        if(incremental && referenceIntensityBuffer == null) {
+            tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+            dirtyTiles = new byte[tilesX * tilesY];
+            referenceIntensityBuffer = RsUtils.create2d(rs, width, height, Element.F32(rs));
+            changedTilesBuffer = RsUtils.create2d(rs, tilesX, tilesY, Element.U8(rs));
+            dirtyTilesBuffer = RsUtils.create2d(rs, tilesX, tilesY, Element.U8(rs));
+
+            rsEdge.set_referenceIntensityBuffer(referenceIntensityBuffer);
+            rsEdge.set_changedTilesBuffer(changedTilesBuffer);
+            rsEdge.set_tileSize(TILE_SIZE);
+            rsEdge.set_tilesX(tilesX);
+            rsEdge.set_tilesY(tilesY);
+            rsEdge.set_changeThreshold(changeThreshold);
+        }
+
+        if(this.incremental != incremental) {
+            this.incremental = incremental;
+            this.incrementalValid = false;
+        }
+    }
+
+    /**
+     * Set the intensity difference (intensity is [0..1]) from which a tile is changed.
+     *
+     * @param threshold    maximal difference of a pixel which is ignored
+     */
+    public void setChangeThreshold(float threshold) {
+        this.changeThreshold = threshold;
+        rsEdge.set_changeThreshold(threshold);
+    }
+
+    /**
+     * @return  the fraction [0..1] of the tiles which were recomputed by the last incremental frame
+     */
+    public float getRecomputedTileFraction() {
+        return recomputedTileFraction;
+    }
+
+    private void calcEdgesIncremental(Allocation intensityBuffer, EnumSet<EdgeOutput> outputs) {
+
+        boolean valid = incrementalValid
+                && incrementalKernelSize == kernelSize
+                && incrementalScale == scale
+                && incrementalOutputs.equals(outputs);
+
+        // The halo covers the kernel radius, so all outputs which read a changed pixel are recomputed
+        int kernelRadius = (kernelSize - 1) / 2;
+
+        rsEdge.set_intensityBuffer(intensityBuffer);
+        rsEdge.set_forceAllTiles(!valid);
+        rsEdge.set_haloTiles((kernelRadius + TILE_SIZE - 1) / TILE_SIZE);
+        rsEdge.forEach_detectChangedTiles(changedTilesBuffer);
+        rsEdge.forEach_growChangedTiles(dirtyTilesBuffer);
+        rsEdge.forEach_recomputeTiles(dirtyTilesBuffer);
+
+        incrementalValid = true;
+        incrementalKernelSize = kernelSize;
+        incrementalScale = scale;
+        incrementalOutputs = EnumSet.copyOf(outputs);
+
+        // Only the small tile grid is read back
+        dirtyTilesBuffer.copyTo(dirtyTiles);
+        int recomputedTiles = 0;
+        for(byte dirty : dirtyTiles) {
+            if(dirty != 0) {
+                recomputedTiles++;
+            }
+        }
+        recomputedTileFraction = recomputedTiles / (float) dirtyTiles.length;
+    }
+
+    /**
+     * Calculate the requested edge outputs.
+     *
+     * For the direct {@link KernelMode#KernelVector2D} kernel all requested outputs are produced
+     * in a single traversal, so the cartesian vectors are not written and read back again to
+     * convert them. The other modes produce the vectors and convert them in extra passes.
+     *
+     * The outputs are stored in the {@link StoragePrecision} set by {@link #setStoragePrecision}.
+     * See {@link #setIncremental(boolean)} to only recompute the changed parts of static scenes.
+     * The results are available through {@link #getEdgeVectorsBuffer()},
+     * {@link #getEdgePolarVectorsBuffer()} and {@link #getEdgeMagnitudesBuffer()}.
+     *
+     * @param intensityBuffer    2D float intensity buffer to detect edges on
+     * @param outputs            the outputs to produce
+     */
+    public void calcEdges(Allocation intensityBuffer, EnumSet<EdgeOutput> outputs) {
+
+        boolean writeVectors = outputs.contains(EdgeOutput.VECTORS);
+        boolean writePolar = outputs.contains(EdgeOutput.POLAR_VECTORS);
+        boolean writeMagnitude = outputs.contains(EdgeOutput.MAGNITUDES);
+
+        boolean compact = storagePrecision != StoragePrecision.F32;
+
+        rsEdge.set_fusedWriteVectors(writeVectors);
+        rsEdge.set_fusedWritePolar(writePolar);
+        rsEdge.set_fusedWriteMagnitude(writeMagnitude);
+        rsEdge.set_storageRange(scale);
+
+        boolean directKernel = kernelMode == KernelMode.KernelVector2D && kernelSize < fftCrossoverKernelSize;
+
+        if(incremental && directKernel) {
+            calcEdgesIncremental(intensityBuffer, outputs);
+            return;
+        }
+
+        // The outputs are overwritten, so the kept tiles no longer match their references
+        incrementalValid = false;
+
+        if(fusionEnabled && directKernel) {
+            rsEdge.set_intensityBuffer(intensityBuffer);
+
+            if(compact) {
+                // All outputs are side outputs, the intensity buffer only determines the launch size
+                rsEdge.forEach_applyVectorKernelFusedCompact(intensityBuffer);
+            } else if(writeVectors) {
+                rsEdge.forEach_applyVectorKernelFusedVectors(edgeVectorsBuffer);
+            } else if(writePolar) {
+                rsEdge.forEach_applyVectorKernelFusedPolar(edgePolarVectorsBuffer);
+            } else if(writeMagnitude) {
+                rsEdge.forEach_applyVectorKernelFusedMagnitude(edgeMagnitudesBuffer);
+            }
+        } else {
+            Allocation vectors = calcEdgeVectorsF32(intensityBuffer);
+
+            if(compact) {
+                rsEdge.forEach_storeEdgeOutputs(vectors);
+            } else {
+                if(writePolar) {
+                    rsUtils.forEach_toPolar2D(edgeVectorsBuffer, edgePolarVectorsBuffer);
+                }
+                if(writeMagnitude) {
+                    rsUtils.forEach_magnitude2D(edgeVectorsBuffer, edgeMagnitudesBuffer);
+                }
+            }
+        }
     }
 
     /**
@@ -136,8 +694,7 @@ public class EdgeDetection {
      * @return 1D edge magnitudes
      */
     public Allocation calcEdgeMagnitudes(Allocation intensityBuffer) {
-        calcEdgeVectors(intensityBuffer);
-        rsUtils.forEach_magnitude2D(edgeVectorsBuffer, edgeMagnitudesBuffer);
+        calcEdges(intensityBuffer, EnumSet.of(EdgeOutput.MAGNITUDES));
         return edgeMagnitudesBuffer;
     }
 
@@ -148,8 +705,7 @@ public class EdgeDetection {
      * @return 2D (angle, magnitude) polar vectors of the edges.
      */
     public Allocation calcEdgePolarVectors(Allocation intensityBuffer) {
-        calcEdgeVectors(intensityBuffer);
-        rsUtils.forEach_toPolar2D(edgeVectorsBuffer, edgePolarVectorsBuffer);
+        calcEdges(intensityBuffer, EnumSet.of(EdgeOutput.POLAR_VECTORS));
         return edgePolarVectorsBuffer;
     }
 
@@ -160,8 +716,17 @@ public class EdgeDetection {
         return edgeVectorsBuffer;
     }
 
-    public enum KernelMode {
-        KernelVector2D,
-        KernelVector2dSeparable2N
+    /**
+     * @return  the buffer containing the (angle, magnitude) polar vectors
+     */
+    public Allocation getEdgePolarVectorsBuffer() {
+        return edgePolarVectorsBuffer;
+    }
+
+    /**
+     * @return  the buffer containing the edge magnitudes
+     */
+    public Allocation getEdgeMagnitudesBuffer() {
+        return edgeMagnitudesBuffer;
     }
 }
@@ -0,0 +1,11 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+/**
+ * The outputs which can be requested from {@link EdgeDetection#calcEdges} and
+ * {@link JvmEdgeDetection#calcEdges}.
+ */
+public enum EdgeOutput {
+    VECTORS,
+    POLAR_VECTORS,
+    MAGNITUDES
+}
@@ -0,0 +1,121 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+/**
+ * Plain Java version of the load/store helpers in 'edgestorage.rsh'.
+ *
+ * Used to read compact edge buffers which are copied out of an Allocation (as short[]) and to
+ * determine off-device what the compact storage precisions do to the F32 reference output.
+ */
+public class EdgeStorageCodec {
+
+    private static final float I16_MAX = 32767.0f;
+
+    private EdgeStorageCodec() {
+        // Utility class, no instantiation
+    }
+
+    /**
+     * Store and load the given value in the given precision, like a store followed by a load in
+     * RenderScript.
+     *
+     * @param value        the F32 value
+     * @param precision    the storage precision
+     * @param range        range of the value (only used for {@link StoragePrecision#I16_NORMALIZED})
+     * @return  the value as read back from the compact storage
+     */
+    public static float roundTrip(float value, StoragePrecision precision, float range) {
+        switch (precision) {
+            case F16:
+                return halfToFloat(floatToHalf(value));
+            case I16_NORMALIZED:
+                return normalizedToFloat(floatToNormalized(value, range), range);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * @return  the IEEE 754 half precision bits of the value (round to nearest even)
+     */
+    public static short floatToHalf(float value) {
+
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int floatExponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if(floatExponent == 0xff) {
+            // Infinity or NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+
+        int exponent = floatExponent - 127 + 15;
+
+        if(exponent >= 0x1f) {
+            // Too large, becomes infinity
+            return (short) (sign | 0x7c00);
+        }
+
+        if(exponent <= 0) {
+            // Subnormal half (or zero)
+            if(exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if(remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+
+        // A rounding carry into the exponent is correct (up to infinity)
+        int half = (exponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        if(remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * @return  the float value of the given IEEE 754 half precision bits
+     */
+    public static float halfToFloat(short halfBits) {
+
+        int bits = halfBits & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if(exponent == 0) {
+            // Subnormal (or zero): mantissa * 2^-24
+            float value = mantissa / 16777216.0f;
+            return sign != 0 ? -value : value;
+        }
+
+        if(exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * @return  the value normalized to [-range, range] as short (clamped, rounded half away from zero)
+     */
+    public static short floatToNormalized(float value, float range) {
+        float normalized = Math.max(-1.0f, Math.min(1.0f, value / range)) * I16_MAX;
+        return (short) (Math.signum(normalized) * Math.floor(Math.abs(normalized) + 0.5f));
+    }
+
+    /**
+     * @return  the value of a short normalized to [-range, range]
+     */
+    public static float normalizedToFloat(short normalized, float range) {
+        return normalized * range / I16_MAX;
+    }
+}
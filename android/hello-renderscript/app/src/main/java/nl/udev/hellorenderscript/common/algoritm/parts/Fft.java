@@ -0,0 +1,184 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plain Java mixed-radix 1D complex FFT.
+ *
+ * The length is factored into radix 2, 3 and 5 (other prime factors are supported but fall back
+ * to an O(p^2) butterfly). Use {@link #nextFastSize(int)} to pick a length that only contains
+ * the fast factors, most camera resolutions (e.g. 1920, 1080, 1440, 720) already do.
+ *
+ * The transform is decimation-in-time, recursive and out-of-place into a work buffer.
+ * Instances are immutable and can be shared between threads, each thread must use its own
+ * work buffers.
+ */
+public class Fft {
+
+    private final int length;
+    private final int[] factors;
+    private final float[] cosTable;
+    private final float[] sinTable;
+
+    /**
+     * @param length    Length of the transform, preferably from {@link #nextFastSize(int)}
+     */
+    public Fft(int length) {
+        this.length = length;
+        this.factors = factorize(length);
+        this.cosTable = new float[length];
+        this.sinTable = new float[length];
+
+        for(int c = 0; c < length; c++) {
+            double angle = -2.0 * Math.PI * c / length;
+            cosTable[c] = (float) Math.cos(angle);
+            sinTable[c] = (float) Math.sin(angle);
+        }
+    }
+
+    /**
+     * @return  the smallest number >= size which only has the factors 2, 3 and 5
+     */
+    public static int nextFastSize(int size) {
+        int candidate = Math.max(1, size);
+        while(true) {
+            int remainder = candidate;
+            for(int factor : new int[] { 2, 3, 5 }) {
+                while(remainder % factor == 0) {
+                    remainder /= factor;
+                }
+            }
+            if(remainder == 1) {
+                return candidate;
+            }
+            candidate++;
+        }
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * In-place transform of the given complex sequence.
+     *
+     * @param re         Real parts (length entries from offset 0)
+     * @param im         Imaginary parts (length entries from offset 0)
+     * @param workRe     Work buffer of at least length entries
+     * @param workIm     Work buffer of at least length entries
+     * @param inverse    true for the inverse transform (including the 1/length normalization)
+     */
+    public void transform(float[] re, float[] im, float[] workRe, float[] workIm, boolean inverse) {
+
+        transform(re, im, 0, 1, length, workRe, workIm, 0, 0, inverse ? -1 : 1);
+
+        if(inverse) {
+            float normalize = 1.0f / length;
+            for(int c = 0; c < length; c++) {
+                re[c] = workRe[c] * normalize;
+                im[c] = workIm[c] * normalize;
+            }
+        } else {
+            System.arraycopy(workRe, 0, re, 0, length);
+            System.arraycopy(workIm, 0, im, 0, length);
+        }
+    }
+
+    private void transform(float[] inRe, float[] inIm, int inOffset, int stride, int n,
+                           float[] outRe, float[] outIm, int outOffset,
+                           int factorIndex, int sign) {
+
+        if(n == 1) {
+            outRe[outOffset] = inRe[inOffset];
+            outIm[outOffset] = inIm[inOffset];
+            return;
+        }
+
+        int p = factors[factorIndex];
+        int m = n / p;
+
+        // Transform the p decimated sub-sequences of length m
+        for(int q = 0; q < p; q++) {
+            transform(inRe, inIm, inOffset + q * stride, stride * p, m, outRe, outIm, outOffset + q * m, factorIndex + 1, sign);
+        }
+
+        // Combine them using the twiddles: X[k + s*m] = sum(q) W(n)^(q*(k + s*m)) * Y(q)[k]
+        int twiddleStep = length / n;
+
+        if(p == 2) {
+            for(int k = 0; k < m; k++) {
+                int twiddle = twiddleStep * k;
+                float wr = cosTable[twiddle];
+                float wi = sign * sinTable[twiddle];
+
+                int i0 = outOffset + k;
+                int i1 = i0 + m;
+                float tr = outRe[i1] * wr - outIm[i1] * wi;
+                float ti = outRe[i1] * wi + outIm[i1] * wr;
+                outRe[i1] = outRe[i0] - tr;
+                outIm[i1] = outIm[i0] - ti;
+                outRe[i0] += tr;
+                outIm[i0] += ti;
+            }
+            return;
+        }
+
+        float[] tempRe = new float[p];
+        float[] tempIm = new float[p];
+        int butterflyStep = length / p;
+
+        for(int k = 0; k < m; k++) {
+
+            // Gather the twiddled inputs
+            for(int q = 0; q < p; q++) {
+                int index = outOffset + q * m + k;
+                int twiddle = twiddleStep * q * k;
+                float wr = cosTable[twiddle];
+                float wi = sign * sinTable[twiddle];
+                tempRe[q] = outRe[index] * wr - outIm[index] * wi;
+                tempIm[q] = outRe[index] * wi + outIm[index] * wr;
+            }
+
+            // Small DFT of size p
+            for(int s = 0; s < p; s++) {
+                float sumRe = 0;
+                float sumIm = 0;
+                for(int q = 0; q < p; q++) {
+                    int twiddle = butterflyStep * ((q * s) % p);
+                    float wr = cosTable[twiddle];
+                    float wi = sign * sinTable[twiddle];
+                    sumRe += tempRe[q] * wr - tempIm[q] * wi;
+                    sumIm += tempRe[q] * wi + tempIm[q] * wr;
+                }
+                outRe[outOffset + s * m + k] = sumRe;
+                outIm[outOffset + s * m + k] = sumIm;
+            }
+        }
+    }
+
+    private static int[] factorize(int length) {
+        List<Integer> factorList = new ArrayList<>();
+        int remainder = length;
+
+        for(int factor : new int[] { 2, 3, 5 }) {
+            while(remainder % factor == 0) {
+                factorList.add(factor);
+                remainder /= factor;
+            }
+        }
+
+        for(int factor = 7; remainder > 1; factor += 2) {
+            while(remainder % factor == 0) {
+                factorList.add(factor);
+                remainder /= factor;
+            }
+        }
+
+        int[] result = new int[factorList.size()];
+        for(int c = 0; c < result.length; c++) {
+            result[c] = factorList.get(c);
+        }
+        return result;
+    }
+}
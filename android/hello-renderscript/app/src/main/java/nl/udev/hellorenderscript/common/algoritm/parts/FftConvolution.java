@@ -0,0 +1,358 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * FFT based application of the weighted angular vector kernel for large kernel sizes.
+ *
+ * The direct kernel ('applyVectorKernel' in edgedetection.rs) costs kernelSize^2 reads per pixel,
+ * this engine costs O(log(width * height)) per pixel independent of the kernel size.
+ *
+ * Tricks used:
+ * - The X and Y kernel components are both real, so they are combined into one complex kernel
+ *   (X + iY). One inverse transform then yields the X result in the real part and the Y result
+ *   in the imaginary part.
+ * - The intensity is real, so the forward row transforms pack two rows into one complex row and
+ *   only the non-redundant half of the columns is transformed (real-to-complex).
+ * - The kernel spectra are cached per (kernelSize, width, height) and shared between instances,
+ *   so a new frame or parameter change back to a known size only pays the image transforms.
+ *   A spectrum is 8 bytes per transform point (about 16 MB at 1080p), so the cache is bounded
+ *   by {@link #MAX_CACHED_SPECTRUM_BYTES} and {@link #release()} drops the spectra of a resolution.
+ *
+ * Only the pixels where the kernel fits the image are calculated (the others are 0, exactly
+ * like the RenderScript kernel), so no padding against circular wrap-around is needed and the
+ * transform size is simply the next 2/3/5-smooth size of the image.
+ */
+public class FftConvolution {
+
+    private static final int MAX_CACHED_SPECTRA = 4;
+
+    /**
+     * Bytes the cached spectra may use together, the most recently used spectrum is always kept.
+     */
+    public static final long MAX_CACHED_SPECTRUM_BYTES = 24L * 1024 * 1024;
+
+    // Access ordered, so the eldest entry is the least recently used spectrum
+    private static final Map<String, KernelSpectrum> spectrumCache = new LinkedHashMap<>(MAX_CACHED_SPECTRA, 0.75f, true);
+    private static long cachedSpectrumBytes;
+
+    private final ForkJoinPool pool;
+    private final int width;
+    private final int height;
+    private final int fftWidth;
+    private final int fftHeight;
+    private final Fft rowFft;
+    private final Fft columnFft;
+
+    // Spectrum of the current image, (fftWidth x fftHeight) row-major
+    private final float[] spectrumRe;
+    private final float[] spectrumIm;
+
+    /**
+     * @param pool      Pool to run the row and column transforms on
+     * @param width     Width of the intensity images
+     * @param height    Height of the intensity images
+     */
+    public FftConvolution(ForkJoinPool pool, int width, int height) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.fftWidth = Fft.nextFastSize(width);
+        this.fftHeight = Fft.nextFastSize(height);
+        this.rowFft = new Fft(fftWidth);
+        this.columnFft = new Fft(fftHeight);
+        this.spectrumRe = new float[fftWidth * fftHeight];
+        this.spectrumIm = new float[fftWidth * fftHeight];
+    }
+
+    /**
+     * Apply the weighted angular vector kernel of the given size.
+     *
+     * @param intensityBuffer    width x height intensities
+     * @param kernelSize         size of the kernel (odd)
+     * @param factor             factor applied on the result (scale / totalKernelWeight)
+     * @param edgeVectorsBuffer  width x height x (x, y) destination
+     */
+    public void applyVectorKernel(float[] intensityBuffer, int kernelSize, float factor, float[] edgeVectorsBuffer) {
+        KernelSpectrum kernelSpectrum = getKernelSpectrum(kernelSize);
+        forwardRealTransform(intensityBuffer);
+        multiply(kernelSpectrum);
+        inverseTransform(kernelSpectrum.kernelSize / 2, factor, edgeVectorsBuffer);
+    }
+
+    /**
+     * @return  Bytes of memory used by the transform buffers of this instance (excluding the shared spectra)
+     */
+    public long getBufferBytes() {
+        return 2L * 4 * fftWidth * fftHeight;
+    }
+
+    /**
+     * Get the (cached) spectrum of the combined X + iY kernel for the resolution of this instance.
+     */
+    KernelSpectrum getKernelSpectrum(int kernelSize) {
+        String key = kernelSize + ":" + width + "x" + height;
+
+        synchronized (spectrumCache) {
+            KernelSpectrum kernelSpectrum = spectrumCache.get(key);
+            if(kernelSpectrum == null) {
+                kernelSpectrum = createKernelSpectrum(kernelSize);
+                spectrumCache.put(key, kernelSpectrum);
+                cachedSpectrumBytes += kernelSpectrum.getBytes();
+                evictSpectra();
+            }
+            return kernelSpectrum;
+        }
+    }
+
+    /**
+     * Drop the least recently used spectra until the cache is within its bounds.
+     */
+    private static void evictSpectra() {
+        Iterator<KernelSpectrum> iterator = spectrumCache.values().iterator();
+        while(spectrumCache.size() > 1
+                && (spectrumCache.size() > MAX_CACHED_SPECTRA || cachedSpectrumBytes > MAX_CACHED_SPECTRUM_BYTES)) {
+            cachedSpectrumBytes -= iterator.next().getBytes();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drop the cached spectra of the resolution of this instance, call this when the instance is
+     * no longer used (other instances of the same resolution recreate them on demand).
+     */
+    public void release() {
+        String resolution = ":" + width + "x" + height;
+
+        synchronized (spectrumCache) {
+            Iterator<Map.Entry<String, KernelSpectrum>> iterator = spectrumCache.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<String, KernelSpectrum> entry = iterator.next();
+                if(entry.getKey().endsWith(resolution)) {
+                    cachedSpectrumBytes -= entry.getValue().getBytes();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return  Bytes of memory used by the cached spectra of all instances
+     */
+    public static long getCachedSpectrumBytes() {
+        synchronized (spectrumCache) {
+            return cachedSpectrumBytes;
+        }
+    }
+
+    private KernelSpectrum createKernelSpectrum(int kernelSize) {
+
+        float[] kernelBuffer = KernelBank.getInstance().getWeightedAngularVectorKernel(kernelSize).getEntries();
+        int radius = kernelSize / 2;
+
+        final KernelSpectrum kernelSpectrum = new KernelSpectrum(kernelSize, fftWidth * fftHeight);
+
+        // The RenderScript kernel is a correlation: out(p) = sum(d) K(d) * I(p + d).
+        // As a convolution the kernel must be mirrored: h(-d) = K(d), wrapped around (0, 0).
+        for(int ky = 0; ky < kernelSize; ky++) {
+            for(int kx = 0; kx < kernelSize; kx++) {
+                int kernelIndex = (ky * kernelSize + kx) * 4;
+                int fx = ((radius - kx) % fftWidth + fftWidth) % fftWidth;
+                int fy = ((radius - ky) % fftHeight + fftHeight) % fftHeight;
+                kernelSpectrum.re[fy * fftWidth + fx] += kernelBuffer[kernelIndex] * kernelBuffer[kernelIndex + 2];
+                kernelSpectrum.im[fy * fftWidth + fx] += kernelBuffer[kernelIndex + 1] * kernelBuffer[kernelIndex + 2];
+            }
+        }
+
+        // Full complex 2D transform (this is only done once per cached spectrum)
+        RowBands.forEach(pool, fftHeight, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                float[] rowRe = new float[fftWidth];
+                float[] rowIm = new float[fftWidth];
+                float[] workRe = new float[fftWidth];
+                float[] workIm = new float[fftWidth];
+                for(int y = startRow; y < endRow; y++) {
+                    System.arraycopy(kernelSpectrum.re, y * fftWidth, rowRe, 0, fftWidth);
+                    System.arraycopy(kernelSpectrum.im, y * fftWidth, rowIm, 0, fftWidth);
+                    rowFft.transform(rowRe, rowIm, workRe, workIm, false);
+                    System.arraycopy(rowRe, 0, kernelSpectrum.re, y * fftWidth, fftWidth);
+                    System.arraycopy(rowIm, 0, kernelSpectrum.im, y * fftWidth, fftWidth);
+                }
+            }
+        });
+        transformColumns(kernelSpectrum.re, kernelSpectrum.im, fftWidth, false);
+
+        return kernelSpectrum;
+    }
+
+    private void forwardRealTransform(final float[] intensityBuffer) {
+
+        // Rows: two real rows (a, b) are transformed as one complex row z = a + ib
+        int rowPairs = (fftHeight + 1) / 2;
+        RowBands.forEach(pool, rowPairs, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startPair, int endPair) {
+                float[] rowRe = new float[fftWidth];
+                float[] rowIm = new float[fftWidth];
+                float[] workRe = new float[fftWidth];
+                float[] workIm = new float[fftWidth];
+
+                for(int pair = startPair; pair < endPair; pair++) {
+                    int rowA = pair * 2;
+                    int rowB = rowA + 1;
+
+                    Arrays.fill(rowRe, 0);
+                    Arrays.fill(rowIm, 0);
+                    if(rowA < height) {
+                        System.arraycopy(intensityBuffer, rowA * width, rowRe, 0, width);
+                    }
+                    if(rowB < height) {
+                        System.arraycopy(intensityBuffer, rowB * width, rowIm, 0, width);
+                    }
+
+                    rowFft.transform(rowRe, rowIm, workRe, workIm, false);
+
+                    // Untangle: A[k] = (Z[k] + conj(Z[-k])) / 2, B[k] = (Z[k] - conj(Z[-k])) / 2i
+                    int offsetA = rowA * fftWidth;
+                    int offsetB = rowB * fftWidth;
+                    for(int k = 0; k < fftWidth; k++) {
+                        int mirror = k == 0 ? 0 : fftWidth - k;
+                        float zr = rowRe[k];
+                        float zi = rowIm[k];
+                        float mr = rowRe[mirror];
+                        float mi = rowIm[mirror];
+
+                        spectrumRe[offsetA + k] = (zr + mr) * 0.5f;
+                        spectrumIm[offsetA + k] = (zi - mi) * 0.5f;
+                        if(rowB < fftHeight) {
+                            spectrumRe[offsetB + k] = (zi + mi) * 0.5f;
+                            spectrumIm[offsetB + k] = (mr - zr) * 0.5f;
+                        }
+                    }
+                }
+            }
+        });
+
+        // Columns: only the non-redundant half, the rest follows from F(u, v) = conj(F(-u, -v))
+        int halfColumns = fftWidth / 2 + 1;
+        transformColumns(spectrumRe, spectrumIm, halfColumns, false);
+
+        RowBands.forEach(pool, fftHeight, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int v = startRow; v < endRow; v++) {
+                    int mirrorRow = v == 0 ? 0 : fftHeight - v;
+                    for(int u = fftWidth / 2 + 1; u < fftWidth; u++) {
+                        int mirrorIndex = mirrorRow * fftWidth + (fftWidth - u);
+                        spectrumRe[v * fftWidth + u] = spectrumRe[mirrorIndex];
+                        spectrumIm[v * fftWidth + u] = -spectrumIm[mirrorIndex];
+                    }
+                }
+            }
+        });
+    }
+
+    private void multiply(final KernelSpectrum kernelSpectrum) {
+        RowBands.forEach(pool, fftHeight, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int i = startRow * fftWidth; i < endRow * fftWidth; i++) {
+                    float ar = spectrumRe[i];
+                    float ai = spectrumIm[i];
+                    float br = kernelSpectrum.re[i];
+                    float bi = kernelSpectrum.im[i];
+                    spectrumRe[i] = ar * br - ai * bi;
+                    spectrumIm[i] = ar * bi + ai * br;
+                }
+            }
+        });
+    }
+
+    private void inverseTransform(final int radius, final float factor, final float[] edgeVectorsBuffer) {
+
+        transformColumns(spectrumRe, spectrumIm, fftWidth, true);
+
+        // Only the rows of the image are needed, the real part is X and the imaginary part is Y
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                float[] rowRe = new float[fftWidth];
+                float[] rowIm = new float[fftWidth];
+                float[] workRe = new float[fftWidth];
+                float[] workIm = new float[fftWidth];
+
+                for(int y = startRow; y < endRow; y++) {
+                    int outIndex = y * width * 2;
+                    boolean rowInside = y >= radius && y < height - radius;
+
+                    if(rowInside) {
+                        System.arraycopy(spectrumRe, y * fftWidth, rowRe, 0, fftWidth);
+                        System.arraycopy(spectrumIm, y * fftWidth, rowIm, 0, fftWidth);
+                        rowFft.transform(rowRe, rowIm, workRe, workIm, true);
+                    }
+
+                    for(int x = 0; x < width; x++) {
+                        if(rowInside && x >= radius && x < width - radius) {
+                            edgeVectorsBuffer[outIndex++] = rowRe[x] * factor;
+                            edgeVectorsBuffer[outIndex++] = rowIm[x] * factor;
+                        } else {
+                            edgeVectorsBuffer[outIndex++] = 0;
+                            edgeVectorsBuffer[outIndex++] = 0;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Transform the columns [0, columnCount) in place.
+     */
+    private void transformColumns(final float[] re, final float[] im, int columnCount, final boolean inverse) {
+        RowBands.forEach(pool, columnCount, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int start, int end) {
+                float[] columnRe = new float[fftHeight];
+                float[] columnIm = new float[fftHeight];
+                float[] workRe = new float[fftHeight];
+                float[] workIm = new float[fftHeight];
+
+                for(int u = start; u < end; u++) {
+                    for(int v = 0; v < fftHeight; v++) {
+                        columnRe[v] = re[v * fftWidth + u];
+                        columnIm[v] = im[v * fftWidth + u];
+                    }
+                    columnFft.transform(columnRe, columnIm, workRe, workIm, inverse);
+                    for(int v = 0; v < fftHeight; v++) {
+                        re[v * fftWidth + u] = columnRe[v];
+                        im[v * fftWidth + u] = columnIm[v];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Spectrum of the combined (X + iY) weighted angular vector kernel.
+     */
+    static class KernelSpectrum {
+        final int kernelSize;
+        final float[] re;
+        final float[] im;
+
+        KernelSpectrum(int kernelSize, int size) {
+            this.kernelSize = kernelSize;
+            this.re = new float[size];
+            this.im = new float[size];
+        }
+
+        long getBytes() {
+            return 4L * (re.length + im.length);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Fixed size history of frames, without copying frames.
+ *
+ * The ring owns its frame buffers and only moves references:
+ *
+ * - a producer writes the next frame directly into {@link #getNextFrame()} (the buffer of the
+ *   oldest frame) and calls {@link #advance()}, or
+ * - a producer hands over a filled buffer with {@link #swapIn(Object)} and gets the buffer of
+ *   the oldest frame back to fill next time.
+ *
+ * Frames are accessed by temporal index (0 is the oldest frame) or by age (0 is the newest).
+ * {@link #reset()} forgets the history without touching the buffers, consumers check
+ * {@link #isFilled(int)} instead of clearing every buffer.
+ *
+ * The frame type is generic, e.g. an Allocation for RenderScript pipelines or a float[].
+ * The owner of the ring destroys the buffers, iterating the ring gives all of them.
+ */
+public class FrameRing<T> implements Iterable<T> {
+
+    private final List<T> frames;
+    private int newestIndex;
+    private int filledCount;
+
+    /**
+     * @param frames    the frame buffers, the ring takes ownership of them
+     */
+    public FrameRing(List<T> frames) {
+        if(frames.isEmpty()) {
+            throw new IllegalArgumentException("A frame ring needs at least one frame");
+        }
+        this.frames = new ArrayList<>(frames);
+        this.newestIndex = frames.size() - 1;
+        this.filledCount = 0;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * @return  number of frames added since creation or the last reset, at most the size
+     */
+    public int getFilledCount() {
+        return filledCount;
+    }
+
+    /**
+     * @return  true if the frame of the given age was added after creation or the last reset
+     */
+    public boolean isFilled(int age) {
+        return age >= 0 && age < filledCount;
+    }
+
+    /**
+     * Forget all frames, the buffers keep their content.
+     */
+    public void reset() {
+        filledCount = 0;
+    }
+
+    /**
+     * @return  the buffer that becomes the newest frame at the next {@link #advance()}, this is
+     *          the buffer of the oldest frame
+     */
+    public T getNextFrame() {
+        return frames.get((newestIndex + 1) % frames.size());
+    }
+
+    /**
+     * Move the ring one frame ahead, the oldest frame is dropped.
+     *
+     * @return  the buffer of the new newest frame (the former oldest frame, until written)
+     */
+    public T advance() {
+        newestIndex = (newestIndex + 1) % frames.size();
+        filledCount = Math.min(filledCount + 1, frames.size());
+        return frames.get(newestIndex);
+    }
+
+    /**
+     * Add a frame by reference, the ring takes ownership of it.
+     *
+     * @param frame     the new newest frame, same size as the other frames
+     * @return  the buffer of the dropped oldest frame, now owned by the caller
+     */
+    public T swapIn(T frame) {
+        T oldest = getNextFrame();
+        int index = (newestIndex + 1) % frames.size();
+        frames.set(index, frame);
+        advance();
+        return oldest;
+    }
+
+    /**
+     * @param age   0 for the newest frame, size - 1 for the oldest
+     */
+    public T getNewest(int age) {
+        if(age < 0 || age >= frames.size()) {
+            throw new IndexOutOfBoundsException("Age " + age + " not in ring of " + frames.size());
+        }
+        return frames.get((newestIndex - age + frames.size()) % frames.size());
+    }
+
+    /**
+     * @param temporalIndex     0 for the oldest frame, size - 1 for the newest
+     */
+    public T get(int temporalIndex) {
+        return getNewest(frames.size() - 1 - temporalIndex);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return Collections.unmodifiableList(frames).iterator();
+    }
+}
@@ -1,8 +1,11 @@
 package nl.udev.hellorenderscript.common.algoritm.parts;
 
 import android.renderscript.Allocation;
+import android.renderscript.AllocationAdapter;
 import android.renderscript.Element;
 import android.renderscript.RenderScript;
+import android.renderscript.Script;
+import android.renderscript.Type;
 import android.util.Log;
 
 import java.util.ArrayList;
@@ -22,19 +25,37 @@ import nl.udev.hellorenderscript.video.ScriptC_pyramid;
  * Level 1    XXXX      176x144
  * Level 0  XXXXXXXX    352x288
  *
+ * Odd sizes are rounded up, pixel (x, y) of a level is at pixel (2x, 2y) of the level below:
+ *
+ * 1440x1080 -> 720x540 -> 360x270 -> 180x135 -> 90x68 -> 45x34 -> 23x17 -> 12x9 -> 6x5 -> 3x3
+ *
  * COMPRESSION:
  * To generate different levels, each time a lower level is sampled using a Gaussian kernel.
  *
  * EXPANSION:
  * A level can also be expanded to the next lower level, also using a Gaussian kernel.
+ * The expanded buffer has the size of the next lower level.
  *
  * KERNEL:
  * The sampling kernels ensure that each pixel contributes the same weight in the next level.
+ * Both separable directions of a kernel are applied in a single pass, so no intermediate
+ * buffer is needed per level: the kernels run once per column and keep the rows filtered along
+ * X in a small ring while walking down the column (see 'pyramid.rs').
  *
  *
  * LAPLACIAN pyramid
  * This pyramid also supports generating the laplacian pyramid for each level.
  *
+ * LAZY EVALUATION:
+ * {@link #calculate(Allocation)} only sets the source image of a new frame. The buffers of a
+ * level are calculated when they are requested through the {@link Level} getters, together with
+ * the buffers they depend on. Results are cached until the next calculate, so showing a single
+ * level only costs the compress steps up to that level:
+ *
+ * gaussian(n)      = COMPRESS(gaussian(n - 1)), gaussian(0) is the source image
+ * expanded(n)      = EXPAND(gaussian(n))
+ * laplacian(n)     = gaussian(n) - expanded(n + 1), or gaussian(n) for the smallest level
+ *
  *
  * Created by ben on 11-3-16.
  */
@@ -48,11 +69,19 @@ public class ImagePyramid {
     private int width;
     private int height;
     private int actualLevelCount;
-
+    private int generation;
+    private Layout layout;
+    private MipChainLayout mipChain;
+    private Allocation chainBuffer;
 
     public ImagePyramid(RenderScript rs, int width, int height, int levelCount) {
+        this(rs, width, height, levelCount, Layout.PER_LEVEL);
+    }
+
+    public ImagePyramid(RenderScript rs, int width, int height, int levelCount, Layout layout) {
         this.rs = rs;
         this.rsPyramid = new ScriptC_pyramid(rs);
+        this.layout = layout;
 
         resizePyramid(width, height, levelCount);
     }
@@ -66,6 +95,27 @@ public class ImagePyramid {
 
     }
 
+    /**
+     * Change the memory layout of the level buffers (if changed), this recreates the buffers.
+     */
+    public void setLayout(Layout newLayout) {
+        if(layout != newLayout) {
+            layout = newLayout;
+            resizePyramid(width, height, actualLevelCount);
+        }
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return  comparison of the memory use of the per level and packed layout for this pyramid
+     */
+    public String getMemoryReport() {
+        return mipChain.getMemoryReport(Element.F32(rs).getBytesSize());
+    }
+
     public int getActualLevelCount() {
         return actualLevelCount;
     }
@@ -87,22 +137,23 @@ public class ImagePyramid {
 
         switch (plotType) {
             case LAPLACIAN:
-                rsPyramid.set_pyramidImage(plotLevel.levelLaplacianBuffer);
+                rsPyramid.set_pyramidImage(plotLevel.getLevelLaplacianBuffer());
                 rsPyramid.set_pyramidWidth(plotLevel.width);
                 rsPyramid.set_pyramidHeight(plotLevel.height);
                 rsPyramid.forEach_plotPyramidLevelLaplacian(rgbaDestination);
                 break;
             case LEVEL:
-                rsPyramid.set_pyramidImage(plotLevel.levelGaussianBuffer);
+                rsPyramid.set_pyramidImage(plotLevel.getLevelGaussianBuffer());
                 rsPyramid.set_pyramidWidth(plotLevel.width);
                 rsPyramid.set_pyramidHeight(plotLevel.height);
                 rsPyramid.forEach_plotPyramidLevel(rgbaDestination);
                 break;
             case LEVEL_EXPANDED:
                 if(plotLevel.expandedBuffer != null) {
-                    rsPyramid.set_pyramidImage(plotLevel.expandedBuffer);
-                    rsPyramid.set_pyramidWidth(plotLevel.width * 2);
-                    rsPyramid.set_pyramidHeight(plotLevel.height * 2);
+                    rsPyramid.set_pyramidImage(plotLevel.getExpandedBuffer());
+                    Level largerLevel = levels.get(levelNumber - 1);
+                    rsPyramid.set_pyramidWidth(largerLevel.width);
+                    rsPyramid.set_pyramidHeight(largerLevel.height);
                     rsPyramid.forEach_plotPyramidLevel(rgbaDestination);
                 }
                 break;
@@ -110,56 +161,131 @@ public class ImagePyramid {
     }
 
     /**
-     * Calculates:
+     * Start a new frame with the given source image.
+     *
+     * Nothing is calculated yet, the levels are calculated when requested:
      * 1. Higher levels using COMPRESS
      * 2. EXPANDED version of levels
      * 3. Laplacian (delta of level and expanded higher level)
      */
     public void calculate(Allocation sourceIntensityBuffer) {
 
+        // New generation, all cached level buffers are outdated
+        generation++;
+
         // Set level0 to the original image
         Level level0 = levels.get(0);
         level0.setLevelGaussianBuffer(sourceIntensityBuffer);
+        level0.gaussianGeneration = generation;
+    }
 
-        // Calculate the smaller levels
-        for(int level = 1; level < levels.size(); level++) {
-
-            // Set the source to compress
-            rsPyramid.set_compressSource(levels.get(level - 1).getLevelGaussianBuffer());
-
-            // Set destination to calculate now
-            Level currentLevel = levels.get(level);
-
-            // COMPRESS
-            rsPyramid.set_compressTargetWidth(currentLevel.width);
-            rsPyramid.set_compressTargetHeight(currentLevel.height);
-            rsPyramid.forEach_compressStep1(currentLevel.scratchBuffer);
-            rsPyramid.set_compressSource(currentLevel.scratchBuffer);
-            rsPyramid.forEach_compressStep2(currentLevel.levelGaussianBuffer);
-
-            // EXPAND
-            rsPyramid.set_expandTargetWidth(currentLevel.width * 2);
-            rsPyramid.set_expandTargetHeight(currentLevel.height * 2);
-            rsPyramid.set_expandSource(currentLevel.levelGaussianBuffer);
-            rsPyramid.forEach_expandStep1(currentLevel.scratchBuffer);
-            rsPyramid.set_expandSource(currentLevel.scratchBuffer);
-            rsPyramid.forEach_expandStep2(currentLevel.expandedBuffer);
+    private void updateGaussian(Level currentLevel) {
+        if(currentLevel.level == 0 || currentLevel.gaussianGeneration == generation) {
+            return;
         }
 
-        // LAPLACIANS
+        // Set the source to compress
+        Level largerLevel = levels.get(currentLevel.level - 1);
+        updateGaussian(largerLevel);
+        rsPyramid.set_compressSource(largerLevel.levelGaussianBuffer);
 
-        // Lowest level is simply the gaussian buffer
-        int lowestLevelIndex = levels.size() - 1;
-        Level lowestLevel = levels.get(lowestLevelIndex);
-        lowestLevel.levelLaplacianBuffer.copyFrom(lowestLevel.levelGaussianBuffer);
+        // COMPRESS
+        rsPyramid.set_compressSourceWidth(largerLevel.width);
+        rsPyramid.set_compressSourceHeight(largerLevel.height);
+        rsPyramid.set_compressTarget(currentLevel.levelGaussianBuffer);
+        rsPyramid.set_compressTargetHeight(currentLevel.height);
+        rsPyramid.forEach_compressColumn(currentLevel.levelGaussianBuffer, columnLaunch(currentLevel.width));
 
-        // Other levels stack, working from smallest to biggest
-        for(int level = lowestLevelIndex - 1; level >= 0; level--) {
-            Level targetLevel = levels.get(level);
-            Level smallerLevel = levels.get(level + 1);
+        currentLevel.gaussianGeneration = generation;
+    }
+
+    private void updateExpanded(Level currentLevel) {
+        if(currentLevel.level == 0 || currentLevel.expandedGeneration == generation) {
+            return;
+        }
+
+        updateGaussian(currentLevel);
+
+        // EXPAND
+        expand(currentLevel);
+
+        currentLevel.expandedGeneration = generation;
+    }
+
+    /**
+     * Expand the gaussian buffer of the given level into its expanded buffer, which has the size
+     * of the next larger level.
+     */
+    private void expand(Level smallerLevel) {
+        Level largerLevel = levels.get(smallerLevel.level - 1);
+        rsPyramid.set_expandSourceWidth(smallerLevel.width);
+        rsPyramid.set_expandSourceHeight(smallerLevel.height);
+        rsPyramid.set_expandSource(smallerLevel.levelGaussianBuffer);
+        rsPyramid.set_expandTarget(smallerLevel.expandedBuffer);
+        rsPyramid.set_expandTargetHeight(largerLevel.height);
+        rsPyramid.forEach_expandColumn(smallerLevel.expandedBuffer, columnLaunch(largerLevel.width));
+    }
+
+    /**
+     * The column kernels are launched over row 0 of their target only, they walk down the
+     * columns themselves.
+     */
+    private static Script.LaunchOptions columnLaunch(int width) {
+        return new Script.LaunchOptions().setX(0, width).setY(0, 1);
+    }
+
+    private void updateLaplacian(Level targetLevel) {
+        if(targetLevel.laplacianGeneration == generation) {
+            return;
+        }
+
+        updateGaussian(targetLevel);
+
+        if(targetLevel.level == levels.size() - 1) {
+            // Lowest level is simply the gaussian buffer
+            rsPyramid.forEach_copyLevel(targetLevel.levelGaussianBuffer, targetLevel.levelLaplacianBuffer);
+        } else {
+            Level smallerLevel = levels.get(targetLevel.level + 1);
+            updateExpanded(smallerLevel);
             rsPyramid.set_laplacianLowerLevel(smallerLevel.expandedBuffer);
             rsPyramid.forEach_laplacian(targetLevel.levelGaussianBuffer, targetLevel.levelLaplacianBuffer);
         }
+
+        targetLevel.laplacianGeneration = generation;
+    }
+
+    /**
+     * Copy the laplacian of each level out of the pyramid, e.g. for {@link LaplacianPyramidCodec}.
+     *
+     * @return  laplacian of each level, level 0 first
+     */
+    public float[][] copyLaplacians() {
+        float[][] laplacians = new float[levels.size()][];
+        for(Level level : levels) {
+            laplacians[level.level] = new float[level.width * level.height];
+            level.getLevelLaplacianBuffer().copyTo(laplacians[level.level]);
+        }
+        return laplacians;
+    }
+
+    /**
+     * Start a new frame from laplacian levels (e.g. decoded by {@link LaplacianPyramidCodec})
+     * instead of a source image, followed by {@link #collapseLaplacian()} to reconstruct it.
+     *
+     * @param laplacians      laplacian of each level, level 0 first
+     * @param targetBuffer    level 0 buffer which receives the reconstructed image
+     */
+    public void loadLaplacians(float[][] laplacians, Allocation targetBuffer) {
+        if(laplacians.length != levels.size()) {
+            throw new IllegalArgumentException("Pyramid has " + levels.size() + " levels, not " + laplacians.length);
+        }
+
+        calculate(targetBuffer);
+
+        for(Level level : levels) {
+            level.levelLaplacianBuffer.copyFrom(laplacians[level.level]);
+            level.laplacianGeneration = generation;
+        }
     }
 
     /**
@@ -169,10 +295,15 @@ public class ImagePyramid {
      */
     public void collapseLaplacian() {
 
+        // All laplacians are needed before their gaussian buffers are overwritten
+        for(Level level : levels) {
+            updateLaplacian(level);
+        }
+
         // Lowest level
         int lowestLevelIndex = levels.size() - 1;
         Level lowestLevel = levels.get(lowestLevelIndex);
-        lowestLevel.levelGaussianBuffer.copyFrom(lowestLevel.levelLaplacianBuffer);
+        rsPyramid.forEach_copyLevel(lowestLevel.levelLaplacianBuffer, lowestLevel.levelGaussianBuffer);
 
         // Compute all levels by expanding the combined laplacian levels
         // Levels 0 1 2
@@ -184,18 +315,19 @@ public class ImagePyramid {
 
             // EXPAND the buffer of the previous level (this is the overwritten gaussian buffer)
             Level smallerLevel = levels.get(level + 1);
-            rsPyramid.set_expandTargetWidth(smallerLevel.width * 2);
-            rsPyramid.set_expandTargetHeight(smallerLevel.height * 2);
-            rsPyramid.set_expandSource(smallerLevel.levelGaussianBuffer);
-            rsPyramid.forEach_expandStep1(smallerLevel.scratchBuffer);
-            rsPyramid.set_expandSource(smallerLevel.scratchBuffer);
-            rsPyramid.forEach_expandStep2(smallerLevel.expandedBuffer);
+            expand(smallerLevel);
 
             // Now add the laplacian of the current level to the expanded previous level
             Level targetLevel = levels.get(level);
             rsPyramid.set_collapseLevel(smallerLevel.expandedBuffer);
             rsPyramid.forEach_collapse(targetLevel.levelLaplacianBuffer, targetLevel.levelGaussianBuffer);
         }
+
+        // The overwritten buffers are the results of this generation now (as before lazy evaluation)
+        for(Level level : levels) {
+            level.gaussianGeneration = generation;
+            level.expandedGeneration = generation;
+        }
     }
 
     /**
@@ -212,44 +344,65 @@ public class ImagePyramid {
     private int
     createPyramidLevelBuffers(int desiredLevelCount) {
         // Try to build a pyramid with the given number of levels.
-        // Note that this will only succeed if the resolution divides in whole numbers all the way.
+        // Odd sizes are rounded up, so this only stops when a level cannot get any smaller.
+        mipChain = new MipChainLayout(width, height, desiredLevelCount);
+
+        if(layout == Layout.PACKED) {
+            chainBuffer = RsUtils.create2d(rs, mipChain.getChainWidth(), mipChain.getChainHeight(), Element.F32(rs));
+        }
 
         // Insert level 0...
-        levels.add(new Level(0, width, height, null, RsUtils.create2d(rs, width, height, Element.F32(rs)), null, null));
-
-        int levelCount = 0;
-        int levelWidth = width;
-        int levelHeight = height;
-        for(int levelNumber = 1; levelNumber <= desiredLevelCount; levelNumber++) {
-
-            // Only create the level if it can be 50% size and stay integer
-            if(levelWidth % 2 == 0 && levelHeight % 2 == 0) {
-                levelWidth /= 2;
-                levelHeight /= 2;
-                levels.add(
-                        new Level(
-                                levelNumber,
-                                levelWidth,
-                                levelHeight,
-                                RsUtils.create2d(rs, levelWidth, levelHeight, Element.F32(rs)),
-                                RsUtils.create2d(rs, levelWidth, levelHeight, Element.F32(rs)),
-                                RsUtils.create2d(rs, levelWidth * 2, levelHeight * 2, Element.F32(rs)),
-                                RsUtils.create2d(rs, levelWidth, levelHeight * 2, Element.F32(rs))
-                        )
-                );
-
-                Log.d(TAG, "Created level " + levelNumber + ", size " + levelWidth + "x" + levelHeight + ".");
-                levelCount++;
-            } else {
-                // Unable to create all pyramids
-                Log.w(TAG, "Cannot finish pyramid at level " + levelNumber + ", size now " + levelWidth + "x" + levelHeight + ".");
-                break;
-            }
+        levels.add(new Level(this, 0, width, height, null, createPlaneBuffer(MipChainLayout.Plane.LAPLACIAN, 0), null));
+
+        for(int levelNumber = 1; levelNumber < mipChain.getLevelCount(); levelNumber++) {
+            int levelWidth = mipChain.getLevelWidth(levelNumber);
+            int levelHeight = mipChain.getLevelHeight(levelNumber);
+            levels.add(
+                    new Level(
+                            this,
+                            levelNumber,
+                            levelWidth,
+                            levelHeight,
+                            createPlaneBuffer(MipChainLayout.Plane.GAUSSIAN, levelNumber),
+                            createPlaneBuffer(MipChainLayout.Plane.LAPLACIAN, levelNumber),
+                            createPlaneBuffer(MipChainLayout.Plane.EXPANDED, levelNumber)
+                    )
+            );
+
+            Log.d(TAG, "Created level " + levelNumber + ", size " + levelWidth + "x" + levelHeight + ".");
+        }
+
+        int levelCount = mipChain.getLevelCount() - 1;
+        if(levelCount < desiredLevelCount) {
+            // Unable to create all pyramids
+            Log.w(TAG, "Cannot finish pyramid at level " + (levelCount + 1) + ", size now "
+                    + mipChain.getLevelWidth(levelCount) + "x" + mipChain.getLevelHeight(levelCount) + ".");
         }
 
+        Log.i(TAG, layout + " layout, " + getMemoryReport());
         return levelCount;
     }
 
+    /**
+     * Create the buffer of a plane: its own allocation or a window in the mip-chain.
+     */
+    private Allocation createPlaneBuffer(MipChainLayout.Plane plane, int level) {
+        int planeWidth = mipChain.getPlaneWidth(plane, level);
+        int planeHeight = mipChain.getPlaneHeight(plane, level);
+
+        if(layout == Layout.PER_LEVEL) {
+            return RsUtils.create2d(rs, planeWidth, planeHeight, Element.F32(rs));
+        }
+
+        Type.Builder typeBuilder = new Type.Builder(rs, Element.F32(rs));
+        typeBuilder.setX(planeWidth);
+        typeBuilder.setY(planeHeight);
+        AllocationAdapter window = AllocationAdapter.createTyped(rs, chainBuffer, typeBuilder.create());
+        window.setX(mipChain.getOffsetX(plane, level));
+        window.setY(mipChain.getOffsetY(plane, level));
+        return window;
+    }
+
     private void destroyPyramidLevelBuffers() {
         for(Level level : levels) {
             // Only destroy the buffers of the sub-levels as level 0 is special
@@ -259,35 +412,46 @@ public class ImagePyramid {
                 level.levelGaussianBuffer.destroy();
                 level.levelLaplacianBuffer.destroy();
                 level.expandedBuffer.destroy();
-                level.scratchBuffer.destroy();
             }
         }
         levels.clear();
+
+        // The windows are destroyed, now the mip-chain itself
+        if(chainBuffer != null) {
+            chainBuffer.destroy();
+            chainBuffer = null;
+        }
     }
 
     public static class Level {
 
+        private final ImagePyramid pyramid;
         final int level;
         final int width;
         final int height;
         Allocation levelGaussianBuffer;
         final Allocation levelLaplacianBuffer;
         final Allocation expandedBuffer;
-        final Allocation scratchBuffer;
 
-        private Level(int level,
+        // Generation of the frame the buffers were calculated for
+        int gaussianGeneration = -1;
+        int expandedGeneration = -1;
+        int laplacianGeneration = -1;
+
+        private Level(ImagePyramid pyramid,
+                     int level,
                      int width,
                      int height,
                      Allocation levelGaussianBuffer,
-                     Allocation levelLaplacianBuffer, Allocation expandedBuffer,
-                     Allocation scratchBuffer) {
+                     Allocation levelLaplacianBuffer,
+                     Allocation expandedBuffer) {
+            this.pyramid = pyramid;
             this.level = level;
             this.width = width;
             this.height = height;
             this.levelGaussianBuffer = levelGaussianBuffer;
             this.levelLaplacianBuffer = levelLaplacianBuffer;
             this.expandedBuffer = expandedBuffer;
-            this.scratchBuffer = scratchBuffer;
         }
 
         public void setLevelGaussianBuffer(Allocation levelGaussianBuffer) {
@@ -306,19 +470,50 @@ public class ImagePyramid {
             return height;
         }
 
+        /**
+         * @return  the gaussian buffer, calculated for the current frame if needed
+         */
         public Allocation getLevelGaussianBuffer() {
+            pyramid.updateGaussian(this);
             return levelGaussianBuffer;
         }
 
+        /**
+         * @return  the laplacian buffer, calculated for the current frame if needed
+         */
         public Allocation getLevelLaplacianBuffer() {
+            pyramid.updateLaplacian(this);
             return levelLaplacianBuffer;
         }
 
+        /**
+         * @return  the expanded buffer with the size of the next lower level (null for level 0),
+         *          calculated for the current frame if needed
+         */
         public Allocation getExpandedBuffer() {
+            pyramid.updateExpanded(this);
             return expandedBuffer;
         }
     }
 
+    /**
+     * Memory layout of the level buffers:
+     *
+     * PER_LEVEL    - an allocation per buffer of each level
+     * PACKED       - all buffers in a single allocation (see {@link MipChainLayout}), the level
+     *                buffers are windows in it. Resizing is a single allocation and the small
+     *                levels share pages and cache lines, at the cost of the unused space in
+     *                the chain (about 1% for the camera sizes, see {@link #getMemoryReport()}).
+     *
+     * The kernels still run once per level buffer with PACKED, and no speedup over PER_LEVEL
+     * has been measured on a device, so the algorithms use PER_LEVEL and PACKED is not offered
+     * as a setting.
+     */
+    public enum Layout {
+        PER_LEVEL,
+        PACKED
+    }
+
     public enum PlotType {
         LEVEL,
         LEVEL_EXPANDED,
@@ -0,0 +1,267 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Front-end of the Canny edge detector (luminance, blur, gradient and thinning) fused in one
+ * pass on the JVM.
+ *
+ * 'CannyAlgorithm' runs the 'getLum', 'blur_uchar', 'edge' and 'thin' kernels of 'canny.rs' as
+ * four full-frame passes, every pass writes a full plane that the next pass reads back. This
+ * engine computes the same output per band of rows ({@link RowBands}) and keeps only the rows
+ * the next stage still needs in small ring buffers:
+ *
+ * - luminance:     5 rows (the 5x5 blur)
+ * - blur:          3 rows (the 3x3 gradient)
+ * - gradient:      3 rows (the thinning compares with the neighbours)
+ *
+ * So the working set of a band is 11 rows, about 21 KB at 1920 pixels wide, which stays in the
+ * cache instead of streaming 3 planes through memory. A band recomputes 4 halo rows above it
+ * (and 3 below it) for the stages that read outside the band.
+ *
+ * The output is the thinned edge image the 'thin' kernel writes into the blur buffer, with
+ * the same launch ranges as 'CannyAlgorithm'. Only the inside matches the device buffer: here
+ * the margin of {@link #MARGIN} pixels is 0, on the device the blur buffer keeps what it had
+ * there, the blurred luminance in the border rows and columns 2 and 3 (and whatever was in
+ * rows and columns 0 and 1). A stage that reads into the margin, like the window of the
+ * 'hysteresis' kernel, can therefore see other values than on the device.
+ *
+ * ACCURACY:
+ * The integer stages are exact. The 'edge' kernel is ported as is, including its quirks: it
+ * writes 'x += 2' where 'x1 += 2' is meant, so the gradient is taken 2 columns to the right
+ * and the top row of the horizontal gradient cancels, and it reads the 2 right columns of the
+ * blur buffer that 'blur_uchar' does not write (0 here). The magnitude uses Math.sqrt instead
+ * of native_hypot and the direction compares with the tangents of the bin borders instead of
+ * rounding native_atan2pi, so pixels exactly at a rounding boundary can differ by one step
+ * from the device.
+ */
+public class JvmCannyFrontEnd {
+
+    /**
+     * Border of the output that is not written by the 'thin' kernel.
+     */
+    public static final int MARGIN = 4;
+
+    private static final int LUM_ROWS = 5;
+    private static final int BLUR_ROWS = 3;
+    private static final int EDGE_ROWS = 3;
+
+    // Neighbour per direction of the 'thin' kernel
+    private static final int[] THIN_DX = { 1, 1, 0, 1 };
+    private static final int[] THIN_DY = { 0, 1, 1, -1 };
+
+    private static final double TAN_22_5 = Math.sqrt(2.0) - 1.0;
+    private static final double TAN_67_5 = Math.sqrt(2.0) + 1.0;
+
+    private final ForkJoinPool pool;
+    private final int width;
+    private final int height;
+    private final byte[] outputBuffer;
+
+    /**
+     * Create a new front-end that runs on the common pool.
+     *
+     * @param width     Width of the source/destination buffers
+     * @param height    Height of the source/destination buffers
+     */
+    public JvmCannyFrontEnd(int width, int height) {
+        this(ForkJoinPool.commonPool(), width, height);
+    }
+
+    /**
+     * Create a new front-end.
+     *
+     * @param pool      Pool to run the row bands on
+     * @param width     Width of the source/destination buffers
+     * @param height    Height of the source/destination buffers
+     */
+    public JvmCannyFrontEnd(ForkJoinPool pool, int width, int height) {
+        if(width <= 2 * MARGIN || height <= 2 * MARGIN) {
+            throw new IllegalArgumentException("Image too small " + width + "x" + height);
+        }
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        outputBuffer = new byte[width * height];
+    }
+
+    /**
+     * @return  bytes of the ring buffers of one band (the working set besides the in- and output rows)
+     */
+    public int getBandWorkingSetSize() {
+        return (LUM_ROWS + BLUR_ROWS + EDGE_ROWS) * width;
+    }
+
+    /**
+     * @return  output buffer of the last {@link #apply(byte[])}
+     */
+    public byte[] getOutputBuffer() {
+        return outputBuffer;
+    }
+
+    /**
+     * Calculate the thinned edges of a frame.
+     *
+     * @param rgbaBuffer    width x height x (r, g, b, a) unsigned bytes, like the capture Allocation
+     * @return  the thinned edges, width x height unsigned bytes (the internal output buffer)
+     */
+    public byte[] apply(final byte[] rgbaBuffer) {
+        if(rgbaBuffer.length != width * height * 4) {
+            throw new IllegalArgumentException("Invalid buffer size " + rgbaBuffer.length);
+        }
+
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                processBand(rgbaBuffer, startRow, endRow);
+            }
+        });
+        return outputBuffer;
+    }
+
+    private void processBand(byte[] rgbaBuffer, int startRow, int endRow) {
+        // Rows in the margin are not written by 'thin'
+        int firstRow = Math.max(startRow, MARGIN);
+        int lastRow = Math.min(endRow, height - MARGIN);
+        for(int y = startRow; y < endRow; y++) {
+            if(y < firstRow || y >= lastRow) {
+                Arrays.fill(outputBuffer, y * width, (y + 1) * width, (byte) 0);
+            }
+        }
+        if(firstRow >= lastRow) {
+            return;
+        }
+
+        byte[][] lumRows = new byte[LUM_ROWS][width];
+        byte[][] blurRows = new byte[BLUR_ROWS][width];
+        byte[][] edgeRows = new byte[EDGE_ROWS][width];
+
+        // Next row to calculate per stage, starting at the halo above the band
+        int nextLumRow = firstRow - 4;
+        int nextBlurRow = firstRow - 2;
+        int nextEdgeRow = firstRow - 1;
+
+        for(int y = firstRow; y < lastRow; y++) {
+            while(nextEdgeRow <= y + 1) {
+                while(nextBlurRow <= nextEdgeRow + 1) {
+                    while(nextLumRow <= nextBlurRow + 2) {
+                        lumRow(rgbaBuffer, nextLumRow, lumRows[nextLumRow % LUM_ROWS]);
+                        nextLumRow++;
+                    }
+                    blurRow(nextBlurRow, lumRows, blurRows[nextBlurRow % BLUR_ROWS]);
+                    nextBlurRow++;
+                }
+                edgeRow(nextEdgeRow, blurRows, edgeRows[nextEdgeRow % EDGE_ROWS]);
+                nextEdgeRow++;
+            }
+            thinRow(y, edgeRows);
+        }
+    }
+
+    /**
+     * 'getLum': average of r, g and b.
+     */
+    private void lumRow(byte[] rgbaBuffer, int y, byte[] lum) {
+        int index = y * width * 4;
+        for(int x = 0; x < width; x++, index += 4) {
+            lum[x] = (byte) (((rgbaBuffer[index] & 0xFF) + (rgbaBuffer[index + 1] & 0xFF) + (rgbaBuffer[index + 2] & 0xFF)) / 3);
+        }
+    }
+
+    /**
+     * 'blur_uchar': 5x5 Gaussian with weights summing to 159, on [2, width - 2).
+     */
+    private void blurRow(int y, byte[][] lumRows, byte[] blur) {
+        byte[] l0 = lumRows[(y - 2) % LUM_ROWS];
+        byte[] l1 = lumRows[(y - 1) % LUM_ROWS];
+        byte[] l2 = lumRows[y % LUM_ROWS];
+        byte[] l3 = lumRows[(y + 1) % LUM_ROWS];
+        byte[] l4 = lumRows[(y + 2) % LUM_ROWS];
+
+        for(int x = 2; x < width - 2; x++) {
+            int sum = 2 * (l0[x - 2] & 0xFF) + 4 * (l0[x - 1] & 0xFF) + 5 * (l0[x] & 0xFF) + 4 * (l0[x + 1] & 0xFF) + 2 * (l0[x + 2] & 0xFF)
+                    + 4 * (l1[x - 2] & 0xFF) + 9 * (l1[x - 1] & 0xFF) + 12 * (l1[x] & 0xFF) + 9 * (l1[x + 1] & 0xFF) + 4 * (l1[x + 2] & 0xFF)
+                    + 5 * (l2[x - 2] & 0xFF) + 12 * (l2[x - 1] & 0xFF) + 15 * (l2[x] & 0xFF) + 12 * (l2[x + 1] & 0xFF) + 5 * (l2[x + 2] & 0xFF)
+                    + 4 * (l3[x - 2] & 0xFF) + 9 * (l3[x - 1] & 0xFF) + 12 * (l3[x] & 0xFF) + 9 * (l3[x + 1] & 0xFF) + 4 * (l3[x + 2] & 0xFF)
+                    + 2 * (l4[x - 2] & 0xFF) + 4 * (l4[x - 1] & 0xFF) + 5 * (l4[x] & 0xFF) + 4 * (l4[x + 1] & 0xFF) + 2 * (l4[x + 2] & 0xFF);
+            blur[x] = (byte) (sum / 159);
+        }
+        // Columns 0, 1, width - 2 and width - 1 stay 0, they are not written by the kernel
+    }
+
+    /**
+     * 'edge': magnitude rounded down to a multiple of 4 plus the direction in the low 2 bits, on
+     * [3, width - 3). Ported with the column offset of the kernel, see the class comment.
+     */
+    private void edgeRow(int y, byte[][] blurRows, byte[] edge) {
+        byte[] b0 = blurRows[(y - 1) % BLUR_ROWS];
+        byte[] b1 = blurRows[y % BLUR_ROWS];
+        byte[] b2 = blurRows[(y + 1) % BLUR_ROWS];
+
+        for(int x = 3; x < width - 3; x++) {
+            int sumH = -2 * (b1[x + 1] & 0xFF) + 2 * (b1[x + 3] & 0xFF)
+                    - (b2[x + 1] & 0xFF) + (b2[x + 3] & 0xFF);
+            int sumV = -(b0[x + 1] & 0xFF) - 2 * (b0[x + 2] & 0xFF) - (b0[x + 3] & 0xFF)
+                    + (b2[x + 1] & 0xFF) + 2 * (b2[x + 2] & 0xFF) + (b2[x + 3] & 0xFF);
+            edge[x] = (byte) edgeValue(sumV, sumH);
+        }
+    }
+
+    /**
+     * @return  the value of the 'edge' kernel for the vertical and horizontal sums
+     */
+    static int edgeValue(int sumV, int sumH) {
+        int v = (int) (float) Math.sqrt((float) sumV * sumV + (float) sumH * sumH);
+        return (v & (~3)) + direction(sumV, sumH);
+    }
+
+    /**
+     * The direction of the 'edge' kernel, (int) (4 * atan2pi(sumV, sumH) + 8.5) & 3, is the
+     * angle rounded to 45 degrees modulo 180 degrees: 0 horizontal, 1 and 3 the diagonals and 2
+     * vertical. Comparing with tan(22.5) and tan(67.5) gives the same without the atan2.
+     * Without a gradient atan2pi(0, 0) is 0, so the direction is 0.
+     */
+    static int direction(int sumV, int sumH) {
+        if(sumV == 0 && sumH == 0) {
+            return 0;
+        }
+        int absV = Math.abs(sumV);
+        int absH = Math.abs(sumH);
+        if(absV < TAN_22_5 * absH) {
+            return 0;
+        }
+        if(absV > TAN_67_5 * absH) {
+            return 2;
+        }
+        return (sumV > 0) == (sumH > 0) ? 1 : 3;
+    }
+
+    /**
+     * 'thin': non-maximum suppression along the gradient direction, on [4, width - 4).
+     */
+    private void thinRow(int y, byte[][] edgeRows) {
+        byte[] above = edgeRows[(y - 1) % EDGE_ROWS];
+        byte[] edge = edgeRows[y % EDGE_ROWS];
+        byte[] below = edgeRows[(y + 1) % EDGE_ROWS];
+        int outputRow = y * width;
+
+        for(int x = 0; x < MARGIN; x++) {
+            outputBuffer[outputRow + x] = 0;
+            outputBuffer[outputRow + width - 1 - x] = 0;
+        }
+        for(int x = MARGIN; x < width - MARGIN; x++) {
+            int value = edge[x] & 0xFF;
+            int dir = value & 0x3;
+            int dx = THIN_DX[dir];
+            int dy = THIN_DY[dir];
+            byte[] forward = dy == 0 ? edge : (dy > 0 ? below : above);
+            byte[] backward = dy == 0 ? edge : (dy > 0 ? above : below);
+            if(value < (forward[x + dx] & 0xFF) || value < (backward[x - dx] & 0xFF)) {
+                outputBuffer[outputRow + x] = 0;
+            } else {
+                outputBuffer[outputRow + x] = (byte) (value >> 2);
+            }
+        }
+    }
+}
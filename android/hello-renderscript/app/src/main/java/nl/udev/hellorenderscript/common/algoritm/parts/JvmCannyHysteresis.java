@@ -0,0 +1,257 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Hysteresis stage of the Canny edge detector as parallel connected-component labeling.
+ *
+ * Input is the thinned edge image of 'canny.rs' (one unsigned byte per pixel). Pixels below the
+ * dark threshold are no edge, pixels from the bright threshold are strong edges and the pixels
+ * in between are weak edges. A weak edge is kept when it is 8-connected (via other weak edges)
+ * to a strong edge, no matter how long the chain is. The other weak edges are removed.
+ *
+ * The 'hysteresis' kernel of 'canny.rs' searches from every weak pixel with a bounded queue
+ * (64 entries, a window of +-5 pixels), so long weak chains are lost and the same chain is
+ * searched again for each of its pixels. This engine labels the components once:
+ *
+ * 1) the rows are split into bands ({@link RowBands}), each band is labeled with union-find
+ * 2) the first row of each band is merged with the last row of the band above (sequential,
+ *    one pass over the band borders)
+ * 3) every pixel gets the root of its component, roots with a strong pixel are marked
+ * 4) weak pixels of marked components are kept
+ *
+ * Union links the larger index to the smaller one and find uses path halving, so the total
+ * work is near linear in the number of pixels.
+ */
+public class JvmCannyHysteresis {
+
+    /**
+     * Values below are no edge, same as 'dark_line' in 'canny.rs'.
+     */
+    public static final int DEFAULT_DARK_THRESHOLD = 4;
+
+    /**
+     * Values from here are strong edges, same as 'bright_line' in 'canny.rs'.
+     */
+    public static final int DEFAULT_BRIGHT_THRESHOLD = 16;
+
+    /**
+     * Border of the thinned image that is not written by the 'thin' kernel.
+     */
+    public static final int DEFAULT_MARGIN = 4;
+
+    private static final int NO_EDGE = -1;
+
+    private final ForkJoinPool pool;
+    private final int width;
+    private final int height;
+
+    private int darkThreshold = DEFAULT_DARK_THRESHOLD;
+    private int brightThreshold = DEFAULT_BRIGHT_THRESHOLD;
+    private int margin = DEFAULT_MARGIN;
+
+    private final int[] parents;
+    private final int[] roots;
+    private final boolean[] strongRoots;
+    private final boolean[] bandStartRows;
+    private final byte[] outputBuffer;
+
+    /**
+     * Create a new hysteresis stage that runs on the common pool.
+     *
+     * @param width     Width of the source/destination buffers
+     * @param height    Height of the source/destination buffers
+     */
+    public JvmCannyHysteresis(int width, int height) {
+        this(ForkJoinPool.commonPool(), width, height);
+    }
+
+    /**
+     * Create a new hysteresis stage.
+     *
+     * @param pool      Pool to run the row bands on
+     * @param width     Width of the source/destination buffers
+     * @param height    Height of the source/destination buffers
+     */
+    public JvmCannyHysteresis(ForkJoinPool pool, int width, int height) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+
+        parents = new int[width * height];
+        roots = new int[width * height];
+        strongRoots = new boolean[width * height];
+        bandStartRows = new boolean[height];
+        outputBuffer = new byte[width * height];
+    }
+
+    /**
+     * @param darkThreshold     values below are no edge
+     * @param brightThreshold   values from here are strong edges
+     */
+    public void setThresholds(int darkThreshold, int brightThreshold) {
+        if(darkThreshold < 1 || brightThreshold < darkThreshold) {
+            throw new IllegalArgumentException("Invalid thresholds " + darkThreshold + " - " + brightThreshold);
+        }
+        this.darkThreshold = darkThreshold;
+        this.brightThreshold = brightThreshold;
+    }
+
+    /**
+     * @param margin    pixels within the margin of the border are ignored and output as 0
+     */
+    public void setMargin(int margin) {
+        if(margin < 0) {
+            throw new IllegalArgumentException("Invalid margin " + margin);
+        }
+        this.margin = margin;
+    }
+
+    /**
+     * Apply the hysteresis on a thinned edge image.
+     *
+     * @param thinnedBuffer     width x height unsigned bytes
+     * @return  the output buffer (owned by this stage): the value of the kept edges, else 0
+     */
+    public byte[] apply(final byte[] thinnedBuffer) {
+
+        // Label each band on its own
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                labelRows(thinnedBuffer, startRow, endRow);
+            }
+        });
+
+        // Merge the components over the band borders
+        for(int y = Math.max(1, margin + 1); y < height - margin; y++) {
+            if(bandStartRows[y]) {
+                mergeWithRowAbove(y);
+            }
+        }
+
+        // Find the components with a strong edge
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                resolveRows(thinnedBuffer, startRow, endRow);
+            }
+        });
+
+        // Keep the edges of those components
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                outputRows(thinnedBuffer, startRow, endRow);
+            }
+        });
+
+        return outputBuffer;
+    }
+
+    /**
+     * @return  the output buffer of the last {@link #apply(byte[])}
+     */
+    public byte[] getOutputBuffer() {
+        return outputBuffer;
+    }
+
+    private void labelRows(byte[] thinnedBuffer, int startRow, int endRow) {
+        for(int y = startRow; y < endRow; y++) {
+            bandStartRows[y] = (y == startRow);
+            int rowOffset = y * width;
+            boolean rowInside = y >= margin && y < height - margin;
+            boolean hasRowAbove = y > startRow && y > margin;
+
+            for(int x = 0; x < width; x++) {
+                int index = rowOffset + x;
+                strongRoots[index] = false;
+
+                if(!rowInside || x < margin || x >= width - margin
+                        || (thinnedBuffer[index] & 0xFF) < darkThreshold) {
+                    parents[index] = NO_EDGE;
+                    continue;
+                }
+
+                parents[index] = index;
+                if(x > margin) {
+                    unionIfEdge(index, index - 1);
+                }
+                if(hasRowAbove) {
+                    int above = index - width;
+                    if(x > margin) {
+                        unionIfEdge(index, above - 1);
+                    }
+                    unionIfEdge(index, above);
+                    if(x < width - margin - 1) {
+                        unionIfEdge(index, above + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private void mergeWithRowAbove(int y) {
+        int rowOffset = y * width;
+        for(int x = margin; x < width - margin; x++) {
+            int index = rowOffset + x;
+            if(parents[index] == NO_EDGE) {
+                continue;
+            }
+            int above = index - width;
+            if(x > margin) {
+                unionIfEdge(index, above - 1);
+            }
+            unionIfEdge(index, above);
+            if(x < width - margin - 1) {
+                unionIfEdge(index, above + 1);
+            }
+        }
+    }
+
+    private void resolveRows(byte[] thinnedBuffer, int startRow, int endRow) {
+        for(int index = startRow * width; index < endRow * width; index++) {
+            if(parents[index] == NO_EDGE) {
+                continue;
+            }
+            // Read-only find, other bands are resolved at the same time
+            int root = index;
+            while(parents[root] != root) {
+                root = parents[root];
+            }
+            roots[index] = root;
+            if((thinnedBuffer[index] & 0xFF) >= brightThreshold) {
+                strongRoots[root] = true;
+            }
+        }
+    }
+
+    private void outputRows(byte[] thinnedBuffer, int startRow, int endRow) {
+        for(int index = startRow * width; index < endRow * width; index++) {
+            boolean keep = parents[index] != NO_EDGE && strongRoots[roots[index]];
+            outputBuffer[index] = keep ? thinnedBuffer[index] : 0;
+        }
+    }
+
+    private void unionIfEdge(int index, int neighbour) {
+        if(parents[neighbour] == NO_EDGE) {
+            return;
+        }
+        int rootA = find(index);
+        int rootB = find(neighbour);
+        if(rootA < rootB) {
+            parents[rootB] = rootA;
+        } else if(rootB < rootA) {
+            parents[rootA] = rootB;
+        }
+    }
+
+    private int find(int index) {
+        while(parents[index] != index) {
+            // Path halving
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+}
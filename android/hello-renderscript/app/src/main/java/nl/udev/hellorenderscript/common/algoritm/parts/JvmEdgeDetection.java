@@ -0,0 +1,1031 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Plain JVM implementation of {@link EdgeDetection}.
+ *
+ * Has the same API as the RenderScript wrapper but works on float[] planes, so the vector edge
+ * detector can run on server cores and in unit tests without a device.
+ *
+ * Buffer layouts are the same as the flat arrays of the matching Allocations:
+ * - intensity:         width x height floats
+ * - edge vectors:      width x height x (x, y) floats
+ * - polar vectors:     width x height x (angle, magnitude) floats
+ * - magnitudes:        width x height floats
+ *
+ * The rows are split into bands which are processed in parallel on a {@link ForkJoinPool}.
+ *
+ * ACCURACY:
+ * The kernels sum the taps in the same order as 'edgedetection.rs', so the only differences
+ * come from the float rounding of the RenderScript compiler (e.g. fused multiply-add) and from
+ * the atan2 implementation. The output matches the RenderScript kernels within
+ * {@link #VECTOR_TOLERANCE} (times the amplification) for the vectors and magnitudes and
+ * within {@link #ANGLE_TOLERANCE} radians for the polar angles of non-zero vectors, this is
+ * checked on a device by the instrumented 'EdgeDetectionParityTest'.
+ *
+ * Only depends on plain Java, the shared enums ({@link KernelMode}, {@link EdgeOutput}) are
+ * not part of the RenderScript wrapper.
+ */
+public class JvmEdgeDetection {
+
+    /**
+     * Maximal absolute difference of a vector component with the RenderScript output at amplification 1.0.
+     */
+    public static final float VECTOR_TOLERANCE = 1e-5f;
+
+    /**
+     * Maximal absolute difference of a polar angle with the RenderScript output.
+     */
+    public static final float ANGLE_TOLERANCE = 1e-4f;
+
+    /**
+     * Kernel size from which the full 2D kernel is applied through the FFT engine, unless
+     * a crossover is measured using {@link #measureFftCrossover(float[], int)}.
+     */
+    public static final int DEFAULT_FFT_CROSSOVER_KERNEL_SIZE = 15;
+
+    /**
+     * Size of the (square) tiles of the incremental mode.
+     */
+    public static final int TILE_SIZE = 32;
+
+    /**
+     * Intensity difference from which a tile is changed in the incremental mode, unless set
+     * using {@link #setChangeThreshold(float)}.
+     */
+    public static final float DEFAULT_CHANGE_THRESHOLD = 2.0f / 255.0f;
+
+    /**
+     * System property to select the {@link KernelImplementation} (SCALAR or LANES), default SCALAR.
+     */
+    public static final String KERNEL_IMPLEMENTATION_PROPERTY = "edgeDetection.kernelImplementation";
+
+    private final ForkJoinPool pool;
+    private final int width;
+    private final int height;
+
+    private KernelMode kernelMode;
+    private int kernelSize;
+    private int kernelSquareRadius;
+    private float[] kernelBuffer;
+    private float totalKernelWeight;
+    private float totalKernelWeight2N;
+    private float scale;
+    private int lowRankPasses = 3;
+    private int fftCrossoverKernelSize = DEFAULT_FFT_CROSSOVER_KERNEL_SIZE;
+    private boolean fusionEnabled = false;
+    private KernelImplementation kernelImplementation = getDefaultKernelImplementation();
+    private final Map<Integer, KernelImplementation> measuredKernelImplementations = new HashMap<>();
+    private FftConvolution fftConvolution;
+    private LowRankKernels.LowRankVectorKernel lowRankKernel;
+
+    private boolean incremental;
+    private boolean incrementalValid;
+    private int incrementalKernelSize;
+    private float incrementalScale;
+    private EnumSet<EdgeOutput> incrementalOutputs;
+    private float changeThreshold = DEFAULT_CHANGE_THRESHOLD;
+    private final int tilesX;
+    private final int tilesY;
+    private float[] referenceIntensityBuffer;
+    private boolean[] changedTiles;
+    private boolean[] dirtyTiles;
+    private float recomputedTileFraction = 1.0f;
+
+    private final float[] edgeVectorsBuffer;
+    private final float[] edgeVectorsSeparationStep1Buffer;
+    private float[] edgeVectorsLowRankStepBuffer;
+    private final float[] edgePolarVectorsBuffer;
+    private final float[] edgeMagnitudesBuffer;
+
+    /**
+     * Create new edge detection sub-algorithm that runs on the common pool.
+     *
+     * @param width                Width of the source/destination buffers
+     * @param height               Height of the source/destination buffers
+     * @param initialKernelSize    Initial size of kernel, advice odd numbers >= 1
+     */
+    public JvmEdgeDetection(int width, int height, int initialKernelSize) {
+        this(ForkJoinPool.commonPool(), width, height, initialKernelSize);
+    }
+
+    /**
+     * Create new edge detection sub-algorithm.
+     *
+     * @param pool                 Pool to run the row bands on
+     * @param width                Width of the source/destination buffers
+     * @param height               Height of the source/destination buffers
+     * @param initialKernelSize    Initial size of kernel, advice odd numbers >= 1
+     */
+    public JvmEdgeDetection(ForkJoinPool pool, int width, int height, int initialKernelSize) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+
+        edgeVectorsBuffer = new float[width * height * 2];
+        edgeVectorsSeparationStep1Buffer = new float[width * height];
+        edgePolarVectorsBuffer = new float[width * height * 2];
+        edgeMagnitudesBuffer = new float[width * height];
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        setKernelSize(initialKernelSize);
+        setAmplification(1.0f);
+        setKernelMode(KernelMode.KernelVector2D);
+    }
+
+    public void setKernelMode(KernelMode kernelMode) {
+        if(kernelMode == null) {
+            throw new IllegalArgumentException("No kernel mode");
+        }
+        this.kernelMode = kernelMode;
+    }
+
+    /**
+     * Set new kernel size (if changed)
+     *
+     * @param newSize    size of kernel, advice odd numbers >= 1
+     */
+    public void setKernelSize(int newSize) {
+
+        if(kernelBuffer == null || kernelSize != newSize) {
+            this.kernelSize = newSize;
+            this.kernelSquareRadius = (newSize - 1) / 2;
+            KernelBank.VectorKernel kernel = KernelBank.getInstance().getWeightedAngularVectorKernel(newSize);
+            this.kernelBuffer = kernel.getEntries();
+            this.totalKernelWeight = kernel.getTotalWeight();
+            this.totalKernelWeight2N = kernel.getTotalWeight2N();
+            // Decomposed on first use, see prepareLowRankKernel()
+            this.lowRankKernel = null;
+        }
+    }
+
+    /**
+     * Set the number of separable passes used by {@link KernelMode#KernelVector2dLowRank} (if changed)
+     *
+     * @param passes    number of rank-1 row/column passes, clamped to [1, kernelSize]
+     */
+    public void setLowRankPasses(int passes) {
+        if(lowRankPasses != passes) {
+            lowRankPasses = passes;
+            lowRankKernel = null;
+        }
+    }
+
+    /**
+     * @return  relative (Frobenius) error of the low rank kernel against the full 2D kernel
+     */
+    public float getLowRankRelativeError() {
+        return KernelBank.getInstance().getLowRankVectorKernel(kernelSize, lowRankPasses).getRelativeError();
+    }
+
+    /**
+     * Look up the low rank kernel when the kernel size or the number of passes changed since the
+     * last call, the step buffer is only allocated once the mode is used.
+     */
+    private void prepareLowRankKernel() {
+        if(lowRankKernel == null) {
+            lowRankKernel = KernelBank.getInstance().getLowRankVectorKernel(kernelSize, lowRankPasses);
+        }
+        if(edgeVectorsLowRankStepBuffer == null) {
+            edgeVectorsLowRankStepBuffer = new float[width * height * 2];
+        }
+    }
+
+    /**
+     * Set amplification of detected edges.
+     *
+     * @param scale    Factor
+     */
+    public void setAmplification(float scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * Set the kernel size from which {@link KernelMode#KernelVector2D} switches to the FFT engine.
+     *
+     * @param kernelSize    smallest kernel size that uses the FFT, use Integer.MAX_VALUE to disable
+     */
+    public void setFftCrossoverKernelSize(int kernelSize) {
+        this.fftCrossoverKernelSize = kernelSize;
+    }
+
+    public int getFftCrossoverKernelSize() {
+        return fftCrossoverKernelSize;
+    }
+
+    /**
+     * Measure from which kernel size the FFT engine is faster than the direct kernel on this
+     * machine and use that as the crossover.
+     *
+     * The FFT cost does not depend on the kernel size, so it is timed once and then the direct
+     * kernel is timed for increasing sizes until it is slower.
+     *
+     * @param intensityBuffer    representative 2D float intensity buffer
+     * @param maxKernelSize      largest kernel size that will be used
+     * @return the new crossover kernel size
+     */
+    public int measureFftCrossover(float[] intensityBuffer, int maxKernelSize) {
+
+        int originalKernelSize = kernelSize;
+        KernelMode originalKernelMode = kernelMode;
+        // The timed runs overwrite the vectors, so the kept tiles no longer match their references
+        incrementalValid = false;
+
+        // Warm-up (also fills the spectrum cache) then time the FFT
+        setKernelSize(maxKernelSize);
+        getFftConvolution().applyVectorKernel(intensityBuffer, maxKernelSize, 1.0f, edgeVectorsBuffer);
+        long start = System.nanoTime();
+        getFftConvolution().applyVectorKernel(intensityBuffer, maxKernelSize, 1.0f, edgeVectorsBuffer);
+        long fftNanos = System.nanoTime() - start;
+
+        kernelMode = KernelMode.KernelVector2D;
+        fftCrossoverKernelSize = Integer.MAX_VALUE;
+        int crossover = Integer.MAX_VALUE;
+
+        for(int size = 3; size <= maxKernelSize; size += 2) {
+            setKernelSize(size);
+            applyKernel(intensityBuffer);
+            start = System.nanoTime();
+            applyKernel(intensityBuffer);
+            if(System.nanoTime() - start > fftNanos) {
+                crossover = size;
+                break;
+            }
+        }
+
+        fftCrossoverKernelSize = crossover;
+        kernelMode = originalKernelMode;
+        setKernelSize(originalKernelSize);
+        return fftCrossoverKernelSize;
+    }
+
+    /**
+     * Calculate the 2D (X, Y) edge vectors, like {@link #calcEdges} this honours the incremental mode.
+     *
+     * @param intensityBuffer    2D float intensity buffer to detect edges on
+     * @return 2D (X, Y) edge vectors.
+     */
+    public float[] calcEdgeVectors(float[] intensityBuffer) {
+        calcEdges(intensityBuffer, EnumSet.of(EdgeOutput.VECTORS));
+        return edgeVectorsBuffer;
+    }
+
+    /**
+     * Apply the kernel of the current mode on the whole frame, into the edge vectors buffer.
+     */
+    private void applyKernel(final float[] intensityBuffer) {
+
+        // The vectors are overwritten, so the kept tiles no longer match their references
+        incrementalValid = false;
+
+        switch (kernelMode) {
+            case KernelVector2D:
+                if(kernelSize >= fftCrossoverKernelSize) {
+                    getFftConvolution().applyVectorKernel(intensityBuffer, kernelSize, scale / totalKernelWeight, edgeVectorsBuffer);
+                    break;
+                }
+                if(getKernelImplementation() == KernelImplementation.LANES) {
+                    RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                        @Override
+                        public void processRows(int startRow, int endRow) {
+                            applyVectorKernelLanes(intensityBuffer, true, false, false, startRow, endRow);
+                        }
+                    });
+                    break;
+                }
+                RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                    @Override
+                    public void processRows(int startRow, int endRow) {
+                        applyVectorKernel(intensityBuffer, startRow, endRow);
+                    }
+                });
+                break;
+            case KernelVector2dSeparable2N:
+                RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                    @Override
+                    public void processRows(int startRow, int endRow) {
+                        applyVectorKernelPart1(intensityBuffer, startRow, endRow);
+                    }
+                });
+                RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                    @Override
+                    public void processRows(int startRow, int endRow) {
+                        applyVectorKernelPart2(intensityBuffer, startRow, endRow);
+                    }
+                });
+                break;
+            case KernelVector2dLowRank:
+                prepareLowRankKernel();
+                for(int pass = 0; pass < lowRankKernel.getPasses(); pass++) {
+                    final int currentPass = pass;
+                    RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                        @Override
+                        public void processRows(int startRow, int endRow) {
+                            applyLowRankRowPass(intensityBuffer, currentPass, startRow, endRow);
+                        }
+                    });
+                    RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                        @Override
+                        public void processRows(int startRow, int endRow) {
+                            applyLowRankColumnPass(currentPass, startRow, endRow);
+                        }
+                    });
+                }
+                break;
+        }
+    }
+
+    /**
+     * Enable or disable (default) the single traversal of {@link #calcEdges}, when disabled the
+     * outputs are always converted from the vectors in extra passes. Disabled by default, the
+     * single traversal is not measured to be faster.
+     *
+     * @param fusionEnabled    true to produce all outputs in a single traversal when possible
+     */
+    public void setFusionEnabled(boolean fusionEnabled) {
+        this.fusionEnabled = fusionEnabled;
+    }
+
+    /**
+     * Select the implementation of the direct {@link KernelMode#KernelVector2D} kernel for all
+     * kernel sizes, this drops the measured choices.
+     */
+    public void setKernelImplementation(KernelImplementation kernelImplementation) {
+        this.kernelImplementation = kernelImplementation;
+        measuredKernelImplementations.clear();
+    }
+
+    /**
+     * @return  the implementation used for the current kernel size: the measured one when it was
+     *          measured for this size, otherwise the selected one (default SCALAR)
+     */
+    public KernelImplementation getKernelImplementation() {
+        KernelImplementation measured = measuredKernelImplementations.get(kernelSize);
+        return measured != null ? measured : kernelImplementation;
+    }
+
+    /**
+     * Measure which {@link KernelImplementation} is faster on this machine for the current kernel
+     * size and use that one for this size. Which one is faster depends on the kernel size and on
+     * the JIT: the LANES only win when their loops are vectorized.
+     *
+     * @param intensityBuffer    representative 2D float intensity buffer
+     * @return the selected implementation
+     */
+    public KernelImplementation measureKernelImplementation(float[] intensityBuffer) {
+
+        KernelMode originalKernelMode = kernelMode;
+        int originalFftCrossoverKernelSize = fftCrossoverKernelSize;
+        kernelMode = KernelMode.KernelVector2D;
+        fftCrossoverKernelSize = Integer.MAX_VALUE;
+
+        KernelImplementation fastest = kernelImplementation;
+        long fastestNanos = Long.MAX_VALUE;
+
+        for(KernelImplementation implementation : KernelImplementation.values()) {
+            measuredKernelImplementations.put(kernelSize, implementation);
+
+            // The JIT only vectorizes the compiled loops, so warm up well, then time the best of a few runs
+            for(int run = 0; run < 3; run++) {
+                applyKernel(intensityBuffer);
+            }
+            long best = Long.MAX_VALUE;
+            for(int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                applyKernel(intensityBuffer);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            if(best < fastestNanos) {
+                fastestNanos = best;
+                fastest = implementation;
+            }
+        }
+
+        measuredKernelImplementations.put(kernelSize, fastest);
+        kernelMode = originalKernelMode;
+        fftCrossoverKernelSize = originalFftCrossoverKernelSize;
+        return fastest;
+    }
+
+    private static KernelImplementation getDefaultKernelImplementation() {
+        String name = System.getProperty(KERNEL_IMPLEMENTATION_PROPERTY);
+        if(name != null) {
+            try {
+                return KernelImplementation.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // Unknown value, use the default
+            }
+        }
+        return KernelImplementation.SCALAR;
+    }
+
+    /**
+     * Enable or disable the incremental mode for mostly static scenes, see {@link EdgeDetection#setIncremental(boolean)}.
+     *
+     * @param incremental    true to only recompute the changed tiles
+     */
+    public void setIncremental(boolean incremental) {
+
+        if(incremental && referenceIntensityBuffer == null) {
+            referenceIntensityBuffer = new float[width * height];
+            changedTiles = new boolean[tilesX * tilesY];
+            dirtyTiles = new boolean[tilesX * tilesY];
+        }
+
+        if(this.incremental != incremental) {
+            this.incremental = incremental;
+            this.incrementalValid = false;
+        }
+    }
+
+    /**
+     * Set the intensity difference (intensity is [0..1]) from which a tile is changed.
+     *
+     * @param threshold    maximal difference of a pixel which is ignored
+     */
+    public void setChangeThreshold(float threshold) {
+        this.changeThreshold = threshold;
+    }
+
+    /**
+     * @return  the fraction [0..1] of the tiles which were recomputed by the last incremental frame
+     */
+    public float getRecomputedTileFraction() {
+        return recomputedTileFraction;
+    }
+
+    private void calcEdgesIncremental(final float[] intensityBuffer,
+                                      EnumSet<EdgeOutput> outputs,
+                                      final boolean writeVectors,
+                                      final boolean writePolar,
+                                      final boolean writeMagnitude) {
+
+        final boolean forceAllTiles = !(incrementalValid
+                && incrementalKernelSize == kernelSize
+                && incrementalScale == scale
+                && incrementalOutputs.equals(outputs));
+
+        // The halo covers the kernel radius, so all outputs which read a changed pixel are recomputed
+        final int haloTiles = (kernelSquareRadius + TILE_SIZE - 1) / TILE_SIZE;
+
+        RowBands.forEach(pool, tilesY, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int ty = startRow; ty < endRow; ty++) {
+                    for(int tx = 0; tx < tilesX; tx++) {
+                        changedTiles[ty * tilesX + tx] = detectChangedTile(intensityBuffer, tx, ty, forceAllTiles);
+                    }
+                }
+            }
+        });
+
+        RowBands.forEach(pool, tilesY, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int ty = startRow; ty < endRow; ty++) {
+                    for(int tx = 0; tx < tilesX; tx++) {
+                        dirtyTiles[ty * tilesX + tx] = hasChangedTileInHalo(tx, ty, haloTiles);
+                    }
+                }
+            }
+        });
+
+        RowBands.forEach(pool, tilesY, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int ty = startRow; ty < endRow; ty++) {
+                    for(int tx = 0; tx < tilesX; tx++) {
+                        if(dirtyTiles[ty * tilesX + tx]) {
+                            int xs = tx * TILE_SIZE;
+                            int ys = ty * TILE_SIZE;
+                            applyVectorKernelFused(intensityBuffer, writeVectors, writePolar, writeMagnitude,
+                                    xs, Math.min(xs + TILE_SIZE, width),
+                                    ys, Math.min(ys + TILE_SIZE, height));
+                        }
+                    }
+                }
+            }
+        });
+
+        incrementalValid = true;
+        incrementalKernelSize = kernelSize;
+        incrementalScale = scale;
+        incrementalOutputs = EnumSet.copyOf(outputs);
+
+        int recomputedTiles = 0;
+        for(boolean dirty : dirtyTiles) {
+            if(dirty) {
+                recomputedTiles++;
+            }
+        }
+        recomputedTileFraction = recomputedTiles / (float) dirtyTiles.length;
+    }
+
+    private boolean detectChangedTile(float[] intensityBuffer, int tx, int ty, boolean forceAllTiles) {
+
+        int xs = tx * TILE_SIZE;
+        int ys = ty * TILE_SIZE;
+        int xe = Math.min(xs + TILE_SIZE, width);
+        int ye = Math.min(ys + TILE_SIZE, height);
+        boolean changed = forceAllTiles;
+
+        for(int y = ys; y < ye && !changed; y++) {
+            for(int x = xs; x < xe && !changed; x++) {
+                changed = Math.abs(intensityBuffer[y * width + x] - referenceIntensityBuffer[y * width + x]) > changeThreshold;
+            }
+        }
+
+        // Only the tiles which are recomputed get a new reference, so slow drifts are still detected
+        if(changed) {
+            for(int y = ys; y < ye; y++) {
+                System.arraycopy(intensityBuffer, y * width + xs, referenceIntensityBuffer, y * width + xs, xe - xs);
+            }
+        }
+
+        return changed;
+    }
+
+    private boolean hasChangedTileInHalo(int tx, int ty, int haloTiles) {
+
+        int txs = Math.max(0, tx - haloTiles);
+        int tys = Math.max(0, ty - haloTiles);
+        int txe = Math.min(tilesX - 1, tx + haloTiles);
+        int tye = Math.min(tilesY - 1, ty + haloTiles);
+
+        for(int y = tys; y <= tye; y++) {
+            for(int x = txs; x <= txe; x++) {
+                if(changedTiles[y * tilesX + x]) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Calculate the requested edge outputs, see {@link EdgeDetection#calcEdges}.
+     *
+     * For the direct {@link KernelMode#KernelVector2D} kernel all requested outputs are produced
+     * in a single traversal. The other modes produce the vectors and convert them in extra passes.
+     *
+     * @param intensityBuffer    2D float intensity buffer to detect edges on
+     * @param outputs            the outputs to produce
+     */
+    public void calcEdges(final float[] intensityBuffer, EnumSet<EdgeOutput> outputs) {
+
+        final boolean writeVectors = outputs.contains(EdgeOutput.VECTORS);
+        final boolean writePolar = outputs.contains(EdgeOutput.POLAR_VECTORS);
+        final boolean writeMagnitude = outputs.contains(EdgeOutput.MAGNITUDES);
+
+        boolean directKernel = kernelMode == KernelMode.KernelVector2D && kernelSize < fftCrossoverKernelSize;
+
+        if(incremental && directKernel) {
+            calcEdgesIncremental(intensityBuffer, outputs, writeVectors, writePolar, writeMagnitude);
+            return;
+        }
+
+        // The outputs are overwritten, so the kept tiles no longer match their references
+        incrementalValid = false;
+
+        if(fusionEnabled && directKernel) {
+            final boolean lanes = getKernelImplementation() == KernelImplementation.LANES;
+            RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                @Override
+                public void processRows(int startRow, int endRow) {
+                    if(lanes) {
+                        applyVectorKernelLanes(intensityBuffer, writeVectors, writePolar, writeMagnitude, startRow, endRow);
+                    } else {
+                        applyVectorKernelFused(intensityBuffer, writeVectors, writePolar, writeMagnitude, 0, width, startRow, endRow);
+                    }
+                }
+            });
+        } else {
+            applyKernel(intensityBuffer);
+            if(!writePolar && !writeMagnitude) {
+                return;
+            }
+            RowBands.forEach(pool, height, new RowBands.RowKernel() {
+                @Override
+                public void processRows(int startRow, int endRow) {
+                    for(int i = startRow * width; i < endRow * width; i++) {
+                        float vx = edgeVectorsBuffer[i * 2];
+                        float vy = edgeVectorsBuffer[i * 2 + 1];
+                        float magnitude = (float) Math.sqrt(vx * vx + vy * vy);
+                        if(writePolar) {
+                            edgePolarVectorsBuffer[i * 2] = (float) Math.atan2(vy, vx);
+                            edgePolarVectorsBuffer[i * 2 + 1] = magnitude;
+                        }
+                        if(writeMagnitude) {
+                            edgeMagnitudesBuffer[i] = magnitude;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Calculate the edge magnitudes.
+     *
+     * @param intensityBuffer    2D float intensity buffer to detect edges on
+     * @return 1D edge magnitudes
+     */
+    public float[] calcEdgeMagnitudes(float[] intensityBuffer) {
+        calcEdges(intensityBuffer, EnumSet.of(EdgeOutput.MAGNITUDES));
+        return edgeMagnitudesBuffer;
+    }
+
+    /**
+     * Calculate the 2D (angle, magnitude) polar vectors of the edges.
+     *
+     * @param intensityBuffer    2D float intensity buffer to detect edges on
+     * @return 2D (angle, magnitude) polar vectors of the edges.
+     */
+    public float[] calcEdgePolarVectors(float[] intensityBuffer) {
+        calcEdges(intensityBuffer, EnumSet.of(EdgeOutput.POLAR_VECTORS));
+        return edgePolarVectorsBuffer;
+    }
+
+    /**
+     * @return  the intermediate edge vectors buffer containing the (x, y) edge vectors
+     */
+    public float[] getEdgeVectorsBuffer() {
+        return edgeVectorsBuffer;
+    }
+
+    /**
+     * @return  the buffer containing the (angle, magnitude) polar vectors
+     */
+    public float[] getEdgePolarVectorsBuffer() {
+        return edgePolarVectorsBuffer;
+    }
+
+    /**
+     * @return  the buffer containing the edge magnitudes
+     */
+    public float[] getEdgeMagnitudesBuffer() {
+        return edgeMagnitudesBuffer;
+    }
+
+    private FftConvolution getFftConvolution() {
+        if(fftConvolution == null) {
+            fftConvolution = new FftConvolution(pool, width, height);
+        }
+        return fftConvolution;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Kernels, these mirror the kernels in 'edgedetection.rs'
+    // ---------------------------------------------------------------------------------------------
+
+    private void applyVectorKernel(float[] intensityBuffer, int startRow, int endRow) {
+
+        final float[] kernel = kernelBuffer;
+        final int radius = kernelSquareRadius;
+        final float scale = this.scale;
+        final float totalWeight = totalKernelWeight;
+
+        for(int y = startRow; y < endRow; y++) {
+            int outIndex = y * width * 2;
+            for(int x = 0; x < width; x++) {
+
+                float sumX = 0;
+                float sumY = 0;
+
+                int xs = x - radius;
+                int xe = x + radius;
+                int ys = y - radius;
+                int ye = y + radius;
+
+                if(xs >= 0 && ys >= 0 && xe < width && ye < height) {
+                    int kernelIndex = 0;
+                    for(int imageY = ys; imageY <= ye; imageY++) {
+                        int imageIndex = imageY * width + xs;
+                        for(int imageX = xs; imageX <= xe; imageX++) {
+                            float intensity = intensityBuffer[imageIndex++];
+                            sumX += kernel[kernelIndex] * intensity * kernel[kernelIndex + 2];
+                            sumY += kernel[kernelIndex + 1] * intensity * kernel[kernelIndex + 2];
+                            kernelIndex += 4;
+                        }
+                    }
+                }
+
+                edgeVectorsBuffer[outIndex++] = scale * sumX / totalWeight;
+                edgeVectorsBuffer[outIndex++] = scale * sumY / totalWeight;
+            }
+        }
+    }
+
+    /**
+     * Direct kernel that produces the requested outputs per row: the vectors of a row are
+     * summed with the same loop as {@link #applyVectorKernel} into a row buffer, then converted
+     * while the row is still in the cache. So the kernel loop stays tight and the vectors are not
+     * written to and read back from the full frame buffer.
+     */
+    private void applyVectorKernelFused(float[] intensityBuffer,
+                                        boolean writeVectors,
+                                        boolean writePolar,
+                                        boolean writeMagnitude,
+                                        int startColumn,
+                                        int endColumn,
+                                        int startRow,
+                                        int endRow) {
+
+        final float[] kernel = kernelBuffer;
+        final int radius = kernelSquareRadius;
+        final float scale = this.scale;
+        final float totalWeight = totalKernelWeight;
+        float[] rowVectors = new float[(endColumn - startColumn) * 2];
+
+        for(int y = startRow; y < endRow; y++) {
+            int rowIndex = 0;
+            for(int x = startColumn; x < endColumn; x++) {
+
+                float sumX = 0;
+                float sumY = 0;
+
+                int xs = x - radius;
+                int xe = x + radius;
+                int ys = y - radius;
+                int ye = y + radius;
+
+                if(xs >= 0 && ys >= 0 && xe < width && ye < height) {
+                    int kernelIndex = 0;
+                    for(int imageY = ys; imageY <= ye; imageY++) {
+                        int imageIndex = imageY * width + xs;
+                        for(int imageX = xs; imageX <= xe; imageX++) {
+                            float intensity = intensityBuffer[imageIndex++];
+                            sumX += kernel[kernelIndex] * intensity * kernel[kernelIndex + 2];
+                            sumY += kernel[kernelIndex + 1] * intensity * kernel[kernelIndex + 2];
+                            kernelIndex += 4;
+                        }
+                    }
+                }
+
+                rowVectors[rowIndex++] = scale * sumX / totalWeight;
+                rowVectors[rowIndex++] = scale * sumY / totalWeight;
+            }
+
+            int index = y * width + startColumn;
+            if(writeVectors) {
+                System.arraycopy(rowVectors, 0, edgeVectorsBuffer, index * 2, rowVectors.length);
+            }
+            if(writePolar || writeMagnitude) {
+                for(rowIndex = 0; rowIndex < rowVectors.length; rowIndex += 2, index++) {
+                    float vx = rowVectors[rowIndex];
+                    float vy = rowVectors[rowIndex + 1];
+                    float magnitude = (float) Math.sqrt(vx * vx + vy * vy);
+                    if(writePolar) {
+                        edgePolarVectorsBuffer[index * 2] = (float) Math.atan2(vy, vx);
+                        edgePolarVectorsBuffer[index * 2 + 1] = magnitude;
+                    }
+                    if(writeMagnitude) {
+                        edgeMagnitudesBuffer[index] = magnitude;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same output as {@link #applyVectorKernelFused} but with the loops turned around: the outer
+     * loops run over the kernel taps and the inner loop applies one tap to a row of adjacent
+     * output pixels. The inner loop is a multiply-add over contiguous floats without branches,
+     * which the JIT compiles to SIMD lanes (SSE/AVX2/AVX-512 on x86, NEON on ARM).
+     *
+     * Every pixel still sums its taps in the same order, so the output is identical. Taps with
+     * a zero weight are skipped, adding their (zero) product does not change the sum.
+     */
+    private void applyVectorKernelLanes(float[] intensityBuffer,
+                                        boolean writeVectors,
+                                        boolean writePolar,
+                                        boolean writeMagnitude,
+                                        int startRow,
+                                        int endRow) {
+
+        final float[] kernel = kernelBuffer;
+        final int radius = kernelSquareRadius;
+        final float scale = this.scale;
+        final float totalWeight = totalKernelWeight;
+
+        // Output pixels [radius, width - radius) have the complete kernel inside the image
+        final int laneStart = radius;
+        final int laneEnd = width - radius;
+        float[] sumsX = new float[width];
+        float[] sumsY = new float[width];
+
+        for(int y = startRow; y < endRow; y++) {
+
+            Arrays.fill(sumsX, 0.0f);
+            Arrays.fill(sumsY, 0.0f);
+            boolean rowInside = y - radius >= 0 && y + radius < height;
+
+            if(rowInside) {
+                int kernelIndex = 0;
+                for(int imageY = y - radius; imageY <= y + radius; imageY++) {
+                    for(int kernelX = -radius; kernelX <= radius; kernelX++) {
+                        float vectorX = kernel[kernelIndex];
+                        float vectorY = kernel[kernelIndex + 1];
+                        float weight = kernel[kernelIndex + 2];
+                        kernelIndex += 4;
+
+                        if(weight == 0.0f) {
+                            continue;
+                        }
+
+                        // Lane x reads the intensity at (x + kernelX, imageY)
+                        int offset = imageY * width + kernelX;
+                        for(int x = laneStart; x < laneEnd; x++) {
+                            float intensity = intensityBuffer[offset + x];
+                            sumsX[x] += vectorX * intensity * weight;
+                            sumsY[x] += vectorY * intensity * weight;
+                        }
+                    }
+                }
+            }
+
+            for(int x = 0; x < width; x++) {
+                boolean inside = rowInside && x >= laneStart && x < laneEnd;
+                int index = y * width + x;
+                float vx = scale * (inside ? sumsX[x] : 0.0f) / totalWeight;
+                float vy = scale * (inside ? sumsY[x] : 0.0f) / totalWeight;
+
+                if(writeVectors) {
+                    edgeVectorsBuffer[index * 2] = vx;
+                    edgeVectorsBuffer[index * 2 + 1] = vy;
+                }
+                if(writePolar || writeMagnitude) {
+                    float magnitude = (float) Math.sqrt(vx * vx + vy * vy);
+                    if(writePolar) {
+                        edgePolarVectorsBuffer[index * 2] = (float) Math.atan2(vy, vx);
+                        edgePolarVectorsBuffer[index * 2 + 1] = magnitude;
+                    }
+                    if(writeMagnitude) {
+                        edgeMagnitudesBuffer[index] = magnitude;
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyVectorKernelPart1(float[] intensityBuffer, int startRow, int endRow) {
+
+        final float[] kernel = kernelBuffer;
+        final int radius = kernelSquareRadius;
+        final int centerRowOffset = radius * kernelSize * 4;
+
+        for(int y = startRow; y < endRow; y++) {
+            for(int x = 0; x < width; x++) {
+
+                float sum = 0;
+
+                int xs = x - radius;
+                int xe = x + radius;
+
+                if(xs >= 0 && xe < width) {
+                    int kernelIndex = centerRowOffset;
+                    int imageIndex = y * width + xs;
+                    for(int imageX = xs; imageX <= xe; imageX++) {
+                        sum += kernel[kernelIndex] * intensityBuffer[imageIndex++] * kernel[kernelIndex + 2];
+                        kernelIndex += 4;
+                    }
+                }
+
+                edgeVectorsSeparationStep1Buffer[y * width + x] = sum;
+            }
+        }
+    }
+
+    private void applyVectorKernelPart2(float[] intensityBuffer, int startRow, int endRow) {
+
+        final float[] kernel = kernelBuffer;
+        final int radius = kernelSquareRadius;
+        final int kernelStride = kernelSize * 4;
+        final float scale = this.scale;
+        final float totalWeight = totalKernelWeight2N;
+
+        for(int y = startRow; y < endRow; y++) {
+            int outIndex = y * width * 2;
+            for(int x = 0; x < width; x++) {
+
+                float sumX = 0;
+                float sumY = 0;
+
+                int ys = y - radius;
+                int ye = y + radius;
+
+                if(ys >= 0 && ye < height) {
+                    int kernelIndex = radius * 4;
+                    for(int imageY = ys; imageY <= ye; imageY++) {
+                        int imageIndex = imageY * width + x;
+                        sumX += edgeVectorsSeparationStep1Buffer[imageIndex];
+                        sumY += kernel[kernelIndex + 1] * intensityBuffer[imageIndex] * kernel[kernelIndex + 2];
+                        kernelIndex += kernelStride;
+                    }
+                }
+
+                edgeVectorsBuffer[outIndex++] = scale * sumX / totalWeight;
+                edgeVectorsBuffer[outIndex++] = scale * sumY / totalWeight;
+            }
+        }
+    }
+
+    private void applyLowRankRowPass(float[] intensityBuffer, int pass, int startRow, int endRow) {
+
+        final float[] rowKernels = lowRankKernel.getRowKernels();
+        final int radius = kernelSquareRadius;
+        final int passOffset = pass * kernelSize * 2;
+
+        for(int y = startRow; y < endRow; y++) {
+            int outIndex = y * width * 2;
+            for(int x = 0; x < width; x++) {
+
+                float sumX = 0;
+                float sumY = 0;
+
+                int xs = x - radius;
+                int xe = x + radius;
+
+                if(xs >= 0 && xe < width) {
+                    int kernelIndex = passOffset;
+                    int imageIndex = y * width + xs;
+                    for(int imageX = xs; imageX <= xe; imageX++) {
+                        float intensity = intensityBuffer[imageIndex++];
+                        sumX += rowKernels[kernelIndex++] * intensity;
+                        sumY += rowKernels[kernelIndex++] * intensity;
+                    }
+                }
+
+                edgeVectorsLowRankStepBuffer[outIndex++] = sumX;
+                edgeVectorsLowRankStepBuffer[outIndex++] = sumY;
+            }
+        }
+    }
+
+    private void applyLowRankColumnPass(int pass, int startRow, int endRow) {
+
+        final float[] columnKernels = lowRankKernel.getColumnKernels();
+        final int radius = kernelSquareRadius;
+        final int passOffset = pass * kernelSize * 2;
+        final float scale = this.scale;
+        final float totalWeight = totalKernelWeight;
+
+        for(int y = startRow; y < endRow; y++) {
+            int outIndex = y * width * 2;
+            for(int x = 0; x < width; x++) {
+
+                float sumX = 0;
+                float sumY = 0;
+
+                int ys = y - radius;
+                int ye = y + radius;
+
+                if(ys >= 0 && ye < height) {
+                    int kernelIndex = passOffset;
+                    for(int imageY = ys; imageY <= ye; imageY++) {
+                        int stepIndex = (imageY * width + x) * 2;
+                        sumX += columnKernels[kernelIndex++] * edgeVectorsLowRankStepBuffer[stepIndex];
+                        sumY += columnKernels[kernelIndex++] * edgeVectorsLowRankStepBuffer[stepIndex + 1];
+                    }
+                }
+
+                // The first pass starts the sum, the others accumulate
+                if(pass == 0) {
+                    edgeVectorsBuffer[outIndex++] = scale * sumX / totalWeight;
+                    edgeVectorsBuffer[outIndex++] = scale * sumY / totalWeight;
+                } else {
+                    edgeVectorsBuffer[outIndex++] += scale * sumX / totalWeight;
+                    edgeVectorsBuffer[outIndex++] += scale * sumY / totalWeight;
+                }
+            }
+        }
+    }
+
+    /**
+     * Implementations of the direct {@link KernelMode#KernelVector2D} kernel, both produce the
+     * same output.
+     *
+     * SCALAR   - one output pixel at a time with the kernel taps in the inner loop, like 'edgedetection.rs'
+     * LANES    - one kernel tap at a time over a row of adjacent output pixels, vectorized by the JIT
+     */
+    public enum KernelImplementation {
+        SCALAR,
+        LANES
+    }
+}
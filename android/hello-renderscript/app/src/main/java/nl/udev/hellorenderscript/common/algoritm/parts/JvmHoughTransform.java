@@ -0,0 +1,437 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Line Hough transform of an edge image, voting in parallel over the edge points.
+ *
+ * The accumulator has the layout of 'hough_output' in 'canny.rs', which plots it: one row per
+ * angle (angle n is n * 180 / angleCount degrees) and one column per distance, with the distance
+ * 0 (a line through the center of the image) in the middle column.
+ *
+ * This replaces the 'hough' kernel that was in 'canny.rs': it was launched over 8 angle slices
+ * that each scanned the whole edge image, and counted in a saturating uchar with a non-atomic
+ * read-modify-write. This engine:
+ *
+ * 1) compacts the edge pixels once into a list of points (count per row, prefix sum, write per
+ *    row, all rows in parallel)
+ * 2) splits the points over one task per worker, each task votes into its own int accumulator
+ * 3) reduces the private accumulators into the result, the angle rows in parallel
+ *
+ * So every edge pixel is read once, the voting scales with the number of cores and the counts
+ * are exact for any edge density.
+ *
+ * LINES
+ * {@link #findLines(int, int)} returns the strongest lines as a few numbers instead of the
+ * accumulator image: the local maxima (non-maximum suppression over the 8 neighbours, like
+ * the former 'hough_thin' kernel) are selected per band of angle rows in parallel, each band
+ * keeps its own top K in a bounded heap and the bands are merged.
+ */
+public class JvmHoughTransform {
+
+    /**
+     * Angle rows of 'hough_output', half a degree per row.
+     */
+    public static final int DEFAULT_ANGLE_COUNT = 360;
+
+    /**
+     * Edges are the pixels above this value, same as the former 'hough' kernel.
+     */
+    public static final int DEFAULT_EDGE_THRESHOLD = 20;
+
+    private final ForkJoinPool pool;
+    private final int width;
+    private final int height;
+    private final int angleCount;
+    private final int distanceCount;
+    private final float[] cosTable;
+    private final float[] sinTable;
+
+    private int edgeThreshold = DEFAULT_EDGE_THRESHOLD;
+
+    private final int[] rowPointCounts;
+    private final int[] rowPointOffsets;
+    private final int[] pointBuffer;
+    private int pointCount;
+
+    private final int[][] privateAccumulators;
+    private final int[] accumulatorBuffer;
+
+    private final Object topLock = new Object();
+
+    /**
+     * Create a new Hough transform with {@link #DEFAULT_ANGLE_COUNT} angles and all distances of
+     * the image (see {@link #getDistanceCount(int, int)}) that runs on the common pool.
+     *
+     * @param width     Width of the edge image
+     * @param height    Height of the edge image
+     */
+    public JvmHoughTransform(int width, int height) {
+        this(ForkJoinPool.commonPool(), width, height, DEFAULT_ANGLE_COUNT, getDistanceCount(width, height));
+    }
+
+    /**
+     * Create a new Hough transform.
+     *
+     * @param pool              Pool to run on, one private accumulator per worker
+     * @param width             Width of the edge image
+     * @param height            Height of the edge image
+     * @param angleCount        Number of angles in [0, 180) degrees
+     * @param distanceCount     Number of distances, one pixel each, centered on the image center
+     */
+    public JvmHoughTransform(ForkJoinPool pool, int width, int height, int angleCount, int distanceCount) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.angleCount = angleCount;
+        this.distanceCount = distanceCount;
+
+        cosTable = new float[angleCount];
+        sinTable = new float[angleCount];
+        for(int angle = 0; angle < angleCount; angle++) {
+            double radians = Math.PI * angle / angleCount;
+            cosTable[angle] = (float) Math.cos(radians);
+            sinTable[angle] = (float) Math.sin(radians);
+        }
+
+        rowPointCounts = new int[height];
+        rowPointOffsets = new int[height];
+        pointBuffer = new int[width * height];
+
+        privateAccumulators = new int[pool.getParallelism()][angleCount * distanceCount];
+        accumulatorBuffer = new int[angleCount * distanceCount];
+    }
+
+    /**
+     * The distance of a pixel to the image center is less than half the diagonal, so this many
+     * distance columns hold every line through the image.
+     *
+     * @return  ceil(diagonal) + 1 distances for an image of the given size
+     */
+    public static int getDistanceCount(int width, int height) {
+        return (int) Math.ceil(Math.hypot(width, height)) + 1;
+    }
+
+    /**
+     * @param edgeThreshold     pixels above this value are edges
+     */
+    public void setEdgeThreshold(int edgeThreshold) {
+        this.edgeThreshold = edgeThreshold;
+    }
+
+    public int getAngleCount() {
+        return angleCount;
+    }
+
+    public int getDistanceCount() {
+        return distanceCount;
+    }
+
+    /**
+     * @return  angle of the accumulator row in radians
+     */
+    public float getAngle(int angle) {
+        return (float) (Math.PI * angle / angleCount);
+    }
+
+    /**
+     * @return  distance of the accumulator column to the image center in pixels
+     */
+    public int getDistance(int distanceColumn) {
+        return distanceColumn - (distanceCount >> 1);
+    }
+
+    /**
+     * Calculate the accumulator of an edge image.
+     *
+     * @param edgeBuffer    width x height unsigned bytes
+     * @return  the accumulator buffer (owned by this transform), angleCount rows of distanceCount votes
+     */
+    public int[] calculate(byte[] edgeBuffer) {
+        compactEdgePoints(edgeBuffer);
+        vote();
+        reduce();
+        return accumulatorBuffer;
+    }
+
+    /**
+     * @return  the accumulator of the last {@link #calculate(byte[])}
+     */
+    public int[] getAccumulatorBuffer() {
+        return accumulatorBuffer;
+    }
+
+    /**
+     * @return  number of edge points of the last {@link #calculate(byte[])}
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return  the edge points (y * width + x) of the last {@link #calculate(byte[])}, the
+     *          first {@link #getPointCount()} entries are valid, in row order
+     */
+    public int[] getPointBuffer() {
+        return pointBuffer;
+    }
+
+    /**
+     * Find the strongest lines in the accumulator of the last {@link #calculate(byte[])}.
+     *
+     * @param maxLines  maximal number of lines (K)
+     * @param minVotes  minimal votes of a line
+     * @return  at most maxLines lines, the most votes first
+     */
+    public List<Line> findLines(final int maxLines, final int minVotes) {
+        if(maxLines <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Heap of the best lines, the weakest on top (see peakKey)
+        final PriorityQueue<Long> top = new PriorityQueue<>(maxLines + 1);
+
+        RowBands.forEach(pool, angleCount, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                PriorityQueue<Long> bandTop = new PriorityQueue<>(maxLines + 1);
+                for(int angle = startRow; angle < endRow; angle++) {
+                    for(int distance = 0; distance < distanceCount; distance++) {
+                        int votes = accumulatorBuffer[angle * distanceCount + distance];
+                        if(votes >= minVotes && isPeak(angle, distance, votes)) {
+                            offer(bandTop, peakKey(votes, angle * distanceCount + distance), maxLines);
+                        }
+                    }
+                }
+                synchronized (topLock) {
+                    for(Long key : bandTop) {
+                        offer(top, key, maxLines);
+                    }
+                }
+            }
+        });
+
+        List<Line> lines = new ArrayList<>(top.size());
+        while(!top.isEmpty()) {
+            long key = top.poll();
+            int index = Integer.MAX_VALUE - (int) key;
+            int angle = index / distanceCount;
+            int distance = index % distanceCount;
+            lines.add(new Line(getDistance(distance), getAngle(angle), (int) (key >>> 32)));
+        }
+        Collections.reverse(lines);
+        return lines;
+    }
+
+    /**
+     * Strict maximum towards the neighbours before it, at least equal to the neighbours after
+     * it, so a plateau gives a single peak. Outside the accumulator counts as no votes.
+     */
+    private boolean isPeak(int angle, int distance, int votes) {
+        for(int dy = -1; dy <= 1; dy++) {
+            int neighbourAngle = angle + dy;
+            if(neighbourAngle < 0 || neighbourAngle >= angleCount) {
+                continue;
+            }
+            for(int dx = -1; dx <= 1; dx++) {
+                int neighbourDistance = distance + dx;
+                if((dx == 0 && dy == 0) || neighbourDistance < 0 || neighbourDistance >= distanceCount) {
+                    continue;
+                }
+                int neighbourVotes = accumulatorBuffer[neighbourAngle * distanceCount + neighbourDistance];
+                boolean before = dy < 0 || (dy == 0 && dx < 0);
+                if(before ? neighbourVotes >= votes : neighbourVotes > votes) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  key ordered by votes, for equal votes the lower accumulator index is the larger key
+     */
+    private static long peakKey(int votes, int index) {
+        return ((long) votes << 32) | (Integer.MAX_VALUE - index);
+    }
+
+    private static void offer(PriorityQueue<Long> top, long key, int maxLines) {
+        if(top.size() < maxLines) {
+            top.add(key);
+        } else if(key > top.peek()) {
+            top.poll();
+            top.add(key);
+        }
+    }
+
+    private void compactEdgePoints(final byte[] edgeBuffer) {
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int y = startRow; y < endRow; y++) {
+                    int count = 0;
+                    for(int index = y * width; index < (y + 1) * width; index++) {
+                        if((edgeBuffer[index] & 0xFF) > edgeThreshold) {
+                            count++;
+                        }
+                    }
+                    rowPointCounts[y] = count;
+                }
+            }
+        });
+
+        pointCount = 0;
+        for(int y = 0; y < height; y++) {
+            rowPointOffsets[y] = pointCount;
+            pointCount += rowPointCounts[y];
+        }
+
+        RowBands.forEach(pool, height, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                for(int y = startRow; y < endRow; y++) {
+                    int offset = rowPointOffsets[y];
+                    for(int index = y * width; index < (y + 1) * width; index++) {
+                        if((edgeBuffer[index] & 0xFF) > edgeThreshold) {
+                            pointBuffer[offset++] = index;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private void vote() {
+        int partitions = privateAccumulators.length;
+        List<VoteTask> tasks = new ArrayList<>(partitions);
+        for(int partition = 0; partition < partitions; partition++) {
+            int startPoint = (int) ((long) pointCount * partition / partitions);
+            int endPoint = (int) ((long) pointCount * (partition + 1) / partitions);
+            tasks.add(new VoteTask(privateAccumulators[partition], startPoint, endPoint));
+        }
+        pool.invoke(new VoteAllTask(tasks));
+    }
+
+    private void reduce() {
+        RowBands.forEach(pool, angleCount, new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                int start = startRow * distanceCount;
+                int end = endRow * distanceCount;
+                System.arraycopy(privateAccumulators[0], start, accumulatorBuffer, start, end - start);
+                for(int partition = 1; partition < privateAccumulators.length; partition++) {
+                    int[] accumulator = privateAccumulators[partition];
+                    for(int index = start; index < end; index++) {
+                        accumulatorBuffer[index] += accumulator[index];
+                    }
+                }
+            }
+        });
+    }
+
+    private void votePoints(int[] accumulator, int startPoint, int endPoint) {
+        Arrays.fill(accumulator, 0);
+
+        float halfWidth = width >> 1;
+        float halfHeight = height >> 1;
+        int distanceShift = distanceCount >> 1;
+
+        for(int point = startPoint; point < endPoint; point++) {
+            int index = pointBuffer[point];
+            float px = (index % width) - halfWidth;
+            float py = (index / width) - halfHeight;
+
+            for(int angle = 0; angle < angleCount; angle++) {
+                int distance = distanceShift + (int) (px * cosTable[angle] + py * sinTable[angle]);
+                if(distance >= 0 && distance < distanceCount) {
+                    accumulator[angle * distanceCount + distance]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * A line x * cos(theta) + y * sin(theta) = rho, with (x, y) relative to the image center
+     * (width / 2, height / 2 rounded down, the y axis pointing down).
+     */
+    public static class Line {
+
+        private final float rho;
+        private final float theta;
+        private final int votes;
+
+        public Line(float rho, float theta, int votes) {
+            this.rho = rho;
+            this.theta = theta;
+            this.votes = votes;
+        }
+
+        /**
+         * @return  distance of the line to the image center in pixels
+         */
+        public float getRho() {
+            return rho;
+        }
+
+        /**
+         * @return  angle of the normal of the line in radians, [0, pi)
+         */
+        public float getTheta() {
+            return theta;
+        }
+
+        /**
+         * @return  number of edge points on the line
+         */
+        public int getVotes() {
+            return votes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Line(rho %.1f, theta %.1f deg, %d votes)", rho, Math.toDegrees(theta), votes);
+        }
+    }
+
+    private class VoteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] accumulator;
+        private final int startPoint;
+        private final int endPoint;
+
+        VoteTask(int[] accumulator, int startPoint, int endPoint) {
+            this.accumulator = accumulator;
+            this.startPoint = startPoint;
+            this.endPoint = endPoint;
+        }
+
+        @Override
+        protected void compute() {
+            votePoints(accumulator, startPoint, endPoint);
+        }
+    }
+
+    private static class VoteAllTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<VoteTask> tasks;
+
+        VoteAllTask(List<VoteTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Plain JVM implementation of the laplacian {@link ImagePyramid}.
+ *
+ * Uses the same level sizes ({@link MipChainLayout}) and the same compress and expand kernels
+ * as 'pyramid.rs', so laplacian levels can be moved between both. Used to rebuild frames
+ * encoded with {@link LaplacianPyramidCodec} without a device.
+ *
+ * Unlike the RenderScript pyramid all levels are calculated by {@link #calculate(float[])}.
+ */
+public class JvmImagePyramid {
+
+    private final ForkJoinPool pool;
+    private final MipChainLayout layout;
+    private final float[][] gaussians;
+    private final float[][] laplacians;
+    private final float[][] expanded;
+
+    /**
+     * Create new pyramid that runs on the common pool.
+     *
+     * @param width         width of level 0
+     * @param height        height of level 0
+     * @param levelCount    number of smaller levels, stops early when a level cannot get smaller
+     */
+    public JvmImagePyramid(int width, int height, int levelCount) {
+        this(ForkJoinPool.commonPool(), width, height, levelCount);
+    }
+
+    public JvmImagePyramid(ForkJoinPool pool, int width, int height, int levelCount) {
+        this.pool = pool;
+        this.layout = new MipChainLayout(width, height, levelCount);
+
+        int levels = layout.getLevelCount();
+        gaussians = new float[levels][];
+        laplacians = new float[levels][];
+        expanded = new float[levels][];
+        for(int level = 0; level < levels; level++) {
+            int size = layout.getLevelWidth(level) * layout.getLevelHeight(level);
+            gaussians[level] = new float[size];
+            laplacians[level] = new float[size];
+            if(level > 0) {
+                expanded[level] = new float[layout.getLevelWidth(level - 1) * layout.getLevelHeight(level - 1)];
+            }
+        }
+    }
+
+    /**
+     * @return  the number of levels, including level 0
+     */
+    public int getLevelCount() {
+        return layout.getLevelCount();
+    }
+
+    public int getLevelWidth(int level) {
+        return layout.getLevelWidth(level);
+    }
+
+    public int getLevelHeight(int level) {
+        return layout.getLevelHeight(level);
+    }
+
+    public float[] getLevelGaussian(int level) {
+        return gaussians[level];
+    }
+
+    public float[] getLevelLaplacian(int level) {
+        return laplacians[level];
+    }
+
+    /**
+     * Calculate all gaussian, expanded and laplacian levels of the given image.
+     *
+     * @param source    level 0 image, copied into the pyramid
+     */
+    public void calculate(float[] source) {
+        System.arraycopy(source, 0, gaussians[0], 0, gaussians[0].length);
+
+        for(int level = 1; level < getLevelCount(); level++) {
+            compress(level);
+        }
+
+        int lowestLevel = getLevelCount() - 1;
+        System.arraycopy(gaussians[lowestLevel], 0, laplacians[lowestLevel], 0, laplacians[lowestLevel].length);
+
+        for(int level = lowestLevel - 1; level >= 0; level--) {
+            expand(level + 1);
+            float[] gaussian = gaussians[level];
+            float[] lower = expanded[level + 1];
+            float[] laplacian = laplacians[level];
+            for(int i = 0; i < laplacian.length; i++) {
+                laplacian[i] = gaussian[i] - lower[i];
+            }
+        }
+    }
+
+    /**
+     * Reconstruct the image from the laplacian levels, like {@link ImagePyramid#collapseLaplacian()}.
+     *
+     * NOTE: this will overwrite the gaussian levels!
+     *
+     * @return  the reconstructed level 0 image
+     */
+    public float[] collapseLaplacian() {
+        int lowestLevel = getLevelCount() - 1;
+        System.arraycopy(laplacians[lowestLevel], 0, gaussians[lowestLevel], 0, gaussians[lowestLevel].length);
+
+        for(int level = lowestLevel - 1; level >= 0; level--) {
+            expand(level + 1);
+            float[] lower = expanded[level + 1];
+            float[] laplacian = laplacians[level];
+            float[] gaussian = gaussians[level];
+            for(int i = 0; i < gaussian.length; i++) {
+                gaussian[i] = lower[i] + laplacian[i];
+            }
+        }
+
+        return gaussians[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Kernels, these mirror the kernels in 'pyramid.rs'
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compress a band of target rows. Target row y combines the X compressed source rows
+     * 2y - 2 .. 2y + 2, the compressed rows are kept in a ring of five rows so each source row
+     * of the band is compressed along X only once (like the column ring of 'pyramid.rs').
+     */
+    private void compress(final int level) {
+        final float[] source = gaussians[level - 1];
+        final float[] target = gaussians[level];
+        final int sourceWidth = layout.getLevelWidth(level - 1);
+        final int sourceHeight = layout.getLevelHeight(level - 1);
+        final int targetWidth = layout.getLevelWidth(level);
+
+        RowBands.forEach(pool, layout.getLevelHeight(level), new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                float[][] ring = new float[5][targetWidth];
+
+                // Ring slot of source row r is (r + 5) % 5, rows above and below are clamped
+                for(int row = startRow * 2 - 2; row < startRow * 2 + 1; row++) {
+                    compressRow(source, sourceWidth, clamp(row, sourceHeight), targetWidth, ring[(row + 5) % 5]);
+                }
+
+                for(int y = startRow; y < endRow; y++) {
+                    int row = y * 2;
+                    compressRow(source, sourceWidth, clamp(row + 1, sourceHeight), targetWidth, ring[(row + 6) % 5]);
+                    compressRow(source, sourceWidth, clamp(row + 2, sourceHeight), targetWidth, ring[(row + 7) % 5]);
+
+                    float[] r0 = ring[(row + 3) % 5];
+                    float[] r1 = ring[(row + 4) % 5];
+                    float[] r2 = ring[row % 5];
+                    float[] r3 = ring[(row + 1) % 5];
+                    float[] r4 = ring[(row + 2) % 5];
+                    int offset = y * targetWidth;
+                    for(int x = 0; x < targetWidth; x++) {
+                        target[offset + x] = r0[x] * 0.05f + r1[x] * 0.25f + r2[x] * 0.4f + r3[x] * 0.25f + r4[x] * 0.05f;
+                    }
+                }
+            }
+        });
+    }
+
+    private static void compressRow(float[] source, int sourceWidth, int yp, int targetWidth, float[] out) {
+        int row = yp * sourceWidth;
+        for(int x = 0; x < targetWidth; x++) {
+            int xp = x * 2;
+            out[x] = source[row + Math.max(xp - 2, 0)] * 0.05f
+                    + source[row + Math.max(xp - 1, 0)] * 0.25f
+                    + source[row + xp] * 0.4f
+                    + source[row + Math.min(xp + 1, sourceWidth - 1)] * 0.25f
+                    + source[row + Math.min(xp + 2, sourceWidth - 1)] * 0.05f;
+        }
+    }
+
+    /**
+     * Expand a band of target rows. Target rows 2 yp and 2 yp + 1 combine the X expanded source
+     * rows yp - 1 .. yp + 1, which are kept in a ring of three rows.
+     */
+    private void expand(final int level) {
+        final float[] source = gaussians[level];
+        final float[] target = expanded[level];
+        final int sourceWidth = layout.getLevelWidth(level);
+        final int sourceHeight = layout.getLevelHeight(level);
+        final int targetWidth = layout.getLevelWidth(level - 1);
+
+        RowBands.forEach(pool, layout.getLevelHeight(level - 1), new RowBands.RowKernel() {
+            @Override
+            public void processRows(int startRow, int endRow) {
+                float[][] ring = new float[3][targetWidth];
+
+                // Ring slot of source row r is (r + 3) % 3, the last expanded row is loaded
+                int loadedRow = startRow / 2 - 2;
+
+                for(int y = startRow; y < endRow; y++) {
+                    int yp = y / 2;
+                    while(loadedRow < yp + 1) {
+                        loadedRow++;
+                        expandRow(source, sourceWidth, clamp(loadedRow, sourceHeight), targetWidth, ring[(loadedRow + 3) % 3]);
+                    }
+
+                    float[] r1 = ring[yp % 3];
+                    float[] r2 = ring[(yp + 1) % 3];
+                    int offset = y * targetWidth;
+                    if(yp * 2 == y) {
+                        // Even number, we are in-line with the source
+                        float[] r0 = ring[(yp + 2) % 3];
+                        for(int x = 0; x < targetWidth; x++) {
+                            target[offset + x] = r0[x] * 0.175f + r1[x] * 0.65f + r2[x] * 0.175f;
+                        }
+                    } else {
+                        // Odd number, we are in-between the source
+                        for(int x = 0; x < targetWidth; x++) {
+                            target[offset + x] = r1[x] * 0.5f + r2[x] * 0.5f;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static void expandRow(float[] source, int sourceWidth, int yp, int targetWidth, float[] out) {
+        int row = yp * sourceWidth;
+        for(int x = 0; x < targetWidth; x++) {
+            int xp = x / 2;
+            int x2 = row + Math.min(xp + 1, sourceWidth - 1);
+            if(xp * 2 == x) {
+                out[x] = source[row + Math.max(xp - 1, 0)] * 0.175f + source[row + xp] * 0.65f + source[x2] * 0.175f;
+            } else {
+                out[x] = source[row + xp] * 0.5f + source[x2] * 0.5f;
+            }
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
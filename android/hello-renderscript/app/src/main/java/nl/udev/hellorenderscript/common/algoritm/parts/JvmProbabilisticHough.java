@@ -0,0 +1,377 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Progressive probabilistic Hough transform (Matas, Galambos and Kittler), finds line segments
+ * without voting every edge point.
+ *
+ * The full transform ({@link JvmHoughTransform}) votes every edge point for every angle. This
+ * transform votes the edge points in a random order and stops a line as soon as it is
+ * significant:
+ *
+ * 1) take a random edge point that is still available and vote it for every angle
+ * 2) when the best cell of this point has fewer votes than the threshold, continue with 1
+ * 3) walk along that line from the point in both directions over the edge points, allowing
+ *    gaps of at most maxLineGap pixels, this gives the segment endpoints
+ * 4) remove all points of the segment from the available points, the points which already
+ *    voted are unvoted again, so they do not support other lines
+ * 5) keep the segment when it is at least minLineLength long
+ *
+ * Lines are found after a fraction of their points voted and their other points never vote,
+ * so on edge-dense scenes only a small part of the edge points is voted.
+ *
+ * The accumulator layout and the line parameters are the same as {@link JvmHoughTransform}.
+ * The transform is sequential by nature (every line removes points for the next one), it uses
+ * a seeded random generator so the result is reproducible.
+ */
+public class JvmProbabilisticHough {
+
+    public static final int DEFAULT_THRESHOLD = 40;
+    public static final int DEFAULT_MIN_LINE_LENGTH = 30;
+    public static final int DEFAULT_MAX_LINE_GAP = 5;
+    public static final int DEFAULT_MAX_SEGMENTS = 64;
+
+    private static final byte POINT_NONE = 0;
+    private static final byte POINT_AVAILABLE = 1;
+    private static final byte POINT_VOTED = 2;
+
+    private final int width;
+    private final int height;
+    private final int angleCount;
+    private final int distanceCount;
+    private final float[] cosTable;
+    private final float[] sinTable;
+    private final float driftSlope;
+    private final Random random;
+
+    private int edgeThreshold = JvmHoughTransform.DEFAULT_EDGE_THRESHOLD;
+    private int threshold = DEFAULT_THRESHOLD;
+    private int minLineLength = DEFAULT_MIN_LINE_LENGTH;
+    private int maxLineGap = DEFAULT_MAX_LINE_GAP;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+
+    private final byte[] pointStates;
+    private final int[] pointBuffer;
+    private final int[] accumulatorBuffer;
+    private final int[] walkBuffer;
+    private int pointCount;
+    private int votedPointCount;
+
+    /**
+     * Create a new transform with the accumulator size of {@link JvmHoughTransform#JvmHoughTransform(int, int)}.
+     *
+     * @param width     Width of the edge image
+     * @param height    Height of the edge image
+     * @param seed      Seed of the random point order
+     */
+    public JvmProbabilisticHough(int width, int height, long seed) {
+        this(width, height, JvmHoughTransform.DEFAULT_ANGLE_COUNT,
+                JvmHoughTransform.getDistanceCount(width, height), seed);
+    }
+
+    /**
+     * Create a new transform.
+     *
+     * @param width             Width of the edge image
+     * @param height            Height of the edge image
+     * @param angleCount        Number of angles in [0, 180) degrees
+     * @param distanceCount     Number of distances, one pixel each, centered on the image center
+     * @param seed              Seed of the random point order
+     */
+    public JvmProbabilisticHough(int width, int height, int angleCount, int distanceCount, long seed) {
+        this.width = width;
+        this.height = height;
+        this.angleCount = angleCount;
+        this.distanceCount = distanceCount;
+        this.random = new Random(seed);
+
+        cosTable = new float[angleCount];
+        sinTable = new float[angleCount];
+        for(int angle = 0; angle < angleCount; angle++) {
+            double radians = Math.PI * angle / angleCount;
+            cosTable[angle] = (float) Math.cos(radians);
+            sinTable[angle] = (float) Math.sin(radians);
+        }
+        // Deviation per pixel of a line from its quantized angle, at most half an angle step
+        driftSlope = (float) Math.tan(Math.PI / (2 * angleCount));
+
+        pointStates = new byte[width * height];
+        pointBuffer = new int[width * height];
+        accumulatorBuffer = new int[angleCount * distanceCount];
+        walkBuffer = new int[2 * (width + height) + 1];
+    }
+
+    /**
+     * @param edgeThreshold     pixels above this value are edges
+     */
+    public void setEdgeThreshold(int edgeThreshold) {
+        this.edgeThreshold = edgeThreshold;
+    }
+
+    /**
+     * @param threshold     votes from which a line is significant
+     */
+    public void setThreshold(int threshold) {
+        if(threshold < 1) {
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param minLineLength     shorter segments are removed but not returned
+     */
+    public void setMinLineLength(int minLineLength) {
+        this.minLineLength = minLineLength;
+    }
+
+    /**
+     * @param maxLineGap    maximal number of missing pixels within a segment
+     */
+    public void setMaxLineGap(int maxLineGap) {
+        this.maxLineGap = maxLineGap;
+    }
+
+    /**
+     * @param maxSegments   the transform stops when this number of segments is found
+     */
+    public void setMaxSegments(int maxSegments) {
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * @return  number of edge points of the last {@link #findSegments(byte[])}
+     */
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return  number of edge points that voted in the last {@link #findSegments(byte[])}
+     */
+    public int getVotedPointCount() {
+        return votedPointCount;
+    }
+
+    /**
+     * Find the line segments of an edge image.
+     *
+     * @param edgeBuffer    width x height unsigned bytes
+     * @return  the segments in the order they were found
+     */
+    public List<Segment> findSegments(byte[] edgeBuffer) {
+        collectPoints(edgeBuffer);
+        Arrays.fill(accumulatorBuffer, 0);
+        votedPointCount = 0;
+
+        List<Segment> segments = new ArrayList<>();
+        for(int remaining = pointCount; remaining > 0 && segments.size() < maxSegments; remaining--) {
+
+            // Take a random point of the remaining points (partial Fisher-Yates shuffle)
+            int pick = random.nextInt(remaining);
+            int point = pointBuffer[pick];
+            pointBuffer[pick] = pointBuffer[remaining - 1];
+            pointBuffer[remaining - 1] = point;
+
+            if(pointStates[point] != POINT_AVAILABLE) {
+                // Removed by a segment
+                continue;
+            }
+
+            int bestCell = vote(point);
+            if(accumulatorBuffer[bestCell] < threshold) {
+                continue;
+            }
+
+            Segment segment = extractSegment(point, bestCell / distanceCount);
+            if(segment != null) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private void collectPoints(byte[] edgeBuffer) {
+        pointCount = 0;
+        for(int index = 0; index < width * height; index++) {
+            if((edgeBuffer[index] & 0xFF) > edgeThreshold) {
+                pointStates[index] = POINT_AVAILABLE;
+                pointBuffer[pointCount++] = index;
+            } else {
+                pointStates[index] = POINT_NONE;
+            }
+        }
+    }
+
+    /**
+     * Vote the point for every angle.
+     *
+     * @return  the accumulator index of the cell with the most votes of this point
+     */
+    private int vote(int point) {
+        pointStates[point] = POINT_VOTED;
+        votedPointCount++;
+
+        float px = (point % width) - (float) (width >> 1);
+        float py = (point / width) - (float) (height >> 1);
+        int distanceShift = distanceCount >> 1;
+
+        int bestCell = 0;
+        int bestVotes = -1;
+        for(int angle = 0; angle < angleCount; angle++) {
+            int distance = distanceShift + (int) (px * cosTable[angle] + py * sinTable[angle]);
+            if(distance >= 0 && distance < distanceCount) {
+                int cell = angle * distanceCount + distance;
+                int votes = ++accumulatorBuffer[cell];
+                if(votes > bestVotes) {
+                    bestVotes = votes;
+                    bestCell = cell;
+                }
+            }
+        }
+        return bestCell;
+    }
+
+    private void unvote(int point) {
+        float px = (point % width) - (float) (width >> 1);
+        float py = (point / width) - (float) (height >> 1);
+        int distanceShift = distanceCount >> 1;
+
+        for(int angle = 0; angle < angleCount; angle++) {
+            int distance = distanceShift + (int) (px * cosTable[angle] + py * sinTable[angle]);
+            if(distance >= 0 && distance < distanceCount) {
+                accumulatorBuffer[angle * distanceCount + distance]--;
+            }
+        }
+    }
+
+    /**
+     * Walk along the line of the given angle through the point, remove its points and return
+     * the segment when it is long enough.
+     *
+     * The angle is quantized, so over a long segment the walk drifts away from the pixels of
+     * the line. When the pixel on the walk is missing the two pixels next to it (across the
+     * major axis) are tried as well, the walk then follows the line from that pixel. The total
+     * drift is bounded by 1 pixel plus the deviation of half an angle step, so the walk does
+     * not follow curves.
+     */
+    private Segment extractSegment(int point, int angle) {
+        int x0 = point % width;
+        int y0 = point / width;
+
+        // Direction along the line, perpendicular to the normal (cos, sin), one pixel along the major axis
+        float dx = -sinTable[angle];
+        float dy = cosTable[angle];
+        boolean majorX = Math.abs(dx) >= Math.abs(dy);
+        float major = majorX ? Math.abs(dx) : Math.abs(dy);
+        dx /= major;
+        dy /= major;
+
+        int walkCount = 0;
+        walkBuffer[walkCount++] = point;
+
+        int[] ends = new int[4];
+        for(int side = 0; side < 2; side++) {
+            float sign = side == 0 ? 1.0f : -1.0f;
+            int endX = x0;
+            int endY = y0;
+            int drift = 0;
+            int gap = 0;
+            for(int step = 1; gap <= maxLineGap; step++) {
+                int x = Math.round(x0 + sign * step * dx) + (majorX ? 0 : drift);
+                int y = Math.round(y0 + sign * step * dy) + (majorX ? drift : 0);
+                if(x < 0 || x >= width || y < 0 || y >= height) {
+                    break;
+                }
+
+                int maxDrift = 1 + (int) (step * driftSlope);
+                int found = -1;
+                for(int neighbour = 0; neighbour < 3 && found < 0; neighbour++) {
+                    int offset = neighbour == 0 ? 0 : (neighbour == 1 ? -1 : 1);
+                    if(Math.abs(drift + offset) > maxDrift) {
+                        continue;
+                    }
+                    int nx = majorX ? x : x + offset;
+                    int ny = majorX ? y + offset : y;
+                    if(nx >= 0 && nx < width && ny >= 0 && ny < height && pointStates[ny * width + nx] != POINT_NONE) {
+                        found = ny * width + nx;
+                        drift += offset;
+                    }
+                }
+
+                if(found >= 0) {
+                    walkBuffer[walkCount++] = found;
+                    endX = found % width;
+                    endY = found / width;
+                    gap = 0;
+                } else {
+                    gap++;
+                }
+            }
+            ends[side * 2] = endX;
+            ends[side * 2 + 1] = endY;
+        }
+
+        // Remove the points of the segment, unvote the ones that voted
+        for(int walk = 0; walk < walkCount; walk++) {
+            int index = walkBuffer[walk];
+            if(pointStates[index] == POINT_VOTED) {
+                unvote(index);
+            }
+            pointStates[index] = POINT_NONE;
+        }
+
+        int length = Math.max(Math.abs(ends[0] - ends[2]), Math.abs(ends[1] - ends[3]));
+        if(length < minLineLength) {
+            return null;
+        }
+        return new Segment(ends[2], ends[3], ends[0], ends[1]);
+    }
+
+    /**
+     * A line segment between two edge points, in pixel coordinates of the image.
+     */
+    public static class Segment {
+
+        private final int x1;
+        private final int y1;
+        private final int x2;
+        private final int y2;
+
+        public Segment(int x1, int y1, int x2, int y2) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+        }
+
+        public int getX1() {
+            return x1;
+        }
+
+        public int getY1() {
+            return y1;
+        }
+
+        public int getX2() {
+            return x2;
+        }
+
+        public int getY2() {
+            return y2;
+        }
+
+        public float getLength() {
+            return (float) Math.hypot(x2 - x1, y2 - y1);
+        }
+
+        @Override
+        public String toString() {
+            return "Segment(" + x1 + ", " + y1 + " - " + x2 + ", " + y2 + ")";
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe registry of precomputed weighted angular vector kernels, shared by all algorithm instances.
+ *
+ * Generating a kernel ({@link Kernels#createWeightedAngularVectorKernel(int)}) costs an atan2, cos
+ * and sin per tap, plus the scans for the total weights. The bank does that at most once per
+ * kernel size and hands out immutable kernels with their precomputed total weights, so changing
+ * the kernel size while the frame loop runs does not stall it.
+ *
+ * The bank can be persisted to a compact binary file which is memory-mapped at startup, kernels
+ * are then only decoded from the mapped file when they are first requested.
+ *
+ * File layout (little endian):
+ * - int     magic
+ * - int     version
+ * - int     kernel count
+ * - per kernel:
+ *      int      kernel size
+ *      float    total weight
+ *      float    total weight 2N
+ *      float[]  kernel size x kernel size x (vector.x, vector.y, vector.weight)
+ */
+public class KernelBank {
+
+    private static final int FILE_MAGIC = 0x4B424E4B; // "KBNK"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 3 * 4;
+    private static final int KERNEL_HEADER_BYTES = 3 * 4;
+
+    /**
+     * Largest kernel size accepted from a bank file, far beyond any size the algorithms use.
+     */
+    public static final int MAX_FILE_KERNEL_SIZE = 255;
+
+    private static final KernelBank instance = new KernelBank();
+
+    private final Map<Integer, VectorKernel> kernels = new HashMap<>();
+    private final Map<String, LowRankKernels.LowRankVectorKernel> lowRankKernels = new HashMap<>();
+    private final Map<Integer, Integer> mappedKernelOffsets = new HashMap<>();
+    private MappedByteBuffer mappedFile;
+
+    /**
+     * @return  the bank shared by all algorithms
+     */
+    public static KernelBank getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the weighted angular vector kernel of the given size, it is created only on first use.
+     *
+     * @param kernelSize    The desired size so that the kernel becomes a (kernelSize x kernelSize) grid
+     * @return  The shared immutable kernel
+     */
+    public synchronized VectorKernel getWeightedAngularVectorKernel(int kernelSize) {
+
+        VectorKernel kernel = kernels.get(kernelSize);
+
+        if(kernel == null) {
+            Integer mappedOffset = mappedKernelOffsets.get(kernelSize);
+            if(mappedOffset != null) {
+                kernel = decodeKernel(mappedFile, mappedOffset);
+            } else {
+                kernel = new VectorKernel(kernelSize, Kernels.generateWeightedAngularVectorKernel(kernelSize, null));
+            }
+            kernels.put(kernelSize, kernel);
+        }
+
+        return kernel;
+    }
+
+    /**
+     * Get the low rank decomposition of the weighted angular vector kernel, it is created only on first use.
+     *
+     * @param kernelSize    Size of the kernel
+     * @param passes        Desired number of separable passes
+     * @return  The shared decomposition
+     */
+    public synchronized LowRankKernels.LowRankVectorKernel getLowRankVectorKernel(int kernelSize, int passes) {
+
+        String key = kernelSize + ":" + passes;
+        LowRankKernels.LowRankVectorKernel kernel = lowRankKernels.get(key);
+
+        if(kernel == null) {
+            float[] entries = getWeightedAngularVectorKernel(kernelSize).entries;
+            kernel = LowRankKernels.decomposeVectorKernel(entries, kernelSize, passes);
+            lowRankKernels.put(key, kernel);
+        }
+
+        return kernel;
+    }
+
+    /**
+     * Create all odd kernel sizes up to (and including) the given size.
+     *
+     * @param maxKernelSize    Largest kernel size to build
+     */
+    public void prebuild(int maxKernelSize) {
+        for(int kernelSize = 1; kernelSize <= maxKernelSize; kernelSize += 2) {
+            getWeightedAngularVectorKernel(kernelSize);
+        }
+    }
+
+    /**
+     * Memory-map the given bank file, or create it with all odd sizes up to maxKernelSize when
+     * it does not exist (or is not valid).
+     *
+     * @param file             The bank file
+     * @param maxKernelSize    Largest kernel size to store when the file is created
+     * @throws IOException when the file can not be created or mapped
+     */
+    public void mapOrCreate(File file, int maxKernelSize) throws IOException {
+        if(!file.exists() || !map(file)) {
+            prebuild(maxKernelSize);
+            save(file);
+            map(file);
+        }
+    }
+
+    /**
+     * Memory-map a bank file created by {@link #save(File)}.
+     *
+     * @param file    The bank file
+     * @return  true if the file is valid and mapped
+     * @throws IOException when the file can not be read
+     */
+    public synchronized boolean map(File file) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(buffer.limit() < FILE_HEADER_BYTES
+                    || buffer.getInt(0) != FILE_MAGIC
+                    || buffer.getInt(4) != FILE_VERSION) {
+                return false;
+            }
+
+            // Only index the kernels, they are decoded on first use
+            Map<Integer, Integer> offsets = new HashMap<>();
+            int count = buffer.getInt(8);
+            long offset = FILE_HEADER_BYTES;
+            for(int c = 0; c < count; c++) {
+                if(offset + KERNEL_HEADER_BYTES > buffer.limit()) {
+                    return false;
+                }
+                int kernelSize = buffer.getInt((int) offset);
+                if(kernelSize <= 0 || kernelSize > MAX_FILE_KERNEL_SIZE || kernelSize % 2 == 0) {
+                    return false;
+                }
+                offsets.put(kernelSize, (int) offset);
+                offset += KERNEL_HEADER_BYTES + (long) kernelSize * kernelSize * 3 * 4;
+            }
+            if(count < 0 || offset > buffer.limit()) {
+                return false;
+            }
+
+            mappedFile = buffer;
+            mappedKernelOffsets.clear();
+            mappedKernelOffsets.putAll(offsets);
+            return true;
+        } finally {
+            // The mapping stays valid after closing the file
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Store all kernels currently in the bank into the given file.
+     *
+     * The bank is written to a temporary file next to it which then replaces the file, so a
+     * mapping of the old file is never overwritten and an interrupted save leaves no half file.
+     *
+     * @param file    The bank file
+     * @throws IOException when the file can not be written
+     */
+    public synchronized void save(File file) throws IOException {
+
+        // Include the mapped kernels which were not requested yet
+        for(Integer kernelSize : mappedKernelOffsets.keySet()) {
+            getWeightedAngularVectorKernel(kernelSize);
+        }
+
+        int bytes = FILE_HEADER_BYTES;
+        for(VectorKernel kernel : kernels.values()) {
+            bytes += KERNEL_HEADER_BYTES + kernel.size * kernel.size * 3 * 4;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(FILE_VERSION);
+        buffer.putInt(kernels.size());
+
+        for(VectorKernel kernel : kernels.values()) {
+            buffer.putInt(kernel.size);
+            buffer.putFloat(kernel.totalWeight);
+            buffer.putFloat(kernel.totalWeight2N);
+            for(int c = 0; c < kernel.size * kernel.size; c++) {
+                buffer.putFloat(kernel.entries[c * 4]);
+                buffer.putFloat(kernel.entries[c * 4 + 1]);
+                buffer.putFloat(kernel.entries[c * 4 + 2]);
+            }
+        }
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+        try {
+            outputStream.write(buffer.array());
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if(!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    private static VectorKernel decodeKernel(ByteBuffer buffer, int offset) {
+        int kernelSize = buffer.getInt(offset);
+        float totalWeight = buffer.getFloat(offset + 4);
+        float totalWeight2N = buffer.getFloat(offset + 8);
+
+        float[] entries = new float[kernelSize * kernelSize * 4];
+        int position = offset + KERNEL_HEADER_BYTES;
+        for(int c = 0; c < kernelSize * kernelSize; c++) {
+            entries[c * 4] = buffer.getFloat(position);
+            entries[c * 4 + 1] = buffer.getFloat(position + 4);
+            entries[c * 4 + 2] = buffer.getFloat(position + 8);
+            position += 12;
+        }
+
+        return new VectorKernel(kernelSize, entries, totalWeight, totalWeight2N);
+    }
+
+    /**
+     * Immutable weighted angular vector kernel with its precomputed total weights.
+     */
+    public static final class VectorKernel {
+
+        private final int size;
+        private final float[] entries;
+        private final float totalWeight;
+        private final float totalWeight2N;
+
+        VectorKernel(int size, float[] entries) {
+            this(size, entries, Kernels.calculateTotalKernelWeight(entries), Kernels.calculateTotalKernelWeight2N(entries));
+        }
+
+        VectorKernel(int size, float[] entries, float totalWeight, float totalWeight2N) {
+            this.size = size;
+            this.entries = entries;
+            this.totalWeight = totalWeight;
+            this.totalWeight2N = totalWeight2N;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * The kernel in the layout of {@link Kernels#createWeightedAngularVectorKernel(int)}.
+         *
+         * NOTE: the array is shared by all users of the bank and must never be modified!
+         *
+         * @return  flat array of size (size x size x 4)
+         */
+        public float[] getEntries() {
+            return entries;
+        }
+
+        public float getTotalWeight() {
+            return totalWeight;
+        }
+
+        public float getTotalWeight2N() {
+            return totalWeight2N;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+/**
+ * How the weighted angular vector kernel of {@link EdgeDetection} and {@link JvmEdgeDetection}
+ * is applied.
+ */
+public enum KernelMode {
+    KernelVector2D,
+    KernelVector2dSeparable2N,
+    KernelVector2dLowRank
+}
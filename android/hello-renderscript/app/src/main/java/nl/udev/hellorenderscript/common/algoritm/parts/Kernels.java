@@ -1,7 +1,5 @@
 package nl.udev.hellorenderscript.common.algoritm.parts;
 
-import android.util.Log;
-
 /**
  * Utility class for generating kernels.
  *
@@ -33,13 +31,23 @@ public class Kernels {
      * @return              The kernel buffer as a flat array of size (kernelSize x kernelSize x 4)
      */
     public static float[] createWeightedAngularVectorKernel(int kernelSize) {
+        return generateWeightedAngularVectorKernel(kernelSize, null);
+    }
+
+    /**
+     * Generates the kernel of {@link #createWeightedAngularVectorKernel(int)}, optionally with a
+     * readable dump of it.
+     *
+     * @param kernelSize        The desired size so that the kernel becomes a (kernelSize x kernelSize) grid
+     * @param bufferAsString    Optional (may be null) builder which receives a readable dump of the kernel
+     * @return                  The kernel buffer as a flat array of size (kernelSize x kernelSize x 4)
+     */
+    static float[] generateWeightedAngularVectorKernel(int kernelSize, StringBuilder bufferAsString) {
 
         float[] kernelBuffer = new float[kernelSize * kernelSize * 4];
         float kernelCenter = (kernelSize - 1) / 2.0f;
         int offset = 0;
 
-        StringBuilder bufferAsString = new StringBuilder(kernelBuffer.length * 5);
-
         for(int y = 0; y < kernelSize; y++) {
             float yp = y - kernelCenter;
             for(int x = 0; x < kernelSize; x++) {
@@ -87,14 +95,16 @@ public class Kernels {
                 kernelBuffer[offset++] = vW;
                 kernelBuffer[offset++] = 0; // Padding
 
-                bufferAsString.append(String.format("(%1.2f, %1.2f, %1.2f) ", vX, vY, vW));
+                if(bufferAsString != null) {
+                    bufferAsString.append(String.format("(%1.2f, %1.2f, %1.2f) ", vX, vY, vW));
+                }
             }
 
-            bufferAsString.append("\n");
+            if(bufferAsString != null) {
+                bufferAsString.append("\n");
+            }
         }
 
-        Log.i("Kernels", "Created kernel buffer:\n" + bufferAsString.toString());
-
         return kernelBuffer;
     }
 
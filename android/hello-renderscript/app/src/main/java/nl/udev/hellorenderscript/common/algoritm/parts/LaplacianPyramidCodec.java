@@ -0,0 +1,235 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Compact storage of frames as quantized laplacian pyramid levels.
+ *
+ * Each laplacian level is quantized to INT8 or INT16 with its own scale factor (the largest
+ * absolute value of the level maps to the largest integer). Most laplacian values are close to
+ * zero, so the encoding keeps them small for a general purpose compressor (e.g. deflate):
+ * - levels are stored from the smallest (coarse) to level 0 (fine)
+ * - values are zigzag encoded (0, -1, 1, -2, ... becomes 0, 1, 2, 3, ...)
+ * - INT16 values are stored as a plane of low bytes followed by a plane of high bytes, so the
+ *   high bytes (mostly zero) form long runs
+ *
+ * Layout (little endian):
+ *
+ * int      MAGIC
+ * byte     quantization ordinal
+ * byte     number of smaller levels (level count - 1)
+ * int      width of level 0
+ * int      height of level 0
+ * per level, smallest first:
+ *   float  scale (value = quantized * scale)
+ *   bytes  quantized values, width x height bytes (INT8) or 2 planes of width x height bytes (INT16)
+ *
+ * The level sizes follow from the level 0 size, see {@link MipChainLayout}. Decoded levels can
+ * be collapsed on the JVM with {@link JvmImagePyramid#collapseLaplacian()} or loaded into a
+ * RenderScript pyramid with {@link ImagePyramid#loadLaplacians(float[][], android.renderscript.Allocation)}.
+ *
+ * Decoding checks the header and the length of the data first, a stream that is truncated or
+ * not an encoded frame gives an IllegalArgumentException that says what is wrong.
+ */
+public class LaplacianPyramidCodec {
+
+    private static final int MAGIC = 0x3143504c; // "LPC1"
+    private static final int HEADER_BYTES = 4 + 1 + 1 + 4 + 4;
+
+    private LaplacianPyramidCodec() {
+        // Utility class, no instantiation
+    }
+
+    /**
+     * Encode the laplacian levels of a frame.
+     *
+     * @param width           width of level 0
+     * @param height          height of level 0
+     * @param laplacians      laplacian of each level, level 0 first, sizes as in {@link MipChainLayout}
+     * @param quantization    integer size of the stored values
+     * @return  the encoded frame
+     */
+    public static byte[] encode(int width, int height, float[][] laplacians, Quantization quantization) {
+
+        MipChainLayout layout = new MipChainLayout(width, height, laplacians.length - 1);
+        if(layout.getLevelCount() != laplacians.length) {
+            throw new IllegalArgumentException("A " + width + "x" + height + " pyramid cannot have " + laplacians.length + " levels");
+        }
+
+        int size = HEADER_BYTES;
+        for(float[] laplacian : laplacians) {
+            size += 4 + laplacian.length * quantization.bytes;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) quantization.ordinal());
+        buffer.put((byte) (laplacians.length - 1));
+        buffer.putInt(width);
+        buffer.putInt(height);
+
+        for(int level = laplacians.length - 1; level >= 0; level--) {
+            float[] laplacian = laplacians[level];
+            if(laplacian.length != layout.getLevelWidth(level) * layout.getLevelHeight(level)) {
+                throw new IllegalArgumentException("Level " + level + " has " + laplacian.length + " values");
+            }
+
+            float maxAbs = 0.0f;
+            for(float value : laplacian) {
+                maxAbs = Math.max(maxAbs, Math.abs(value));
+            }
+            float scale = maxAbs / quantization.maxValue;
+            float inverseScale = scale > 0.0f ? 1.0f / scale : 0.0f;
+            buffer.putFloat(scale);
+
+            int planeOffset = buffer.position();
+            for(int i = 0; i < laplacian.length; i++) {
+                int quantized = Math.round(laplacian[i] * inverseScale);
+                quantized = Math.max(-quantization.maxValue, Math.min(quantization.maxValue, quantized));
+                int zigzag = (quantized << 1) ^ (quantized >> 31);
+
+                buffer.put(planeOffset + i, (byte) zigzag);
+                if(quantization == Quantization.INT16) {
+                    buffer.put(planeOffset + laplacian.length + i, (byte) (zigzag >>> 8));
+                }
+            }
+            buffer.position(planeOffset + laplacian.length * quantization.bytes);
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * @return  the number of levels (including level 0) of the encoded frame
+     */
+    public static int getLevelCount(byte[] encoded) {
+        return readHeader(encoded).layout.getLevelCount();
+    }
+
+    /**
+     * Decode the laplacian levels of a frame.
+     *
+     * @param encoded    the encoded frame
+     * @return  laplacian of each level, level 0 first
+     */
+    public static float[][] decode(byte[] encoded) {
+        Header header = readHeader(encoded);
+        MipChainLayout layout = header.layout;
+        float[][] laplacians = new float[layout.getLevelCount()][];
+        for(int level = 0; level < laplacians.length; level++) {
+            laplacians[level] = new float[layout.getLevelWidth(level) * layout.getLevelHeight(level)];
+        }
+        decode(encoded, header, laplacians);
+        return laplacians;
+    }
+
+    /**
+     * Decode the laplacian levels of a frame into a JVM pyramid of the same size, ready for
+     * {@link JvmImagePyramid#collapseLaplacian()}.
+     */
+    public static void decode(byte[] encoded, JvmImagePyramid pyramid) {
+        float[][] laplacians = new float[pyramid.getLevelCount()][];
+        for(int level = 0; level < laplacians.length; level++) {
+            laplacians[level] = pyramid.getLevelLaplacian(level);
+        }
+        decode(encoded, readHeader(encoded), laplacians);
+    }
+
+    private static void decode(byte[] encoded, Header header, float[][] laplacians) {
+        MipChainLayout layout = header.layout;
+        Quantization quantization = header.quantization;
+        if(layout.getLevelCount() != laplacians.length) {
+            throw new IllegalArgumentException("Encoded frame has " + layout.getLevelCount() + " levels, not " + laplacians.length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_BYTES);
+
+        for(int level = laplacians.length - 1; level >= 0; level--) {
+            float[] laplacian = laplacians[level];
+            if(laplacian.length != layout.getLevelWidth(level) * layout.getLevelHeight(level)) {
+                throw new IllegalArgumentException("Level " + level + " has room for " + laplacian.length + " values");
+            }
+
+            float scale = buffer.getFloat();
+            int planeOffset = buffer.position();
+            for(int i = 0; i < laplacian.length; i++) {
+                int zigzag = encoded[planeOffset + i] & 0xff;
+                if(quantization == Quantization.INT16) {
+                    zigzag |= (encoded[planeOffset + laplacian.length + i] & 0xff) << 8;
+                }
+                int quantized = (zigzag >>> 1) ^ -(zigzag & 1);
+                laplacian[i] = quantized * scale;
+            }
+            buffer.position(planeOffset + laplacian.length * quantization.bytes);
+        }
+    }
+
+    /**
+     * Parse and validate the header, including the length of the data that follows it.
+     */
+    private static Header readHeader(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        if(encoded.length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded laplacian pyramid");
+        }
+
+        int ordinal = buffer.get(4) & 0xff;
+        if(ordinal >= Quantization.values().length) {
+            throw new IllegalArgumentException("Unknown quantization " + ordinal);
+        }
+        Quantization quantization = Quantization.values()[ordinal];
+
+        int levels = buffer.get(5) & 0xff;
+        int width = buffer.getInt(6);
+        int height = buffer.getInt(10);
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        MipChainLayout layout = new MipChainLayout(width, height, levels);
+        if(layout.getLevelCount() != levels + 1) {
+            throw new IllegalArgumentException("A " + width + "x" + height + " pyramid cannot have " + (levels + 1) + " levels");
+        }
+
+        long size = HEADER_BYTES;
+        for(int level = 0; level < layout.getLevelCount(); level++) {
+            size += 4 + (long) layout.getLevelWidth(level) * layout.getLevelHeight(level) * quantization.bytes;
+        }
+        if(encoded.length != size) {
+            throw new IllegalArgumentException((encoded.length < size ? "Truncated" : "Trailing data in")
+                    + " encoded laplacian pyramid: " + encoded.length + " bytes, " + size + " expected");
+        }
+
+        return new Header(quantization, layout);
+    }
+
+    private static class Header {
+        final Quantization quantization;
+        final MipChainLayout layout;
+
+        Header(Quantization quantization, MipChainLayout layout) {
+            this.quantization = quantization;
+            this.layout = layout;
+        }
+    }
+
+    /**
+     * Integer size of the stored laplacian values:
+     *
+     * INT8     - 1 byte per value, error < scale / 2 with scale = max(|level|) / 127
+     * INT16    - 2 bytes per value, error < scale / 2 with scale = max(|level|) / 32767
+     */
+    public enum Quantization {
+        INT8(1, 127),
+        INT16(2, 32767);
+
+        final int bytes;
+        final int maxValue;
+
+        Quantization(int bytes, int maxValue) {
+            this.bytes = bytes;
+            this.maxValue = maxValue;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Utility class for decomposing the weighted angular vector kernel into separable passes.
+ *
+ * The X and Y component of the kernel (vector.x * weight and vector.y * weight) are each
+ * decomposed with a singular value decomposition:
+ *
+ *      K = sum(r) sigma(r) * u(r) * v(r)^T
+ *
+ * Applying the first R terms costs one row pass (v) and one column pass (sigma * u) per term,
+ * so 2 * N * R reads per pixel instead of N^2 for the full 2D kernel.
+ */
+public class LowRankKernels {
+
+    private static final int MAX_SWEEPS = 60;
+    private static final double EPSILON = 1e-12;
+
+    private LowRankKernels() {
+        // Utility class, no instantiation
+    }
+
+    /**
+     * Decompose the given weighted angular vector kernel in the given number of separable passes.
+     *
+     * @param kernelBuffer    Kernel as created by {@link Kernels#createWeightedAngularVectorKernel(int)}
+     * @param kernelSize      Width (and height) of the kernel
+     * @param passes          Desired number of rank-1 passes, clamped to [1, kernelSize]
+     * @return  The row and column filters of each pass plus the approximation error
+     */
+    public static LowRankVectorKernel decomposeVectorKernel(float[] kernelBuffer, int kernelSize, int passes) {
+
+        int rank = Math.max(1, Math.min(passes, kernelSize));
+
+        double[] componentX = new double[kernelSize * kernelSize];
+        double[] componentY = new double[kernelSize * kernelSize];
+        for(int c = 0; c < kernelSize * kernelSize; c++) {
+            componentX[c] = kernelBuffer[c * 4] * kernelBuffer[c * 4 + 2];
+            componentY[c] = kernelBuffer[c * 4 + 1] * kernelBuffer[c * 4 + 2];
+        }
+
+        Decomposition decompositionX = decompose(componentX, kernelSize);
+        Decomposition decompositionY = decompose(componentY, kernelSize);
+
+        // Layout is a (kernelSize x rank) grid of (X, Y) pairs, so it can be copied into a 2D F32_2 allocation
+        float[] rowKernels = new float[kernelSize * rank * 2];
+        float[] columnKernels = new float[kernelSize * rank * 2];
+
+        for(int r = 0; r < rank; r++) {
+            for(int d = 0; d < kernelSize; d++) {
+                int offset = (r * kernelSize + d) * 2;
+                rowKernels[offset] = (float) decompositionX.v[d * kernelSize + r];
+                rowKernels[offset + 1] = (float) decompositionY.v[d * kernelSize + r];
+                columnKernels[offset] = (float) (decompositionX.sigma[r] * decompositionX.u[d * kernelSize + r]);
+                columnKernels[offset + 1] = (float) (decompositionY.sigma[r] * decompositionY.u[d * kernelSize + r]);
+            }
+        }
+
+        // Determine the error of the approximation against the full 2D kernel
+        double errorSquared = 0;
+        double totalSquared = 0;
+        double maxError = 0;
+        for(int ky = 0; ky < kernelSize; ky++) {
+            for(int kx = 0; kx < kernelSize; kx++) {
+                double approxX = 0;
+                double approxY = 0;
+                for(int r = 0; r < rank; r++) {
+                    approxX += columnKernels[(r * kernelSize + ky) * 2] * rowKernels[(r * kernelSize + kx) * 2];
+                    approxY += columnKernels[(r * kernelSize + ky) * 2 + 1] * rowKernels[(r * kernelSize + kx) * 2 + 1];
+                }
+                double errorX = componentX[ky * kernelSize + kx] - approxX;
+                double errorY = componentY[ky * kernelSize + kx] - approxY;
+                errorSquared += errorX * errorX + errorY * errorY;
+                totalSquared += componentX[ky * kernelSize + kx] * componentX[ky * kernelSize + kx]
+                        + componentY[ky * kernelSize + kx] * componentY[ky * kernelSize + kx];
+                maxError = Math.max(maxError, Math.max(Math.abs(errorX), Math.abs(errorY)));
+            }
+        }
+
+        float relativeError = totalSquared > 0 ? (float) Math.sqrt(errorSquared / totalSquared) : 0;
+
+        return new LowRankVectorKernel(kernelSize, rank, rowKernels, columnKernels, relativeError, (float) maxError);
+    }
+
+    /**
+     * One-sided Jacobi SVD of a square (n x n) row-major matrix, singular values sorted descending.
+     */
+    private static Decomposition decompose(double[] matrix, int n) {
+
+        double[] w = matrix.clone();
+        double[] v = new double[n * n];
+        for(int c = 0; c < n; c++) {
+            v[c * n + c] = 1.0;
+        }
+
+        for(int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            boolean rotated = false;
+
+            for(int p = 0; p < n - 1; p++) {
+                for(int q = p + 1; q < n; q++) {
+
+                    double alpha = 0;
+                    double beta = 0;
+                    double gamma = 0;
+                    for(int i = 0; i < n; i++) {
+                        double wp = w[i * n + p];
+                        double wq = w[i * n + q];
+                        alpha += wp * wp;
+                        beta += wq * wq;
+                        gamma += wp * wq;
+                    }
+
+                    if(Math.abs(gamma) <= EPSILON * Math.sqrt(alpha * beta) || Math.abs(gamma) < EPSILON) {
+                        continue;
+                    }
+                    rotated = true;
+
+                    double zeta = (beta - alpha) / (2 * gamma);
+                    double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+                    if(zeta == 0) {
+                        t = 1;
+                    }
+                    double cos = 1 / Math.sqrt(1 + t * t);
+                    double sin = cos * t;
+
+                    for(int i = 0; i < n; i++) {
+                        double wp = w[i * n + p];
+                        double wq = w[i * n + q];
+                        w[i * n + p] = cos * wp - sin * wq;
+                        w[i * n + q] = sin * wp + cos * wq;
+
+                        double vp = v[i * n + p];
+                        double vq = v[i * n + q];
+                        v[i * n + p] = cos * vp - sin * vq;
+                        v[i * n + q] = sin * vp + cos * vq;
+                    }
+                }
+            }
+
+            if(!rotated) {
+                break;
+            }
+        }
+
+        // Singular values are the column norms, U are the normalized columns
+        double[] sigma = new double[n];
+        for(int c = 0; c < n; c++) {
+            double norm = 0;
+            for(int i = 0; i < n; i++) {
+                norm += w[i * n + c] * w[i * n + c];
+            }
+            sigma[c] = Math.sqrt(norm);
+        }
+
+        Integer[] order = new Integer[n];
+        for(int c = 0; c < n; c++) {
+            order[c] = c;
+        }
+        final double[] unsortedSigma = sigma;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(unsortedSigma[b], unsortedSigma[a]);
+            }
+        });
+
+        Decomposition decomposition = new Decomposition(n);
+        for(int c = 0; c < n; c++) {
+            int source = order[c];
+            decomposition.sigma[c] = sigma[source];
+            for(int i = 0; i < n; i++) {
+                decomposition.u[i * n + c] = sigma[source] > EPSILON ? w[i * n + source] / sigma[source] : 0;
+                decomposition.v[i * n + c] = v[i * n + source];
+            }
+        }
+
+        return decomposition;
+    }
+
+    private static class Decomposition {
+        final double[] u;
+        final double[] sigma;
+        final double[] v;
+
+        Decomposition(int n) {
+            u = new double[n * n];
+            sigma = new double[n];
+            v = new double[n * n];
+        }
+    }
+
+    /**
+     * The separable passes of a decomposed vector kernel.
+     */
+    public static class LowRankVectorKernel {
+
+        private final int kernelSize;
+        private final int passes;
+        private final float[] rowKernels;
+        private final float[] columnKernels;
+        private final float relativeError;
+        private final float maxError;
+
+        LowRankVectorKernel(int kernelSize,
+                            int passes,
+                            float[] rowKernels,
+                            float[] columnKernels,
+                            float relativeError,
+                            float maxError) {
+            this.kernelSize = kernelSize;
+            this.passes = passes;
+            this.rowKernels = rowKernels;
+            this.columnKernels = columnKernels;
+            this.relativeError = relativeError;
+            this.maxError = maxError;
+        }
+
+        public int getKernelSize() {
+            return kernelSize;
+        }
+
+        /**
+         * @return  the actual number of passes (clamped to the kernel size)
+         */
+        public int getPasses() {
+            return passes;
+        }
+
+        /**
+         * @return  (kernelSize x passes) grid of (X, Y) filters to apply along the X axis
+         */
+        public float[] getRowKernels() {
+            return rowKernels;
+        }
+
+        /**
+         * @return  (kernelSize x passes) grid of (X, Y) filters to apply along the Y axis
+         */
+        public float[] getColumnKernels() {
+            return columnKernels;
+        }
+
+        /**
+         * @return  Frobenius norm of the approximation error relative to the full 2D kernel
+         */
+        public float getRelativeError() {
+            return relativeError;
+        }
+
+        /**
+         * @return  largest absolute error of a single kernel tap
+         */
+        public float getMaxError() {
+            return maxError;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Level sizes and packed layout of the buffers of an {@link ImagePyramid}.
+ *
+ * The level sizes are halved and rounded up until a level cannot get any smaller, see
+ * {@link ImagePyramid}. Level 0 is the full resolution image.
+ *
+ * PACKED LAYOUT:
+ * All buffers (planes) of all levels are placed in a single 2D buffer, the mip-chain. The
+ * planes are packed largest first, the smaller planes of a level fill the space next to and
+ * under the planes of the level above (guillotine packing):
+ *
+ * +-----------------+
+ * | laplacian 0     |
+ * +-----------------+
+ * | expanded 1      |
+ * +--------+--------+
+ * | gauss 1| lapl 1 |
+ * +--------+---+----+
+ * | expanded 2 |g2|e3|
+ * |            +--+--+
+ * |            |l2|..|
+ * +------------+--+--+
+ *
+ * As the level sizes are rounded up, the planes of a level do not always fit exactly in the
+ * space of the level above. The chain then needs a few more rows, or a width rounded up to a
+ * multiple of a power of 2 when that gives the smaller chain. For the camera sizes 98.9% or
+ * more of the chain is used, for odd sizes (e.g. 1001x333) about 96%, see {@link #getMemoryReport}.
+ *
+ * The offset table gives the position of each plane in the mip-chain.
+ * The gaussian plane of level 0 is the source image, so it is not part of the mip-chain.
+ */
+public class MipChainLayout {
+
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private final Rect[][] planeRects;
+    private final int chainWidth;
+    private final int chainHeight;
+
+    /**
+     * @param width                 width of level 0
+     * @param height                height of level 0
+     * @param desiredLevelCount     number of smaller levels, stops early when a level cannot get smaller
+     */
+    public MipChainLayout(int width, int height, int desiredLevelCount) {
+
+        List<Integer> widths = new ArrayList<>();
+        List<Integer> heights = new ArrayList<>();
+        widths.add(width);
+        heights.add(height);
+
+        int levelWidth = width;
+        int levelHeight = height;
+        for(int levelNumber = 1; levelNumber <= desiredLevelCount && levelWidth > 1 && levelHeight > 1; levelNumber++) {
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+            widths.add(levelWidth);
+            heights.add(levelHeight);
+        }
+
+        int levelCount = widths.size();
+        levelWidths = new int[levelCount];
+        levelHeights = new int[levelCount];
+        for(int level = 0; level < levelCount; level++) {
+            levelWidths[level] = widths.get(level);
+            levelHeights[level] = heights.get(level);
+        }
+
+        // The rectangles of all planes in the chain
+        planeRects = new Rect[Plane.values().length][levelCount];
+        List<Rect> rects = new ArrayList<>();
+        for(int level = 0; level < levelCount; level++) {
+            for(Plane plane : Plane.values()) {
+                if(contains(plane, level)) {
+                    Rect rect = new Rect(getPlaneWidth(plane, level), getPlaneHeight(plane, level));
+                    planeRects[plane.ordinal()][level] = rect;
+                    rects.add(rect);
+                }
+            }
+        }
+
+        // The level sizes are rounded up, so two planes of a level can be wider than the plane
+        // of the level below. Try the widths rounded up to a multiple of 2, 4, 8... so they fit
+        // next to each other, and keep the smallest chain.
+        int bestWidth = 0;
+        int bestHeight = 0;
+        for(int multiple = 2; multiple <= (1 << levelCount); multiple *= 2) {
+            int candidateWidth = (width + multiple - 1) / multiple * multiple;
+            int candidateHeight = packGuillotine(rects, candidateWidth);
+            if(bestWidth == 0 || (long) candidateWidth * candidateHeight < (long) bestWidth * bestHeight) {
+                bestWidth = candidateWidth;
+                bestHeight = candidateHeight;
+            }
+        }
+        chainWidth = bestWidth;
+        chainHeight = packGuillotine(rects, chainWidth);
+    }
+
+    /**
+     * @return  the number of levels, including level 0
+     */
+    public int getLevelCount() {
+        return levelWidths.length;
+    }
+
+    public int getLevelWidth(int level) {
+        return levelWidths[level];
+    }
+
+    public int getLevelHeight(int level) {
+        return levelHeights[level];
+    }
+
+    /**
+     * @return  true if the plane of the level is stored in the mip-chain
+     */
+    public boolean contains(Plane plane, int level) {
+        switch (plane) {
+            case GAUSSIAN:
+            case EXPANDED:
+                return level > 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return  width of the plane, the expanded plane has the size of the next lower level
+     */
+    public int getPlaneWidth(Plane plane, int level) {
+        return plane == Plane.EXPANDED ? levelWidths[level - 1] : levelWidths[level];
+    }
+
+    /**
+     * @return  height of the plane, the expanded plane has the size of the next lower level
+     */
+    public int getPlaneHeight(Plane plane, int level) {
+        return plane == Plane.EXPANDED ? levelHeights[level - 1] : levelHeights[level];
+    }
+
+    public int getOffsetX(Plane plane, int level) {
+        return planeRects[plane.ordinal()][level].x;
+    }
+
+    public int getOffsetY(Plane plane, int level) {
+        return planeRects[plane.ordinal()][level].y;
+    }
+
+    public int getChainWidth() {
+        return chainWidth;
+    }
+
+    public int getChainHeight() {
+        return chainHeight;
+    }
+
+    /**
+     * @return  the number of elements of all planes (the size with one allocation per plane)
+     */
+    public long getPlaneElementCount() {
+        long count = 0;
+        for(Rect[] rects : planeRects) {
+            for(Rect rect : rects) {
+                if(rect != null) {
+                    count += (long) rect.width * rect.height;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return  the number of planes, which is the number of allocations without the mip-chain
+     */
+    public int getPlaneCount() {
+        int count = 0;
+        for(Rect[] rects : planeRects) {
+            for(Rect rect : rects) {
+                if(rect != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return  the number of elements of the mip-chain, including the unused space
+     */
+    public long getChainElementCount() {
+        return (long) chainWidth * chainHeight;
+    }
+
+    /**
+     * @param bytesPerElement    size of a buffer element, 4 for the float planes
+     * @return  human readable comparison of the per level and packed memory use
+     */
+    public String getMemoryReport(int bytesPerElement) {
+        long planeBytes = getPlaneElementCount() * bytesPerElement;
+        long chainBytes = getChainElementCount() * bytesPerElement;
+
+        return String.format(
+                "%dx%d, %d levels: per level %d allocations %.2f MB | packed 1 allocation %dx%d %.2f MB (%.1f%% used)",
+                levelWidths[0], levelHeights[0], getLevelCount(),
+                getPlaneCount(), planeBytes / 1e6,
+                chainWidth, chainHeight, chainBytes / 1e6,
+                100.0 * planeBytes / chainBytes);
+    }
+
+    /**
+     * Guillotine packing: the rectangles are sorted on height and each rectangle is placed in the
+     * free rectangle it fits best (least area left). The free space right of and below a placed
+     * rectangle become new free rectangles, so the small planes are stacked under each other in
+     * the space next to a larger plane. When no free rectangle fits, the chain grows by the
+     * fewest rows: a free rectangle at the bottom is extended, or else a new strip is started.
+     *
+     * @return  the total height
+     */
+    private static int packGuillotine(List<Rect> rects, int width) {
+        List<Rect> sorted = new ArrayList<>(rects);
+        Collections.sort(sorted, new Comparator<Rect>() {
+            @Override
+            public int compare(Rect a, Rect b) {
+                return b.height != a.height ? b.height - a.height : b.width - a.width;
+            }
+        });
+
+        List<Rect> free = new ArrayList<>();
+        int totalHeight = 0;
+
+        for(Rect rect : sorted) {
+            Rect best = null;
+            long bestLeft = Long.MAX_VALUE;
+            for(Rect candidate : free) {
+                if(rect.width <= candidate.width && rect.height <= candidate.height) {
+                    long left = (long) candidate.width * candidate.height - (long) rect.width * rect.height;
+                    if(left < bestLeft) {
+                        best = candidate;
+                        bestLeft = left;
+                    }
+                }
+            }
+
+            if(best == null) {
+                // Grow the chain: extend a free rectangle at the bottom by the missing rows, or
+                // start a new strip
+                Rect bottom = null;
+                for(Rect candidate : free) {
+                    if(candidate.y + candidate.height == totalHeight && rect.width <= candidate.width
+                            && (bottom == null || candidate.height > bottom.height)) {
+                        bottom = candidate;
+                    }
+                }
+
+                if(bottom != null) {
+                    free.remove(bottom);
+                    int rows = rect.height - bottom.height;
+                    addFree(free, 0, totalHeight, bottom.x, rows);
+                    addFree(free, bottom.x + bottom.width, totalHeight, width - bottom.x - bottom.width, rows);
+                    best = new Rect(bottom.width, rect.height);
+                    best.x = bottom.x;
+                    best.y = bottom.y;
+                    totalHeight += rows;
+                } else {
+                    best = new Rect(width, rect.height);
+                    best.y = totalHeight;
+                    totalHeight += rect.height;
+                }
+            } else {
+                free.remove(best);
+            }
+
+            rect.x = best.x;
+            rect.y = best.y;
+
+            // Split along the shorter leftover side, which keeps the larger free rectangle whole
+            int rightWidth = best.width - rect.width;
+            int belowHeight = best.height - rect.height;
+            if(rightWidth < belowHeight) {
+                addFree(free, best.x + rect.width, best.y, rightWidth, rect.height);
+                addFree(free, best.x, best.y + rect.height, best.width, belowHeight);
+            } else {
+                addFree(free, best.x + rect.width, best.y, rightWidth, best.height);
+                addFree(free, best.x, best.y + rect.height, rect.width, belowHeight);
+            }
+        }
+
+        return totalHeight;
+    }
+
+    private static void addFree(List<Rect> free, int x, int y, int width, int height) {
+        if(width > 0 && height > 0) {
+            Rect rect = new Rect(width, height);
+            rect.x = x;
+            rect.y = y;
+            free.add(rect);
+        }
+    }
+
+    /**
+     * The buffers of a pyramid level.
+     */
+    public enum Plane {
+        GAUSSIAN,
+        LAPLACIAN,
+        EXPANDED
+    }
+
+    private static class Rect {
+        final int width;
+        final int height;
+        int x;
+        int y;
+
+        Rect(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.udev.hellorenderscript.video.ScriptC_multiscale;
+
+/**
+ * Multi-scale edge detection: a small fixed kernel applied to each level of an {@link ImagePyramid}.
+ *
+ * A kernel of size k on level L covers the same area as a kernel of size k * 2^L on the original
+ * image, but costs k*k per level pixel and level L has 1 / 4^L of the pixels. So all levels
+ * together cost less than 4/3 of the single small kernel on the full resolution image.
+ *
+ * Example for k = 5 on three levels:
+ *
+ * Level 2     5x5 on  88x72    ~ 20x20 on 352x288
+ * Level 1     5x5 on 176x144   ~ 10x10 on 352x288
+ * Level 0     5x5 on 352x288
+ *
+ * The per level (x, y) edge vectors are available with {@link #getLevelEdgeVectors(int)}, they
+ * can optionally be combined into one full resolution buffer by bilinear upsampling each level
+ * and summing them using the (normalized) level weights.
+ *
+ * The pyramid is not owned, it is passed in per frame (e.g. the shared pyramid of the frame
+ * context) and only its gaussian levels are read.
+ */
+public class MultiScaleEdgeDetection {
+
+    private static final String TAG = "MultiScaleEdges";
+
+    private final RenderScript rs;
+    private final ScriptC_multiscale rsMultiScale;
+    private MipChainLayout layout;
+    private final List<EdgeDetection> levelEdgeDetections = new ArrayList<>();
+    private Allocation combinedVectorsBuffer;
+
+    private int kernelSize;
+    private float amplification;
+    private float[] levelWeights;
+
+    /**
+     * @param rs            the renderscript context
+     * @param width         width of the full resolution intensity image
+     * @param height        height of the full resolution intensity image
+     * @param levelCount    number of smaller levels of the pyramids passed in, the pyramid can
+     *                      end up with less (see {@link ImagePyramid})
+     * @param kernelSize    size of the kernel applied on every level
+     */
+    public MultiScaleEdgeDetection(RenderScript rs, int width, int height, int levelCount, int kernelSize) {
+        this.rs = rs;
+        this.rsMultiScale = new ScriptC_multiscale(rs);
+        this.layout = new MipChainLayout(width, height, levelCount);
+        this.kernelSize = kernelSize;
+        this.amplification = 1.0f;
+
+        createLevelEdgeDetections();
+    }
+
+    /**
+     * Change the size of the image and/or the number of pyramid levels.
+     */
+    public void resize(int width, int height, int levelCount) {
+        destroyLevelEdgeDetections();
+
+        layout = new MipChainLayout(width, height, levelCount);
+        createLevelEdgeDetections();
+    }
+
+    public void destroy() {
+        destroyLevelEdgeDetections();
+
+        rsMultiScale.destroy();
+    }
+
+    /**
+     * @return  the number of levels, including the full resolution level 0
+     */
+    public int getLevelCount() {
+        return levelEdgeDetections.size();
+    }
+
+    public void setKernelSize(int newSize) {
+        kernelSize = newSize;
+        for(EdgeDetection edgeDetection : levelEdgeDetections) {
+            edgeDetection.setKernelSize(newSize);
+        }
+    }
+
+    public void setAmplification(float scale) {
+        amplification = scale;
+        for(EdgeDetection edgeDetection : levelEdgeDetections) {
+            edgeDetection.setAmplification(scale);
+        }
+    }
+
+    /**
+     * Set the weight of a level in the combined edge vectors, default all levels weigh 1.0.
+     * The weights are normalized, so the combined vectors are the weighted average of the levels.
+     */
+    public void setLevelWeight(int level, float weight) {
+        levelWeights[level] = weight;
+    }
+
+    /**
+     * Calculate the (x, y) edge vectors of every pyramid level.
+     *
+     * @param pyramid    pyramid of the intensity to detect edges on, with the level count
+     *                   of this multi-scale edge detection
+     */
+    public void calcLevelEdgeVectors(ImagePyramid pyramid) {
+        checkPyramid(pyramid);
+
+        // Only the gaussian levels are requested, so the pyramid skips expand and laplacian
+        for(int level = 0; level < levelEdgeDetections.size(); level++) {
+            levelEdgeDetections.get(level).calcEdgeVectors(pyramid.getLevel(level).getLevelGaussianBuffer());
+        }
+    }
+
+    /**
+     * @return  the (x, y) edge vectors of the given level, with the size of that pyramid level
+     */
+    public Allocation getLevelEdgeVectors(int level) {
+        return levelEdgeDetections.get(level).getEdgeVectorsBuffer();
+    }
+
+    /**
+     * Calculate the edge vectors of every level and combine them into one full resolution buffer.
+     *
+     * @param pyramid    pyramid of the intensity to detect edges on, see {@link #calcLevelEdgeVectors(ImagePyramid)}
+     * @return 2D (x, y) combined edge vectors with the full resolution
+     */
+    public Allocation calcCombinedEdgeVectors(ImagePyramid pyramid) {
+
+        calcLevelEdgeVectors(pyramid);
+
+        float totalWeight = 0.0f;
+        for(int level = 0; level < levelEdgeDetections.size(); level++) {
+            totalWeight += levelWeights[level];
+        }
+
+        rsMultiScale.set_combinedVectors(combinedVectorsBuffer);
+
+        for(int level = 0; level < levelEdgeDetections.size(); level++) {
+            rsMultiScale.set_levelVectors(getLevelEdgeVectors(level));
+            rsMultiScale.set_levelWidth(layout.getLevelWidth(level));
+            rsMultiScale.set_levelHeight(layout.getLevelHeight(level));
+            // Level pixel x is at full resolution pixel x * 2^level (level sizes are rounded up)
+            rsMultiScale.set_levelScale(1.0f / (1 << level));
+            rsMultiScale.set_levelWeight(totalWeight > 0.0f ? levelWeights[level] / totalWeight : 0.0f);
+            rsMultiScale.set_levelBorder(kernelSize / 2);
+            rsMultiScale.set_firstLevel(level == 0);
+            rsMultiScale.forEach_accumulateLevel(combinedVectorsBuffer);
+        }
+
+        return combinedVectorsBuffer;
+    }
+
+    /**
+     * @return  the buffer with the full resolution combined (x, y) edge vectors
+     */
+    public Allocation getCombinedEdgeVectorsBuffer() {
+        return combinedVectorsBuffer;
+    }
+
+    private void checkPyramid(ImagePyramid pyramid) {
+        ImagePyramid.Level level0 = pyramid.getLevel(0);
+        if(pyramid.getActualLevelCount() + 1 != layout.getLevelCount()
+                || level0.getWidth() != layout.getLevelWidth(0)
+                || level0.getHeight() != layout.getLevelHeight(0)) {
+            throw new IllegalArgumentException("Pyramid of " + level0.getWidth() + "x" + level0.getHeight()
+                    + " with " + (pyramid.getActualLevelCount() + 1) + " levels, expected "
+                    + layout.getLevelWidth(0) + "x" + layout.getLevelHeight(0)
+                    + " with " + layout.getLevelCount() + " levels");
+        }
+    }
+
+    private void createLevelEdgeDetections() {
+        // Level 0 is the full resolution image, the pyramid has the same level sizes
+        int levelCount = layout.getLevelCount();
+        for(int level = 0; level < levelCount; level++) {
+            EdgeDetection edgeDetection = new EdgeDetection(rs, layout.getLevelWidth(level), layout.getLevelHeight(level), kernelSize);
+            edgeDetection.setAmplification(amplification);
+            levelEdgeDetections.add(edgeDetection);
+        }
+
+        levelWeights = new float[levelCount];
+        Arrays.fill(levelWeights, 1.0f);
+
+        combinedVectorsBuffer = RsUtils.create2d(rs, layout.getLevelWidth(0), layout.getLevelHeight(0), Element.F32_2(rs));
+
+        Log.d(TAG, "Created " + levelCount + " levels with kernel " + kernelSize + "x" + kernelSize + ".");
+    }
+
+    private void destroyLevelEdgeDetections() {
+        for(EdgeDetection edgeDetection : levelEdgeDetections) {
+            edgeDetection.destroy();
+        }
+        levelEdgeDetections.clear();
+
+        if(combinedVectorsBuffer != null) {
+            combinedVectorsBuffer.destroy();
+            combinedVectorsBuffer = null;
+        }
+    }
+}
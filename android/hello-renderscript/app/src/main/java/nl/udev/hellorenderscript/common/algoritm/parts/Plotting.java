@@ -2,6 +2,7 @@ package nl.udev.hellorenderscript.common.algoritm.parts;
 
 import android.renderscript.Allocation;
 import android.renderscript.Element;
+import android.renderscript.Float2;
 import android.renderscript.RenderScript;
 import android.renderscript.Short4;
 
@@ -82,6 +83,30 @@ public class Plotting {
         rsPlot.forEach_plotPolar2dColormap(polar2dVectors, outBufferRgba);
     }
 
+    /**
+     * Same as {@link #plotColormapPolar2d(Allocation, Allocation)} for polar vectors stored in
+     * the given precision.
+     *
+     * @param polar2dVectors    buffer with polar vectors to plot
+     * @param precision         storage precision of the polar vectors
+     * @param magnitudeRange    range of the magnitudes, see {@link EdgeDetection#getStorageRange()}
+     * @param outBufferRgba     destination buffer to plot into
+     */
+    public void plotColormapPolar2d(Allocation polar2dVectors,
+                                    StoragePrecision precision,
+                                    float magnitudeRange,
+                                    Allocation outBufferRgba) {
+
+        if(precision == StoragePrecision.F32) {
+            plotColormapPolar2d(polar2dVectors, outBufferRgba);
+        } else {
+            rsPlot.set_polarSource(polar2dVectors);
+            rsPlot.set_polarSourcePrecision(precision.ordinal());
+            rsPlot.set_polarSourceRange(new Float2((float) Math.PI, magnitudeRange));
+            rsPlot.forEach_plotPolar2dColormapStorage(outBufferRgba);
+        }
+    }
+
     /**
      *
      * @param ucharBuffer
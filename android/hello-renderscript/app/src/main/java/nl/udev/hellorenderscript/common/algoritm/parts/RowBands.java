@@ -0,0 +1,82 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Helper for the plain JVM engines that splits the rows of an image into bands and processes
+ * the bands in parallel on a {@link ForkJoinPool}.
+ *
+ * This is the JVM counterpart of a RenderScript forEach: the kernel is called once per band
+ * instead of once per pixel, so the inner loops stay tight.
+ */
+public class RowBands {
+
+    /**
+     * Minimal number of rows in a band, smaller bands cost more in scheduling than they gain.
+     */
+    private static final int MIN_BAND_ROWS = 8;
+
+    /**
+     * Number of bands per worker thread, more than one so that uneven bands are balanced out.
+     */
+    private static final int BANDS_PER_THREAD = 4;
+
+    private RowBands() {
+        // Utility class, no instantiation
+    }
+
+    /**
+     * Process the rows [0, rows) in parallel bands and wait until all bands are done.
+     *
+     * @param pool      Pool to run the bands on
+     * @param rows      Total number of rows
+     * @param kernel    The kernel to apply on each band
+     */
+    public static void forEach(ForkJoinPool pool, int rows, RowKernel kernel) {
+        int bandRows = Math.max(MIN_BAND_ROWS, rows / (pool.getParallelism() * BANDS_PER_THREAD));
+        pool.invoke(new BandTask(kernel, 0, rows, bandRows));
+    }
+
+    /**
+     * Kernel that processes a band of rows.
+     */
+    public interface RowKernel {
+
+        /**
+         * @param startRow    first row to process (inclusive)
+         * @param endRow      last row to process (exclusive)
+         */
+        void processRows(int startRow, int endRow);
+    }
+
+    private static class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+        private final int startRow;
+        private final int endRow;
+        private final int bandRows;
+
+        BandTask(RowKernel kernel, int startRow, int endRow, int bandRows) {
+            this.kernel = kernel;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if(endRow - startRow <= bandRows) {
+                kernel.processRows(startRow, endRow);
+            } else {
+                int middleRow = (startRow + endRow) >>> 1;
+                invokeAll(
+                        new BandTask(kernel, startRow, middleRow, bandRows),
+                        new BandTask(kernel, middleRow, endRow, bandRows)
+                );
+            }
+        }
+    }
+}
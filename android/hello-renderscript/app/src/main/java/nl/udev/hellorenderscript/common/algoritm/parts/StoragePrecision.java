@@ -0,0 +1,19 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+/**
+ * Precision of the output buffers of {@link EdgeDetection}:
+ *
+ * F32              - float / float2, 8 bytes per vector (the reference)
+ * F16              - half / half2, 4 bytes per vector, ~3 significant digits
+ * I16_NORMALIZED   - short / short2 normalized to the {@link EdgeDetection#getStorageRange()},
+ *                    4 bytes per vector, absolute error < range / 65534
+ *
+ * Read the compact buffers in RenderScript with the helpers in 'edgestorage.rsh', and on the
+ * JVM with {@link EdgeStorageCodec}.
+ * NOTE: the ordinals are used as the EDGE_STORAGE_* values of 'edgestorage.rsh'.
+ */
+public enum StoragePrecision {
+    F32,
+    F16,
+    I16_NORMALIZED
+}
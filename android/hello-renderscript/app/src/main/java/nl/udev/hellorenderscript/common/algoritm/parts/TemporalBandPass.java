@@ -0,0 +1,176 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.udev.hellorenderscript.video.ScriptC_bandpass;
+
+import static nl.udev.hellorenderscript.common.algoritm.parts.RsUtils.create2d;
+
+/**
+ * Streaming temporal band-pass filter on the laplacian levels of an {@link ImagePyramid}.
+ *
+ * The streaming alternative for the {@link TemporalPyramid}: instead of keeping a history of
+ * frames per level, every pixel of every level is filtered with an IIR band-pass (the difference
+ * of two first-order low-passes, see 'bandpass.rs'). The band-passed signal can be amplified
+ * and added to the level (Eulerian magnification), after which the pyramid is collapsed to show
+ * the magnified motion and intensity changes.
+ *
+ * MEMORY / LATENCY
+ * Two state buffers per level, each level a quarter of the one below, so the state stays below
+ * three full frames for any number of levels (the temporal pyramid keeps 32 full frames for 3
+ * levels). The output is for the newest frame, without the delay of the L frame of the temporal
+ * pyramid (10 frames for 3 levels).
+ *
+ * CUTOFFS
+ * In cycles per frame (0.5 is the Nyquist frequency), e.g. 0.03 - 0.1 at 30 fps is 0.9 - 3 Hz
+ * (a heart beat). The low-pass coefficient for cutoff f is 1 - exp(-2 pi f).
+ */
+public class TemporalBandPass {
+
+    private static final String TAG = "TemporalBandPass";
+    private final RenderScript rs;
+    private final ScriptC_bandpass rsBandPass;
+
+    private final List<Allocation> fastLowPassBuffers = new ArrayList<>();
+    private final List<Allocation> slowLowPassBuffers = new ArrayList<>();
+    private float lowCutoff;
+    private float highCutoff;
+    private boolean resetState;
+
+    /**
+     * @param lowCutoff     low cutoff frequency in cycles per frame
+     * @param highCutoff    high cutoff frequency in cycles per frame
+     */
+    public TemporalBandPass(RenderScript rs, float lowCutoff, float highCutoff) {
+        this.rs = rs;
+        this.rsBandPass = new ScriptC_bandpass(rs);
+
+        setCutoffs(lowCutoff, highCutoff);
+    }
+
+    /**
+     * Change the pass band, the state of the low-passes is kept.
+     *
+     * @param lowCutoff     low cutoff frequency in cycles per frame
+     * @param highCutoff    high cutoff frequency in cycles per frame
+     */
+    public void setCutoffs(float lowCutoff, float highCutoff) {
+        if(lowCutoff <= 0 || lowCutoff >= highCutoff || highCutoff > 0.5f) {
+            throw new IllegalArgumentException("Invalid pass band " + lowCutoff + " - " + highCutoff);
+        }
+        this.lowCutoff = lowCutoff;
+        this.highCutoff = highCutoff;
+    }
+
+    public float getLowCutoff() {
+        return lowCutoff;
+    }
+
+    public float getHighCutoff() {
+        return highCutoff;
+    }
+
+    /**
+     * Restart the filter at the next frame, e.g. when the scene changed completely.
+     */
+    public void reset() {
+        resetState = true;
+    }
+
+    /**
+     * Filter the laplacian levels of the current frame in-place.
+     *
+     * The state buffers are (re)created when the pyramid levels changed, the filter then
+     * restarts at this frame.
+     *
+     * @param pyramid           pyramid of the current frame
+     * @param amplifications    amplification of the band-passed signal per level (0 keeps the level)
+     */
+    public void apply(ImagePyramid pyramid, float[] amplifications) {
+
+        if(!matchesLevels(pyramid)) {
+            createStateBuffers(pyramid);
+        }
+
+        rsBandPass.set_fastAlpha(lowPassAlpha(highCutoff));
+        rsBandPass.set_slowAlpha(lowPassAlpha(lowCutoff));
+        rsBandPass.set_resetState(resetState);
+
+        // All levels every frame, the state must follow every frame
+        for(int level = 0; level < getLevelCount(pyramid); level++) {
+            Allocation laplacian = pyramid.getLevel(level).getLevelLaplacianBuffer();
+            rsBandPass.set_fastLowPass(fastLowPassBuffers.get(level));
+            rsBandPass.set_slowLowPass(slowLowPassBuffers.get(level));
+            rsBandPass.set_amplification(level < amplifications.length ? amplifications[level] : 0.0f);
+            rsBandPass.forEach_bandPass(laplacian, laplacian);
+        }
+
+        resetState = false;
+    }
+
+    /**
+     * Clean up the filter.
+     *
+     * After this call completes the filter should not be used anymore!
+     */
+    public void destroy() {
+        destroyStateBuffers();
+
+        rsBandPass.destroy();
+    }
+
+    private static float lowPassAlpha(float cutoff) {
+        return (float) (1.0 - Math.exp(-2.0 * Math.PI * cutoff));
+    }
+
+    /**
+     * @return  number of levels including level 0 (the actual level count are the smaller levels)
+     */
+    private static int getLevelCount(ImagePyramid pyramid) {
+        return pyramid.getActualLevelCount() + 1;
+    }
+
+    private boolean matchesLevels(ImagePyramid pyramid) {
+        if(fastLowPassBuffers.size() != getLevelCount(pyramid)) {
+            return false;
+        }
+        for(int level = 0; level < getLevelCount(pyramid); level++) {
+            ImagePyramid.Level pyramidLevel = pyramid.getLevel(level);
+            Allocation state = fastLowPassBuffers.get(level);
+            if(state.getType().getX() != pyramidLevel.getWidth() || state.getType().getY() != pyramidLevel.getHeight()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void createStateBuffers(ImagePyramid pyramid) {
+        destroyStateBuffers();
+
+        for(int level = 0; level < getLevelCount(pyramid); level++) {
+            ImagePyramid.Level pyramidLevel = pyramid.getLevel(level);
+            fastLowPassBuffers.add(create2d(rs, pyramidLevel.getWidth(), pyramidLevel.getHeight(), Element.F32(rs)));
+            slowLowPassBuffers.add(create2d(rs, pyramidLevel.getWidth(), pyramidLevel.getHeight(), Element.F32(rs)));
+        }
+        resetState = true;
+
+        Log.i(TAG, "Created " + (fastLowPassBuffers.size() * 2) + " state buffers for " + fastLowPassBuffers.size() + " levels");
+    }
+
+    private void destroyStateBuffers() {
+        for(Allocation allocation : fastLowPassBuffers) {
+            allocation.destroy();
+        }
+        for(Allocation allocation : slowLowPassBuffers) {
+            allocation.destroy();
+        }
+        fastLowPassBuffers.clear();
+        slowLowPassBuffers.clear();
+    }
+}
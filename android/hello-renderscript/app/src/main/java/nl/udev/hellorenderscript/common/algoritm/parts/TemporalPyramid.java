@@ -26,12 +26,29 @@ import static nl.udev.hellorenderscript.common.algoritm.parts.RsUtils.create2d;
  * L: the only frame in the same time-frame between all levels
  * E: extra frames needed for expand operation at L
  *
- * Level frames needed = (framesPLevel * 2) + 3
+ * Level frames in the window = (framesPLevel * 2) + 3
  *
- * # buffers per pyramid size + memory needed @ 352x288x32bit (396kB):
- * Levels 0,1,2             -> 33  buffers (13.068k)
- * Levels 0,1,2,3           -> 78  buffers (30.888k)
- * Levels 0,1,2,3,4         -> 171 buffers (67.716k)
+ * INCREMENTAL UPDATE
+ * The window slides one video frame at a time, so the frames of each level are kept for every
+ * video frame (a level sample at each time step, its taps 2^level frames apart). A new video
+ * frame makes exactly one new sample available on every level: the compress of the five
+ * newest samples of the level above. All other samples are rotated (the ring index moves), so
+ * a frame costs one compress per level instead of a compress for every buffer.
+ *
+ * Each level only keeps the samples from its newest one back to the oldest one that is still
+ * read, either by the compress of the next level or around L. See {@link Level} for the delays.
+ * The rings cannot be shorter: every sample is read every 2^level video frames until it is
+ * older than L. But as a level has a sample for every video frame instead of one per 2^level
+ * frames, the deep levels keep more buffers than the level samples of the window, which is
+ * all a full recompute every frame needs. The cost (see {@link TemporalPyramidPlan#getMemoryReport()}):
+ *
+ * # gaussian buffers per pyramid size + memory needed @ 352x288x32bit (396kB), TEMPORAL decimation:
+ * Levels 0,1,2             -> 32  buffers (12.672k), full recompute 33  buffers
+ * Levels 0,1,2,3           -> 85  buffers (33.660k), full recompute 78  buffers
+ * Levels 0,1,2,3,4         -> 214 buffers (84.744k), full recompute 171 buffers (+25%)
+ *
+ * In exchange a frame costs one compress per level instead of one per buffer (78 compresses
+ * for 5 levels). When the memory matters, use SPATIO_TEMPORAL decimation or a memory budget.
  *
  * COMPRESSION
  * Video frames in time-compressed levels use the a gaussian algorithm that ensures that each
@@ -45,6 +62,11 @@ import static nl.udev.hellorenderscript.common.algoritm.parts.RsUtils.create2d;
  *
  * The pyramid supports a moving-window.
  *
+ * MEMORY
+ * The levels can also be spatially decimated and the pyramid can be limited to a memory budget,
+ * see {@link TemporalPyramidPlan}. The chosen plan is logged and available from
+ * {@link #getMemoryReport()}.
+ *
  *
  * Created by ben on 11-3-16.
  */
@@ -57,11 +79,25 @@ public class TemporalPyramid {
     private final List<Level> levels = new ArrayList<>();
     private int width;
     private int height;
+    private int requestedLevelCount;
+    private TemporalPyramidPlan.Decimation decimation;
+    private long memoryBudget;
+    private TemporalPyramidPlan plan;
 
 
     public TemporalPyramid(RenderScript rs, int width, int height, int levelCount) {
+        this(rs, width, height, levelCount, TemporalPyramidPlan.Decimation.TEMPORAL, 0);
+    }
+
+    /**
+     * @param memoryBudget      maximum number of bytes of all level buffers, 0 for no budget
+     */
+    public TemporalPyramid(RenderScript rs, int width, int height, int levelCount,
+                           TemporalPyramidPlan.Decimation decimation, long memoryBudget) {
         this.rs = rs;
         this.rsPyramid = new ScriptC_tpyramid(rs);
+        this.decimation = decimation;
+        this.memoryBudget = memoryBudget;
 
         resizePyramid(width, height, levelCount);
     }
@@ -71,9 +107,30 @@ public class TemporalPyramid {
 
         this.width = width;
         this.height = height;
+        this.requestedLevelCount = levelCount;
         createPyramidLevelBuffers(levelCount);
     }
 
+    /**
+     * Change the decimation and memory budget (if changed), this recreates the buffers.
+     *
+     * @param memoryBudget      maximum number of bytes of all level buffers, 0 for no budget
+     */
+    public void setMemoryLimits(TemporalPyramidPlan.Decimation newDecimation, long newMemoryBudget) {
+        if(decimation != newDecimation || memoryBudget != newMemoryBudget) {
+            decimation = newDecimation;
+            memoryBudget = newMemoryBudget;
+            resizePyramid(width, height, requestedLevelCount);
+        }
+    }
+
+    /**
+     * @return  the allocated levels and memory, compared to the budget
+     */
+    public String getMemoryReport() {
+        return plan.getMemoryReport();
+    }
+
     public int getActualLevelCount() {
         return levels.size();
     }
@@ -88,39 +145,51 @@ public class TemporalPyramid {
 
         Level plotLevel = levels.get(levelNumber);
 
+        rsPyramid.set_plotWidth(rgbaDestination.getType().getX());
+        rsPyramid.set_plotHeight(rgbaDestination.getType().getY());
+        rsPyramid.set_pyramidWidth(plotLevel.width);
+        rsPyramid.set_pyramidHeight(plotLevel.height);
+
         switch (plotType) {
             case LAPLACIAN:
-                rsPyramid.forEach_plotPyramidLevelLaplacian(
-                        plotLevel.getLevelLaplacianBuffers().get(1),
-                        rgbaDestination
-                );
+                rsPyramid.set_pyramidImage(plotLevel.getLevelLaplacianBuffers().get(1));
+                rsPyramid.forEach_plotPyramidLevelLaplacian(rgbaDestination);
                 break;
             case LEVEL:
-                rsPyramid.forEach_plotPyramidLevel(
-                        plotLevel.getTemporalCenterGaussian(0),
-                        rgbaDestination
-                );
+                rsPyramid.set_pyramidImage(plotLevel.getTemporalCenterGaussian(0));
+                rsPyramid.forEach_plotPyramidLevel(rgbaDestination);
                 break;
             case COLLAPSED_RESULT:
-                rsPyramid.forEach_plotPyramidLevel(
-                        plotLevel.getCollapsedResult(),
-                        rgbaDestination
-                );
+                rsPyramid.set_pyramidImage(plotLevel.getCollapsedResult());
+                rsPyramid.forEach_plotPyramidLevel(rgbaDestination);
                 break;
             case LEVEL_EXPANDED:
                 if(!plotLevel.expandBuffers.isEmpty()) {
-                    rsPyramid.forEach_plotPyramidLevel(
-                            plotLevel.expandBuffers.get(1),
-                            rgbaDestination
-                    );
+                    // The expanded buffers have the size of the next larger level
+                    Level largerLevel = levels.get(levelNumber - 1);
+                    rsPyramid.set_pyramidImage(plotLevel.expandBuffers.get(1));
+                    rsPyramid.set_pyramidWidth(largerLevel.width);
+                    rsPyramid.set_pyramidHeight(largerLevel.height);
+                    rsPyramid.forEach_plotPyramidLevel(rgbaDestination);
                 }
                 break;
         }
     }
 
+    /**
+     * @return  the level 0 buffer the next video frame is shifted into, writing the frame
+     *          directly into it saves the copy in {@link #calculate(Allocation)}. Only valid until
+     *          the next calculate or resize.
+     */
+    public Allocation getNextFrameBuffer() {
+        return levels.get(0).gaussians.getNextFrame();
+    }
+
     /**
      * Shift in a new buffer.
      *
+     * The buffer is copied into the pyramid, unless it is the {@link #getNextFrameBuffer()}.
+     *
      * 1. Higher levels using COMPRESS
      * 2. EXPANDED version of levels
      * 3. Laplacian (delta of level and expanded higher level)
@@ -137,24 +206,25 @@ public class TemporalPyramid {
             Level sourceLevel = levels.get(level - 1);
             Level currentLevel = levels.get(level);
 
-            // COMPRESS
-            for(int destIndex = 0; destIndex < currentLevel.gaussianBuffers.size(); destIndex++) {
-                rsPyramid.set_compressSource1(sourceLevel.getGaussian(0 + destIndex * 2));
-                rsPyramid.set_compressSource2(sourceLevel.getGaussian(1 + destIndex * 2));
-                rsPyramid.set_compressSource3(sourceLevel.getGaussian(2 + destIndex * 2));
-                rsPyramid.set_compressSource4(sourceLevel.getGaussian(3 + destIndex * 2));
-                rsPyramid.set_compressSource5(sourceLevel.getGaussian(4 + destIndex * 2));
-                rsPyramid.forEach_compress(currentLevel.getGaussian(destIndex));
+            // COMPRESS (only the newest sample, the older ones did not change)
+            rsPyramid.set_compressSource1(sourceLevel.getNewestGaussian(-4));
+            rsPyramid.set_compressSource2(sourceLevel.getNewestGaussian(-3));
+            rsPyramid.set_compressSource3(sourceLevel.getNewestGaussian(-2));
+            rsPyramid.set_compressSource4(sourceLevel.getNewestGaussian(-1));
+            rsPyramid.set_compressSource5(sourceLevel.getNewestGaussian(0));
+            if(currentLevel.isDecimated()) {
+                rsPyramid.set_compressSourceWidth(sourceLevel.width);
+                rsPyramid.set_compressSourceHeight(sourceLevel.height);
+                rsPyramid.forEach_compressDecimated(currentLevel.rotateGaussians());
+            } else {
+                rsPyramid.forEach_compress(currentLevel.rotateGaussians());
             }
 
             // EXPAND (only around L)
-            int centerBufferIndex = (currentLevel.gaussianBuffers.size() - 1) / 2;
-            rsPyramid.set_expandSource1(currentLevel.getGaussian(centerBufferIndex - 1));
-            rsPyramid.set_expandSource2(currentLevel.getGaussian(centerBufferIndex));
-            rsPyramid.set_expandSource3(currentLevel.getGaussian(centerBufferIndex + 1));
-            rsPyramid.forEach_expandOddLeft(currentLevel.expandBuffers.get(0));
-            rsPyramid.forEach_expandEven(currentLevel.expandBuffers.get(1));
-            rsPyramid.forEach_expandOddRight(currentLevel.expandBuffers.get(2));
+            rsPyramid.set_expandSource1(currentLevel.getTemporalCenterGaussian(-1));
+            rsPyramid.set_expandSource2(currentLevel.getTemporalCenterGaussian(0));
+            rsPyramid.set_expandSource3(currentLevel.getTemporalCenterGaussian(1));
+            expand(currentLevel);
         }
 
         // LAPLACIANS
@@ -208,18 +278,34 @@ public class TemporalPyramid {
             rsPyramid.set_expandSource1(smallerLevel.collapseBuffers.get(0));
             rsPyramid.set_expandSource2(smallerLevel.collapseBuffers.get(1));
             rsPyramid.set_expandSource3(smallerLevel.collapseBuffers.get(2));
-            rsPyramid.forEach_expandOddLeft(targetLevel.expandBuffers.get(0));
-            rsPyramid.forEach_expandEven(targetLevel.expandBuffers.get(1));
-            rsPyramid.forEach_expandOddRight(targetLevel.expandBuffers.get(2));
+            expand(smallerLevel);
 
             // Now add the laplacian of the current level to the expanded previous level
             for(int c = 0; c<3; c++) {
-                rsPyramid.set_collapseLevel(targetLevel.expandBuffers.get(c));
+                rsPyramid.set_collapseLevel(smallerLevel.expandBuffers.get(c));
                 rsPyramid.forEach_collapse(targetLevel.levelLaplacianBuffers.get(c), targetLevel.collapseBuffers.get(c));
             }
         }
     }
 
+    /**
+     * Expand the sources set in the script into the expand buffers of the level, these have the
+     * size of the next larger level.
+     */
+    private void expand(Level level) {
+        if(level.isDecimated()) {
+            rsPyramid.set_expandSourceWidth(level.width);
+            rsPyramid.set_expandSourceHeight(level.height);
+            rsPyramid.forEach_expandOddLeftDecimated(level.expandBuffers.get(0));
+            rsPyramid.forEach_expandEvenDecimated(level.expandBuffers.get(1));
+            rsPyramid.forEach_expandOddRightDecimated(level.expandBuffers.get(2));
+        } else {
+            rsPyramid.forEach_expandOddLeft(level.expandBuffers.get(0));
+            rsPyramid.forEach_expandEven(level.expandBuffers.get(1));
+            rsPyramid.forEach_expandOddRight(level.expandBuffers.get(2));
+        }
+    }
+
     /**
      * Clean up the pyramid.
      *
@@ -232,10 +318,19 @@ public class TemporalPyramid {
     }
 
     private void createPyramidLevelBuffers(int desiredLevelCount) {
-        for(int levelNumber = 0; levelNumber < desiredLevelCount; levelNumber++) {
-            Level level = new Level(levelNumber, desiredLevelCount);
+        plan = TemporalPyramidPlan.choose(width, height, desiredLevelCount, decimation, memoryBudget);
+
+        for(int levelNumber = 0; levelNumber < plan.getLevelCount(); levelNumber++) {
+            Level level = new Level(levelNumber, plan);
             levels.add(level);
-            Log.d(TAG, "Created level " + levelNumber + ", buffers " + level.gaussianBuffers.size());
+            Log.d(TAG, "Created level " + levelNumber + ", size " + level.width + "x" + level.height
+                    + ", buffers " + level.gaussians.size());
+        }
+
+        if(plan.fitsBudget()) {
+            Log.i(TAG, plan.getMemoryReport());
+        } else {
+            Log.w(TAG, plan.getMemoryReport());
         }
     }
 
@@ -249,23 +344,52 @@ public class TemporalPyramid {
         levels.clear();
     }
 
+    /**
+     * The buffers of a level.
+     *
+     * The gaussian buffers are a {@link FrameRing} with a sample for every video frame. Samples are addressed
+     * by their delay: the number of video frames between the sample and the newest video frame.
+     *
+     * newest delay     - 2^(level+1) - 2, the compress of the level above is centered 2^level
+     *                    video frames back from its newest sample
+     * center delay     - the L frame, the same for all levels
+     * oldest delay     - the oldest sample read: 1 sample before L, or the oldest sample of the
+     *                    compress for the next level
+     *
+     * The expand buffers hold the expanded samples around L, in the size of the next larger level
+     * (level 0 has none).
+     */
     public class Level {
 
         final int level;
+        final int width;
+        final int height;
+        final boolean decimated;
         final List<Allocation> expandBuffers = new ArrayList<>();
         final List<Allocation> collapseBuffers = new ArrayList<>();
-        final List<Allocation> gaussianBuffers = new ArrayList<>();
+        final FrameRing<Allocation> gaussians;
         final List<Allocation> levelLaplacianBuffers = new ArrayList<>();
-        int oldestGaussianBufferIndex;
+        final int sampleSpacing;
+        final int newestDelay;
+        final int centerDelay;
 
-        private Level(int level, int totalLevels) {
+        private Level(int level, TemporalPyramidPlan plan) {
             this.level = level;
-            this.oldestGaussianBufferIndex = 0;
+            this.width = plan.getLevelWidth(level);
+            this.height = plan.getLevelHeight(level);
+            this.decimated = level > 0 && plan.getDecimation() == TemporalPyramidPlan.Decimation.SPATIO_TEMPORAL;
+            this.sampleSpacing = plan.getSampleSpacing(level);
+            this.newestDelay = plan.getNewestDelay(level);
+            this.centerDelay = plan.getCenterDelay();
 
             // Add three expand buffers if this is not level 0
-            expandBuffers.add(create2d(rs, width, height, Element.F32(rs)));
-            expandBuffers.add(create2d(rs, width, height, Element.F32(rs)));
-            expandBuffers.add(create2d(rs, width, height, Element.F32(rs)));
+            if(level > 0) {
+                int expandWidth = plan.getLevelWidth(level - 1);
+                int expandHeight = plan.getLevelHeight(level - 1);
+                expandBuffers.add(create2d(rs, expandWidth, expandHeight, Element.F32(rs)));
+                expandBuffers.add(create2d(rs, expandWidth, expandHeight, Element.F32(rs)));
+                expandBuffers.add(create2d(rs, expandWidth, expandHeight, Element.F32(rs)));
+            }
 
             collapseBuffers.add(create2d(rs, width, height, Element.F32(rs)));
             collapseBuffers.add(create2d(rs, width, height, Element.F32(rs)));
@@ -275,15 +399,18 @@ public class TemporalPyramid {
             levelLaplacianBuffers.add(create2d(rs, width, height, Element.F32(rs)));
             levelLaplacianBuffers.add(create2d(rs, width, height, Element.F32(rs)));
 
-            // Calculate the number of buffers needed and add them
-            int bufferCount = 0;
-            for(int c = level; c < totalLevels; c++) {
-                bufferCount *= 2;
-                bufferCount += 3;
-            }
-            for(int c = 0; c < bufferCount; c++) {
+            List<Allocation> gaussianBuffers = new ArrayList<>();
+            for(int c = 0; c < plan.getGaussianBufferCount(level); c++) {
                 gaussianBuffers.add(create2d(rs, width, height, Element.F32(rs)));
             }
+            gaussians = new FrameRing<>(gaussianBuffers);
+        }
+
+        /**
+         * @return  true if the level is also spatially decimated compared to the level above
+         */
+        boolean isDecimated() {
+            return decimated;
         }
 
         public int getLevel() {
@@ -309,10 +436,9 @@ public class TemporalPyramid {
         }
 
         private void destroyGaussianBuffers() {
-            for(Allocation allocation : gaussianBuffers) {
+            for(Allocation allocation : gaussians) {
                 allocation.destroy();
             }
-            gaussianBuffers.clear();
         }
 
         private void destroyLaplacianBuffers() {
@@ -323,19 +449,39 @@ public class TemporalPyramid {
         }
 
         void shiftInGaussian(Allocation newVideoFrame) {
-            Allocation shiftInBuffer = gaussianBuffers.get(oldestGaussianBufferIndex);
-            shiftInBuffer.copyFrom(newVideoFrame);
-            oldestGaussianBufferIndex = (oldestGaussianBufferIndex + 1) % gaussianBuffers.size();
+            if(newVideoFrame == gaussians.getNextFrame()) {
+                // Already written in place
+                gaussians.advance();
+            } else {
+                gaussians.advance().copyFrom(newVideoFrame);
+            }
+        }
+
+        /**
+         * Move the ring one video frame ahead.
+         *
+         * @return  the buffer of the new newest sample, holds the oldest sample until written
+         */
+        Allocation rotateGaussians() {
+            return gaussians.advance();
         }
 
-        Allocation getGaussian(int temporalIndex) {
-            int correctIndex = (oldestGaussianBufferIndex + temporalIndex) % gaussianBuffers.size();
-            return gaussianBuffers.get(correctIndex);
+        /**
+         * @param offset    offset in level samples, 0 for the newest sample and negative for older
+         */
+        Allocation getNewestGaussian(int offset) {
+            return getGaussianAtDelay(newestDelay - offset * sampleSpacing);
         }
 
+        /**
+         * @param offset    offset in level samples, 0 for the L frame and positive for newer
+         */
         Allocation getTemporalCenterGaussian(int offset) {
-            int temporalCenterIndex = (gaussianBuffers.size() - 1) / 2;
-            return getGaussian(temporalCenterIndex + offset);
+            return getGaussianAtDelay(centerDelay - offset * sampleSpacing);
+        }
+
+        private Allocation getGaussianAtDelay(int delay) {
+            return gaussians.getNewest(delay - newestDelay);
         }
 
         Allocation getCollapsedResult() {
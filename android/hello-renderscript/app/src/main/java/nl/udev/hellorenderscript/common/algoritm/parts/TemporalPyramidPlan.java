@@ -0,0 +1,234 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+/**
+ * Level sizes and buffer counts of a {@link TemporalPyramid}, chosen to fit a memory budget.
+ *
+ * Every level holds 9 fixed buffers (3 laplacian, 3 collapse and 3 expanded buffers, level 0
+ * has no expanded buffers) and a ring of gaussian buffers that grows with the number of
+ * levels, see {@link TemporalPyramid.Level}.
+ *
+ * DECIMATION
+ * TEMPORAL         - all levels have the full resolution, only the frame rate is halved per level
+ * SPATIO_TEMPORAL  - the deeper levels are also halved in size (rounded up, as in
+ *                    {@link MipChainLayout}), a level needs a quarter of the memory of the one
+ *                    above, at the cost of spatial detail in the slow levels
+ *
+ * BUDGET
+ * When the pyramid does not fit in the budget it first switches to SPATIO_TEMPORAL decimation
+ * and then drops levels, until it fits. A single level is always allocated, even when it is
+ * over the budget.
+ */
+public class TemporalPyramidPlan {
+
+    private static final int BYTES_PER_ELEMENT = 4;
+    private static final int FIXED_LEVEL_BUFFERS = 6;
+    private static final int EXPAND_BUFFERS = 3;
+
+    private final Decimation decimation;
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private final int[] gaussianBufferCounts;
+    private final int[] windowFrameCounts;
+    private final int centerDelay;
+    private final int requestedLevelCount;
+    private final Decimation requestedDecimation;
+    private final long memoryBudget;
+
+    private TemporalPyramidPlan(int width, int height, int levelCount, Decimation decimation,
+                                int requestedLevelCount, Decimation requestedDecimation, long memoryBudget) {
+        this.decimation = decimation;
+        this.requestedLevelCount = requestedLevelCount;
+        this.requestedDecimation = requestedDecimation;
+        this.memoryBudget = memoryBudget;
+
+        if(decimation == Decimation.SPATIO_TEMPORAL) {
+            MipChainLayout layout = new MipChainLayout(width, height, levelCount - 1);
+            levelCount = layout.getLevelCount();
+            levelWidths = new int[levelCount];
+            levelHeights = new int[levelCount];
+            for(int level = 0; level < levelCount; level++) {
+                levelWidths[level] = layout.getLevelWidth(level);
+                levelHeights[level] = layout.getLevelHeight(level);
+            }
+        } else {
+            levelWidths = new int[levelCount];
+            levelHeights = new int[levelCount];
+            for(int level = 0; level < levelCount; level++) {
+                levelWidths[level] = width;
+                levelHeights[level] = height;
+            }
+        }
+
+        // The L frame is in the center of the window of level 0
+        windowFrameCounts = new int[levelCount];
+        int windowFrames = 0;
+        for(int level = levelCount - 1; level >= 0; level--) {
+            windowFrames *= 2;
+            windowFrames += 3;
+            windowFrameCounts[level] = windowFrames;
+        }
+        centerDelay = (windowFrames - 1) / 2;
+
+        gaussianBufferCounts = new int[levelCount];
+        for(int level = 0; level < levelCount; level++) {
+            int oldestDelay = centerDelay + getSampleSpacing(level);
+            if(level < levelCount - 1) {
+                oldestDelay = Math.max(oldestDelay, getNewestDelay(level) + 4 * getSampleSpacing(level));
+            }
+            gaussianBufferCounts[level] = oldestDelay - getNewestDelay(level) + 1;
+        }
+    }
+
+    /**
+     * Choose the largest pyramid that fits in the memory budget.
+     *
+     * @param width                 width of the video frames
+     * @param height                height of the video frames
+     * @param desiredLevelCount     number of levels, including level 0
+     * @param decimation            preferred decimation of the levels
+     * @param memoryBudget          maximum number of bytes of all buffers, 0 for no budget
+     */
+    public static TemporalPyramidPlan choose(int width, int height, int desiredLevelCount,
+                                             Decimation decimation, long memoryBudget) {
+
+        TemporalPyramidPlan plan = new TemporalPyramidPlan(width, height, desiredLevelCount, decimation,
+                desiredLevelCount, decimation, memoryBudget);
+        if(memoryBudget <= 0 || plan.fitsBudget()) {
+            return plan;
+        }
+
+        for(int levelCount = desiredLevelCount; levelCount > 1; levelCount--) {
+            plan = new TemporalPyramidPlan(width, height, levelCount, Decimation.SPATIO_TEMPORAL,
+                    desiredLevelCount, decimation, memoryBudget);
+            if(plan.fitsBudget()) {
+                return plan;
+            }
+        }
+
+        return new TemporalPyramidPlan(width, height, 1, decimation,
+                desiredLevelCount, decimation, memoryBudget);
+    }
+
+    public Decimation getDecimation() {
+        return decimation;
+    }
+
+    public int getLevelCount() {
+        return levelWidths.length;
+    }
+
+    public int getLevelWidth(int level) {
+        return levelWidths[level];
+    }
+
+    public int getLevelHeight(int level) {
+        return levelHeights[level];
+    }
+
+    /**
+     * @return  number of video frames between two samples of the level
+     */
+    public int getSampleSpacing(int level) {
+        return 1 << level;
+    }
+
+    /**
+     * @return  number of video frames between the newest sample of the level and the newest video frame
+     */
+    public int getNewestDelay(int level) {
+        return 2 * getSampleSpacing(level) - 2;
+    }
+
+    /**
+     * @return  number of video frames between the L frame and the newest video frame
+     */
+    public int getCenterDelay() {
+        return centerDelay;
+    }
+
+    public int getGaussianBufferCount(int level) {
+        return gaussianBufferCounts[level];
+    }
+
+    /**
+     * The rings keep a sample for every video frame, so the deep levels need more buffers than
+     * the level samples in the window, which is all that a full recompute every frame keeps.
+     *
+     * @return  number of gaussian buffers of all levels of a full recompute, to compare with the
+     *          rings of the incremental update
+     */
+    public int getWindowGaussianBufferCount() {
+        int count = 0;
+        for(int frames : windowFrameCounts) {
+            count += frames;
+        }
+        return count;
+    }
+
+    /**
+     * @return  number of allocations of all levels
+     */
+    public int getBufferCount() {
+        int count = 0;
+        for(int level = 0; level < getLevelCount(); level++) {
+            count += gaussianBufferCounts[level] + FIXED_LEVEL_BUFFERS;
+            if(level > 0) {
+                count += EXPAND_BUFFERS;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return  number of bytes of all buffers of all levels
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for(int level = 0; level < getLevelCount(); level++) {
+            long levelBytes = (long) levelWidths[level] * levelHeights[level] * BYTES_PER_ELEMENT;
+            bytes += levelBytes * (gaussianBufferCounts[level] + FIXED_LEVEL_BUFFERS);
+            if(level > 0) {
+                // The expanded buffers have the size of the next larger level
+                bytes += (long) levelWidths[level - 1] * levelHeights[level - 1] * BYTES_PER_ELEMENT * EXPAND_BUFFERS;
+            }
+        }
+        return bytes;
+    }
+
+    public boolean fitsBudget() {
+        return memoryBudget <= 0 || getMemoryBytes() <= memoryBudget;
+    }
+
+    /**
+     * @return  human readable description of what is allocated and why
+     */
+    public String getMemoryReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%dx%d, %d levels, %s decimation: %d buffers %.2f MB",
+                levelWidths[0], levelHeights[0], getLevelCount(), decimation,
+                getBufferCount(), getMemoryBytes() / 1e6));
+
+        int ringBuffers = 0;
+        for(int count : gaussianBufferCounts) {
+            ringBuffers += count;
+        }
+        report.append(String.format(", %d gaussian (%d for a full recompute)", ringBuffers, getWindowGaussianBufferCount()));
+
+        if(memoryBudget > 0) {
+            report.append(String.format(" (budget %.2f MB", memoryBudget / 1e6));
+            if(getLevelCount() != requestedLevelCount || decimation != requestedDecimation) {
+                report.append(String.format(", requested %d levels %s", requestedLevelCount, requestedDecimation));
+            }
+            if(!fitsBudget()) {
+                report.append(", OVER BUDGET");
+            }
+            report.append(")");
+        }
+        return report.toString();
+    }
+
+    public enum Decimation {
+        TEMPORAL,
+        SPATIO_TEMPORAL
+    }
+}
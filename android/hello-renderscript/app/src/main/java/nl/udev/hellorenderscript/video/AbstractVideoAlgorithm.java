@@ -9,11 +9,41 @@ import nl.udev.hellorenderscript.common.algoritm.AbstractAlgorithm;
  */
 public abstract class AbstractVideoAlgorithm extends AbstractAlgorithm {
 
+    private FrameContext frameContext;
+
+    /**
+     * Process the current frame of the frame context, the derived planes of the frame are
+     * available via {@link #getFrameContext()} while processing.
+     *
+     * @param frameContext         Context of the newly captured video frame
+     * @param displayBufferRgba    Buffer to visualize the output in
+     */
+    public final void process(FrameContext frameContext, Allocation displayBufferRgba) {
+        this.frameContext = frameContext;
+        try {
+            process(frameContext.getCaptureBuffer(), displayBufferRgba);
+        } finally {
+            this.frameContext = null;
+        }
+    }
+
     /**
-     * Process the new captured data and display the output in the display buffer.
+     * Process the new captured data and display the output in the display buffer, only called
+     * by {@link #process(FrameContext, Allocation)}.
      * @param captureBufferRgba    Buffer containing the newly captured video frame
      * @param displayBufferRgba    Buffer to visualize the output in
      */
-    public abstract void process(Allocation captureBufferRgba, Allocation displayBufferRgba);
+    protected abstract void process(Allocation captureBufferRgba, Allocation displayBufferRgba);
+
+    /**
+     * @return  the context of the frame being processed
+     * @throws IllegalStateException when not processing a frame
+     */
+    protected FrameContext getFrameContext() {
+        if(frameContext == null) {
+            throw new IllegalStateException("No frame context, frames are processed by process(FrameContext, Allocation)");
+        }
+        return frameContext;
+    }
 
 }
@@ -24,6 +24,8 @@ import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +34,7 @@ import nl.udev.hellorenderscript.common.algoritm.AbstractAlgorithm;
 import nl.udev.hellorenderscript.common.algoritm.parameter.AbstractParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.IntegerParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
+import nl.udev.hellorenderscript.common.algoritm.parts.KernelBank;
 import nl.udev.hellorenderscript.video.algoritms.BrightnessMotionAlgorithm;
 import nl.udev.hellorenderscript.video.algoritms.CannyAlgorithm;
 import nl.udev.hellorenderscript.video.algoritms.GradientMotionAlgorithm;
@@ -53,6 +56,8 @@ import nl.udev.hellorenderscript.video.common.VideoCaptureProcessor;
 public class AlgorithmViewerActivity extends AppCompatActivity {
 
     private static final String TAG = "AlgView";
+    private static final String KERNEL_BANK_FILE = "kernelbank.bin";
+    private static final int KERNEL_BANK_MAX_KERNEL_SIZE = 19;
 
     private RenderScript rs;
 
@@ -60,6 +65,7 @@ public class AlgorithmViewerActivity extends AppCompatActivity {
     private Bitmap displayBitmap;
     private ImageView hmiDisplayView;
     private Allocation displayBuffer;
+    private FrameContext frameContext;
 
     private VideoCaptureProcessor videoCaptureProcessor;
     private Size videoSize;
@@ -90,6 +96,7 @@ public class AlgorithmViewerActivity extends AppCompatActivity {
         findViewById(R.id.algorithmInfoButton).setOnClickListener(new AlgorithmInfoPopupHandler());
 
         // Initialize the algoritm parts
+        initializeKernelBank();
         rs = RenderScript.create(this);
         videoCaptureProcessor = new VideoCaptureProcessor(rs);
         algorithmList.add(new VectorEdgeDetectionAlgorithm());
@@ -224,6 +231,9 @@ public class AlgorithmViewerActivity extends AppCompatActivity {
             displayBuffer = Allocation.createTyped(rs, displayBufferBuilder.create(), Allocation.USAGE_SCRIPT);
         }
 
+        // Planes derived from the captured frames, shared by the parts of the algorithm
+        frameContext = new FrameContext(rs, videoSize.getWidth(), videoSize.getHeight());
+
         Bitmap.Config conf = Bitmap.Config.ARGB_8888;
         displayBitmap = Bitmap.createBitmap(videoSize.getWidth(), videoSize.getHeight(), conf);
         hmiDisplayView.setImageBitmap(displayBitmap);
@@ -232,6 +242,8 @@ public class AlgorithmViewerActivity extends AppCompatActivity {
     private void releaseVideoBuffers() {
         Log.i("[" + Thread.currentThread().getName() + "] - " + TAG, "Releasing video buffers.");
         displayBuffer.destroy();
+        frameContext.destroy();
+        frameContext = null;
         hmiDisplayView.setImageBitmap(null);
         displayBitmap.recycle();
         displayBitmap = null;
@@ -272,7 +284,12 @@ public class AlgorithmViewerActivity extends AppCompatActivity {
             updateFrameRate();
 
             if(selectedAlgorithm != null) {
-                selectedAlgorithm.process(capturedRgbBuffer, displayBuffer);
+                frameContext.beginFrame(capturedRgbBuffer);
+                try {
+                    selectedAlgorithm.process(frameContext, displayBuffer);
+                } finally {
+                    frameContext.endFrame();
+                }
             }
 
             displayBuffer.copyTo(displayBitmap);
@@ -298,6 +315,30 @@ public class AlgorithmViewerActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Map the persisted kernels so that changing kernel sizes never has to generate them.
+     *
+     * This reads (or generates and writes) the bank file, so it runs on a background thread. Until
+     * it is done the algorithms create the kernels they need on first use, like without a bank file.
+     */
+    private void initializeKernelBank() {
+        final File bankFile = new File(getFilesDir(), KERNEL_BANK_FILE);
+
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    KernelBank.getInstance().mapOrCreate(bankFile, KERNEL_BANK_MAX_KERNEL_SIZE);
+                } catch (IOException e) {
+                    // Not fatal, the kernels are then created on first use
+                    Log.w(TAG, "Unable to map the kernel bank: " + e.getMessage());
+                }
+            }
+        }, "KernelBankLoader");
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+    }
+
     private void initializeCameraResolutionSelection() {
         Spinner spinner = (Spinner) findViewById(R.id.algorithmResolutionSpinner);
         ArrayAdapter<Size> adapter = new ArrayAdapter<>(
@@ -0,0 +1,284 @@
+package nl.udev.hellorenderscript.video;
+
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection;
+import nl.udev.hellorenderscript.common.algoritm.parts.EdgeOutput;
+import nl.udev.hellorenderscript.common.algoritm.parts.StoragePrecision;
+import nl.udev.hellorenderscript.common.algoritm.parts.ImagePyramid;
+import nl.udev.hellorenderscript.common.algoritm.parts.RsUtils;
+
+/**
+ * The planes derived from a single captured video frame, shared by everything that analyses it.
+ *
+ * Each plane is calculated when it is first requested during the frame and then reused:
+ *
+ * intensity        - greyscale intensity of the capture
+ * edges            - edge vectors, polar vectors and magnitudes per kernel size and storage
+ *                    precision, a new amplification recalculates the outputs
+ * pyramid          - {@link ImagePyramid} of the intensity, its levels are calculated lazily
+ *
+ * LIFETIME
+ * A frame lasts from {@link #beginFrame(Allocation)} to {@link #endFrame()}, planes can only be
+ * requested in between and are only valid until the end of the frame. At the end of a frame
+ * the buffers of planes which were not requested during the frame are released, the others
+ * are kept for the next frame (the parameters of the consumers rarely change).
+ *
+ * The planes are read only! Consumers which modify them (e.g. collapsing a laplacian pyramid,
+ * which overwrites the gaussian levels and the intensity) must work on their own buffers.
+ */
+public class FrameContext {
+
+    private static final String TAG = "FrameContext";
+    private final RenderScript rs;
+    private final ScriptC_utils rsUtils;
+    private final int width;
+    private final int height;
+
+    private Allocation captureBufferRgba;
+    private int frameNumber;
+
+    private Allocation intensityBuffer;
+    private boolean intensityUsed;
+    private boolean intensityValid;
+
+    private final Map<EdgeKey, EdgeEntry> edges = new HashMap<>();
+
+    private ImagePyramid pyramid;
+    private int pyramidLevelCount;
+    private boolean pyramidUsed;
+    private boolean pyramidValid;
+
+    public FrameContext(RenderScript rs, int width, int height) {
+        this.rs = rs;
+        this.rsUtils = new ScriptC_utils(rs);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Start a new frame, all planes of the previous frame are invalid.
+     *
+     * @param captureBufferRgba    the captured video frame, must stay unchanged until the end of the frame
+     */
+    public void beginFrame(Allocation captureBufferRgba) {
+        if(this.captureBufferRgba != null) {
+            throw new IllegalStateException("Frame " + frameNumber + " did not end");
+        }
+        this.captureBufferRgba = captureBufferRgba;
+        frameNumber++;
+    }
+
+    /**
+     * End the frame, releases the buffers of the planes which were not requested in this frame.
+     */
+    public void endFrame() {
+        checkInFrame();
+        captureBufferRgba = null;
+
+        if(!intensityUsed && intensityBuffer != null) {
+            intensityBuffer.destroy();
+            intensityBuffer = null;
+        }
+        intensityUsed = false;
+        intensityValid = false;
+
+        Iterator<Map.Entry<EdgeKey, EdgeEntry>> iterator = edges.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<EdgeKey, EdgeEntry> entry = iterator.next();
+            EdgeEntry edgeEntry = entry.getValue();
+            if(!edgeEntry.used) {
+                Log.d(TAG, "Releasing edges " + entry.getKey());
+                edgeEntry.edgeDetection.destroy();
+                iterator.remove();
+            } else {
+                edgeEntry.used = false;
+                edgeEntry.outputs.clear();
+            }
+        }
+
+        if(!pyramidUsed && pyramid != null) {
+            Log.d(TAG, "Releasing pyramid");
+            pyramid.destroy();
+            pyramid = null;
+        }
+        pyramidUsed = false;
+        pyramidValid = false;
+    }
+
+    /**
+     * @return  the number of the current frame, starting at 1
+     */
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return  the captured video frame
+     */
+    public Allocation getCaptureBuffer() {
+        checkInFrame();
+        return captureBufferRgba;
+    }
+
+    /**
+     * @return  2D float greyscale intensity of the frame
+     */
+    public Allocation getIntensity() {
+        checkInFrame();
+        intensityUsed = true;
+
+        if(!intensityValid) {
+            if(intensityBuffer == null) {
+                intensityBuffer = RsUtils.create2d(rs, width, height, Element.F32(rs));
+            }
+            rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
+            intensityValid = true;
+        }
+        return intensityBuffer;
+    }
+
+    /**
+     * Edge detection on the intensity of the frame, with the default kernel mode.
+     *
+     * @param kernelSize        size of the edge kernel
+     * @param amplification     amplification of the edges
+     * @param precision         precision of the output buffers
+     * @param outputs           the outputs needed
+     * @return  the edge detection, its output buffers contain the requested outputs of this frame
+     */
+    public EdgeDetection getEdges(int kernelSize, float amplification, StoragePrecision precision,
+                                  EnumSet<EdgeOutput> outputs) {
+        checkInFrame();
+
+        EdgeKey key = new EdgeKey(kernelSize, precision);
+        EdgeEntry entry = edges.get(key);
+        if(entry == null) {
+            EdgeDetection edgeDetection = new EdgeDetection(rs, width, height, kernelSize);
+            edgeDetection.setStoragePrecision(precision);
+            entry = new EdgeEntry(edgeDetection);
+            edges.put(key, entry);
+            Log.d(TAG, "Created edges " + key);
+        }
+        entry.used = true;
+
+        // The amplification is a slider, keep the buffers and recalculate them
+        if(Float.compare(entry.amplification, amplification) != 0) {
+            entry.edgeDetection.setAmplification(amplification);
+            entry.amplification = amplification;
+            entry.outputs.clear();
+        }
+
+        if(!entry.outputs.containsAll(outputs)) {
+            // Calculate all outputs in one pass, including the ones already there
+            entry.outputs.addAll(outputs);
+            entry.edgeDetection.calcEdges(getIntensity(), entry.outputs);
+        }
+        return entry.edgeDetection;
+    }
+
+    /**
+     * The pyramid is read only: don't collapse it (that overwrites the gaussian levels), use an
+     * own {@link ImagePyramid} for that.
+     *
+     * @param levelCount    number of smaller levels, see {@link ImagePyramid}
+     * @return  the pyramid of the intensity of this frame, levels are calculated when requested
+     */
+    public ImagePyramid getPyramid(int levelCount) {
+        checkInFrame();
+        pyramidUsed = true;
+
+        if(pyramid == null) {
+            pyramid = new ImagePyramid(rs, width, height, levelCount);
+            pyramidLevelCount = levelCount;
+            pyramidValid = false;
+            Log.d(TAG, "Created pyramid with " + levelCount + " levels");
+        } else if(pyramidLevelCount != levelCount) {
+            pyramid.resizePyramid(width, height, levelCount);
+            pyramidLevelCount = levelCount;
+            pyramidValid = false;
+        }
+
+        if(!pyramidValid) {
+            pyramid.calculate(getIntensity());
+            pyramidValid = true;
+        }
+        return pyramid;
+    }
+
+    /**
+     * Release all buffers.
+     *
+     * After this call completes the context should not be used anymore!
+     */
+    public void destroy() {
+        if(intensityBuffer != null) {
+            intensityBuffer.destroy();
+            intensityBuffer = null;
+        }
+        for(EdgeEntry entry : edges.values()) {
+            entry.edgeDetection.destroy();
+        }
+        edges.clear();
+        if(pyramid != null) {
+            pyramid.destroy();
+            pyramid = null;
+        }
+        rsUtils.destroy();
+    }
+
+    private void checkInFrame() {
+        if(captureBufferRgba == null) {
+            throw new IllegalStateException("Frame planes are only available between beginFrame and endFrame");
+        }
+    }
+
+    private static class EdgeEntry {
+        final EdgeDetection edgeDetection;
+        final EnumSet<EdgeOutput> outputs = EnumSet.noneOf(EdgeOutput.class);
+        float amplification = Float.NaN;
+        boolean used;
+
+        EdgeEntry(EdgeDetection edgeDetection) {
+            this.edgeDetection = edgeDetection;
+        }
+    }
+
+    private static class EdgeKey {
+        final int kernelSize;
+        final StoragePrecision precision;
+
+        EdgeKey(int kernelSize, StoragePrecision precision) {
+            this.kernelSize = kernelSize;
+            this.precision = precision;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof EdgeKey)) {
+                return false;
+            }
+            EdgeKey other = (EdgeKey) o;
+            return kernelSize == other.kernelSize
+                    && precision == other.precision;
+        }
+
+        @Override
+        public int hashCode() {
+            return kernelSize * 31 + precision.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "kernel " + kernelSize + ", " + precision;
+        }
+    }
+}
@@ -47,6 +47,7 @@ import java.util.List;
 
 import nl.udev.hellorenderscript.BuildConfig;
 import nl.udev.hellorenderscript.R;
+import nl.udev.hellorenderscript.common.algoritm.parts.FrameRing;
 
 /**
  * An example full-screen activity that shows and hides the system UI (i.e.
@@ -62,7 +63,8 @@ public class VideoActivity extends AppCompatActivity {
     private Surface cameraCaptureSurface;
     private Allocation cameraCaptureAllocation;
     private Allocation captureRgbBuffer;
-    private List<Allocation> captureHistoryBuffers;
+    private FrameRing<Allocation> captureHistory;
+    private Allocation emptyHistoryBuffer;
     private List<Allocation> captureMovingAverageBuffers;
     private ScriptC_video videoScript;
     private ScriptIntrinsicYuvToRGB yuvToRgbScript;
@@ -214,10 +216,15 @@ public class VideoActivity extends AppCompatActivity {
             countBuilder.setX(mWidth);
             countBuilder.setY(mHeight);
 
-            captureHistoryBuffers = new ArrayList<>();
+            List<Allocation> captureHistoryBuffers = new ArrayList<>();
             for(int c = 0; c < COUNT; c++) {
                 captureHistoryBuffers.add(Allocation.createTyped(mRS, countBuilder.create(), Allocation.USAGE_SCRIPT));
             }
+            captureHistory = new FrameRing<>(captureHistoryBuffers);
+
+            // Stands in for the history frames from before a reset
+            emptyHistoryBuffer = Allocation.createTyped(mRS, countBuilder.create(), Allocation.USAGE_SCRIPT);
+            videoScript.forEach_clearBufferUshort4(emptyHistoryBuffer);
 
             Type.Builder avgBuilder = new Type.Builder(mRS, Element.I32_4(mRS));
             avgBuilder.setX(mWidth);
@@ -312,7 +319,6 @@ public class VideoActivity extends AppCompatActivity {
 
     private class CaptureDataHandler extends CameraCaptureSession.CaptureCallback {
 
-        private int pos = 0;
         private int inputPos, outputPos;
 
         @Override
@@ -323,8 +329,8 @@ public class VideoActivity extends AppCompatActivity {
             // Store the capture as RGB
             yuvToRgbScript.forEach(captureRgbBuffer);
 
-            // Calculate the capture destination
-            Allocation destinationBuffer = captureHistoryBuffers.get(pos);
+            // Calculate the capture destination, directly into the history
+            Allocation destinationBuffer = captureHistory.getNextFrame();
             videoScript.set_avgIn(captureRgbBuffer);
             videoScript.set_avgSize(1);
             videoScript.set_avgWidth(mWidth);
@@ -337,12 +343,11 @@ public class VideoActivity extends AppCompatActivity {
             if(inputPos != newInputPos || outputPos != newOutputPos) {
                 videoScript.forEach_clearBufferInt4(captureMovingAverageBuffers.get(0));
                 videoScript.forEach_clearBufferInt4(captureMovingAverageBuffers.get(1));
-                for(int c = 0; c < COUNT; c++) {
-                    videoScript.forEach_clearBufferUshort4(captureHistoryBuffers.get(c));
-                }
+                captureHistory.reset();
             }
             inputPos = newInputPos;
             outputPos = newOutputPos;
+            captureHistory.advance();
 
             // Calculate two moving averages and then take the difference
             int[] averages = {inputPos, outputPos};
@@ -350,10 +355,12 @@ public class VideoActivity extends AppCompatActivity {
             // Update the moving averages
             int bufferNumber = 0;
             for(int c : averages) {
-                int bufferOutPos = (pos + 1 + COUNT - c) % COUNT;
+                int shiftOutAge = (c - 1 + COUNT) % COUNT;
 
                 Allocation shiftInBuffer = destinationBuffer;
-                Allocation shiftOutBuffer = captureHistoryBuffers.get(bufferOutPos);
+                Allocation shiftOutBuffer = captureHistory.isFilled(shiftOutAge)
+                        ? captureHistory.getNewest(shiftOutAge)
+                        : emptyHistoryBuffer;
                 Allocation sumBuffer = captureMovingAverageBuffers.get(bufferNumber);
 
                 videoScript.set_shiftIn(shiftInBuffer);
@@ -361,13 +368,11 @@ public class VideoActivity extends AppCompatActivity {
                 videoScript.set_sumBuffer(sumBuffer);
                 videoScript.forEach_updateSums(sumBuffer);
 
-                // Log.i(TAG, "Buffer " + bufferNumber + ": in=" + pos + ", out=" + bufferOutPos);
+                // Log.i(TAG, "Buffer " + bufferNumber + ": out age=" + shiftOutAge);
 
                 bufferNumber++;
             }
 
-            pos = (pos + 1) % COUNT;
-
             videoScript.set_sumIn(captureMovingAverageBuffers.get(0));
             videoScript.set_sumOut(captureMovingAverageBuffers.get(1));
             videoScript.set_sumInSize(averages[0] - 1);
@@ -5,13 +5,16 @@ import android.renderscript.Element;
 import android.text.Html;
 import android.util.Size;
 
+import java.util.EnumSet;
+
 import nl.udev.hellorenderscript.video.AbstractVideoAlgorithm;
 import nl.udev.hellorenderscript.common.algoritm.parameter.IntegerParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
 import nl.udev.hellorenderscript.video.ScriptC_brightnessmotion;
 import nl.udev.hellorenderscript.video.ScriptC_utils;
-import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection;
+import nl.udev.hellorenderscript.common.algoritm.parts.EdgeOutput;
+import nl.udev.hellorenderscript.common.algoritm.parts.StoragePrecision;
 
 /**
  * Algorithm that calculates the center-of-weight of the input (edges/brightness) in each area.
@@ -25,13 +28,11 @@ public class BrightnessMotionAlgorithm extends AbstractVideoAlgorithm {
     private static final String TAG = "BrightnessMotion";
 
     public static final int DEFAULT_BLOCK_COUNT = 16;
-
-    private EdgeDetection edgeDetection;
+    private static final int EDGE_KERNEL_SIZE = 3;
 
     private ScriptC_brightnessmotion rsBrightnessMotion;
     private ScriptC_utils rsUtils;
 
-    private Allocation intensityBuffer;
     private Allocation motionBlocks, brightnessBlocksCurrent, brightnessBlocksPrevious;
 
     private int blockSizeX, blockSizeY;
@@ -87,19 +88,9 @@ public class BrightnessMotionAlgorithm extends AbstractVideoAlgorithm {
     @Override
     protected void initialize() {
 
-        edgeDetection = new EdgeDetection(
-                getRenderScript(),
-                getResolution().getWidth(),
-                getResolution().getHeight(),
-                3
-        );
-
         // Create scriptlets (RenderScript)
         rsUtils = new ScriptC_utils(getRenderScript());
         rsBrightnessMotion = new ScriptC_brightnessmotion(getRenderScript());
-
-        // Create buffers
-        intensityBuffer = create2d(Element.F32(getRenderScript()));
     }
 
     @Override
@@ -107,11 +98,9 @@ public class BrightnessMotionAlgorithm extends AbstractVideoAlgorithm {
 
         // Destroy scriptlets
         rsUtils.destroy();
-        edgeDetection.destroy();
         rsBrightnessMotion.destroy();
 
         // Destroy buffers
-        intensityBuffer.destroy();
         if(motionBlocks != null) {
             motionBlocks.destroy();
             motionBlocks = null;
@@ -121,23 +110,21 @@ public class BrightnessMotionAlgorithm extends AbstractVideoAlgorithm {
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
         dynamicCreateBlocksBufferBasedOnBlockCount();
 
-        // Convert captured frame to gray-scale for processing
-        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
-
         // ----- ----- ----- ----- Generate the input ----- ----- ----- -----
+        // The gray-scale intensity / edges of the captured frame, shared with the other parts
         Allocation input;
         switch (inputType) {
             default:
             case Input_Brightness:
-                input = intensityBuffer;
+                input = getFrameContext().getIntensity();
                 break;
             case Input_Edges:
-                edgeDetection.setAmplification(inputAmplification);
-                input = edgeDetection.calcEdgeMagnitudes(intensityBuffer);
+                input = getFrameContext().getEdges(EDGE_KERNEL_SIZE, inputAmplification, StoragePrecision.F32,
+                        EnumSet.of(EdgeOutput.MAGNITUDES)).getEdgeMagnitudesBuffer();
                 break;
         }
         rsBrightnessMotion.set_sourceImage(input);
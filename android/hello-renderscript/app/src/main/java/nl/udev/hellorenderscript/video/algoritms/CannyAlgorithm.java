@@ -4,11 +4,22 @@ import android.renderscript.Allocation;
 import android.renderscript.Element;
 import android.renderscript.Script;
 import android.renderscript.Type;
+import android.util.Log;
 
 import com.android.example.cannylive.ScriptC_canny;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
+import nl.udev.hellorenderscript.common.algoritm.parts.JvmCannyHysteresis;
+import nl.udev.hellorenderscript.common.algoritm.parts.JvmHoughTransform;
+import nl.udev.hellorenderscript.common.algoritm.parts.JvmProbabilisticHough;
 import nl.udev.hellorenderscript.video.AbstractVideoAlgorithm;
 
 /**
@@ -22,17 +33,46 @@ import nl.udev.hellorenderscript.video.AbstractVideoAlgorithm;
 public class CannyAlgorithm extends AbstractVideoAlgorithm {
 
     private static final String TAG = "CannyAlgorithm";
+    private static final int MAX_HOUGH_LINES = 32;
+    private static final int MIN_HOUGH_LINE_VOTES = 40;
+    private static final int HOUGH_SEED = 17;
+    private static final byte SEGMENT_EDGE_VALUE = 6;
+    private static final byte SEGMENT_VALUE = 25;
     private ScriptC_canny rsCanny;
 
     private Allocation mBlurAllocation;
     private Allocation mEdgeAllocation;
     private Allocation mHoughOutput;
-    private Allocation mHoughSlices;
+
+    private JvmCannyHysteresis hysteresis;
+    private byte[] thinnedBuffer;
+    private JvmHoughTransform houghTransform;
+    private int houghDistanceCount;
+    private byte[] edgeBuffer;
+    private byte[] houghBuffer;
+    private volatile List<JvmHoughTransform.Line> houghLines = Collections.emptyList();
+    private JvmProbabilisticHough probabilisticHough;
+    private byte[] segmentBuffer;
+    private volatile List<JvmProbabilisticHough.Segment> houghSegments = Collections.emptyList();
+
+    // Pipelined Hough: two transforms and edge buffers, the one of the previous frame is voting.
+    // Only allocated while the pipeline is used, see createPipeline()
+    private JvmHoughTransform[] pipelineTransforms;
+    private byte[][] pipelineEdgeBuffers;
+    private int pipelineSlot;
+    private long pipelineFrameStart;
+    private ForkJoinPool houghPool;
+    private Future<List<JvmHoughTransform.Line>> pendingHough;
+    private volatile long houghLatencyNanos;
+    private volatile long houghFrameNanos;
 
     private Mode mode;
+    private HysteresisType hysteresisType;
+    private Execution execution;
 
     private enum Mode {
         HOUGH_TRANSFORM,
+        PROBABILISTIC_HOUGH,
         BLACK,
         BLACK_FUZZ,
         WHITE_FUZZ,
@@ -40,9 +80,33 @@ public class CannyAlgorithm extends AbstractVideoAlgorithm {
         CARTOON
     }
 
+    /**
+     * KERNEL         - the 'hysteresis' kernel, a bounded search per weak pixel (loses long weak chains)
+     * UNION_FIND     - connected components on the JVM, see {@link JvmCannyHysteresis}, keeps long
+     *                  weak chains but copies the thinned edges to the JVM and the result back
+     */
+    private enum HysteresisType {
+        KERNEL,
+        UNION_FIND
+    }
+
+    /**
+     * SEQUENTIAL     - the Hough vote of a frame is shown in that frame
+     * PIPELINED      - the Hough vote of a frame runs on a background thread during the next
+     *                  frame, and is shown one frame later
+     */
+    private enum Execution {
+        SEQUENTIAL,
+        PIPELINED
+    }
+
     public CannyAlgorithm() {
         addParameter(new LimitedSettingsParameter<>("Mode", Mode.values(), Mode.CARTOON, new ModeMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Hysteresis", HysteresisType.values(), HysteresisType.KERNEL, new HysteresisMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Execution", Execution.values(), Execution.SEQUENTIAL, new ExecutionMonitor()));
         this.mode = Mode.CARTOON;
+        this.hysteresisType = HysteresisType.KERNEL;
+        this.execution = Execution.SEQUENTIAL;
     }
 
     @Override
@@ -67,22 +131,21 @@ public class CannyAlgorithm extends AbstractVideoAlgorithm {
         mBlurAllocation = Allocation.createTyped(getRenderScript(), buffTypeBuilder.create());
         mEdgeAllocation = Allocation.createTyped(getRenderScript(), buffTypeBuilder.create());
 
-        int NO_OF_SLICES = 8;
-        int[] slices = new int[NO_OF_SLICES * 2];
-        for (int i = 0; i < NO_OF_SLICES; i++) {
-            int s1 = i * 360 / NO_OF_SLICES;
-            int s2 = ((1 + i) * 360) / NO_OF_SLICES;
-            slices[i * 2] = s1;
-            slices[i * 2 + 1] = s2;
-        }
-        Type.Builder houghSliceBuilder = new Type.Builder(getRenderScript(), Element.I32_2(getRenderScript()));
-        houghSliceBuilder.setX(NO_OF_SLICES);
-        mHoughSlices = Allocation.createTyped(getRenderScript(), houghSliceBuilder.create(), Allocation.USAGE_SCRIPT);
-        mHoughSlices.copyFrom(slices);
+        // One distance column per pixel of the diagonal, so lines far from the center are kept
+        houghDistanceCount = JvmHoughTransform.getDistanceCount(getResolution().getWidth(), getResolution().getHeight());
+        houghTransform = new JvmHoughTransform(ForkJoinPool.commonPool(), getResolution().getWidth(),
+                getResolution().getHeight(), JvmHoughTransform.DEFAULT_ANGLE_COUNT, houghDistanceCount);
         Type.Builder houghOutputBuilder = new Type.Builder(getRenderScript(), Element.U8(getRenderScript()));
-        houghOutputBuilder.setX(800);
-        houghOutputBuilder.setY(360);
+        houghOutputBuilder.setX(houghDistanceCount);
+        houghOutputBuilder.setY(houghTransform.getAngleCount());
         mHoughOutput = Allocation.createTyped(getRenderScript(), houghOutputBuilder.create());
+        houghBuffer = new byte[houghDistanceCount * houghTransform.getAngleCount()];
+
+        hysteresis = new JvmCannyHysteresis(getResolution().getWidth(), getResolution().getHeight());
+        thinnedBuffer = new byte[getResolution().getWidth() * getResolution().getHeight()];
+        edgeBuffer = new byte[getResolution().getWidth() * getResolution().getHeight()];
+        probabilisticHough = new JvmProbabilisticHough(getResolution().getWidth(), getResolution().getHeight(), HOUGH_SEED);
+        segmentBuffer = new byte[getResolution().getWidth() * getResolution().getHeight()];
 
         // Create scriptlets (RenderScript)
         rsCanny = new ScriptC_canny(getRenderScript());
@@ -95,18 +158,28 @@ public class CannyAlgorithm extends AbstractVideoAlgorithm {
     @Override
     protected void unInitialize() {
 
+        // Drop the vote of the last frame, it is never shown
+        releasePipeline();
+
         // Destroy scriptlets
         rsCanny.destroy();
 
         // Destroy buffers created during initialization (not used for this algorithm)
         mBlurAllocation.destroy();
         mEdgeAllocation.destroy();
-        mHoughSlices.destroy();
         mHoughOutput.destroy();
+
+        hysteresis = null;
+        thinnedBuffer = null;
+        houghTransform = null;
+        edgeBuffer = null;
+        houghBuffer = null;
+        probabilisticHough = null;
+        segmentBuffer = null;
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
         rsCanny.set_gCurrentRGBFrame(captureBufferRgba);
 
@@ -128,15 +201,46 @@ public class CannyAlgorithm extends AbstractVideoAlgorithm {
 
         opt.setX(5, mBlurAllocation.getType().getX() - 5);
         opt.setY(5, mBlurAllocation.getType().getY() - 5);
-        rsCanny.forEach_hysteresis(mBlurAllocation, mEdgeAllocation, opt);
+        switch (hysteresisType) {
+            case KERNEL:
+                rsCanny.forEach_hysteresis(mBlurAllocation, mEdgeAllocation, opt);
+                break;
+            case UNION_FIND:
+                // The thinned edges are in the blur buffer, only the margin of 4 is not written
+                mBlurAllocation.copyTo(thinnedBuffer);
+                mEdgeAllocation.copyFrom(hysteresis.apply(thinnedBuffer));
+                break;
+        }
+
+        if(mode != Mode.HOUGH_TRANSFORM) {
+            houghLines = Collections.emptyList();
+        }
+        if(mode != Mode.PROBABILISTIC_HOUGH) {
+            houghSegments = Collections.emptyList();
+        }
+        if(houghPool != null && (mode != Mode.HOUGH_TRANSFORM || execution != Execution.PIPELINED)) {
+            releasePipeline();
+        }
 
         switch (mode) {
             case HOUGH_TRANSFORM:
             default:
-                rsCanny.forEach_black_uchar(mHoughOutput);
-                rsCanny.forEach_hough(mHoughSlices);
-                getRenderScript().finish();
+                if(execution == Execution.PIPELINED) {
+                    processPipelinedHough(displayBufferRgba);
+                    break;
+                }
+                long start = System.nanoTime();
+                showHoughVotes(houghTransform.calculate(getEdgeBuffer()));
+                houghLines = houghTransform.findLines(MAX_HOUGH_LINES, MIN_HOUGH_LINE_VOTES);
                 rsCanny.forEach_hough_map(displayBufferRgba);
+                houghLatencyNanos = System.nanoTime() - start;
+                houghFrameNanos = houghLatencyNanos;
+                break;
+            case PROBABILISTIC_HOUGH:
+                byte[] edges = getEdgeBuffer();
+                houghSegments = probabilisticHough.findSegments(edges);
+                showHoughSegments(edges, houghSegments);
+                rsCanny.forEach_toRGB(displayBufferRgba, opt);
                 break;
             case BLACK:
                 rsCanny.forEach_toRGB(displayBufferRgba, opt);
@@ -156,6 +260,184 @@ public class CannyAlgorithm extends AbstractVideoAlgorithm {
         }
     }
 
+    /**
+     * @return  the strongest lines of the last shown votes in {@link Mode#HOUGH_TRANSFORM} mode,
+     *          the most votes first (empty in the other modes)
+     */
+    public List<JvmHoughTransform.Line> getHoughLines() {
+        return houghLines;
+    }
+
+    /**
+     * Vote the edges of this frame on the background thread, and show the votes of the previous
+     * frame, which were voted while the RenderScript stages of this frame ran.
+     *
+     * The pipeline is one frame deep, so the shown votes and lines are exactly one frame old. The
+     * first frame after switching to the pipeline shows no votes.
+     */
+    private void processPipelinedHough(Allocation displayBufferRgba) {
+        long frameStart = System.nanoTime();
+        if(houghPool == null) {
+            createPipeline();
+        }
+        byte[] edges = getEdgeBuffer();
+        final int slot = pipelineSlot;
+        final byte[] slotEdges = pipelineEdgeBuffers[slot];
+        System.arraycopy(edges, 0, slotEdges, 0, edges.length);
+
+        // Wait for the vote of the previous frame, its transform is free after this
+        List<JvmHoughTransform.Line> previousLines = awaitPendingHough();
+        long previousFrameStart = pipelineFrameStart;
+
+        final JvmHoughTransform transform = pipelineTransforms[slot];
+        pendingHough = houghPool.submit(new Callable<List<JvmHoughTransform.Line>>() {
+            @Override
+            public List<JvmHoughTransform.Line> call() throws Exception {
+                transform.calculate(slotEdges);
+                return transform.findLines(MAX_HOUGH_LINES, MIN_HOUGH_LINE_VOTES);
+            }
+        });
+        pipelineFrameStart = frameStart;
+        pipelineSlot = 1 - slot;
+
+        if(previousLines == null) {
+            showHoughVotes(new int[houghBuffer.length]);
+            houghLines = Collections.emptyList();
+        } else {
+            showHoughVotes(pipelineTransforms[1 - slot].getAccumulatorBuffer());
+            houghLines = previousLines;
+        }
+        rsCanny.forEach_hough_map(displayBufferRgba);
+
+        long frameEnd = System.nanoTime();
+        houghFrameNanos = frameEnd - frameStart;
+        if(previousLines != null) {
+            houghLatencyNanos = frameEnd - previousFrameStart;
+        }
+    }
+
+    /**
+     * Allocate the second transform and edge buffer of the pipeline and its pool. The pool is
+     * separate from the common pool, which runs the union-find hysteresis of the next frame while
+     * this frame is voting, and leaves one core to the frame thread.
+     */
+    private void createPipeline() {
+        int width = getResolution().getWidth();
+        int height = getResolution().getHeight();
+        houghPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        pipelineTransforms = new JvmHoughTransform[2];
+        pipelineEdgeBuffers = new byte[2][];
+        for(int slot = 0; slot < 2; slot++) {
+            pipelineTransforms[slot] = new JvmHoughTransform(houghPool, width, height,
+                    JvmHoughTransform.DEFAULT_ANGLE_COUNT, houghDistanceCount);
+            pipelineEdgeBuffers[slot] = new byte[width * height];
+        }
+        pipelineSlot = 0;
+        Log.d(TAG, "Pipelined Hough on " + houghPool.getParallelism() + " workers");
+    }
+
+    /**
+     * Wait for the pending vote (its result is dropped) and free the pipeline.
+     */
+    private void releasePipeline() {
+        awaitPendingHough();
+        if(houghPool != null) {
+            houghPool.shutdownNow();
+            houghPool = null;
+        }
+        pipelineTransforms = null;
+        pipelineEdgeBuffers = null;
+    }
+
+    /**
+     * Wait for the vote started in the previous frame.
+     *
+     * @return  the lines of that vote, or null when there was no vote or it failed
+     */
+    private List<JvmHoughTransform.Line> awaitPendingHough() {
+        if(pendingHough == null) {
+            return null;
+        }
+        try {
+            return pendingHough.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Pipelined Hough vote failed", e.getCause());
+            return null;
+        } finally {
+            pendingHough = null;
+        }
+    }
+
+    /**
+     * @return  time from the start of the Hough stage of a frame until its votes were shown, in
+     *          {@link Execution#PIPELINED} this includes the one frame the votes wait in the pipeline
+     */
+    public long getHoughLatencyNanos() {
+        return houghLatencyNanos;
+    }
+
+    /**
+     * @return  time the Hough stage of the last frame held up the frame thread, this bounds the
+     *          frame rate: in {@link Execution#SEQUENTIAL} it is the whole vote, in
+     *          {@link Execution#PIPELINED} only the copy, the wait for the previous vote and the
+     *          plotting (compare the two to see what the pipeline gains on a device)
+     */
+    public long getHoughFrameNanos() {
+        return houghFrameNanos;
+    }
+
+    /**
+     * @return  the line segments of the last frame in {@link Mode#PROBABILISTIC_HOUGH} mode, in
+     *          the order they were found (empty in the other modes)
+     */
+    public List<JvmProbabilisticHough.Segment> getHoughSegments() {
+        return houghSegments;
+    }
+
+    /**
+     * Edges for the Hough transforms on the JVM, the union-find hysteresis output already is on the JVM.
+     */
+    private byte[] getEdgeBuffer() {
+        if(hysteresisType == HysteresisType.UNION_FIND) {
+            return hysteresis.getOutputBuffer();
+        }
+        mEdgeAllocation.copyTo(edgeBuffer);
+        return edgeBuffer;
+    }
+
+    /**
+     * Draw the edges dimmed and the segments bright into the edge image for 'toRGB'.
+     */
+    private void showHoughSegments(byte[] edges, List<JvmProbabilisticHough.Segment> segments) {
+        int width = getResolution().getWidth();
+        for(int index = 0; index < edges.length; index++) {
+            segmentBuffer[index] = edges[index] != 0 ? SEGMENT_EDGE_VALUE : 0;
+        }
+        for(JvmProbabilisticHough.Segment segment : segments) {
+            int steps = Math.max(Math.abs(segment.getX2() - segment.getX1()), Math.abs(segment.getY2() - segment.getY1()));
+            for(int step = 0; step <= steps; step++) {
+                float fraction = steps > 0 ? (float) step / steps : 0.0f;
+                int x = Math.round(segment.getX1() + (segment.getX2() - segment.getX1()) * fraction);
+                int y = Math.round(segment.getY1() + (segment.getY2() - segment.getY1()) * fraction);
+                segmentBuffer[y * width + x] = SEGMENT_VALUE;
+            }
+        }
+        mEdgeAllocation.copyFrom(segmentBuffer);
+    }
+
+    /**
+     * Copy the votes into the uchar 'hough_output' for 'hough_map', saturated at 255.
+     */
+    private void showHoughVotes(int[] votes) {
+        for(int index = 0; index < votes.length; index++) {
+            houghBuffer[index] = (byte) Math.min(votes[index], 255);
+        }
+        mHoughOutput.copyFrom(houghBuffer);
+    }
+
     private class ModeMonitor implements ParameterUser<Mode> {
 
         @Override
@@ -168,4 +450,30 @@ public class CannyAlgorithm extends AbstractVideoAlgorithm {
             mode = newValue;
         }
     }
-}
\ No newline at end of file
+
+    private class HysteresisMonitor implements ParameterUser<HysteresisType> {
+
+        @Override
+        public String displayValue(HysteresisType value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(HysteresisType newValue) {
+            hysteresisType = newValue;
+        }
+    }
+
+    private class ExecutionMonitor implements ParameterUser<Execution> {
+
+        @Override
+        public String displayValue(Execution value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(Execution newValue) {
+            execution = newValue;
+        }
+    }
+}
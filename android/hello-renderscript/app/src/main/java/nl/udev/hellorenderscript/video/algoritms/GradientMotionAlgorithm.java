@@ -5,14 +5,17 @@ import android.renderscript.Element;
 import android.text.Html;
 import android.util.Size;
 
+import java.util.EnumSet;
+
 import nl.udev.hellorenderscript.video.AbstractVideoAlgorithm;
 import nl.udev.hellorenderscript.common.algoritm.parameter.IntegerParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
 import nl.udev.hellorenderscript.video.ScriptC_gradientmotion;
 import nl.udev.hellorenderscript.video.ScriptC_utils;
-import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection;
-import nl.udev.hellorenderscript.common.algoritm.parts.Kernels;
+import nl.udev.hellorenderscript.common.algoritm.parts.EdgeOutput;
+import nl.udev.hellorenderscript.common.algoritm.parts.StoragePrecision;
+import nl.udev.hellorenderscript.common.algoritm.parts.KernelBank;
 
 /**
  * Motion detection algorithm to detect motion based on extrapolating the gradients.
@@ -26,13 +29,11 @@ public class GradientMotionAlgorithm extends AbstractVideoAlgorithm {
     private static final String TAG = "GradMotionAlg";
 
     public static final int DEFAULT_BLOCK_COUNT = 15;
-
-    private EdgeDetection edgeDetection;
+    private static final int EDGE_KERNEL_SIZE = 3;
 
     private ScriptC_gradientmotion rsGradientMotion;
     private ScriptC_utils rsUtils;
 
-    private Allocation intensityBuffer;
     private Allocation motionBlocks, brightnessBlocksCurrent, brightnessBlocksPrevious, kernelVectorsBuffer;
 
     private int activeBlockSize;
@@ -84,19 +85,9 @@ public class GradientMotionAlgorithm extends AbstractVideoAlgorithm {
     @Override
     protected void initialize() {
 
-        edgeDetection = new EdgeDetection(
-                getRenderScript(),
-                getResolution().getWidth(),
-                getResolution().getHeight(),
-                3
-        );
-
         // Create scriptlets (RenderScript)
         rsUtils = new ScriptC_utils(getRenderScript());
         rsGradientMotion = new ScriptC_gradientmotion(getRenderScript());
-
-        // Create buffers
-        intensityBuffer = create2d(Element.F32(getRenderScript()));
     }
 
     @Override
@@ -104,11 +95,9 @@ public class GradientMotionAlgorithm extends AbstractVideoAlgorithm {
 
         // Destroy scriptlets
         rsUtils.destroy();
-        edgeDetection.destroy();
         rsGradientMotion.destroy();
 
         // Destroy buffers
-        intensityBuffer.destroy();
         if(motionBlocks != null) {
             motionBlocks.destroy();
             motionBlocks = null;
@@ -119,23 +108,21 @@ public class GradientMotionAlgorithm extends AbstractVideoAlgorithm {
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
         dynamicCreateBlocksBufferBasedOnBlockCount();
 
-        // Convert captured frame to gray-scale for processing
-        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
-
         // ----- ----- ----- ----- Generate the input ----- ----- ----- -----
+        // The gray-scale intensity / edges of the captured frame, shared with the other parts
         Allocation input;
         switch (inputType) {
             default:
             case Input_Brightness:
-                input = intensityBuffer;
+                input = getFrameContext().getIntensity();
                 break;
             case Input_Edges:
-                edgeDetection.setAmplification(inputAmplification);
-                input = edgeDetection.calcEdgeMagnitudes(intensityBuffer);
+                input = getFrameContext().getEdges(EDGE_KERNEL_SIZE, inputAmplification, StoragePrecision.F32,
+                        EnumSet.of(EdgeOutput.MAGNITUDES)).getEdgeMagnitudesBuffer();
                 break;
         }
         rsGradientMotion.set_sourceImage(input);
@@ -203,10 +190,10 @@ public class GradientMotionAlgorithm extends AbstractVideoAlgorithm {
             rsGradientMotion.set_blockSize(blockSize);
 
             kernelVectorsBuffer = create2d(blockSize, blockSize, Element.F32_4(getRenderScript()));
-            float kernelBuffer[] = Kernels.createWeightedAngularVectorKernel(blockSize);
-            kernelVectorsBuffer.copyFrom(kernelBuffer);
+            KernelBank.VectorKernel kernel = KernelBank.getInstance().getWeightedAngularVectorKernel(blockSize);
+            kernelVectorsBuffer.copyFrom(kernel.getEntries());
             rsGradientMotion.set_kernelVectorBuffer(kernelVectorsBuffer);
-            rsGradientMotion.set_totalKernelWeight(Kernels.calculateTotalKernelWeight(kernelBuffer));
+            rsGradientMotion.set_totalKernelWeight(kernel.getTotalWeight());
 
             activeBlockSize = blockSize;
         }
@@ -104,7 +104,7 @@ public class ImagePyramidAlgorithm extends AbstractVideoAlgorithm {
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
         // Support synchronously changing the pyramid size
         if(pyramidCountChanged) {
@@ -119,10 +119,18 @@ public class ImagePyramidAlgorithm extends AbstractVideoAlgorithm {
         // Convert RGB image to intensity (black/white) image
         rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
 
+        // Only sets the source, the levels are calculated when they are requested below
         pyramid.calculate(intensityBuffer);
 
         // Do some magic to the individual levels...
+        // (only to the laplacians which are shown, the others are then not calculated at all)
         for(int level = 0; level < pyramid.getActualLevelCount(); level++) {
+            boolean laplacianShown = viewType == ViewType.LAPLACIAN_COLLAPSED
+                    || (viewType == ViewType.LAPLACIAN && level == viewLevel);
+            if(!laplacianShown) {
+                continue;
+            }
+
             // Adjust the intensity of the laplacian of each level
             ImagePyramid.Level pyramidLevel = pyramid.getLevel(level);
             rsUtils.set_multiplyFactor(levelAdjustments[level]);
@@ -223,6 +231,7 @@ public class ImagePyramidAlgorithm extends AbstractVideoAlgorithm {
             levelAdjustments[level] = (newValue - 50) / 10.0f;
         }
     }
+
     //--------------------------------------------------------------------------------------------
     //endregion
     //--------------------------------------------------------------------------------------------
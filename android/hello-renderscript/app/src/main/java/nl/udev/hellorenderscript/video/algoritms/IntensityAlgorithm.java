@@ -55,7 +55,7 @@ public class IntensityAlgorithm extends AbstractVideoAlgorithm {
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
         // Apply intensity to captureBufferRgba and output into displayBufferRgba
         rsIntensity.set_intensityFactor(intensityFactor);
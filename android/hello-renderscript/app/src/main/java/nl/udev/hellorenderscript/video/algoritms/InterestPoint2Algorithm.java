@@ -4,13 +4,16 @@ import android.renderscript.Allocation;
 import android.renderscript.Element;
 import android.text.Html;
 
+import java.util.EnumSet;
+
 import nl.udev.hellorenderscript.video.AbstractVideoAlgorithm;
 import nl.udev.hellorenderscript.common.algoritm.parameter.IntegerParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
 import nl.udev.hellorenderscript.video.ScriptC_interest2;
-import nl.udev.hellorenderscript.video.ScriptC_utils;
 import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection;
+import nl.udev.hellorenderscript.common.algoritm.parts.EdgeOutput;
+import nl.udev.hellorenderscript.common.algoritm.parts.StoragePrecision;
 import nl.udev.hellorenderscript.common.algoritm.parts.Plotting;
 
 /**
@@ -24,12 +27,9 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
 
     private static final String TAG = "InterestPointAlt";
     private ScriptC_interest2 rsInterestPoint;
-    private ScriptC_utils rsUtils;
 
     private Plotting plotting;
-    private EdgeDetection edgeDetection;
 
-    private Allocation intensityBuffer;
     private Allocation polarBuffer1;
 
     private int kernelSize;
@@ -39,6 +39,7 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
     private float minLength;
     private float amplification;
     private ViewType viewType;
+    private StoragePrecision storagePrecision;
 
     enum ViewType {
         ViewEdgesOverlay,
@@ -53,6 +54,7 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
         addParameter(new IntegerParameter("End", 0, 100, 60, new EndMonitor()));
         addParameter(new IntegerParameter("MinLength", 0, 100, 0, new MinLengthMonitor()));
         addParameter(new LimitedSettingsParameter<>("Viewtype", ViewType.values(), ViewType.ViewEdgesOverlay, new ViewTypeMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Storage", StoragePrecision.values(), StoragePrecision.F32, new StorageMonitor()));
         this.kernelSize = 5;
         this.amplification = 7.0f;
         this.areaSize = 1;
@@ -60,6 +62,7 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
         this.end = 0.6f;
         this.minLength = 0;
         this.viewType = ViewType.ViewEdgesOverlay;
+        this.storagePrecision = StoragePrecision.F32;
     }
 
     @Override
@@ -77,15 +80,13 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
-
-        // Convert RGB image to intensity (black/white) image
-        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
-        // Calculate the gradients on the intensity buffer
-        edgeDetection.setKernelSize(kernelSize);
-        edgeDetection.setAmplification(amplification);
-        Allocation edgePolarVectors = edgeDetection.calcEdgePolarVectors(intensityBuffer);
+        // Calculate the gradients on the intensity of the frame
+        // Both the cartesian and polar vectors are needed, produce them in one pass
+        EdgeDetection edgeDetection = getFrameContext().getEdges(
+                kernelSize, amplification, storagePrecision, EnumSet.of(EdgeOutput.VECTORS, EdgeOutput.POLAR_VECTORS));
+        Allocation edgePolarVectors = edgeDetection.getEdgePolarVectorsBuffer();
 
         // Calculate the amount of edge in a certain area
         rsInterestPoint.set_minLength(minLength);
@@ -94,12 +95,14 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
         rsInterestPoint.set_endFraction(end);
         rsInterestPoint.set_sourcePolarEdgeVectorBuffer(edgePolarVectors);
         rsInterestPoint.set_sourceEdgeVectorBuffer(edgeDetection.getEdgeVectorsBuffer());
-        rsInterestPoint.forEach_calcInterestPoints(edgePolarVectors, polarBuffer1);
+        rsInterestPoint.set_sourcePrecision(storagePrecision.ordinal());
+        rsInterestPoint.set_sourceRange(edgeDetection.getStorageRange());
+        rsInterestPoint.forEach_calcInterestPoints(polarBuffer1);
 
         // Plot the interest points
         switch (viewType) {
             case ViewEdgesOverlay:
-                plotting.plotColormapPolar2d(edgePolarVectors, displayBufferRgba);
+                plotting.plotColormapPolar2d(edgePolarVectors, storagePrecision, edgeDetection.getStorageRange(), displayBufferRgba);
                 rsInterestPoint.set_overlaySourceBuffer(displayBufferRgba);
                 break;
             case ViewSourceOverlay:
@@ -113,40 +116,26 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
     @Override
     protected void initialize() {
         // Create buffers
-        intensityBuffer = create2d(Element.F32(getRenderScript()));
         polarBuffer1 = create2d(Element.F32_2(getRenderScript()));
 
         // Create scriptlets
-        rsUtils = new ScriptC_utils(getRenderScript());
         rsInterestPoint = new ScriptC_interest2(getRenderScript());
         rsInterestPoint.set_sourceWidth(getResolution().getWidth());
         rsInterestPoint.set_sourceHeight(getResolution().getHeight());
 
         plotting = new Plotting(getRenderScript());
-
-        edgeDetection = new EdgeDetection(
-                getRenderScript(),
-                getResolution().getWidth(),
-                getResolution().getHeight(),
-                kernelSize
-        );
     }
 
     @Override
     protected void unInitialize() {
         // Destroy scriptlets
-        rsUtils.destroy();
         rsInterestPoint.destroy();
         plotting.destroy();
-        edgeDetection.destroy();
 
         // Destroy buffers
-        intensityBuffer.destroy();
         polarBuffer1.destroy();
 
-        rsUtils = null;
         plotting = null;
-        intensityBuffer = null;
     }
 
     private class KernelSizeMonitor implements ParameterUser<Integer> {
@@ -239,4 +228,17 @@ public class InterestPoint2Algorithm extends AbstractVideoAlgorithm {
             minLength = (float)(Math.pow(1.05, newValue) - 1);
         }
     }
+
+    private class StorageMonitor implements ParameterUser<StoragePrecision> {
+
+        @Override
+        public String displayValue(StoragePrecision value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(StoragePrecision newValue) {
+            storagePrecision = newValue;
+        }
+    }
 }
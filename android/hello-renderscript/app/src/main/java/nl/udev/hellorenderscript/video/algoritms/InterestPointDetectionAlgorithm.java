@@ -3,13 +3,16 @@ package nl.udev.hellorenderscript.video.algoritms;
 import android.renderscript.Allocation;
 import android.renderscript.Element;
 
+import java.util.EnumSet;
+
 import nl.udev.hellorenderscript.video.AbstractVideoAlgorithm;
 import nl.udev.hellorenderscript.common.algoritm.parameter.IntegerParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
 import nl.udev.hellorenderscript.video.ScriptC_interestpoint;
-import nl.udev.hellorenderscript.video.ScriptC_utils;
 import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection;
+import nl.udev.hellorenderscript.common.algoritm.parts.EdgeOutput;
+import nl.udev.hellorenderscript.common.algoritm.parts.StoragePrecision;
 import nl.udev.hellorenderscript.common.algoritm.parts.Plotting;
 
 /**
@@ -23,12 +26,9 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
 
     private static final String TAG = "InterestPoint";
     private ScriptC_interestpoint rsInterestPoint;
-    private ScriptC_utils rsUtils;
 
     private Plotting plotting;
-    private EdgeDetection edgeDetection;
 
-    private Allocation intensityBuffer;
     private Allocation polarBuffer1;
 
     private int kernelSize;
@@ -39,6 +39,7 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
     private float maxWeightOutOfBinFactor;
     private float maxAngleBetweenBinsRadians;
     private ViewType viewType;
+    private StoragePrecision storagePrecision;
 
     enum ViewType {
         ViewEdgesOverlay,
@@ -54,6 +55,7 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
         addParameter(new IntegerParameter("MaxNonBinFactor", 1, 100, 10, new MaxOutsideBinFactorMonitor()));
         addParameter(new IntegerParameter("MaxBinsAngle", 0, 360, 120, new MaxBinsAngleMonitor()));
         addParameter(new LimitedSettingsParameter<>("Viewtype", ViewType.values(), ViewType.ViewEdgesOverlay, new ViewTypeMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Storage", StoragePrecision.values(), StoragePrecision.F32, new StorageMonitor()));
         this.kernelSize = 5;
         this.amplification = 7.0f;
         this.interestAreaSize = 1;
@@ -62,6 +64,7 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
         this.binSizeRadians = (float) Math.toRadians(27);
         this.maxAngleBetweenBinsRadians = (float) Math.toRadians(120);
         this.viewType = ViewType.ViewEdgesOverlay;
+        this.storagePrecision = StoragePrecision.F32;
     }
 
     @Override
@@ -75,29 +78,28 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
-
-        // Convert RGB image to intensity (black/white) image
-        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
-        // Calculate the gradients on the intensity buffer
-        edgeDetection.setKernelSize(kernelSize);
-        edgeDetection.setAmplification(amplification);
-        Allocation edgePolarVectors = edgeDetection.calcEdgePolarVectors(intensityBuffer);
+        // Calculate the gradients on the intensity of the frame
+        EdgeDetection edgeDetection = getFrameContext().getEdges(
+                kernelSize, amplification, storagePrecision, EnumSet.of(EdgeOutput.POLAR_VECTORS));
+        Allocation edgePolarVectors = edgeDetection.getEdgePolarVectorsBuffer();
 
         // Calculate the amount of edge in a certain area
         rsInterestPoint.set_areaSize(interestAreaSize);
         rsInterestPoint.set_polarEdgeBuffer(edgePolarVectors);
+        rsInterestPoint.set_polarEdgePrecision(storagePrecision.ordinal());
+        rsInterestPoint.set_polarEdgeRange(edgeDetection.getStorageRange());
         rsInterestPoint.set_binSizeRadians(binSizeRadians);
         rsInterestPoint.set_minEdgeSize(minEdgeSize);
         rsInterestPoint.set_maxOutOfBinsFactor(maxWeightOutOfBinFactor);
         rsInterestPoint.set_maxAngleBetweenBinsRadians(maxAngleBetweenBinsRadians);
-        rsInterestPoint.forEach_calcInterestPoints(edgePolarVectors, polarBuffer1);
+        rsInterestPoint.forEach_calcInterestPoints(polarBuffer1);
 
         // Plot the interest points
         switch (viewType) {
             case ViewEdgesOverlay:
-                plotting.plotColormapPolar2d(edgePolarVectors, displayBufferRgba);
+                plotting.plotColormapPolar2d(edgePolarVectors, storagePrecision, edgeDetection.getStorageRange(), displayBufferRgba);
                 rsInterestPoint.set_overlaySourceBuffer(displayBufferRgba);
                 break;
             case ViewSourceOverlay:
@@ -111,40 +113,26 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
     @Override
     protected void initialize() {
         // Create buffers
-        intensityBuffer = create2d(Element.F32(getRenderScript()));
         polarBuffer1 = create2d(Element.F32_2(getRenderScript()));
 
         // Create scriptlets
-        rsUtils = new ScriptC_utils(getRenderScript());
         rsInterestPoint = new ScriptC_interestpoint(getRenderScript());
         rsInterestPoint.set_sourceWidth(getResolution().getWidth());
         rsInterestPoint.set_sourceHeight(getResolution().getHeight());
 
         plotting = new Plotting(getRenderScript());
-
-        edgeDetection = new EdgeDetection(
-                getRenderScript(),
-                getResolution().getWidth(),
-                getResolution().getHeight(),
-                kernelSize
-        );
     }
 
     @Override
     protected void unInitialize() {
         // Destroy scriptlets
-        rsUtils.destroy();
         rsInterestPoint.destroy();
         plotting.destroy();
-        edgeDetection.destroy();
 
         // Destroy buffers
-        intensityBuffer.destroy();
         polarBuffer1.destroy();
 
-        rsUtils = null;
         plotting = null;
-        intensityBuffer = null;
     }
 
     private class KernelSizeMonitor implements ParameterUser<Integer> {
@@ -250,4 +238,17 @@ public class InterestPointDetectionAlgorithm extends AbstractVideoAlgorithm {
             viewType = newValue;
         }
     }
+
+    private class StorageMonitor implements ParameterUser<StoragePrecision> {
+
+        @Override
+        public String displayValue(StoragePrecision value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(StoragePrecision newValue) {
+            storagePrecision = newValue;
+        }
+    }
 }
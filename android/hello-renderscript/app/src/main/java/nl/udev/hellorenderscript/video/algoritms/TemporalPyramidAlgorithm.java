@@ -10,9 +10,19 @@ import nl.udev.hellorenderscript.common.algoritm.parameter.IntegerParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParameter;
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
 import nl.udev.hellorenderscript.video.ScriptC_utils;
+import nl.udev.hellorenderscript.common.algoritm.parts.ImagePyramid;
+import nl.udev.hellorenderscript.common.algoritm.parts.TemporalBandPass;
 import nl.udev.hellorenderscript.common.algoritm.parts.TemporalPyramid;
+import nl.udev.hellorenderscript.common.algoritm.parts.TemporalPyramidPlan;
 
 /**
+ * Temporal filtering of the laplacian levels of the video, in one of two modes:
+ *
+ * PYRAMID_HISTORY  - a {@link TemporalPyramid}, which keeps a history of frames per level
+ * IIR_BAND_PASS    - a spatial {@link ImagePyramid} of each frame with a {@link TemporalBandPass}
+ *                    on its levels, the amplified band is added to the levels (Eulerian
+ *                    magnification of motion and intensity changes, view LAPLACIAN_COLLAPSED)
+ *
  * Created by ben on 11-3-16.
  */
 public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
@@ -21,8 +31,17 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
 
     private static final int MAX_PIRAMID_LEVELS = 5;
 
+    /**
+     * Selectable budgets (0 is no budget). A coarse list instead of a slider, since every
+     * change reallocates the pyramid.
+     */
+    private static final Integer[] MEMORY_BUDGETS_MB = { 0, 128, 256, 512, 1024 };
+    private static final float CUTOFF_STEP = 0.01f;
+
     private ScriptC_utils rsUtils;
     private TemporalPyramid pyramid;
+    private ImagePyramid spatialPyramid;
+    private TemporalBandPass bandPass;
     private Allocation intensityBuffer;
 
     // Parameters
@@ -31,6 +50,13 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
     private int viewLevel;
     private float[] levelAdjustments = new float[MAX_PIRAMID_LEVELS];
     private ViewType viewType;
+    private TemporalPyramidPlan.Decimation decimation;
+    private int memoryBudgetMb;
+    private Mode mode;
+    private boolean modeChanged;
+    private int lowCutoffSteps;
+    private int highCutoffSteps;
+    private float amplification;
 
     private enum ViewType {
         LEVEL,
@@ -39,10 +65,21 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
         LAPLACIAN_COLLAPSED
     }
 
+    private enum Mode {
+        PYRAMID_HISTORY,
+        IIR_BAND_PASS
+    }
+
     public TemporalPyramidAlgorithm() {
+        addParameter(new LimitedSettingsParameter<>("Mode", Mode.values(), Mode.PYRAMID_HISTORY, new ModeMonitor()));
         addParameter(new IntegerParameter("Pyramid count", 1, MAX_PIRAMID_LEVELS, 3, new PyramidCountMonitor()));
         addParameter(new IntegerParameter("ViewLevel", 0, MAX_PIRAMID_LEVELS, 1, new ViewLevelMonitor()));
         addParameter(new LimitedSettingsParameter<>("ViewType", ViewType.values(), ViewType.LAPLACIAN, new ViewTypeMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Decimation", TemporalPyramidPlan.Decimation.values(), TemporalPyramidPlan.Decimation.TEMPORAL, new DecimationMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Budget MB", MEMORY_BUDGETS_MB, 0, new MemoryBudgetMonitor()));
+        addParameter(new IntegerParameter("Low cutoff", 1, 49, 5, new LowCutoffMonitor()));
+        addParameter(new IntegerParameter("High cutoff", 2, 50, 15, new HighCutoffMonitor()));
+        addParameter(new IntegerParameter("Amplification", 0, 100, 20, new AmplificationMonitor()));
 
         Arrays.fill(levelAdjustments, 1.0f);
         for(int i = 0; i < MAX_PIRAMID_LEVELS; i++) {
@@ -52,6 +89,12 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
         this.pyramidCount = 3;
         this.viewLevel = 1;
         this.viewType = ViewType.LAPLACIAN;
+        this.decimation = TemporalPyramidPlan.Decimation.TEMPORAL;
+        this.memoryBudgetMb = 0;
+        this.mode = Mode.PYRAMID_HISTORY;
+        this.lowCutoffSteps = 5;
+        this.highCutoffSteps = 15;
+        this.amplification = 20;
     }
 
     @Override
@@ -72,14 +115,10 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
         // Create scriptlets
         rsUtils = new ScriptC_utils(getRenderScript());
 
-        pyramid = new TemporalPyramid(
-                getRenderScript(),
-                getResolution().getWidth(),
-                getResolution().getHeight(),
-                pyramidCount
-        );
+        createModeBuffers();
 
         pyramidCountChanged = false;
+        modeChanged = false;
     }
 
     @Override
@@ -90,15 +129,123 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
 
         // Destroy buffers
         intensityBuffer.destroy();
-        pyramid.destroy();
+        destroyModeBuffers();
 
         rsUtils = null;
-        pyramid = null;
         intensityBuffer = null;
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+
+        // Only the buffers of one mode exist at a time
+        if(modeChanged) {
+            destroyModeBuffers();
+            createModeBuffers();
+            modeChanged = false;
+            pyramidCountChanged = false;
+        }
+
+        if(mode == Mode.IIR_BAND_PASS) {
+            processBandPass(captureBufferRgba, displayBufferRgba);
+        } else {
+            processPyramidHistory(captureBufferRgba, displayBufferRgba);
+        }
+    }
+
+    private void createModeBuffers() {
+        if(mode == Mode.IIR_BAND_PASS) {
+            // Pyramid count is the number of levels, including level 0
+            spatialPyramid = new ImagePyramid(
+                    getRenderScript(),
+                    getResolution().getWidth(),
+                    getResolution().getHeight(),
+                    pyramidCount - 1
+            );
+            bandPass = new TemporalBandPass(getRenderScript(), getLowCutoff(), getHighCutoff());
+        } else {
+            pyramid = new TemporalPyramid(
+                    getRenderScript(),
+                    getResolution().getWidth(),
+                    getResolution().getHeight(),
+                    pyramidCount,
+                    decimation,
+                    getMemoryBudget()
+            );
+        }
+    }
+
+    private void destroyModeBuffers() {
+        if(pyramid != null) {
+            pyramid.destroy();
+            pyramid = null;
+        }
+        if(spatialPyramid != null) {
+            spatialPyramid.destroy();
+            spatialPyramid = null;
+        }
+        if(bandPass != null) {
+            bandPass.destroy();
+            bandPass = null;
+        }
+    }
+
+    private void processBandPass(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+
+        // Support synchronously changing the pyramid size, the band-pass restarts
+        if(pyramidCountChanged) {
+            spatialPyramid.resizePyramid(
+                    getResolution().getWidth(),
+                    getResolution().getHeight(),
+                    pyramidCount - 1
+            );
+            pyramidCountChanged = false;
+        }
+        bandPass.setCutoffs(getLowCutoff(), getHighCutoff());
+
+        // Convert RGB image to intensity (black/white) image
+        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
+
+        spatialPyramid.calculate(intensityBuffer);
+
+        // Amplify the band-passed signal of every level, weighted by the level adjustment
+        float[] amplifications = new float[MAX_PIRAMID_LEVELS];
+        for(int level = 0; level < MAX_PIRAMID_LEVELS; level++) {
+            amplifications[level] = amplification * levelAdjustments[level];
+        }
+        bandPass.apply(spatialPyramid, amplifications);
+
+        if(spatialPyramid.getActualLevelCount() >= viewLevel) {
+
+            ImagePyramid.PlotType plotType;
+            switch (viewType) {
+                case LAPLACIAN:
+                    plotType = ImagePyramid.PlotType.LAPLACIAN;
+                    break;
+                case LEVEL_EXPANDED:
+                    plotType = ImagePyramid.PlotType.LEVEL_EXPANDED;
+                    break;
+                case LAPLACIAN_COLLAPSED:
+                    spatialPyramid.collapseLaplacian();
+                    plotType = ImagePyramid.PlotType.LEVEL;
+                    break;
+                default: // fall through
+                case LEVEL:
+                    plotType = ImagePyramid.PlotType.LEVEL;
+                    break;
+            }
+
+            spatialPyramid.plotLevel(
+                    viewLevel,
+                    plotType,
+                    displayBufferRgba,
+                    getResolution().getWidth(),
+                    getResolution().getHeight()
+            );
+        }
+    }
+
+    private void processPyramidHistory(Allocation captureBufferRgba, Allocation displayBufferRgba) {
 
         // Support synchronously changing the pyramid size
         if(pyramidCountChanged) {
@@ -109,11 +256,13 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
             );
             pyramidCountChanged = false;
         }
+        pyramid.setMemoryLimits(decimation, getMemoryBudget());
 
-        // Convert RGB image to intensity (black/white) image
-        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
+        // Convert RGB image to intensity (black/white) image, directly into the frame history
+        Allocation frameBuffer = pyramid.getNextFrameBuffer();
+        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, frameBuffer);
 
-        pyramid.calculate(intensityBuffer);
+        pyramid.calculate(frameBuffer);
 
         // Do some magic to the individual levels...
         for(int level = 0; level < pyramid.getActualLevelCount(); level++) {
@@ -156,6 +305,18 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
         }
     }
 
+    private long getMemoryBudget() {
+        return memoryBudgetMb * 1000000L;
+    }
+
+    private float getLowCutoff() {
+        return lowCutoffSteps * CUTOFF_STEP;
+    }
+
+    private float getHighCutoff() {
+        return Math.max(highCutoffSteps, lowCutoffSteps + 1) * CUTOFF_STEP;
+    }
+
     //--------------------------------------------------------------------------------------------
     //region Parameter monitors
     //--------------------------------------------------------------------------------------------
@@ -199,6 +360,87 @@ public class TemporalPyramidAlgorithm extends AbstractVideoAlgorithm {
         }
     }
 
+    private class ModeMonitor implements ParameterUser<Mode> {
+
+        @Override
+        public String displayValue(Mode value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(Mode newValue) {
+            if(mode != newValue) {
+                mode = newValue;
+                modeChanged = true;
+            }
+        }
+    }
+
+    private class LowCutoffMonitor implements ParameterUser<Integer> {
+
+        @Override
+        public String displayValue(Integer value) {
+            return String.format("%.2f/frame", getLowCutoff());
+        }
+
+        @Override
+        public void handleValueChanged(Integer newValue) {
+            lowCutoffSteps = newValue;
+        }
+    }
+
+    private class HighCutoffMonitor implements ParameterUser<Integer> {
+
+        @Override
+        public String displayValue(Integer value) {
+            return String.format("%.2f/frame", getHighCutoff());
+        }
+
+        @Override
+        public void handleValueChanged(Integer newValue) {
+            highCutoffSteps = newValue;
+        }
+    }
+
+    private class AmplificationMonitor implements ParameterUser<Integer> {
+
+        @Override
+        public String displayValue(Integer value) {
+            return String.format("%.0fx", amplification);
+        }
+
+        @Override
+        public void handleValueChanged(Integer newValue) {
+            amplification = newValue;
+        }
+    }
+
+    private class DecimationMonitor implements ParameterUser<TemporalPyramidPlan.Decimation> {
+
+        @Override
+        public String displayValue(TemporalPyramidPlan.Decimation value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(TemporalPyramidPlan.Decimation newValue) {
+            decimation = newValue;
+        }
+    }
+
+    private class MemoryBudgetMonitor implements ParameterUser<Integer> {
+
+        @Override
+        public String displayValue(Integer value) {
+            return value == 0 ? "none" : value + " MB";
+        }
+
+        @Override
+        public void handleValueChanged(Integer newValue) {
+            memoryBudgetMb = newValue;
+        }
+    }
+
     private class LevelAdjustMonitor implements ParameterUser<Integer> {
 
         final int level;
@@ -10,7 +10,9 @@ import nl.udev.hellorenderscript.common.algoritm.parameter.LimitedSettingsParame
 import nl.udev.hellorenderscript.common.algoritm.parameter.ParameterUser;
 import nl.udev.hellorenderscript.video.ScriptC_utils;
 import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection;
-import nl.udev.hellorenderscript.common.algoritm.parts.EdgeDetection.KernelMode;
+import nl.udev.hellorenderscript.common.algoritm.parts.KernelMode;
+import nl.udev.hellorenderscript.common.algoritm.parts.StoragePrecision;
+import nl.udev.hellorenderscript.common.algoritm.parts.MultiScaleEdgeDetection;
 import nl.udev.hellorenderscript.common.algoritm.parts.Plotting;
 
 /**
@@ -52,24 +54,39 @@ import nl.udev.hellorenderscript.common.algoritm.parts.Plotting;
 public class VectorEdgeDetectionAlgorithm extends AbstractVideoAlgorithm {
 
     private static final String TAG = "VectorEdgeAlg";
+    private static final int MAX_KERNEL_SIZE = 19;
+    private static final int MAX_SCALES = 5;
 
     private EdgeDetection edgeDetection;
+    private MultiScaleEdgeDetection multiScaleEdgeDetection;
     private Plotting plotting;
 
     private ScriptC_utils rsUtils;
-    private Allocation intensityBuffer;
+    private Allocation polarVectorsBuffer;
 
     private int kernelSize;
     private float amplification;
     private KernelMode mode;
+    private int lowRankPasses;
+    private StoragePrecision storagePrecision;
+    private boolean incremental;
+    private boolean fftCrossoverMeasured;
+    private int scales;
+    private int multiScaleScales;
 
     public VectorEdgeDetectionAlgorithm() {
         addParameter(new IntegerParameter("Kernel size", 1, 10, 1, new KernelSizeMonitor()));
         addParameter(new IntegerParameter("Amplification", 1, 100, 1, new AmplificationMonitor()));
         addParameter(new LimitedSettingsParameter<>("KernelMode", KernelMode.values(), KernelMode.KernelVector2D, new ModeMonitor()));
+        addParameter(new IntegerParameter("LowRank passes", 1, 10, 3, new LowRankPassesMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Storage", StoragePrecision.values(), StoragePrecision.F32, new StorageMonitor()));
+        addParameter(new LimitedSettingsParameter<>("Incremental", new Boolean[] { false, true }, false, new IncrementalMonitor()));
+        addParameter(new IntegerParameter("Scales", 1, MAX_SCALES, 1, new ScalesMonitor()));
         this.kernelSize = 3;
         this.amplification = 2.0f;
         this.mode = KernelMode.KernelVector2D;
+        this.storagePrecision = StoragePrecision.F32;
+        this.scales = 1;
     }
 
     @Override
@@ -102,10 +119,12 @@ public class VectorEdgeDetectionAlgorithm extends AbstractVideoAlgorithm {
         plotting = new Plotting(getRenderScript());
 
         // Create buffers
-        intensityBuffer = create2d(Element.F32(getRenderScript()));
+        polarVectorsBuffer = create2d(Element.F32_2(getRenderScript()));
 
         // Create scriptlets
         rsUtils = new ScriptC_utils(getRenderScript());
+
+        fftCrossoverMeasured = edgeDetection.applyMeasuredFftCrossover();
     }
 
     @Override
@@ -114,30 +133,80 @@ public class VectorEdgeDetectionAlgorithm extends AbstractVideoAlgorithm {
         edgeDetection.destroy();
         plotting.destroy();
 
+        if(multiScaleEdgeDetection != null) {
+            multiScaleEdgeDetection.destroy();
+            multiScaleEdgeDetection = null;
+        }
+
         // Destroy scriptlets
         rsUtils.destroy();
 
         // Destroy buffers
-        intensityBuffer.destroy();
+        polarVectorsBuffer.destroy();
 
         rsUtils = null;
-        intensityBuffer = null;
+        polarVectorsBuffer = null;
     }
 
     @Override
-    public void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+    protected void process(Allocation captureBufferRgba, Allocation displayBufferRgba) {
+
+        // Intensity (black/white) image of the frame, shared with the other parts
+        Allocation intensityBuffer = getFrameContext().getIntensity();
 
-        // Convert RGB image to intensity (black/white) image
-        rsUtils.forEach_calcGreyscaleIntensity(captureBufferRgba, intensityBuffer);
+        if(scales > 1) {
+            processMultiScale(displayBufferRgba);
+            return;
+        }
+
+        // Determine once on real frames from which kernel size the FFT is faster, one step per frame
+        if(!fftCrossoverMeasured) {
+            fftCrossoverMeasured = edgeDetection.measureFftCrossoverStep(intensityBuffer, MAX_KERNEL_SIZE);
+        }
 
-        // Calculate the gradients on the intensity buffer
+        // Calculate the gradients on the intensity buffer. Not with the shared edges of the frame
+        // context: those use the default kernel mode, and the FFT crossover, low rank passes and
+        // incremental state are settings of this instance.
         edgeDetection.setAmplification(amplification);
         edgeDetection.setKernelMode(mode);
         edgeDetection.setKernelSize(kernelSize);
+        edgeDetection.setLowRankPasses(lowRankPasses);
+        edgeDetection.setStoragePrecision(storagePrecision);
+        edgeDetection.setIncremental(incremental);
         Allocation polarVectors = edgeDetection.calcEdgePolarVectors(intensityBuffer);
 
         // Plot polar vectors
-        plotting.plotColormapPolar2d(polarVectors, displayBufferRgba);
+        plotting.plotColormapPolar2d(polarVectors, storagePrecision, edgeDetection.getStorageRange(), displayBufferRgba);
+    }
+
+    /**
+     * Apply the kernel on the levels of the shared image pyramid of the frame instead of the full
+     * resolution image, the levels are combined to the full resolution again for plotting.
+     */
+    private void processMultiScale(Allocation displayBufferRgba) {
+
+        // The pyramid has one level less then scales as level 0 is the full resolution image
+        if(multiScaleEdgeDetection == null) {
+            multiScaleEdgeDetection = new MultiScaleEdgeDetection(
+                    getRenderScript(),
+                    getResolution().getWidth(),
+                    getResolution().getHeight(),
+                    scales - 1,
+                    kernelSize
+            );
+            multiScaleScales = scales;
+        } else if(multiScaleScales != scales) {
+            // Compare with the requested scales, the pyramid can end up with less levels
+            multiScaleEdgeDetection.resize(getResolution().getWidth(), getResolution().getHeight(), scales - 1);
+            multiScaleScales = scales;
+        }
+
+        multiScaleEdgeDetection.setAmplification(amplification);
+        multiScaleEdgeDetection.setKernelSize(kernelSize);
+        Allocation vectors = multiScaleEdgeDetection.calcCombinedEdgeVectors(getFrameContext().getPyramid(scales - 1));
+
+        rsUtils.forEach_toPolar2D(vectors, polarVectorsBuffer);
+        plotting.plotColormapPolar2d(polarVectorsBuffer, displayBufferRgba);
     }
 
     private class KernelSizeMonitor implements ParameterUser<Integer> {
@@ -178,4 +247,62 @@ public class VectorEdgeDetectionAlgorithm extends AbstractVideoAlgorithm {
             mode = newValue;
         }
     }
+
+    private class LowRankPassesMonitor implements ParameterUser<Integer> {
+
+        @Override
+        public String displayValue(Integer value) {
+            return Integer.toString(lowRankPasses);
+        }
+
+        @Override
+        public void handleValueChanged(Integer newValue) {
+            lowRankPasses = newValue;
+        }
+    }
+
+    private class StorageMonitor implements ParameterUser<StoragePrecision> {
+
+        @Override
+        public String displayValue(StoragePrecision value) {
+            return value.toString();
+        }
+
+        @Override
+        public void handleValueChanged(StoragePrecision newValue) {
+            storagePrecision = newValue;
+        }
+    }
+
+    private class IncrementalMonitor implements ParameterUser<Boolean> {
+
+        @Override
+        public String displayValue(Boolean value) {
+            if(value && edgeDetection != null) {
+                return String.format("on, %3.0f%% tiles", edgeDetection.getRecomputedTileFraction() * 100.0f);
+            }
+            return value ? "on" : "off";
+        }
+
+        @Override
+        public void handleValueChanged(Boolean newValue) {
+            incremental = newValue;
+        }
+    }
+
+    private class ScalesMonitor implements ParameterUser<Integer> {
+
+        @Override
+        public String displayValue(Integer value) {
+            if(multiScaleEdgeDetection != null && scales > 1) {
+                return scales + " (" + multiScaleEdgeDetection.getLevelCount() + " levels)";
+            }
+            return Integer.toString(scales);
+        }
+
+        @Override
+        public void handleValueChanged(Integer newValue) {
+            scales = newValue;
+        }
+    }
 }
@@ -0,0 +1,41 @@
+#pragma version(1)
+#pragma rs java_package_name(nl.udev.hellorenderscript.video)
+
+// ============================================================================================
+// Streaming temporal band-pass of a pyramid level
+//
+// Every pixel is filtered over time with two first-order low-passes (exponential moving
+// averages), the band-pass is their difference:
+//
+// fast(t)      = fast(t - 1) + fastAlpha * (in(t) - fast(t - 1))      (high cutoff)
+// slow(t)      = slow(t - 1) + slowAlpha * (in(t) - slow(t - 1))      (low cutoff)
+// out(t)       = in(t) + amplification * (fast(t) - slow(t))
+//
+// The two low-pass states are kept in the level sized state buffers, so the kernel can run
+// in-place on the level buffer.
+// ============================================================================================
+
+rs_allocation fastLowPass;      // float, state
+rs_allocation slowLowPass;      // float, state
+float fastAlpha;
+float slowAlpha;
+float amplification;
+bool resetState;                // start both low-passes at the current value (no band-pass)
+
+float __attribute__((kernel)) bandPass(float in, uint32_t x, uint32_t y) {
+
+    float fast = in;
+    float slow = in;
+
+    if(!resetState) {
+        fast = rsGetElementAt_float(fastLowPass, x, y);
+        slow = rsGetElementAt_float(slowLowPass, x, y);
+        fast += (in - fast) * fastAlpha;
+        slow += (in - slow) * slowAlpha;
+    }
+
+    rsSetElementAt_float(fastLowPass, fast, x, y);
+    rsSetElementAt_float(slowLowPass, slow, x, y);
+
+    return in + (fast - slow) * amplification;
+}
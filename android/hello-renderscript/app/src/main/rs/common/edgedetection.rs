@@ -1,6 +1,8 @@
 #pragma version(1)
 #pragma rs java_package_name(nl.udev.hellorenderscript.video)
 
+#include "edgestorage.rsh"
+
 // ------------------------------------------------------------------------------------------------
 // Generic vector kernel algorithm
 //
@@ -31,7 +33,7 @@ float scale;
 // ------------------------------------------------------------------------------------------------
 float totalKernelWeight;
 
-float2 __attribute__((kernel)) applyVectorKernel(int32_t x, int32_t y) {
+static float2 calcVectorKernel(int32_t x, int32_t y) {
 
     float2 averageVector = 0;
 
@@ -67,6 +69,184 @@ float2 __attribute__((kernel)) applyVectorKernel(int32_t x, int32_t y) {
     return scale * averageVector / totalKernelWeight;
 }
 
+float2 __attribute__((kernel)) applyVectorKernel(int32_t x, int32_t y) {
+    return calcVectorKernel(x, y);
+}
+
+
+// ------------------------------------------------------------------------------------------------
+// Fused NxN version, produces any subset of the cartesian, polar and magnitude outputs in a single
+// traversal instead of writing the vectors and converting them in extra full-frame passes.
+//
+// The kernel which is launched writes the first requested output, the other requested outputs are
+// written as side outputs.
+// ------------------------------------------------------------------------------------------------
+rs_allocation fusedPolarBuffer; // float2
+rs_allocation fusedMagnitudeBuffer; // float
+bool fusedWritePolar;
+bool fusedWriteMagnitude;
+
+static float2 toPolar(float2 vector) {
+    float2 polar;
+    polar.s0 = atan2(vector.y, vector.x);
+    polar.s1 = length(vector);
+    return polar;
+}
+
+float2 __attribute__((kernel)) applyVectorKernelFusedVectors(int32_t x, int32_t y) {
+
+    float2 vector = calcVectorKernel(x, y);
+
+    if(fusedWritePolar) {
+        float2 polar = toPolar(vector);
+        rsSetElementAt_float2(fusedPolarBuffer, polar, x, y);
+        if(fusedWriteMagnitude) {
+            rsSetElementAt_float(fusedMagnitudeBuffer, polar.s1, x, y);
+        }
+    } else if(fusedWriteMagnitude) {
+        rsSetElementAt_float(fusedMagnitudeBuffer, length(vector), x, y);
+    }
+
+    return vector;
+}
+
+float2 __attribute__((kernel)) applyVectorKernelFusedPolar(int32_t x, int32_t y) {
+
+    float2 polar = toPolar(calcVectorKernel(x, y));
+
+    if(fusedWriteMagnitude) {
+        rsSetElementAt_float(fusedMagnitudeBuffer, polar.s1, x, y);
+    }
+
+    return polar;
+}
+
+float __attribute__((kernel)) applyVectorKernelFusedMagnitude(int32_t x, int32_t y) {
+    return length(calcVectorKernel(x, y));
+}
+
+
+// ------------------------------------------------------------------------------------------------
+// Compact storage version, stores the requested outputs in the given storage precision
+// (see edgestorage.rsh) instead of F32.
+//
+// The fused kernel is launched over the intensity buffer (only for its dimensions), the outputs are
+// all written with the store helpers. The other modes produce F32 vectors which are then stored
+// using 'storeEdgeOutputs'.
+// ------------------------------------------------------------------------------------------------
+rs_allocation fusedVectorBuffer;
+bool fusedWriteVectors;
+int storagePrecision;
+float storageRange;
+
+static void storeOutputs(float2 vector, uint32_t x, uint32_t y) {
+
+    float2 vectorRange = storageRange;
+
+    if(fusedWriteVectors) {
+        storeEdge2(fusedVectorBuffer, storagePrecision, vectorRange, vector, x, y);
+    }
+
+    if(fusedWritePolar) {
+        float2 polarRange;
+        polarRange.s0 = M_PI;
+        polarRange.s1 = storageRange;
+        storeEdge2(fusedPolarBuffer, storagePrecision, polarRange, toPolar(vector), x, y);
+    }
+
+    if(fusedWriteMagnitude) {
+        storeEdge(fusedMagnitudeBuffer, storagePrecision, storageRange, length(vector), x, y);
+    }
+}
+
+void __attribute__((kernel)) applyVectorKernelFusedCompact(float in, uint32_t x, uint32_t y) {
+    storeOutputs(calcVectorKernel(x, y), x, y);
+}
+
+void __attribute__((kernel)) storeEdgeOutputs(float2 in, uint32_t x, uint32_t y) {
+    storeOutputs(in, x, y);
+}
+
+
+// ------------------------------------------------------------------------------------------------
+// Incremental version, for mostly static scenes
+//
+// The frame is split in (tileSize x tileSize) tiles. A tile changed when an intensity differs more
+// than the threshold from the intensity at the last recompute of that tile. The changed tiles are
+// grown with a halo of tiles which covers the kernel radius, only those tiles are recomputed. The
+// outputs of all other tiles are kept.
+//
+// The tile kernels are launched over the (tilesX x tilesY) tile buffers.
+// ------------------------------------------------------------------------------------------------
+rs_allocation referenceIntensityBuffer; // float, intensity at the last recompute of each tile
+rs_allocation changedTilesBuffer; // uchar, tile grid
+int tileSize;
+int tilesX;
+int tilesY;
+int haloTiles;
+float changeThreshold;
+bool forceAllTiles;
+
+uchar __attribute__((kernel)) detectChangedTiles(uint32_t tx, uint32_t ty) {
+
+    int xs = tx * tileSize;
+    int ys = ty * tileSize;
+    int xe = min(xs + tileSize, sourceWidth);
+    int ye = min(ys + tileSize, sourceHeight);
+    bool changed = forceAllTiles;
+
+    for(int y = ys; y < ye && !changed; y++) {
+        for(int x = xs; x < xe && !changed; x++) {
+            changed = fabs(rsGetElementAt_float(intensityBuffer, x, y) - rsGetElementAt_float(referenceIntensityBuffer, x, y)) > changeThreshold;
+        }
+    }
+
+    // Only the tiles which are recomputed get a new reference, so slow drifts are still detected
+    if(changed) {
+        for(int y = ys; y < ye; y++) {
+            for(int x = xs; x < xe; x++) {
+                rsSetElementAt_float(referenceIntensityBuffer, rsGetElementAt_float(intensityBuffer, x, y), x, y);
+            }
+        }
+    }
+
+    return changed ? 1 : 0;
+}
+
+uchar __attribute__((kernel)) growChangedTiles(uint32_t tx, uint32_t ty) {
+
+    int txs = max(0, (int) tx - haloTiles);
+    int tys = max(0, (int) ty - haloTiles);
+    int txe = min(tilesX - 1, (int) tx + haloTiles);
+    int tye = min(tilesY - 1, (int) ty + haloTiles);
+
+    for(int y = tys; y <= tye; y++) {
+        for(int x = txs; x <= txe; x++) {
+            if(rsGetElementAt_uchar(changedTilesBuffer, x, y)) {
+                return 1;
+            }
+        }
+    }
+
+    return 0;
+}
+
+void __attribute__((kernel)) recomputeTiles(uchar dirty, uint32_t tx, uint32_t ty) {
+
+    if(dirty) {
+        int xs = tx * tileSize;
+        int ys = ty * tileSize;
+        int xe = min(xs + tileSize, sourceWidth);
+        int ye = min(ys + tileSize, sourceHeight);
+
+        for(int y = ys; y < ye; y++) {
+            for(int x = xs; x < xe; x++) {
+                storeOutputs(calcVectorKernel(x, y), x, y);
+            }
+        }
+    }
+}
+
 
 // ------------------------------------------------------------------------------------------------
 // 2N version (uses kernel separability on X and Y axis from the kernel) cost is 2N
@@ -120,3 +300,62 @@ float2 __attribute__((kernel)) applyVectorKernelPart2(int32_t x, int32_t y) {
 
     return scale * averageVector / totalKernelWeight2N;
 }
+
+
+// ------------------------------------------------------------------------------------------------
+// Low rank version (sum of R separable row/column passes from the SVD of the kernel) cost is 2NR
+//
+// The X and Y component of the kernel are each approximated by: sum(r) column(r) * row(r)^T
+// Per pass one row pass and one column pass is executed, the column pass accumulates.
+// ------------------------------------------------------------------------------------------------
+rs_allocation lowRankRowKernels; // float2, (kernelSize x passes) .x = X component, .y = Y component
+rs_allocation lowRankColumnKernels; // float2, (kernelSize x passes) .x = X component, .y = Y component
+rs_allocation lowRankStepBuffer; // float2
+int lowRankPass;
+
+float2 __attribute__((kernel)) applyLowRankRowPass(int32_t x, int32_t y) {
+
+    float2 averageVector = 0;
+
+    int xs = x - kernelSquareRadius;
+    int xe = x + kernelSquareRadius;
+
+    if(xs >= 0 && xe < sourceWidth) {
+
+        int imageX, kernelX;
+
+        kernelX = 0;
+        for(imageX = xs; imageX <= xe; imageX++) {
+            averageVector += rsGetElementAt_float2(lowRankRowKernels, kernelX, lowRankPass) * rsGetElementAt_float(intensityBuffer, imageX, y);
+            kernelX++;
+        }
+    }
+
+    return averageVector;
+}
+
+float2 __attribute__((kernel)) applyLowRankColumnPass(float2 in, int32_t x, int32_t y) {
+
+    float2 averageVector = 0;
+
+    int ys = y - kernelSquareRadius;
+    int ye = y + kernelSquareRadius;
+
+    if(ys >= 0 && ye < sourceHeight) {
+
+        int imageY, kernelY;
+
+        kernelY = 0;
+        for(imageY = ys; imageY <= ye; imageY++) {
+            averageVector += rsGetElementAt_float2(lowRankColumnKernels, kernelY, lowRankPass) * rsGetElementAt_float2(lowRankStepBuffer, x, imageY);
+            kernelY++;
+        }
+    }
+
+    // The first pass starts the sum, the others accumulate
+    if(lowRankPass == 0) {
+        return scale * averageVector / totalKernelWeight;
+    }
+
+    return in + scale * averageVector / totalKernelWeight;
+}
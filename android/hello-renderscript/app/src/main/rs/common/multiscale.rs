@@ -0,0 +1,51 @@
+#pragma version(1)
+#pragma rs java_package_name(nl.udev.hellorenderscript.video)
+
+// ============================================================================================
+// Combining the edge vectors of the pyramid levels into one full resolution buffer
+//
+// Called once per level, each call adds the weighted and bilinear upsampled vectors of the
+// level to the combined vectors. Level pixel (x, y) is at full resolution pixel
+// (x, y) / levelScale, the same grid as the compress steps of 'pyramid.rs'.
+// ============================================================================================
+
+rs_allocation levelVectors;     // float2
+int levelWidth;
+int levelHeight;
+float levelScale;               // 1 / 2^level, level pixels per full resolution pixel
+float levelWeight;
+int levelBorder;                // level pixels along the border without valid vectors
+bool firstLevel;                // set the combined vectors instead of adding to them
+
+rs_allocation combinedVectors;  // float2, the output buffer (read for accumulating)
+
+static float2 sampleLevel(float fx, float fy) {
+
+    // The edge detection has no vectors where the kernel does not fit in the level
+    if(fx < levelBorder || fy < levelBorder
+            || fx > (levelWidth - 1 - levelBorder) || fy > (levelHeight - 1 - levelBorder)) {
+        return 0;
+    }
+
+    int x0 = (int) fx;
+    int y0 = (int) fy;
+    int x1 = min(x0 + 1, levelWidth - 1);
+    int y1 = min(y0 + 1, levelHeight - 1);
+    float ax = fx - x0;
+    float ay = fy - y0;
+
+    float2 top = mix(rsGetElementAt_float2(levelVectors, x0, y0), rsGetElementAt_float2(levelVectors, x1, y0), ax);
+    float2 bottom = mix(rsGetElementAt_float2(levelVectors, x0, y1), rsGetElementAt_float2(levelVectors, x1, y1), ax);
+    return mix(top, bottom, ay);
+}
+
+float2 __attribute__((kernel)) accumulateLevel(uint32_t x, uint32_t y) {
+
+    float2 out = sampleLevel(x * levelScale, y * levelScale) * levelWeight;
+
+    if(!firstLevel) {
+        out += rsGetElementAt_float2(combinedVectors, x, y);
+    }
+
+    return out;
+}
@@ -1,16 +1,18 @@
 #pragma version(1)
 #pragma rs java_package_name(nl.udev.hellorenderscript.video)
 
+#include "edgestorage.rsh"
+
 
 // ------------------------------------------------------------------------------------------------
 // Plot polar vectors where angle is color and length is intensity
 // ------------------------------------------------------------------------------------------------
 rs_allocation angleColormap;
 
-uchar4 __attribute__((kernel)) plotPolar2dColormap(float2 in, uint32_t x, uint32_t y) {
+static uchar4 plotPolar(float2 in) {
 
     // Convert angle to degrees [0...359] and get the matching angleColor
-    uint angle = (uint) (degrees(in.s0) + 180);
+    uint angle = min(359u, (uint) (degrees(in.s0) + 180));
     float4 angleColor = rsGetElementAt_float4(angleColormap, angle);
 
     // Take the clamped intensity and apply this to the angle color
@@ -20,6 +22,19 @@ uchar4 __attribute__((kernel)) plotPolar2dColormap(float2 in, uint32_t x, uint32
     return rsPackColorTo8888(angleColor);
 }
 
+uchar4 __attribute__((kernel)) plotPolar2dColormap(float2 in, uint32_t x, uint32_t y) {
+    return plotPolar(in);
+}
+
+// Same plot for polar vectors stored in a compact precision (see edgestorage.rsh)
+rs_allocation polarSource;
+int polarSourcePrecision;
+float2 polarSourceRange;
+
+uchar4 __attribute__((kernel)) plotPolar2dColormapStorage(uint32_t x, uint32_t y) {
+    return plotPolar(loadEdge2(polarSource, polarSourcePrecision, polarSourceRange, x, y));
+}
+
 
 // ------------------------------------------------------------------------------------------------
 // Plot pixels values to 8 bit colormap index
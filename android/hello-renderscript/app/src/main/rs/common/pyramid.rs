@@ -5,104 +5,132 @@
 // Compressing the pyramid levels
 // ============================================================================================
 
-int compressTargetWidth;
-int compressTargetHeight;
-rs_allocation compressSource; // float
+// Level n pixel (x, y) is at pixel (2x, 2y) of level n - 1, level sizes are rounded up
+// (e.g. 45x34 -> 23x17) so any resolution reaches the requested number of levels.
+// Reads outside of a level are clamped to its border pixels, all kernels have a total weight
+// of 1.0 so the borders keep their brightness.
 
-// Step 1: compress along X direction
-float __attribute__((kernel)) compressStep1(int32_t x, int32_t y) {
+int compressSourceWidth;
+int compressSourceHeight;
+rs_allocation compressSource; // float
+int compressTargetHeight;
+rs_allocation compressTarget; // float
 
-    float out = 0;
+// One source row compressed along the X direction
+static float compressRow(int xp, int yp) {
 
-    if(x > 1 && x < (compressTargetWidth - 2)) {
-        int xp = x * 2;
-        out += rsGetElementAt_float(compressSource, xp - 2, y) * 0.05f;
-        out += rsGetElementAt_float(compressSource, xp - 1, y) * 0.25f;
-        out += rsGetElementAt_float(compressSource, xp, y) * 0.4f;
-        out += rsGetElementAt_float(compressSource, xp + 1, y) * 0.25f;
-        out += rsGetElementAt_float(compressSource, xp + 2, y) * 0.05f;
-    }
+    int x0 = max(xp - 2, 0);
+    int x1 = max(xp - 1, 0);
+    int x3 = min(xp + 1, compressSourceWidth - 1);
+    int x4 = min(xp + 2, compressSourceWidth - 1);
 
-    return out;
+    return rsGetElementAt_float(compressSource, x0, yp) * 0.05f
+            + rsGetElementAt_float(compressSource, x1, yp) * 0.25f
+            + rsGetElementAt_float(compressSource, xp, yp) * 0.4f
+            + rsGetElementAt_float(compressSource, x3, yp) * 0.25f
+            + rsGetElementAt_float(compressSource, x4, yp) * 0.05f;
 }
 
-// Step 2: compress along Y direction
-float __attribute__((kernel)) compressStep2(int32_t x, int32_t y) {
-
-    float out = 0;
-
-    if(y > 1 && y < (compressTargetHeight - 2)) {
-        int yp = y * 2;
-        out += rsGetElementAt_float(compressSource, x, yp - 2) * 0.05f;
-        out += rsGetElementAt_float(compressSource, x, yp - 1) * 0.25f;
-        out += rsGetElementAt_float(compressSource, x, yp) * 0.4f;
-        out += rsGetElementAt_float(compressSource, x, yp + 1) * 0.25f;
-        out += rsGetElementAt_float(compressSource, x, yp + 2) * 0.05f;
+// Compress a whole column of the target level, launched over X only (the input is the target
+// itself, restricted to row 0, it is not used).
+//
+// Target row y combines the X compressed source rows 2y - 2 .. 2y + 2. The five compressed rows
+// are kept in a ring (r0 .. r4) while walking down the column, each next target row only
+// compresses the two new source rows. So every source row is compressed once along X, like a
+// separate X pass, but no intermediate (half width) buffer is written and read back:
+// 10 reads and 15 multiply-adds per target pixel.
+void __attribute__((kernel)) compressColumn(float in, uint32_t x) {
+
+    int xp = x * 2;
+    int lastRow = compressSourceHeight - 1;
+
+    // Rows -2 and -1 are clamped to row 0
+    float r0 = compressRow(xp, 0);
+    float r1 = r0;
+    float r2 = r0;
+    float r3 = compressRow(xp, min(1, lastRow));
+    float r4 = compressRow(xp, min(2, lastRow));
+
+    for(int y = 0; y < compressTargetHeight; y++) {
+        float out = r0 * 0.05f + r1 * 0.25f + r2 * 0.4f + r3 * 0.25f + r4 * 0.05f;
+        rsSetElementAt_float(compressTarget, out, x, y);
+
+        // Move down two source rows
+        r0 = r2;
+        r1 = r3;
+        r2 = r4;
+        r3 = compressRow(xp, min(y * 2 + 3, lastRow));
+        r4 = compressRow(xp, min(y * 2 + 4, lastRow));
     }
-
-    return out;
 }
 
 // ============================================================================================
 // Expanding the pyramid levels
 // ============================================================================================
 
-int expandTargetWidth;
-int expandTargetHeight;
+int expandSourceWidth;
+int expandSourceHeight;
 rs_allocation expandSource; // float
+int expandTargetHeight;
+rs_allocation expandTarget; // float
 
-// Step 1: expand the Y direction
-float __attribute__((kernel)) expandStep1(int32_t x, int32_t y) {
-
-    float out = 0;
-
-    if(y > 1 && y < (expandTargetHeight - 2)) {
-        int yp = y / 2;
+// One source row expanded along the X direction, at target column x
+static float expandRow(int x, int yp) {
 
-        if(yp * 2 == y) {
-            // Even number, we are in-line with the source
-            out += rsGetElementAt_float(expandSource, x, yp - 1) * 0.175f;
-            out += rsGetElementAt_float(expandSource, x, yp) * 0.65f;
-            out += rsGetElementAt_float(expandSource, x, yp + 1) * 0.175f;
+    int xp = x / 2;
+    int x2 = min(xp + 1, expandSourceWidth - 1);
 
-        } else {
-            // Odd number, we are in-between the source
-            out += rsGetElementAt_float(expandSource, x, yp) * 0.5f;
-            out += rsGetElementAt_float(expandSource, x, yp + 1) * 0.5f;
-        }
+    if(xp * 2 == x) {
+        // Even number, we are in-line with the source
+        return rsGetElementAt_float(expandSource, max(xp - 1, 0), yp) * 0.175f
+                + rsGetElementAt_float(expandSource, xp, yp) * 0.65f
+                + rsGetElementAt_float(expandSource, x2, yp) * 0.175f;
     }
 
-    return out;
+    // Odd number, we are in-between the source
+    return rsGetElementAt_float(expandSource, xp, yp) * 0.5f
+            + rsGetElementAt_float(expandSource, x2, yp) * 0.5f;
 }
 
-// Step 1: expand the X direction
-float __attribute__((kernel)) expandStep2(int32_t x, int32_t y) {
+// Expand a whole column of the target, launched over X only (see compressColumn).
+// The output has the size of the next larger level, which can be one less then twice the source.
+//
+// The X expanded source rows yp - 1 .. yp + 1 are kept in a ring (r0 .. r2), they give the even
+// target row 2 yp and the odd target row 2 yp + 1. Each source row is expanded once.
+void __attribute__((kernel)) expandColumn(float in, uint32_t x) {
 
-    float out = 0;
+    int lastRow = expandSourceHeight - 1;
 
-    if(x > 1 && x < (expandTargetWidth - 2)) {
-        int xp = x / 2;
+    // Row -1 is clamped to row 0
+    float r0 = expandRow(x, 0);
+    float r1 = r0;
+    float r2 = expandRow(x, min(1, lastRow));
 
-        if(xp * 2 == x) {
-            // Even number, we are in-line with the source
-            out += rsGetElementAt_float(expandSource, xp - 1, y) * 0.175f;
-            out += rsGetElementAt_float(expandSource, xp, y) * 0.65f;
-            out += rsGetElementAt_float(expandSource, xp + 1, y) * 0.175f;
+    for(int y = 0; y < expandTargetHeight; y += 2) {
+        // Even number, we are in-line with the source
+        rsSetElementAt_float(expandTarget, r0 * 0.175f + r1 * 0.65f + r2 * 0.175f, x, y);
 
-        } else {
-            // Odd number, we are in-between the source
-            out += rsGetElementAt_float(expandSource, xp, y) * 0.5f;
-            out += rsGetElementAt_float(expandSource, xp + 1, y) * 0.5f;
+        // Odd number, we are in-between the source
+        if(y + 1 < expandTargetHeight) {
+            rsSetElementAt_float(expandTarget, r1 * 0.5f + r2 * 0.5f, x, y + 1);
         }
-    }
 
-    return out;
+        // Move down one source row
+        r0 = r1;
+        r1 = r2;
+        r2 = expandRow(x, min(y / 2 + 2, lastRow));
+    }
 }
 
 // ============================================================================================
 // Transmuting to Laplacian pyramid levels
 // ============================================================================================
 
+// Copy a level buffer, also works for level buffers which are windows in a packed mip-chain
+float __attribute__((kernel)) copyLevel(float in) {
+    return in;
+}
+
 rs_allocation laplacianLowerLevel; // float
 
 float __attribute__((kernel)) laplacian(float in, int32_t x, int32_t y) {
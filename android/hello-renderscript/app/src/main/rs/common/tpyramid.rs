@@ -22,6 +22,45 @@ float __attribute__((kernel)) compress(int32_t x, int32_t y) {
     return out;
 }
 
+// SPATIO_TEMPORAL decimation: the level is also half the size of the source level (rounded up).
+// Level pixel (x, y) is at source pixel (2x, 2y), each source frame is compressed spatially with
+// the kernel of 'pyramid.rs' (reads are clamped to the border) before the temporal weighting.
+
+int compressSourceWidth;
+int compressSourceHeight;
+
+static float compressSpatial(rs_allocation source, int xp, int yp) {
+
+    const float weights[5] = { 0.05f, 0.25f, 0.4f, 0.25f, 0.05f };
+    float out = 0;
+
+    for(int dy = 0; dy < 5; dy++) {
+        int ys = clamp(yp + dy - 2, 0, compressSourceHeight - 1);
+        float row = 0;
+        for(int dx = 0; dx < 5; dx++) {
+            int xs = clamp(xp + dx - 2, 0, compressSourceWidth - 1);
+            row += rsGetElementAt_float(source, xs, ys) * weights[dx];
+        }
+        out += row * weights[dy];
+    }
+
+    return out;
+}
+
+float __attribute__((kernel)) compressDecimated(int32_t x, int32_t y) {
+
+    int xp = x * 2;
+    int yp = y * 2;
+
+    float out = 0;
+    out += compressSpatial(compressSource1, xp, yp) * 0.05f;
+    out += compressSpatial(compressSource2, xp, yp) * 0.25f;
+    out += compressSpatial(compressSource3, xp, yp) * 0.4f;
+    out += compressSpatial(compressSource4, xp, yp) * 0.25f;
+    out += compressSpatial(compressSource5, xp, yp) * 0.05f;
+    return out;
+}
+
 // ============================================================================================
 // Expanding the pyramid levels
 // ============================================================================================
@@ -55,6 +94,69 @@ float __attribute__((kernel)) expandOddRight(int32_t x, int32_t y) {
     return out;
 }
 
+// SPATIO_TEMPORAL decimation: the output has the size of the next larger level, each source
+// frame is expanded spatially with the kernel of 'pyramid.rs' before the temporal weighting.
+
+int expandSourceWidth;
+int expandSourceHeight;
+
+static float expandSpatialColumn(rs_allocation source, int xp, int y) {
+
+    int yp = y / 2;
+
+    if(yp * 2 == y) {
+        // Even number, we are in-line with the source
+        return rsGetElementAt_float(source, xp, max(yp - 1, 0)) * 0.175f
+                + rsGetElementAt_float(source, xp, yp) * 0.65f
+                + rsGetElementAt_float(source, xp, min(yp + 1, expandSourceHeight - 1)) * 0.175f;
+    }
+
+    // Odd number, we are in-between the source
+    return rsGetElementAt_float(source, xp, yp) * 0.5f
+            + rsGetElementAt_float(source, xp, min(yp + 1, expandSourceHeight - 1)) * 0.5f;
+}
+
+static float expandSpatial(rs_allocation source, int x, int y) {
+
+    int xp = x / 2;
+
+    if(xp * 2 == x) {
+        // Even number, we are in-line with the source
+        return expandSpatialColumn(source, max(xp - 1, 0), y) * 0.175f
+                + expandSpatialColumn(source, xp, y) * 0.65f
+                + expandSpatialColumn(source, min(xp + 1, expandSourceWidth - 1), y) * 0.175f;
+    }
+
+    // Odd number, we are in-between the source
+    return expandSpatialColumn(source, xp, y) * 0.5f
+            + expandSpatialColumn(source, min(xp + 1, expandSourceWidth - 1), y) * 0.5f;
+}
+
+float __attribute__((kernel)) expandEvenDecimated(int32_t x, int32_t y) {
+
+    float out = 0;
+    out += expandSpatial(expandSource1, x, y) * 0.175f;
+    out += expandSpatial(expandSource2, x, y) * 0.65f;
+    out += expandSpatial(expandSource3, x, y) * 0.175f;
+    return out;
+}
+
+float __attribute__((kernel)) expandOddLeftDecimated(int32_t x, int32_t y) {
+
+    float out = 0;
+    out += expandSpatial(expandSource1, x, y) * 0.5f;
+    out += expandSpatial(expandSource2, x, y) * 0.5f;
+    return out;
+}
+
+float __attribute__((kernel)) expandOddRightDecimated(int32_t x, int32_t y) {
+
+    float out = 0;
+    out += expandSpatial(expandSource2, x, y) * 0.5f;
+    out += expandSpatial(expandSource3, x, y) * 0.5f;
+    return out;
+}
+
 // ============================================================================================
 // Transmuting to Laplacian pyramid levels
 // ============================================================================================
@@ -79,13 +181,28 @@ float __attribute__((kernel)) collapse(float in, int32_t x, int32_t y) {
 // Drawing a pyramid level
 // ============================================================================================
 
-uchar4 __attribute__((kernel)) plotPyramidLevel(float in, int32_t x, int32_t y) {
-    return max(0, min(255, (int) (255 * in)));
+// The level can be smaller than the destination (SPATIO_TEMPORAL decimation), it is scaled up
+
+int pyramidWidth;
+int pyramidHeight;
+int plotWidth;
+int plotHeight;
+rs_allocation pyramidImage; // float
+
+uchar4 __attribute__((kernel)) plotPyramidLevel(int32_t x, int32_t y) {
+
+    int xp = x * pyramidWidth / plotWidth;
+    int yp = y * pyramidHeight / plotHeight;
+    int value = 255 * rsGetElementAt_float(pyramidImage, xp, yp);
+
+    return max(0, min(255, value));
 }
 
-uchar4 __attribute__((kernel)) plotPyramidLevelLaplacian(float in, int32_t x, int32_t y) {
+uchar4 __attribute__((kernel)) plotPyramidLevelLaplacian(int32_t x, int32_t y) {
 
-    int value = 512 * in;
+    int xp = x * pyramidWidth / plotWidth;
+    int yp = y * pyramidHeight / plotHeight;
+    int value = (int) (512 * rsGetElementAt_float(pyramidImage, xp, yp));
     uchar4 color = 0;
 
     if(value < 0) {
@@ -96,4 +213,4 @@ uchar4 __attribute__((kernel)) plotPyramidLevelLaplacian(float in, int32_t x, in
 
     color.a = 255;
     return color;
-}
\ No newline at end of file
+}
@@ -1,6 +1,8 @@
 #pragma version(1)
 #pragma rs java_package_name(nl.udev.hellorenderscript.video)
 
+#include "../common/edgestorage.rsh"
+
 int sourceWidth;
 int sourceHeight;
 int areaSize;
@@ -8,6 +10,10 @@ int areaSize;
 rs_allocation sourceEdgeVectorBuffer;
 rs_allocation sourcePolarEdgeVectorBuffer;
 
+// Storage precision and range of the source buffers (see edgestorage.rsh)
+int sourcePrecision;
+float sourceRange;
+
 // In simple words this algorithm detects area's where there are edges with different directions.
 // ------------------------------------------------------------------------------------------------
 // Given an NxN areasize, where the NxN area contains edges (direction and magnitudes):
@@ -22,9 +28,13 @@ rs_allocation sourcePolarEdgeVectorBuffer;
 // a) if the ratio very small, this means there are a lot of vectors with different directions.
 //    these regions are candidate
 // b) if the ratio is close to 1 all vectors are in the same direction.
-float2 __attribute__((kernel)) calcInterestPoints(float2 in, int32_t x, int32_t y) {
+float2 __attribute__((kernel)) calcInterestPoints(int32_t x, int32_t y) {
 
     float2 resultVector = 0;
+    float2 vectorRange = sourceRange;
+    float2 polarRange;
+    polarRange.s0 = M_PI;
+    polarRange.s1 = sourceRange;
 
     if( (x - areaSize) >= 0 &&
         (y - areaSize) >= 0 &&
@@ -44,8 +54,8 @@ float2 __attribute__((kernel)) calcInterestPoints(float2 in, int32_t x, int32_t
             for(int px = -areaSize; px <= areaSize; px++) {
                 xp = x + px;
 
-                sourcePolarEdgeVector = rsGetElementAt_float2(sourcePolarEdgeVectorBuffer, xp, yp);
-                sourceEdgeVector = rsGetElementAt_float2(sourceEdgeVectorBuffer, xp, yp);
+                sourcePolarEdgeVector = loadEdge2(sourcePolarEdgeVectorBuffer, sourcePrecision, polarRange, xp, yp);
+                sourceEdgeVector = loadEdge2(sourceEdgeVectorBuffer, sourcePrecision, vectorRange, xp, yp);
 
                 // Add the length of the edge polar vector
                 idealLength += sourcePolarEdgeVector.s1;
@@ -1,15 +1,17 @@
 #pragma version(1)
 #pragma rs java_package_name(nl.udev.hellorenderscript.video)
 
+#include "../common/edgestorage.rsh"
+
 int sourceWidth;
 int sourceHeight;
 
 // Only try to find those points where there is a corner
 // This means look for the occurance of maximum two angles
 //
-// The input is a 2D vector where:
-// in.s0 = angle
-// in.s1 = length
+// The input is the polar edge buffer with 2D vectors where:
+// s0 = angle
+// s1 = length
 //
 // The output is a 2D vector where:
 // out.s0 = score
@@ -21,9 +23,17 @@ float minEdgeSize;
 float maxOutOfBinsFactor;
 float maxAngleBetweenBinsRadians;
 rs_allocation polarEdgeBuffer;
-float2 __attribute__((kernel)) calcInterestPoints(float2 in, int32_t x, int32_t y) {
+
+// Storage precision and range of the polar edge buffer (see edgestorage.rsh)
+int polarEdgePrecision;
+float polarEdgeRange;
+
+float2 __attribute__((kernel)) calcInterestPoints(int32_t x, int32_t y) {
 
     float2 resultVector = 0;
+    float2 polarRange;
+    polarRange.s0 = M_PI;
+    polarRange.s1 = polarEdgeRange;
 
     if( (x - areaSize) >= 0 &&
         (y - areaSize) >= 0 &&
@@ -44,7 +54,7 @@ float2 __attribute__((kernel)) calcInterestPoints(float2 in, int32_t x, int32_t
             yp = y + py;
             for(int px = -areaSize; px <= areaSize; px++) {
                 xp = x + px;
-                edgeVector = rsGetElementAt_float2(polarEdgeBuffer, xp, yp);
+                edgeVector = loadEdge2(polarEdgeBuffer, polarEdgePrecision, polarRange, xp, yp);
 
                 // Normalize the angle in the edge vector between 0..PI
                 edgeVector.s0 = fmod(edgeVector.s0 + M_PI, M_PI);
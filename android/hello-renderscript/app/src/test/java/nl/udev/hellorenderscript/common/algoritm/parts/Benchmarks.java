@@ -0,0 +1,518 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import nl.udev.hellorenderscript.common.algoritm.parts.JvmEdgeDetection.KernelImplementation;
+
+/**
+ * Opt-in timing harness for the plain JVM engines, it is not part of the unit tests.
+ *
+ * Run the main with the test classpath, optionally with the names of the benchmarks to run
+ * (default all). The timings are the best of {@link #RUNS} runs after {@link #WARMUP_RUNS}
+ * warm-up runs. The unit tests (e.g. {@link EdgeDetectionFusionTest}) check that the compared
+ * implementations give the same results, here only the timings are reported.
+ */
+public class Benchmarks {
+
+    private static final int WARMUP_RUNS = 5;
+    private static final int RUNS = 10;
+
+    /**
+     * Angle slices the former 'hough' kernel of 'canny.rs' was launched over.
+     */
+    private static final int HOUGH_SLICES = 8;
+
+    /**
+     * Frames per run of the Hough pipeline benchmark.
+     */
+    private static final int PIPELINE_FRAMES = 20;
+
+    private Benchmarks() {
+        // Harness, no instantiation
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = Arrays.asList(args);
+
+        if(names.isEmpty() || names.contains("fusion")) {
+            benchmarkFusion();
+        }
+        if(names.isEmpty() || names.contains("lanes")) {
+            benchmarkLanes();
+        }
+        if(names.isEmpty() || names.contains("pyramid")) {
+            benchmarkPyramid();
+        }
+        if(names.isEmpty() || names.contains("hysteresis")) {
+            benchmarkHysteresis();
+        }
+        if(names.isEmpty() || names.contains("hough")) {
+            benchmarkHough();
+        }
+        if(names.isEmpty() || names.contains("pipeline")) {
+            benchmarkHoughPipeline();
+        }
+        if(names.isEmpty() || names.contains("probabilistic")) {
+            benchmarkProbabilisticHough();
+        }
+        if(names.isEmpty() || names.contains("frontend")) {
+            benchmarkCannyFrontEnd();
+        }
+    }
+
+    /**
+     * Best time of a few runs after the warm-up (the JIT only vectorizes the compiled loops).
+     */
+    static long time(Runnable runnable) {
+        for(int run = 0; run < WARMUP_RUNS; run++) {
+            runnable.run();
+        }
+        long best = Long.MAX_VALUE;
+        for(int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            runnable.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * The fused edge kernel against the separate vector + conversion passes.
+     *
+     * The MB/frame numbers are NOT measured: they are estimated from the bytes per pixel the
+     * RenderScript passes of {@link EdgeDetection} write and read back (vectors, then 'toPolar2D'
+     * and/or 'magnitude2D'). The intensity reads are the same for both and are not counted. On
+     * the JVM the fused path is not faster (0.6x to 1.0x of the separate passes depending on the
+     * outputs and the warm-up), the kernel dominates and the saved bytes do not pay off, so
+     * fusion is disabled by default.
+     */
+    private static void benchmarkFusion() {
+        float[] intensity = EdgeDetectionFusionTest.createIntensity();
+        JvmEdgeDetection edgeDetection = EdgeDetectionFusionTest.createEdgeDetection();
+
+        reportFusion("vectors + polar", intensity, edgeDetection,
+                EnumSet.of(EdgeOutput.VECTORS, EdgeOutput.POLAR_VECTORS), 8 + 8 + 8, 8 + 8);
+        reportFusion("polar", intensity, edgeDetection,
+                EnumSet.of(EdgeOutput.POLAR_VECTORS), 8 + 8 + 8, 8);
+        reportFusion("magnitudes", intensity, edgeDetection,
+                EnumSet.of(EdgeOutput.MAGNITUDES), 8 + 8 + 4, 4);
+        reportFusion("all", intensity, edgeDetection,
+                EnumSet.allOf(EdgeOutput.class), 8 + 8 + 8 + 8 + 4, 8 + 8 + 4);
+    }
+
+    private static void reportFusion(String name,
+                                     final float[] intensity,
+                                     final JvmEdgeDetection edgeDetection,
+                                     final EnumSet<EdgeOutput> outputs,
+                                     int separateBytesPerPixel,
+                                     int fusedBytesPerPixel) {
+
+        long separateNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                edgeDetection.setFusionEnabled(false);
+                edgeDetection.calcEdges(intensity, outputs);
+            }
+        });
+        long fusedNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                edgeDetection.setFusionEnabled(true);
+                edgeDetection.calcEdges(intensity, outputs);
+            }
+        });
+
+        long pixels = (long) EdgeDetectionFusionTest.WIDTH * EdgeDetectionFusionTest.HEIGHT;
+        System.out.println(String.format(
+                "%-16s separate: %6.2f ms | fused: %6.2f ms (%.2fx) | estimated %5.1f vs %5.1f MB/frame",
+                name, separateNanos / 1e6, fusedNanos / 1e6, (double) separateNanos / fusedNanos,
+                separateBytesPerPixel * pixels / 1e6, fusedBytesPerPixel * pixels / 1e6));
+    }
+
+    /**
+     * The LANES implementation of the direct vector kernel against the SCALAR one.
+     *
+     * Runs on a single thread so the numbers show the speedup of the SIMD lanes and not of the
+     * row bands, run it on each host type (x86 AVX2 / AVX-512, ARM NEON) to compare. The
+     * vectorization can be checked with -XX:+UnlockDiagnosticVMOptions -XX:+PrintAssembly.
+     * The speedup differs per kernel size and host, so SCALAR is the default and
+     * {@link JvmEdgeDetection#measureKernelImplementation(float[])} picks one per kernel size.
+     */
+    private static void benchmarkLanes() {
+        final float[] intensity = EdgeDetectionLanesTest.createIntensity();
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+
+        System.out.println(String.format("%s %s, %s",
+                System.getProperty("os.arch"),
+                System.getProperty("java.vm.name"),
+                System.getProperty("java.version")));
+
+        try {
+            for(int kernelSize : new int[] { 3, 7, 15 }) {
+                final JvmEdgeDetection scalar = EdgeDetectionLanesTest.createEdgeDetection(
+                        singleThread, kernelSize, KernelImplementation.SCALAR);
+                final JvmEdgeDetection lanes = EdgeDetectionLanesTest.createEdgeDetection(
+                        singleThread, kernelSize, KernelImplementation.LANES);
+
+                long scalarNanos = time(new Runnable() {
+                    @Override
+                    public void run() {
+                        scalar.calcEdgeVectors(intensity);
+                    }
+                });
+                long lanesNanos = time(new Runnable() {
+                    @Override
+                    public void run() {
+                        lanes.calcEdgeVectors(intensity);
+                    }
+                });
+
+                System.out.println(String.format(
+                        "%2dx%-2d scalar: %7.2f ms | lanes: %7.2f ms | speedup %4.2fx | measured choice %s",
+                        kernelSize, kernelSize,
+                        scalarNanos / 1e6, lanesNanos / 1e6, scalarNanos / (double) lanesNanos,
+                        lanes.measureKernelImplementation(intensity)));
+            }
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    /**
+     * One compress and expand step of the pyramid (1440x1080 to 720x540 and back, plus the
+     * laplacian) on a single thread: the ring buffer engine of {@link JvmImagePyramid}, the
+     * two passes with an intermediate buffer and the per pixel fused kernel that compresses the
+     * five source rows again for every target pixel (25 reads per pixel instead of 10).
+     */
+    private static void benchmarkPyramid() {
+        final int width = 1440;
+        final int height = 1080;
+        final int smallWidth = (width + 1) / 2;
+        final int smallHeight = (height + 1) / 2;
+        final float[] frame = JvmImagePyramidTest.createFrame(width, height);
+        ForkJoinPool singleThread = new ForkJoinPool(1);
+
+        try {
+            final JvmImagePyramid pyramid = new JvmImagePyramid(singleThread, width, height, 1);
+            long ringNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    pyramid.calculate(frame);
+                }
+            });
+            long twoPassNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    float[] small = JvmImagePyramidTest.compressTwoPass(frame, width, height, smallWidth, smallHeight);
+                    laplacian(frame, JvmImagePyramidTest.expandTwoPass(small, smallWidth, smallHeight, width, height));
+                }
+            });
+            long perPixelNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    float[] small = compressPerPixel(frame, width, height, smallWidth, smallHeight);
+                    laplacian(frame, expandPerPixel(small, smallWidth, smallHeight, width, height));
+                }
+            });
+
+            System.out.println(String.format(
+                    "pyramid step  ring: %6.2f ms | two passes: %6.2f ms (%.2fx) | per pixel: %6.2f ms (%.2fx)",
+                    ringNanos / 1e6,
+                    twoPassNanos / 1e6, twoPassNanos / (double) ringNanos,
+                    perPixelNanos / 1e6, perPixelNanos / (double) ringNanos));
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    private static float[] laplacian(float[] gaussian, float[] expanded) {
+        float[] laplacian = new float[gaussian.length];
+        for(int i = 0; i < laplacian.length; i++) {
+            laplacian[i] = gaussian[i] - expanded[i];
+        }
+        return laplacian;
+    }
+
+    private static float[] compressPerPixel(float[] source, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        float[] weights = { 0.05f, 0.25f, 0.4f, 0.25f, 0.05f };
+        float[] target = new float[targetWidth * targetHeight];
+        for(int y = 0; y < targetHeight; y++) {
+            for(int x = 0; x < targetWidth; x++) {
+                float out = 0;
+                for(int row = 0; row < 5; row++) {
+                    int yp = Math.max(0, Math.min(sourceHeight - 1, y * 2 + row - 2)) * sourceWidth;
+                    float rowOut = 0;
+                    for(int column = 0; column < 5; column++) {
+                        rowOut += source[yp + Math.max(0, Math.min(sourceWidth - 1, x * 2 + column - 2))] * weights[column];
+                    }
+                    out += rowOut * weights[row];
+                }
+                target[y * targetWidth + x] = out;
+            }
+        }
+        return target;
+    }
+
+    private static float[] expandPerPixel(float[] source, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        float[] target = new float[targetWidth * targetHeight];
+        for(int y = 0; y < targetHeight; y++) {
+            for(int x = 0; x < targetWidth; x++) {
+                int xp = x / 2;
+                int x2 = Math.min(xp + 1, sourceWidth - 1);
+                target[y * targetWidth + x] = xp * 2 == x
+                        ? expandColumn(source, sourceWidth, sourceHeight, Math.max(xp - 1, 0), y) * 0.175f
+                                + expandColumn(source, sourceWidth, sourceHeight, xp, y) * 0.65f
+                                + expandColumn(source, sourceWidth, sourceHeight, x2, y) * 0.175f
+                        : expandColumn(source, sourceWidth, sourceHeight, xp, y) * 0.5f
+                                + expandColumn(source, sourceWidth, sourceHeight, x2, y) * 0.5f;
+            }
+        }
+        return target;
+    }
+
+    private static float expandColumn(float[] source, int sourceWidth, int sourceHeight, int xp, int y) {
+        int yp = y / 2;
+        int y2 = Math.min(yp + 1, sourceHeight - 1);
+        return yp * 2 == y
+                ? source[Math.max(yp - 1, 0) * sourceWidth + xp] * 0.175f + source[yp * sourceWidth + xp] * 0.65f
+                        + source[y2 * sourceWidth + xp] * 0.175f
+                : source[yp * sourceWidth + xp] * 0.5f + source[y2 * sourceWidth + xp] * 0.5f;
+    }
+
+    /**
+     * The union-find hysteresis against the JVM port of the bounded search of the 'hysteresis'
+     * kernel in 'canny.rs' ({@link CannyHysteresisTest}).
+     *
+     * Both run on the JVM, so the timings compare the algorithms and not the kernel on the device:
+     * in 'CannyAlgorithm' the union-find also pays for copying the thinned edges from the device
+     * and the result back, which is not measured here.
+     */
+    private static void benchmarkHysteresis() {
+        final byte[] thinned = CannyHysteresisTest.createThinned(42);
+        final JvmCannyHysteresis hysteresis = new JvmCannyHysteresis(CannyHysteresisTest.WIDTH, CannyHysteresisTest.HEIGHT);
+
+        long unionFindNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                hysteresis.apply(thinned);
+            }
+        });
+        long boundedNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                CannyHysteresisTest.boundedSearch(thinned);
+            }
+        });
+
+        System.out.println(String.format(
+                "bounded search (JVM port): %6.2f ms %7d edges | union-find: %6.2f ms %7d edges | flood fill: %7d edges",
+                boundedNanos / 1e6, CannyHysteresisTest.countEdges(CannyHysteresisTest.boundedSearch(thinned)),
+                unionFindNanos / 1e6, CannyHysteresisTest.countEdges(hysteresis.apply(thinned)),
+                CannyHysteresisTest.countEdges(CannyHysteresisTest.floodFill(thinned))));
+    }
+
+    /**
+     * The Hough voting of {@link JvmHoughTransform} for a growing number of workers, against a
+     * port of the former 'hough' kernel of 'canny.rs' ({@link HoughTransformTest}).
+     */
+    private static void benchmarkHough() {
+        final byte[] edges = HoughTransformTest.createEdges(0.05f);
+
+        long sliceNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                slicedVoting(edges);
+            }
+        });
+        System.out.println(String.format("%d slices over the image: %7.2f ms", HOUGH_SLICES, sliceNanos / 1e6));
+
+        int maxParallelism = Runtime.getRuntime().availableProcessors();
+        for(int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            final JvmHoughTransform hough = new JvmHoughTransform(pool, HoughTransformTest.WIDTH, HoughTransformTest.HEIGHT,
+                    HoughTransformTest.ANGLES, HoughTransformTest.DISTANCES);
+            long nanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    hough.calculate(edges);
+                }
+            });
+            long linesNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    hough.findLines(32, 20);
+                }
+            });
+            System.out.println(String.format("points, %2d workers:    %7.2f ms (%d points), top 32 lines: %5.2f ms",
+                    parallelism, nanos / 1e6, hough.getPointCount(), linesNanos / 1e6));
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Port of the former 'hough' kernel: every slice scans the whole image for its angles.
+     */
+    private static int[] slicedVoting(final byte[] edges) {
+        final int[] accumulator = new int[HoughTransformTest.ANGLES * HoughTransformTest.DISTANCES];
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> slices = new ArrayList<>();
+                for(int slice = 0; slice < HOUGH_SLICES; slice++) {
+                    final int start = slice * HoughTransformTest.ANGLES / HOUGH_SLICES;
+                    final int end = (slice + 1) * HoughTransformTest.ANGLES / HOUGH_SLICES;
+                    slices.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            HoughTransformTest.voteImage(edges, accumulator, start, end);
+                        }
+                    });
+                }
+                invokeAll(slices);
+            }
+        });
+        return accumulator;
+    }
+
+    /**
+     * Frame rate of the sequential and the pipelined Hough stage of 'CannyAlgorithm'
+     * ({@link HoughTransformTest#runSequential} and {@link HoughTransformTest#runPipelined}), with
+     * the Canny front-end standing in for the RenderScript stages. On a single core the pipeline
+     * cannot win, it only overlaps the vote with the next frame.
+     */
+    private static void benchmarkHoughPipeline() {
+        final byte[] rgba = HoughTransformTest.createFrame();
+        final JvmCannyFrontEnd frontEnd = new JvmCannyFrontEnd(HoughTransformTest.WIDTH, HoughTransformTest.HEIGHT);
+        final byte[] edges = HoughTransformTest.createEdges(0.05f);
+
+        // Like 'CannyAlgorithm', the vote runs on its own pool
+        final ForkJoinPool houghPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        final JvmHoughTransform sequential = createHough(houghPool);
+        final JvmHoughTransform[] pipeline = { createHough(houghPool), createHough(houghPool) };
+
+        try {
+            long sequentialNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    HoughTransformTest.runSequential(frontEnd, rgba, edges, sequential, PIPELINE_FRAMES);
+                }
+            });
+            long pipelinedNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        HoughTransformTest.runPipelined(frontEnd, rgba, edges, houghPool, pipeline, PIPELINE_FRAMES);
+                    } catch(Exception e) {
+                        throw new IllegalStateException("Pipelined Hough failed", e);
+                    }
+                }
+            });
+
+            System.out.println(String.format(
+                    "%d cores, sequential: %6.2f ms/frame | pipelined: %6.2f ms/frame (%.2fx frame rate)",
+                    Runtime.getRuntime().availableProcessors(),
+                    sequentialNanos / 1e6 / PIPELINE_FRAMES, pipelinedNanos / 1e6 / PIPELINE_FRAMES,
+                    (double) sequentialNanos / pipelinedNanos));
+        } finally {
+            houghPool.shutdown();
+        }
+    }
+
+    private static JvmHoughTransform createHough(ForkJoinPool pool) {
+        return new JvmHoughTransform(pool, HoughTransformTest.WIDTH, HoughTransformTest.HEIGHT,
+                HoughTransformTest.ANGLES, HoughTransformTest.DISTANCES);
+    }
+
+    /**
+     * The progressive probabilistic Hough transform against the full voting of
+     * {@link JvmHoughTransform} (on a single worker) on an edge-dense scene.
+     */
+    private static void benchmarkProbabilisticHough() {
+        final int width = ProbabilisticHoughTest.WIDTH;
+        final int height = ProbabilisticHoughTest.HEIGHT;
+
+        // Edge-dense scene, e.g. a facade: a grid of long lines and some random lines
+        Random random = new Random(7);
+        int[][] lines = new int[2 * 24 + 40][];
+        int count = 0;
+        for(int c = 0; c < 24; c++) {
+            int y = 10 + c * (height - 20) / 24;
+            int x = 10 + c * (width - 20) / 24;
+            lines[count++] = new int[] { 10, y, width - 10, y };
+            lines[count++] = new int[] { x, 10, x, height - 10 };
+        }
+        while(count < lines.length) {
+            lines[count++] = new int[] {
+                    random.nextInt(width), random.nextInt(height), random.nextInt(width), random.nextInt(height) };
+        }
+        final byte[] edges = ProbabilisticHoughTest.createScene(42, lines);
+
+        ForkJoinPool pool = new ForkJoinPool(1);
+        final JvmHoughTransform full = new JvmHoughTransform(
+                pool, width, height, JvmHoughTransform.DEFAULT_ANGLE_COUNT, JvmHoughTransform.getDistanceCount(width, height));
+        long fullNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                full.calculate(edges);
+                full.findLines(JvmProbabilisticHough.DEFAULT_MAX_SEGMENTS, 60);
+            }
+        });
+        pool.shutdown();
+
+        final JvmProbabilisticHough probabilistic = new JvmProbabilisticHough(width, height, 1);
+        probabilistic.setThreshold(60);
+        probabilistic.setMinLineLength(100);
+        long probabilisticNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                probabilistic.findSegments(edges);
+            }
+        });
+
+        System.out.println(String.format(
+                "full voting (1 worker): %7.2f ms, %d points voted | probabilistic: %7.2f ms, %d of %d points voted, %d segments | %.2fx",
+                fullNanos / 1e6, full.getPointCount(),
+                probabilisticNanos / 1e6, probabilistic.getVotedPointCount(), probabilistic.getPointCount(),
+                probabilistic.findSegments(edges).size(), (double) fullNanos / probabilisticNanos));
+    }
+
+    /**
+     * The fused Canny front-end at 1080p for a growing number of workers, against the port of the
+     * four full-frame passes of 'canny.rs' ({@link CannyFrontEndTest}).
+     */
+    private static void benchmarkCannyFrontEnd() {
+        final int width = 1920;
+        final int height = 1080;
+        final byte[] rgba = CannyFrontEndTest.createFrame(width, height, 7);
+
+        long passesNanos = time(new Runnable() {
+            @Override
+            public void run() {
+                CannyFrontEndTest.fourPasses(rgba, width, height);
+            }
+        });
+
+        int maxParallelism = Runtime.getRuntime().availableProcessors();
+        for(int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            final JvmCannyFrontEnd frontEnd = new JvmCannyFrontEnd(pool, width, height);
+            long fusedNanos = time(new Runnable() {
+                @Override
+                public void run() {
+                    frontEnd.apply(rgba);
+                }
+            });
+            System.out.println(String.format(
+                    "1080p four passes: %7.2f ms, 2 planes of %d KB | fused, %2d workers: %7.2f ms, %d KB per band",
+                    passesNanos / 1e6, width * height / 1024, parallelism, fusedNanos / 1e6,
+                    frontEnd.getBandWorkingSetSize() / 1024));
+            pool.shutdown();
+        }
+    }
+}
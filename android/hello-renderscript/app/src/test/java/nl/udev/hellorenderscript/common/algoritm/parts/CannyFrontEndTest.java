@@ -0,0 +1,215 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the fused Canny front-end with a port of the four full-frame passes of 'canny.rs'
+ * ('getLum', 'blur_uchar', 'edge', 'thin' with the launch ranges of 'CannyAlgorithm'). The
+ * timings of both are in {@link Benchmarks}.
+ */
+public class CannyFrontEndTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void matchesFourPasses() throws Exception {
+        byte[] rgba = createFrame(WIDTH, HEIGHT, 42);
+        byte[] expected = fourPasses(rgba, WIDTH, HEIGHT);
+
+        for(int parallelism : new int[] { 1, 3, 4 }) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            JvmCannyFrontEnd frontEnd = new JvmCannyFrontEnd(pool, WIDTH, HEIGHT);
+            assertArrayEquals(expected, frontEnd.apply(rgba));
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void matchesFourPassesOnSmallImages() throws Exception {
+        // Bands smaller than the halo and images just above the margins
+        for(int size : new int[] { 9, 10, 17, 33 }) {
+            byte[] rgba = createFrame(size + 3, size, size);
+            JvmCannyFrontEnd frontEnd = new JvmCannyFrontEnd(new ForkJoinPool(4), size + 3, size);
+            assertArrayEquals(fourPasses(rgba, size + 3, size), frontEnd.apply(rgba));
+        }
+    }
+
+    @Test
+    public void directionMatchesAtan2() throws Exception {
+        // No gradient: atan2(0, 0) is 0
+        assertEquals(0, JvmCannyFrontEnd.direction(0, 0));
+        assertEquals(0, JvmCannyFrontEnd.edgeValue(0, 0));
+
+        for(int sumV = -50; sumV <= 50; sumV++) {
+            for(int sumH = -50; sumH <= 50; sumH++) {
+                int expected = (int) (4 * (float) (Math.atan2(sumV, sumH) / Math.PI) + 8.5f) & 0x3;
+                assertEquals(expected, JvmCannyFrontEnd.direction(sumV, sumH));
+            }
+        }
+    }
+
+    @Test
+    public void findsEdges() throws Exception {
+        byte[] output = new JvmCannyFrontEnd(WIDTH, HEIGHT).apply(createFrame(WIDTH, HEIGHT, 1));
+        int edges = 0;
+        for(byte value : output) {
+            if(value != 0) {
+                edges++;
+            }
+        }
+        assertTrue(edges > 0);
+    }
+
+    /**
+     * Port of the four kernels as full-frame passes over the ping-pong buffers, literally.
+     */
+    static byte[] fourPasses(byte[] rgba, int width, int height) {
+        byte[] edgeImage = new byte[width * height];
+        byte[] blurImage = new byte[width * height];
+
+        // getLum: capture -> edgeImage
+        for(int index = 0; index < width * height; index++) {
+            edgeImage[index] = (byte) (((rgba[index * 4] & 0xFF) + (rgba[index * 4 + 1] & 0xFF) + (rgba[index * 4 + 2] & 0xFF)) / 3);
+        }
+
+        // blur_uchar: edgeImage -> blurImage
+        int[] weights = {
+                2, 4, 5, 4, 2,
+                4, 9, 12, 9, 4,
+                5, 12, 15, 12, 5,
+                4, 9, 12, 9, 4,
+                2, 4, 5, 4, 2 };
+        for(int y = 2; y < height - 2; y++) {
+            for(int x = 2; x < width - 2; x++) {
+                int sum = 0;
+                for(int ky = 0; ky < 5; ky++) {
+                    for(int kx = 0; kx < 5; kx++) {
+                        sum += weights[ky * 5 + kx] * (edgeImage[(y - 2 + ky) * width + x - 2 + kx] & 0xFF);
+                    }
+                }
+                blurImage[y * width + x] = (byte) (sum / 159);
+            }
+        }
+
+        // edge: blurImage -> edgeImage, statement by statement as in the kernel
+        for(int y = 3; y < height - 3; y++) {
+            for(int xIn = 3; xIn < width - 3; xIn++) {
+                int x = xIn;
+                int sumH = 0;
+                int x1 = x - 1;
+                int y1 = y - 1;
+                sumH += -get(blurImage, width, x1, y1);
+                x += 2;
+                sumH += get(blurImage, width, x1, y1);
+                x1 = x - 1;
+                y1++;
+
+                sumH += -2 * get(blurImage, width, x1, y1);
+                x1 += 2;
+                sumH += 2 * get(blurImage, width, x1, y1);
+                x1 = x - 1;
+                y1++;
+
+                sumH += -get(blurImage, width, x1, y1);
+                x1 += 2;
+                sumH += get(blurImage, width, x1, y1);
+                int sumV = 0;
+
+                x1 = x - 1;
+                y1 = y - 1;
+                sumV += -get(blurImage, width, x1++, y1);
+                sumV += -2 * get(blurImage, width, x1++, y1);
+                sumV += -get(blurImage, width, x1++, y1);
+
+                x1 = x - 1;
+                y1 += 2;
+                sumV += get(blurImage, width, x1++, y1);
+                sumV += 2 * get(blurImage, width, x1++, y1);
+                sumV += get(blurImage, width, x1++, y1);
+
+                int v = (int) (float) Math.sqrt((float) sumV * sumV + (float) sumH * sumH);
+                v = v & (~3);
+                int dir = (int) (4 * (float) (Math.atan2(sumV, sumH) / Math.PI) + 8.5f);
+                edgeImage[y * width + xIn] = (byte) (v + (dir & 0x3));
+            }
+        }
+
+        // thin: edgeImage -> blurImage, the margin keeps the blur values of before
+        int[] dx = { 1, 1, 0, 1 };
+        int[] dy = { 0, 1, 1, -1 };
+        for(int y = 4; y < height - 4; y++) {
+            for(int x = 4; x < width - 4; x++) {
+                int value = get(edgeImage, width, x, y);
+                int dir = value & 0x3;
+                if(value < get(edgeImage, width, x + dx[dir], y + dy[dir])
+                        || value < get(edgeImage, width, x - dx[dir], y - dy[dir])) {
+                    blurImage[y * width + x] = 0;
+                } else {
+                    blurImage[y * width + x] = (byte) (value >> 2);
+                }
+            }
+        }
+
+        // Only the thinned part is the output, like the margin of the hysteresis
+        byte[] thinned = new byte[width * height];
+        for(int y = 4; y < height - 4; y++) {
+            System.arraycopy(blurImage, y * width + 4, thinned, y * width + 4, width - 8);
+        }
+        return thinned;
+    }
+
+    private static int get(byte[] image, int width, int x, int y) {
+        return image[y * width + x] & 0xFF;
+    }
+
+    /**
+     * Random rectangles and circles on a gradient with some noise, as RGBA.
+     */
+    static byte[] createFrame(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] lum = new int[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                lum[y * width + x] = (x * 96 / width) + (y * 64 / height);
+            }
+        }
+        for(int shape = 0; shape < 40; shape++) {
+            int cx = random.nextInt(width);
+            int cy = random.nextInt(height);
+            int radius = 2 + random.nextInt(Math.max(1, width / 8));
+            int value = random.nextInt(256);
+            boolean circle = random.nextBoolean();
+            for(int y = Math.max(0, cy - radius); y < Math.min(height, cy + radius); y++) {
+                for(int x = Math.max(0, cx - radius); x < Math.min(width, cx + radius); x++) {
+                    if(!circle || (x - cx) * (x - cx) + (y - cy) * (y - cy) < radius * radius) {
+                        lum[y * width + x] = value;
+                    }
+                }
+            }
+        }
+
+        byte[] rgba = new byte[width * height * 4];
+        for(int index = 0; index < width * height; index++) {
+            for(int channel = 0; channel < 3; channel++) {
+                int value = lum[index] + random.nextInt(9) - 4 + channel * 7;
+                rgba[index * 4 + channel] = (byte) Math.max(0, Math.min(255, value));
+            }
+            rgba[index * 4 + 3] = (byte) 255;
+        }
+        return rgba;
+    }
+
+    private static void assertArrayEquals(byte[] expected, byte[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int c = 0; c < expected.length; c++) {
+            assertEquals(expected[c], actual[c]);
+        }
+    }
+}
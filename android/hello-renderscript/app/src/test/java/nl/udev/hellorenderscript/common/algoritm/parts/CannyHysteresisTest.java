@@ -0,0 +1,209 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the union-find hysteresis with a flood fill from the strong edges, and with a JVM
+ * port of the bounded search of the 'hysteresis' kernel in 'canny.rs' which loses long weak
+ * chains. The timings are in {@link Benchmarks}.
+ */
+public class CannyHysteresisTest {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+
+    private static final int DARK = JvmCannyHysteresis.DEFAULT_DARK_THRESHOLD;
+    private static final int BRIGHT = JvmCannyHysteresis.DEFAULT_BRIGHT_THRESHOLD;
+    private static final int MARGIN = JvmCannyHysteresis.DEFAULT_MARGIN;
+
+    // Limits of the kernel: +-5 pixel window, queue of 64 entries, gives up above 60
+    private static final int KERNEL_WINDOW = 5;
+    private static final int KERNEL_QUEUE_SIZE = 64;
+    private static final int KERNEL_MAX_QUEUED = 60;
+
+    @Test
+    public void matchesFloodFill() throws Exception {
+        JvmCannyHysteresis hysteresis = new JvmCannyHysteresis(WIDTH, HEIGHT);
+
+        for(int seed = 0; seed < 5; seed++) {
+            byte[] thinned = createThinned(seed);
+            assertArrayEquals(floodFill(thinned), hysteresis.apply(thinned));
+        }
+    }
+
+    @Test
+    public void keepsLongWeakChains() throws Exception {
+        // Weak rows and columns joined to one long chain, with a single strong pixel at its start
+        byte[] thinned = new byte[WIDTH * HEIGHT];
+        int x = MARGIN, y = MARGIN;
+        for(int ring = 0; x < WIDTH / 2 && y < HEIGHT / 2; ring += 4) {
+            for(x = MARGIN + ring; x < WIDTH - MARGIN - ring; x++) {
+                thinned[(MARGIN + ring) * WIDTH + x] = (byte) DARK;
+            }
+            x--;
+            for(y = MARGIN + ring; y < HEIGHT - MARGIN - ring; y++) {
+                thinned[y * WIDTH + x] = (byte) DARK;
+            }
+        }
+        thinned[MARGIN * WIDTH + MARGIN] = (byte) BRIGHT;
+        int edgeCount = countEdges(thinned);
+
+        byte[] output = new JvmCannyHysteresis(WIDTH, HEIGHT).apply(thinned);
+        assertArrayEquals(floodFill(thinned), output);
+        assertEquals(edgeCount, countEdges(output));
+
+        // The bounded search only keeps the pixels close to the strong pixel
+        assertTrue(countEdges(boundedSearch(thinned)) < edgeCount / 10);
+    }
+
+    /**
+     * Reference: flood fill from every strong pixel over the weak pixels.
+     */
+    static byte[] floodFill(byte[] thinned) {
+        byte[] output = new byte[WIDTH * HEIGHT];
+        boolean[] visited = new boolean[WIDTH * HEIGHT];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+
+        for(int index = 0; index < thinned.length; index++) {
+            if(isInside(index) && (thinned[index] & 0xFF) >= BRIGHT && !visited[index]) {
+                visited[index] = true;
+                queue.add(index);
+            }
+            while(!queue.isEmpty()) {
+                int current = queue.poll();
+                output[current] = thinned[current];
+                int cx = current % WIDTH;
+                int cy = current / WIDTH;
+                for(int dy = -1; dy <= 1; dy++) {
+                    for(int dx = -1; dx <= 1; dx++) {
+                        int neighbour = (cy + dy) * WIDTH + cx + dx;
+                        if(isInside(cx + dx, cy + dy) && !visited[neighbour] && (thinned[neighbour] & 0xFF) >= DARK) {
+                            visited[neighbour] = true;
+                            queue.add(neighbour);
+                        }
+                    }
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Port of the 'hysteresis' kernel: a bounded search from every weak pixel, with a linear
+     * duplicate scan of the queue.
+     */
+    static byte[] boundedSearch(byte[] thinned) {
+        byte[] output = new byte[WIDTH * HEIGHT];
+        int[] queueX = new int[KERNEL_QUEUE_SIZE];
+        int[] queueY = new int[KERNEL_QUEUE_SIZE];
+
+        for(int y = MARGIN; y < HEIGHT - MARGIN; y++) {
+            for(int x = MARGIN; x < WIDTH - MARGIN; x++) {
+                int value = thinned[y * WIDTH + x] & 0xFF;
+                if(value >= BRIGHT) {
+                    output[y * WIDTH + x] = (byte) value;
+                } else if(value >= DARK && boundedSearchFindsStrong(thinned, x, y, queueX, queueY)) {
+                    output[y * WIDTH + x] = (byte) value;
+                }
+            }
+        }
+        return output;
+    }
+
+    private static boolean boundedSearchFindsStrong(byte[] thinned, int x, int y, int[] queueX, int[] queueY) {
+        int queued = 1;
+        int head = 0;
+        queueX[0] = 0;
+        queueY[0] = 0;
+
+        while(head < queued) {
+            if(queued > KERNEL_MAX_QUEUED) {
+                return false;
+            }
+            int cdx = queueX[head];
+            int cdy = queueY[head];
+            head++;
+
+            for(int dy = -1; dy <= 1; dy++) {
+                for(int dx = -1; dx <= 1; dx++) {
+                    int tx = cdx + dx;
+                    int ty = cdy + dy;
+                    if((dx == 0 && dy == 0) || Math.abs(tx) > KERNEL_WINDOW || Math.abs(ty) > KERNEL_WINDOW
+                            || !isInside(x + tx, y + ty)) {
+                        continue;
+                    }
+                    boolean duplicate = false;
+                    for(int k = 0; k < queued; k++) {
+                        if(queueX[k] == tx && queueY[k] == ty) {
+                            duplicate = true;
+                            break;
+                        }
+                    }
+                    if(duplicate) {
+                        continue;
+                    }
+                    int value = thinned[(y + ty) * WIDTH + x + tx] & 0xFF;
+                    if(value >= BRIGHT) {
+                        return true;
+                    }
+                    if(value >= DARK && queued < KERNEL_QUEUE_SIZE) {
+                        queueX[queued] = tx;
+                        queueY[queued] = ty;
+                        queued++;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInside(int index) {
+        return isInside(index % WIDTH, index / WIDTH);
+    }
+
+    private static boolean isInside(int x, int y) {
+        return x >= MARGIN && x < WIDTH - MARGIN && y >= MARGIN && y < HEIGHT - MARGIN;
+    }
+
+    static int countEdges(byte[] buffer) {
+        int count = 0;
+        for(byte value : buffer) {
+            if(value != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Random thinned edges: mostly no edge, some weak and a few strong edges (values of 'thin' are 0..63).
+     */
+    static byte[] createThinned(long seed) {
+        Random random = new Random(seed);
+        byte[] thinned = new byte[WIDTH * HEIGHT];
+        for(int c = 0; c < thinned.length; c++) {
+            float p = random.nextFloat();
+            if(p < 0.03f) {
+                thinned[c] = (byte) (BRIGHT + random.nextInt(64 - BRIGHT));
+            } else if(p < 0.35f) {
+                thinned[c] = (byte) (DARK + random.nextInt(BRIGHT - DARK));
+            } else {
+                thinned[c] = (byte) random.nextInt(DARK);
+            }
+        }
+        return thinned;
+    }
+
+    private static void assertArrayEquals(byte[] expected, byte[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int c = 0; c < expected.length; c++) {
+            assertEquals(expected[c], actual[c]);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the fused edge kernel gives the same outputs as the separate vector + conversion
+ * passes. The timings are compared by {@link Benchmarks}.
+ */
+public class EdgeDetectionFusionTest {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+    private static final int KERNEL_SIZE = 7;
+
+    @Test
+    public void fusedMatchesSeparatePasses() throws Exception {
+        float[] intensity = createIntensity();
+
+        JvmEdgeDetection fused = createEdgeDetection();
+        fused.setFusionEnabled(true);
+        JvmEdgeDetection separate = createEdgeDetection();
+
+        EnumSet<EdgeOutput> all = EnumSet.allOf(EdgeOutput.class);
+        fused.calcEdges(intensity, all);
+        separate.calcEdges(intensity, all);
+
+        assertArrayEquals(separate.getEdgeVectorsBuffer(), fused.getEdgeVectorsBuffer());
+        assertArrayEquals(separate.getEdgePolarVectorsBuffer(), fused.getEdgePolarVectorsBuffer());
+        assertArrayEquals(separate.getEdgeMagnitudesBuffer(), fused.getEdgeMagnitudesBuffer());
+    }
+
+    static JvmEdgeDetection createEdgeDetection() {
+        JvmEdgeDetection edgeDetection = new JvmEdgeDetection(WIDTH, HEIGHT, KERNEL_SIZE);
+        edgeDetection.setFftCrossoverKernelSize(Integer.MAX_VALUE);
+        return edgeDetection;
+    }
+
+    static float[] createIntensity() {
+        Random random = new Random(42);
+        float[] intensity = new float[WIDTH * HEIGHT];
+        for(int c = 0; c < intensity.length; c++) {
+            intensity[c] = random.nextFloat();
+        }
+        return intensity;
+    }
+
+    private static void assertArrayEquals(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int c = 0; c < expected.length; c++) {
+            assertEquals(expected[c], actual[c], 0.0f);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import nl.udev.hellorenderscript.common.algoritm.parts.JvmEdgeDetection.KernelImplementation;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the LANES implementation of the direct vector kernel gives the same outputs as the
+ * SCALAR one. The timings are compared by {@link Benchmarks}.
+ */
+public class EdgeDetectionLanesTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void lanesMatchScalar() throws Exception {
+        float[] intensity = createIntensity();
+        EnumSet<EdgeOutput> all = EnumSet.allOf(EdgeOutput.class);
+
+        for(int kernelSize : new int[] { 1, 3, 5, 9, 13 }) {
+            JvmEdgeDetection scalar = createEdgeDetection(ForkJoinPool.commonPool(), kernelSize, KernelImplementation.SCALAR);
+            JvmEdgeDetection lanes = createEdgeDetection(ForkJoinPool.commonPool(), kernelSize, KernelImplementation.LANES);
+
+            scalar.calcEdges(intensity, all);
+            lanes.calcEdges(intensity, all);
+            assertArrayEquals(scalar.getEdgeVectorsBuffer(), lanes.getEdgeVectorsBuffer());
+            assertArrayEquals(scalar.getEdgePolarVectorsBuffer(), lanes.getEdgePolarVectorsBuffer());
+            assertArrayEquals(scalar.getEdgeMagnitudesBuffer(), lanes.getEdgeMagnitudesBuffer());
+
+            scalar.calcEdgeVectors(intensity);
+            lanes.calcEdgeVectors(intensity);
+            assertArrayEquals(scalar.getEdgeVectorsBuffer(), lanes.getEdgeVectorsBuffer());
+        }
+    }
+
+    static JvmEdgeDetection createEdgeDetection(ForkJoinPool pool,
+                                                int kernelSize,
+                                                KernelImplementation implementation) {
+        JvmEdgeDetection edgeDetection = new JvmEdgeDetection(pool, WIDTH, HEIGHT, kernelSize);
+        edgeDetection.setFftCrossoverKernelSize(Integer.MAX_VALUE);
+        edgeDetection.setAmplification(3.0f);
+        edgeDetection.setKernelImplementation(implementation);
+        return edgeDetection;
+    }
+
+    static float[] createIntensity() {
+        Random random = new Random(42);
+        float[] intensity = new float[WIDTH * HEIGHT];
+        for(int c = 0; c < intensity.length; c++) {
+            intensity[c] = random.nextFloat();
+        }
+        return intensity;
+    }
+
+    private static void assertArrayEquals(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int c = 0; c < expected.length; c++) {
+            assertEquals(expected[c], actual[c], 0.0f);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Accuracy harness for the compact edge storage precisions.
+ *
+ * The F32 outputs are the reference, the compact outputs are what RenderScript stores (the
+ * kernels calculate in F32 and only round when storing, see 'edgestorage.rsh').
+ *
+ * Recorded frames are read from the directory in the system property 'edgeStorage.frames' as
+ * 8 bit binary PGM (P5) images, without it a set of synthetic frames is used.
+ */
+public class EdgeStorageAccuracyTest {
+
+    private static final String FRAMES_PROPERTY = "edgeStorage.frames";
+    private static final int KERNEL_SIZE = 5;
+    private static final float AMPLIFICATION = 7.0f;
+
+    @Test
+    public void halfConversion() throws Exception {
+        assertEquals(0x3c00, EdgeStorageCodec.floatToHalf(1.0f) & 0xffff);
+        assertEquals(0xc000, EdgeStorageCodec.floatToHalf(-2.0f) & 0xffff);
+        assertEquals(0x7bff, EdgeStorageCodec.floatToHalf(65504.0f) & 0xffff);
+        assertEquals(0x7c00, EdgeStorageCodec.floatToHalf(1e6f) & 0xffff);
+        assertEquals(0x0001, EdgeStorageCodec.floatToHalf(5.96e-8f) & 0xffff);
+        assertEquals(0x0000, EdgeStorageCodec.floatToHalf(1e-9f) & 0xffff);
+
+        // All half values survive a round trip
+        for(int bits = 0; bits < 0x7c00; bits++) {
+            float value = EdgeStorageCodec.halfToFloat((short) bits);
+            assertEquals(bits, EdgeStorageCodec.floatToHalf(value) & 0xffff);
+        }
+    }
+
+    @Test
+    public void compactStorageMatchesReference() throws Exception {
+
+        for(Frame frame : loadFrames()) {
+            JvmEdgeDetection edgeDetection = new JvmEdgeDetection(frame.width, frame.height, KERNEL_SIZE);
+            edgeDetection.setAmplification(AMPLIFICATION);
+            edgeDetection.calcEdges(frame.intensity, EnumSet.allOf(EdgeOutput.class));
+
+            for(StoragePrecision precision : new StoragePrecision[] { StoragePrecision.F16, StoragePrecision.I16_NORMALIZED }) {
+                Errors errors = measure(edgeDetection, precision);
+
+                System.out.println(String.format(
+                        "%-12s %-14s vector %.2e  magnitude %.2e  angle %.2e rad  plot changes %.3f%%",
+                        frame.name, precision,
+                        errors.vector, errors.magnitude, errors.angle, 100.0 * errors.plotChanges));
+
+                // Errors relative to the range (the amplification)
+                float limit = precision == StoragePrecision.F16 ? 1e-3f : 2e-5f;
+                float angleLimit = precision == StoragePrecision.F16 ? 2e-3f : 1e-4f;
+                assertTrue(frame.name + " vector error", errors.vector <= limit);
+                assertTrue(frame.name + " magnitude error", errors.magnitude <= limit);
+                assertTrue(frame.name + " angle error", errors.angle <= angleLimit);
+            }
+        }
+    }
+
+    private static Errors measure(JvmEdgeDetection edgeDetection, StoragePrecision precision) {
+
+        float range = AMPLIFICATION;
+        float[] vectors = edgeDetection.getEdgeVectorsBuffer();
+        float[] polar = edgeDetection.getEdgePolarVectorsBuffer();
+        float[] magnitudes = edgeDetection.getEdgeMagnitudesBuffer();
+        Errors errors = new Errors();
+        int plotChanges = 0;
+
+        for(int i = 0; i < magnitudes.length; i++) {
+            for(int c = 0; c < 2; c++) {
+                float vector = vectors[i * 2 + c];
+                errors.vector = Math.max(errors.vector,
+                        Math.abs(EdgeStorageCodec.roundTrip(vector, precision, range) - vector) / range);
+            }
+
+            float magnitude = magnitudes[i];
+            errors.magnitude = Math.max(errors.magnitude,
+                    Math.abs(EdgeStorageCodec.roundTrip(magnitude, precision, range) - magnitude) / range);
+
+            float angle = polar[i * 2];
+            float storedAngle = EdgeStorageCodec.roundTrip(angle, precision, (float) Math.PI);
+            float storedMagnitude = EdgeStorageCodec.roundTrip(polar[i * 2 + 1], precision, range);
+
+            // The angle of very short vectors is noise
+            if(magnitude > 0.01f * range) {
+                errors.angle = Math.max(errors.angle, Math.abs(storedAngle - angle));
+            }
+
+            // Same quantization as plotting.rs (360 colors, 8 bit brightness), a step of one
+            // color or brightness level happens for any rounding near a boundary so is ignored
+            int angleSteps = Math.abs(plotAngle(angle) - plotAngle(storedAngle));
+            int brightnessSteps = Math.abs(plotBrightness(polar[i * 2 + 1]) - plotBrightness(storedMagnitude));
+            if(Math.min(angleSteps, 360 - angleSteps) > 1 || brightnessSteps > 1) {
+                plotChanges++;
+            }
+        }
+
+        errors.plotChanges = plotChanges / (float) magnitudes.length;
+        return errors;
+    }
+
+    private static int plotAngle(float angle) {
+        return Math.min(359, (int) (Math.toDegrees(angle) + 180));
+    }
+
+    private static int plotBrightness(float magnitude) {
+        return (int) (Math.min(1.0f, magnitude) * 255.0f + 0.5f);
+    }
+
+    private static List<Frame> loadFrames() throws IOException {
+        List<Frame> frames = new ArrayList<>();
+
+        String directory = System.getProperty(FRAMES_PROPERTY);
+        if(directory != null) {
+            File[] files = new File(directory).listFiles();
+            if(files != null) {
+                for(File file : files) {
+                    if(file.getName().endsWith(".pgm")) {
+                        frames.add(readPgm(file));
+                    }
+                }
+            }
+        }
+
+        if(frames.isEmpty()) {
+            frames.add(createSyntheticFrame("shapes", 320, 240, 0.0f));
+            frames.add(createSyntheticFrame("noisy", 320, 240, 0.1f));
+        }
+
+        return frames;
+    }
+
+    private static Frame createSyntheticFrame(String name, int width, int height, float noise) {
+        Random random = new Random(name.hashCode());
+        float[] intensity = new float[width * height];
+
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                // Horizontal ramp, a bright disc and a dark square
+                float value = 0.25f + 0.5f * x / width;
+                float dx = x - width * 0.3f;
+                float dy = y - height * 0.5f;
+                if(dx * dx + dy * dy < (height * 0.25f) * (height * 0.25f)) {
+                    value = 0.9f;
+                }
+                if(x > width * 0.6f && x < width * 0.85f && y > height * 0.2f && y < height * 0.6f) {
+                    value = 0.05f;
+                }
+                value += noise * (random.nextFloat() - 0.5f);
+                intensity[y * width + x] = Math.max(0.0f, Math.min(1.0f, value));
+            }
+        }
+
+        return new Frame(name, width, height, intensity);
+    }
+
+    private static Frame readPgm(File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            if(!"P5".equals(readPgmToken(input))) {
+                throw new IOException("Not a binary PGM: " + file);
+            }
+            int width = Integer.parseInt(readPgmToken(input));
+            int height = Integer.parseInt(readPgmToken(input));
+            int maxValue = Integer.parseInt(readPgmToken(input));
+            if(maxValue > 255) {
+                throw new IOException("Only 8 bit PGM is supported: " + file);
+            }
+
+            float[] intensity = new float[width * height];
+            for(int c = 0; c < intensity.length; c++) {
+                int value = input.read();
+                if(value < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                intensity[c] = value / (float) maxValue;
+            }
+
+            return new Frame(file.getName(), width, height, intensity);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String readPgmToken(InputStream input) throws IOException {
+        StringBuilder token = new StringBuilder();
+        int value;
+
+        while((value = input.read()) >= 0) {
+            if(value == '#') {
+                // Comment until the end of the line
+                while(value >= 0 && value != '\n') {
+                    value = input.read();
+                }
+            } else if(Character.isWhitespace(value)) {
+                if(token.length() > 0) {
+                    break;
+                }
+            } else {
+                token.append((char) value);
+            }
+        }
+
+        return token.toString();
+    }
+
+    private static class Frame {
+        final String name;
+        final int width;
+        final int height;
+        final float[] intensity;
+
+        Frame(String name, int width, int height, float[] intensity) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.intensity = intensity;
+        }
+    }
+
+    private static class Errors {
+        float vector;
+        float magnitude;
+        float angle;
+        float plotChanges;
+    }
+}
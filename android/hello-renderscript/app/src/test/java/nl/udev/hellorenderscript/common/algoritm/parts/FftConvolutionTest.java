@@ -0,0 +1,110 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the FFT path of the vector kernel gives the same edge vectors as the direct kernel.
+ */
+public class FftConvolutionTest {
+
+    // Not 2/3/5-smooth, so the transforms are larger than the image
+    private static final int WIDTH = 211;
+    private static final int HEIGHT = 157;
+
+    /**
+     * Maximal difference relative to the largest vector component, float rounding of the transforms.
+     */
+    private static final float TOLERANCE = 1e-5f;
+
+    @Test
+    public void fftMatchesDirectKernel() throws Exception {
+        float[] intensity = createIntensity();
+
+        for(int kernelSize : new int[] { 3, 5, 9, 15, 19 }) {
+            JvmEdgeDetection direct = createEdgeDetection(kernelSize, Integer.MAX_VALUE);
+            JvmEdgeDetection fft = createEdgeDetection(kernelSize, 1);
+
+            float[] expected = direct.calcEdgeVectors(intensity).clone();
+            float[] actual = fft.calcEdgeVectors(intensity);
+
+            float maxValue = 0.0f;
+            float maxDifference = 0.0f;
+            for(int c = 0; c < expected.length; c++) {
+                maxValue = Math.max(maxValue, Math.abs(expected[c]));
+                maxDifference = Math.max(maxDifference, Math.abs(expected[c] - actual[c]));
+            }
+            assertTrue("Kernel " + kernelSize + " differs " + maxDifference + " of " + maxValue,
+                    maxValue > 0.0f && maxDifference <= TOLERANCE * maxValue);
+        }
+    }
+
+    @Test
+    public void fftKeepsBorderZero() throws Exception {
+        float[] intensity = createIntensity();
+        int kernelSize = 9;
+        int radius = kernelSize / 2;
+        float[] vectors = createEdgeDetection(kernelSize, 1).calcEdgeVectors(intensity);
+
+        // Like the direct kernel, the pixels where the kernel does not fit the image are 0
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                if(x < radius || y < radius || x >= WIDTH - radius || y >= HEIGHT - radius) {
+                    int index = (y * WIDTH + x) * 2;
+                    assertTrue(vectors[index] == 0.0f && vectors[index + 1] == 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void spectrumCacheIsBounded() throws Exception {
+        FftConvolution fftConvolution = new FftConvolution(ForkJoinPool.commonPool(), WIDTH, HEIGHT);
+        fftConvolution.release();
+        long baseBytes = FftConvolution.getCachedSpectrumBytes();
+        long spectrumBytes = fftConvolution.getBufferBytes();
+
+        float[] intensity = createIntensity();
+        float[] vectors = new float[WIDTH * HEIGHT * 2];
+        for(int kernelSize = 3; kernelSize <= 15; kernelSize += 2) {
+            fftConvolution.applyVectorKernel(intensity, kernelSize, 1.0f, vectors);
+        }
+        long cachedBytes = FftConvolution.getCachedSpectrumBytes();
+        assertTrue(cachedBytes <= FftConvolution.MAX_CACHED_SPECTRUM_BYTES || cachedBytes == spectrumBytes);
+        assertTrue(cachedBytes - baseBytes <= 4 * spectrumBytes);
+
+        fftConvolution.release();
+        assertTrue(FftConvolution.getCachedSpectrumBytes() <= baseBytes);
+    }
+
+    private static JvmEdgeDetection createEdgeDetection(int kernelSize, int fftCrossoverKernelSize) {
+        JvmEdgeDetection edgeDetection = new JvmEdgeDetection(ForkJoinPool.commonPool(), WIDTH, HEIGHT, kernelSize);
+        edgeDetection.setFftCrossoverKernelSize(fftCrossoverKernelSize);
+        edgeDetection.setAmplification(2.0f);
+        return edgeDetection;
+    }
+
+    /**
+     * A bright disc on a gradient with noise.
+     */
+    private static float[] createIntensity() {
+        Random random = new Random(42);
+        float[] intensity = new float[WIDTH * HEIGHT];
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                float value = 0.3f * x / WIDTH + 0.2f * y / HEIGHT + 0.05f * random.nextFloat();
+                int dx = x - WIDTH / 3;
+                int dy = y - HEIGHT / 2;
+                if(dx * dx + dy * dy < 40 * 40) {
+                    value += 0.4f;
+                }
+                intensity[y * WIDTH + x] = value;
+            }
+        }
+        return intensity;
+    }
+}
@@ -0,0 +1,100 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the temporal access and the reference rotation of the frame ring.
+ */
+public class FrameRingTest {
+
+    @Test
+    public void writeInPlaceAndAdvance() throws Exception {
+        FrameRing<float[]> ring = new FrameRing<>(createFrames(4));
+
+        for(int frame = 0; frame < 10; frame++) {
+            float[] next = ring.getNextFrame();
+            next[0] = frame;
+            assertSame(next, ring.advance());
+        }
+
+        // Newest frame is 9, oldest 6
+        for(int age = 0; age < 4; age++) {
+            assertEquals(9 - age, ring.getNewest(age)[0], 0.0f);
+            assertEquals(6 + age, ring.get(age)[0], 0.0f);
+        }
+        assertSame(ring.get(0), ring.getNextFrame());
+    }
+
+    @Test
+    public void swapInDoesNotCopy() throws Exception {
+        List<float[]> frames = createFrames(3);
+        FrameRing<float[]> ring = new FrameRing<>(frames);
+
+        float[] produced = new float[1];
+        List<float[]> added = new ArrayList<>();
+        for(int frame = 0; frame < 5; frame++) {
+            produced[0] = frame;
+            added.add(produced);
+            produced = ring.swapIn(produced);
+        }
+
+        // The ring holds the produced buffers themselves, the caller got the dropped ones back
+        assertSame(added.get(4), ring.getNewest(0));
+        assertSame(added.get(3), ring.getNewest(1));
+        assertSame(added.get(2), ring.getNewest(2));
+        assertSame(added.get(1), produced);
+
+        int count = 0;
+        for(float[] frame : ring) {
+            assertTrue(added.contains(frame));
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void resetForgetsFrames() throws Exception {
+        FrameRing<float[]> ring = new FrameRing<>(createFrames(5));
+
+        for(int frame = 0; frame < 7; frame++) {
+            ring.advance();
+        }
+        assertEquals(5, ring.getFilledCount());
+        assertTrue(ring.isFilled(4));
+
+        ring.reset();
+        assertEquals(0, ring.getFilledCount());
+        assertFalse(ring.isFilled(0));
+
+        ring.advance();
+        ring.advance();
+        assertTrue(ring.isFilled(1));
+        assertFalse(ring.isFilled(2));
+    }
+
+    @Test
+    public void ageOutsideRing() throws Exception {
+        FrameRing<float[]> ring = new FrameRing<>(createFrames(3));
+        try {
+            ring.getNewest(3);
+            fail("Age 3 is outside a ring of 3 frames");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    private static List<float[]> createFrames(int count) {
+        float[][] frames = new float[count][1];
+        return Arrays.asList(frames);
+    }
+}
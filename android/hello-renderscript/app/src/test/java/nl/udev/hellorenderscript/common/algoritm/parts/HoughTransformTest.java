@@ -0,0 +1,263 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the parallel Hough voting against a scalar reference, for a few numbers of workers.
+ * Also checks that the line extraction finds drawn lines, and that the pipelined Hough stage of
+ * 'CannyAlgorithm' finds the same lines as the sequential one. The timings (scaling against the
+ * former 'hough' kernel of 'canny.rs', frame rate of the pipeline) are in {@link Benchmarks}.
+ */
+public class HoughTransformTest {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+
+    static final int ANGLES = JvmHoughTransform.DEFAULT_ANGLE_COUNT;
+    static final int DISTANCES = JvmHoughTransform.getDistanceCount(WIDTH, HEIGHT);
+
+    // Cos / sin per angle row, like the former 'cos_sin' of 'canny.rs'
+    private static final float[] COS = new float[ANGLES];
+    private static final float[] SIN = new float[ANGLES];
+
+    static {
+        for(int angle = 0; angle < ANGLES; angle++) {
+            COS[angle] = (float) Math.cos(Math.PI * angle / ANGLES);
+            SIN[angle] = (float) Math.sin(Math.PI * angle / ANGLES);
+        }
+    }
+
+    @Test
+    public void matchesScalarReference() throws Exception {
+        byte[] edges = createEdges(0.05f);
+        int[] expected = scalarReference(edges);
+
+        for(int parallelism : new int[] { 1, 3, 4 }) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            JvmHoughTransform hough = new JvmHoughTransform(pool, WIDTH, HEIGHT, ANGLES, DISTANCES);
+            assertArrayEquals(expected, hough.calculate(edges));
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void exactCountsAtHighDensity() throws Exception {
+        byte[] edges = createEdges(1.0f);
+        JvmHoughTransform hough = new JvmHoughTransform(WIDTH, HEIGHT);
+
+        int[] accumulator = hough.calculate(edges);
+        assertEquals(WIDTH * HEIGHT, hough.getPointCount());
+        assertArrayEquals(scalarReference(edges), accumulator);
+
+        // Each point votes once per angle (the distances all fit), far beyond a uchar
+        long votes = 0;
+        int maxVotes = 0;
+        for(int value : accumulator) {
+            votes += value;
+            maxVotes = Math.max(maxVotes, value);
+        }
+        assertEquals((long) WIDTH * HEIGHT * ANGLES, votes);
+        assertTrue(maxVotes > 255);
+    }
+
+    @Test
+    public void findsDrawnLines() throws Exception {
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        // Horizontal line 100 pixels above the center: theta 90 degrees, rho -100
+        for(int x = 20; x < WIDTH - 20; x++) {
+            edges[(HEIGHT / 2 - 100) * WIDTH + x] = 63;
+        }
+        // Vertical line 150 pixels right of the center: theta 0 degrees, rho 150
+        for(int y = 20; y < HEIGHT - 20; y++) {
+            edges[y * WIDTH + WIDTH / 2 + 150] = 63;
+        }
+        // Diagonal through the center: theta 135 degrees, rho 0
+        for(int c = -200; c < 200; c++) {
+            edges[(HEIGHT / 2 + c) * WIDTH + WIDTH / 2 + c] = 63;
+        }
+
+        JvmHoughTransform hough = new JvmHoughTransform(WIDTH, HEIGHT);
+        hough.calculate(edges);
+        List<JvmHoughTransform.Line> lines = hough.findLines(3, 100);
+
+        assertEquals(3, lines.size());
+        assertLine(lines, 90, -100);
+        assertLine(lines, 0, 150);
+        assertLine(lines, 135, 0);
+        for(int c = 1; c < lines.size(); c++) {
+            assertTrue(lines.get(c - 1).getVotes() >= lines.get(c).getVotes());
+        }
+
+        // Fewer lines than asked when there are fewer peaks above the minimal votes, only the
+        // horizontal line has all of its WIDTH - 40 points in one cell
+        assertEquals(1, hough.findLines(10, WIDTH - 40).size());
+        assertEquals(0, hough.findLines(0, 1).size());
+    }
+
+    @Test
+    public void findsLinesFarFromTheCenter() throws Exception {
+        int width = 1920;
+        int height = 1080;
+        byte[] edges = new byte[width * height];
+        // Vertical line near the right border: theta 0, rho 900
+        for(int y = 20; y < height - 20; y++) {
+            edges[y * width + width / 2 + 900] = 63;
+        }
+
+        JvmHoughTransform hough = new JvmHoughTransform(width, height);
+        assertEquals(JvmHoughTransform.getDistanceCount(width, height), hough.getDistanceCount());
+        hough.calculate(edges);
+        assertLine(hough.findLines(1, 100), 0, 900);
+    }
+
+    @Test
+    public void pipelinedMatchesSequential() throws Exception {
+        byte[] rgba = createFrame();
+        JvmCannyFrontEnd frontEnd = new JvmCannyFrontEnd(WIDTH, HEIGHT);
+        byte[] edges = createEdges(0.05f);
+
+        ForkJoinPool houghPool = new ForkJoinPool(2);
+        try {
+            JvmHoughTransform sequential = new JvmHoughTransform(houghPool, WIDTH, HEIGHT, ANGLES, DISTANCES);
+            List<JvmHoughTransform.Line> expected = runSequential(frontEnd, rgba, edges, sequential, 1);
+
+            JvmHoughTransform[] pipeline = {
+                    new JvmHoughTransform(houghPool, WIDTH, HEIGHT, ANGLES, DISTANCES),
+                    new JvmHoughTransform(houghPool, WIDTH, HEIGHT, ANGLES, DISTANCES) };
+            List<List<JvmHoughTransform.Line>> frameLines = runPipelined(frontEnd, rgba, edges, houghPool, pipeline, 5);
+            assertEquals(5, frameLines.size());
+            for(List<JvmHoughTransform.Line> lines : frameLines) {
+                assertSameLines(expected, lines);
+            }
+        } finally {
+            houghPool.shutdown();
+        }
+    }
+
+    /**
+     * The Hough stage of 'CannyAlgorithm' in SEQUENTIAL mode: the front-end on the common pool
+     * stands in for the RenderScript stages of a frame, then the frame votes.
+     *
+     * @return  the lines of the last frame
+     */
+    static List<JvmHoughTransform.Line> runSequential(JvmCannyFrontEnd frontEnd, byte[] rgba, byte[] edges,
+                                                      JvmHoughTransform transform, int frames) {
+        List<JvmHoughTransform.Line> lines = null;
+        for(int frame = 0; frame < frames; frame++) {
+            frontEnd.apply(rgba);
+            transform.calculate(edges);
+            lines = transform.findLines(32, 20);
+        }
+        return lines;
+    }
+
+    /**
+     * The Hough stage of 'CannyAlgorithm' in PIPELINED mode: the vote of a frame runs on the
+     * Hough pool while the front-end of the next frame runs.
+     *
+     * @return  the lines of each frame
+     */
+    static List<List<JvmHoughTransform.Line>> runPipelined(JvmCannyFrontEnd frontEnd, byte[] rgba, byte[] edges,
+                                                           ForkJoinPool houghPool, JvmHoughTransform[] pipeline,
+                                                           int frames) throws Exception {
+        List<List<JvmHoughTransform.Line>> frameLines = new ArrayList<>();
+        Future<List<JvmHoughTransform.Line>> pending = null;
+        for(int frame = 0; frame < frames; frame++) {
+            frontEnd.apply(rgba);
+            if(pending != null) {
+                frameLines.add(pending.get());
+            }
+            final JvmHoughTransform transform = pipeline[frame % 2];
+            final byte[] frameEdges = edges.clone();
+            pending = houghPool.submit(new Callable<List<JvmHoughTransform.Line>>() {
+                @Override
+                public List<JvmHoughTransform.Line> call() throws Exception {
+                    transform.calculate(frameEdges);
+                    return transform.findLines(32, 20);
+                }
+            });
+        }
+        if(pending != null) {
+            frameLines.add(pending.get());
+        }
+        return frameLines;
+    }
+
+    static byte[] createFrame() {
+        byte[] rgba = new byte[WIDTH * HEIGHT * 4];
+        new Random(3).nextBytes(rgba);
+        return rgba;
+    }
+
+    private static int[] scalarReference(byte[] edges) {
+        int[] accumulator = new int[ANGLES * DISTANCES];
+        voteImage(edges, accumulator, 0, ANGLES);
+        return accumulator;
+    }
+
+    static void voteImage(byte[] edges, int[] accumulator, int startAngle, int endAngle) {
+        float halfWidth = WIDTH >> 1;
+        float halfHeight = HEIGHT >> 1;
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                if((edges[y * WIDTH + x] & 0xFF) > JvmHoughTransform.DEFAULT_EDGE_THRESHOLD) {
+                    float px = x - halfWidth;
+                    float py = y - halfHeight;
+                    for(int angle = startAngle; angle < endAngle; angle++) {
+                        int distance = (DISTANCES >> 1) + (int) (px * COS[angle] + py * SIN[angle]);
+                        if(distance >= 0 && distance < DISTANCES) {
+                            accumulator[angle * DISTANCES + distance]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertLine(List<JvmHoughTransform.Line> lines, double thetaDegrees, float rho) {
+        for(JvmHoughTransform.Line line : lines) {
+            if(Math.abs(Math.toDegrees(line.getTheta()) - thetaDegrees) <= 1.0 && Math.abs(line.getRho() - rho) <= 2.0f) {
+                return;
+            }
+        }
+        throw new AssertionError("No line at theta " + thetaDegrees + ", rho " + rho + " in " + lines);
+    }
+
+    private static void assertSameLines(List<JvmHoughTransform.Line> expected, List<JvmHoughTransform.Line> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int c = 0; c < expected.size(); c++) {
+            assertEquals(expected.get(c).getVotes(), actual.get(c).getVotes());
+            assertEquals(expected.get(c).getRho(), actual.get(c).getRho(), 0.0f);
+            assertEquals(expected.get(c).getTheta(), actual.get(c).getTheta(), 0.0f);
+        }
+    }
+
+    /**
+     * @param density   fraction of the pixels that are edges
+     */
+    static byte[] createEdges(float density) {
+        Random random = new Random(42);
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        for(int c = 0; c < edges.length; c++) {
+            edges[c] = (byte) (random.nextFloat() < density ? 63 : random.nextInt(20));
+        }
+        return edges;
+    }
+
+    private static void assertArrayEquals(int[] expected, int[] actual) {
+        assertEquals(expected.length, actual.length);
+        for(int c = 0; c < expected.length; c++) {
+            assertEquals(expected[c], actual[c]);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the incremental mode, which only recomputes the dirty tiles, gives the same
+ * outputs as a full recompute of the frame.
+ */
+public class IncrementalEdgeDetectionTest {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+    private static final int KERNEL_SIZE = 9;
+
+    @Test
+    public void dirtyTilesMatchFullRecompute() throws Exception {
+        EnumSet<EdgeOutput> outputs = EnumSet.allOf(EdgeOutput.class);
+        float[] intensity = createIntensity();
+
+        JvmEdgeDetection incremental = createEdgeDetection();
+        incremental.setIncremental(true);
+        incremental.calcEdges(intensity, outputs);
+
+        // Move a bright square, a few tiles change and their halo is recomputed
+        Random random = new Random(7);
+        for(int frame = 0; frame < 5; frame++) {
+            int xs = random.nextInt(WIDTH - 20);
+            int ys = random.nextInt(HEIGHT - 20);
+            for(int y = ys; y < ys + 20; y++) {
+                for(int x = xs; x < xs + 20; x++) {
+                    intensity[y * WIDTH + x] += 0.3f;
+                }
+            }
+
+            incremental.calcEdges(intensity, outputs);
+            assertTrue(incremental.getRecomputedTileFraction() < 1.0f);
+
+            JvmEdgeDetection full = createEdgeDetection();
+            full.calcEdges(intensity, outputs);
+
+            assertArrayEquals(full.getEdgeVectorsBuffer(), incremental.getEdgeVectorsBuffer(), 0.0f);
+            assertArrayEquals(full.getEdgePolarVectorsBuffer(), incremental.getEdgePolarVectorsBuffer(), 0.0f);
+            assertArrayEquals(full.getEdgeMagnitudesBuffer(), incremental.getEdgeMagnitudesBuffer(), 0.0f);
+        }
+    }
+
+    @Test
+    public void keepsChangeThresholdOfCaller() throws Exception {
+        EnumSet<EdgeOutput> outputs = EnumSet.of(EdgeOutput.VECTORS);
+        float[] intensity = createIntensity();
+
+        // The threshold is set before the incremental mode is enabled
+        JvmEdgeDetection edgeDetection = createEdgeDetection();
+        edgeDetection.setChangeThreshold(0.5f);
+        edgeDetection.setIncremental(true);
+        edgeDetection.calcEdges(intensity, outputs);
+
+        for(int c = 0; c < intensity.length; c++) {
+            intensity[c] += 0.1f;
+        }
+        edgeDetection.calcEdges(intensity, outputs);
+        assertEquals(0.0f, edgeDetection.getRecomputedTileFraction(), 0.0f);
+    }
+
+    @Test
+    public void calcEdgeVectorsIsIncremental() throws Exception {
+        float[] intensity = createIntensity();
+
+        JvmEdgeDetection incremental = createEdgeDetection();
+        incremental.setIncremental(true);
+        incremental.calcEdgeVectors(intensity);
+
+        // Like the RenderScript engine, only the changed part of the frame is recomputed
+        intensity[HEIGHT / 2 * WIDTH + WIDTH / 2] += 0.5f;
+        float[] vectors = incremental.calcEdgeVectors(intensity);
+        assertTrue(incremental.getRecomputedTileFraction() < 0.5f);
+
+        JvmEdgeDetection full = createEdgeDetection();
+        assertArrayEquals(full.calcEdgeVectors(intensity), vectors, 0.0f);
+    }
+
+    private static JvmEdgeDetection createEdgeDetection() {
+        JvmEdgeDetection edgeDetection = new JvmEdgeDetection(ForkJoinPool.commonPool(), WIDTH, HEIGHT, KERNEL_SIZE);
+        edgeDetection.setFftCrossoverKernelSize(Integer.MAX_VALUE);
+        edgeDetection.setAmplification(2.0f);
+        return edgeDetection;
+    }
+
+    private static float[] createIntensity() {
+        Random random = new Random(42);
+        float[] intensity = new float[WIDTH * HEIGHT];
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                intensity[y * WIDTH + x] = 0.3f * x / WIDTH + 0.1f * random.nextFloat();
+            }
+        }
+        return intensity;
+    }
+}
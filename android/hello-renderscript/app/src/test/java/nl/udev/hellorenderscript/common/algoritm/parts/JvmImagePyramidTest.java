@@ -0,0 +1,128 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks the ring buffer compress and expand of {@link JvmImagePyramid} against the plain two
+ * pass versions (X pass into an intermediate buffer, then the Y pass). Both add the same terms
+ * in the same order, so the results are identical, also at the borders and band edges.
+ */
+public class JvmImagePyramidTest {
+
+    private static final int LEVELS = 6;
+
+    @Test
+    public void ringMatchesTwoPasses() throws Exception {
+        // Odd sizes and a few threads, so bands start at odd rows and levels get rounded up
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for(int[] size : new int[][] { { 352, 288 }, { 1440, 1080 }, { 45, 34 }, { 7, 5 } }) {
+                int width = size[0];
+                int height = size[1];
+                JvmImagePyramid pyramid = new JvmImagePyramid(pool, width, height, LEVELS);
+                pyramid.calculate(createFrame(width, height));
+
+                for(int level = 1; level < pyramid.getLevelCount(); level++) {
+                    String name = width + "x" + height + " level " + level;
+                    float[] larger = pyramid.getLevelGaussian(level - 1);
+                    int largerWidth = pyramid.getLevelWidth(level - 1);
+                    int largerHeight = pyramid.getLevelHeight(level - 1);
+                    int levelWidth = pyramid.getLevelWidth(level);
+                    int levelHeight = pyramid.getLevelHeight(level);
+
+                    float[] compressed = compressTwoPass(larger, largerWidth, largerHeight, levelWidth, levelHeight);
+                    assertArrayEquals(name + " gaussian", compressed, pyramid.getLevelGaussian(level), 0.0f);
+
+                    float[] expanded = expandTwoPass(pyramid.getLevelGaussian(level), levelWidth, levelHeight, largerWidth, largerHeight);
+                    float[] laplacian = new float[larger.length];
+                    for(int i = 0; i < laplacian.length; i++) {
+                        laplacian[i] = larger[i] - expanded[i];
+                    }
+                    assertArrayEquals(name + " laplacian", laplacian, pyramid.getLevelLaplacian(level - 1), 0.0f);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compress along X into a (half width, full height) buffer, then along Y.
+     */
+    static float[] compressTwoPass(float[] source, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        float[] rows = new float[targetWidth * sourceHeight];
+        for(int yp = 0; yp < sourceHeight; yp++) {
+            int row = yp * sourceWidth;
+            for(int x = 0; x < targetWidth; x++) {
+                int xp = x * 2;
+                rows[yp * targetWidth + x] = source[row + Math.max(xp - 2, 0)] * 0.05f
+                        + source[row + Math.max(xp - 1, 0)] * 0.25f
+                        + source[row + xp] * 0.4f
+                        + source[row + Math.min(xp + 1, sourceWidth - 1)] * 0.25f
+                        + source[row + Math.min(xp + 2, sourceWidth - 1)] * 0.05f;
+            }
+        }
+
+        float[] target = new float[targetWidth * targetHeight];
+        for(int y = 0; y < targetHeight; y++) {
+            int yp = y * 2;
+            int r0 = Math.max(yp - 2, 0) * targetWidth;
+            int r1 = Math.max(yp - 1, 0) * targetWidth;
+            int r2 = yp * targetWidth;
+            int r3 = Math.min(yp + 1, sourceHeight - 1) * targetWidth;
+            int r4 = Math.min(yp + 2, sourceHeight - 1) * targetWidth;
+            for(int x = 0; x < targetWidth; x++) {
+                target[y * targetWidth + x] = rows[r0 + x] * 0.05f + rows[r1 + x] * 0.25f + rows[r2 + x] * 0.4f
+                        + rows[r3 + x] * 0.25f + rows[r4 + x] * 0.05f;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Expand along X into a (target width, source height) buffer, then along Y.
+     */
+    static float[] expandTwoPass(float[] source, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        float[] rows = new float[targetWidth * sourceHeight];
+        for(int yp = 0; yp < sourceHeight; yp++) {
+            int row = yp * sourceWidth;
+            for(int x = 0; x < targetWidth; x++) {
+                int xp = x / 2;
+                int x2 = row + Math.min(xp + 1, sourceWidth - 1);
+                rows[yp * targetWidth + x] = xp * 2 == x
+                        ? source[row + Math.max(xp - 1, 0)] * 0.175f + source[row + xp] * 0.65f + source[x2] * 0.175f
+                        : source[row + xp] * 0.5f + source[x2] * 0.5f;
+            }
+        }
+
+        float[] target = new float[targetWidth * targetHeight];
+        for(int y = 0; y < targetHeight; y++) {
+            int yp = y / 2;
+            int r0 = Math.max(yp - 1, 0) * targetWidth;
+            int r1 = yp * targetWidth;
+            int r2 = Math.min(yp + 1, sourceHeight - 1) * targetWidth;
+            for(int x = 0; x < targetWidth; x++) {
+                target[y * targetWidth + x] = yp * 2 == y
+                        ? rows[r0 + x] * 0.175f + rows[r1 + x] * 0.65f + rows[r2 + x] * 0.175f
+                        : rows[r1 + x] * 0.5f + rows[r2 + x] * 0.5f;
+            }
+        }
+        return target;
+    }
+
+    static float[] createFrame(int width, int height) {
+        Random random = new Random(7);
+        float[] frame = new float[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                frame[y * width + x] = 0.5f + 0.3f * (float) Math.sin(x * 0.05 + y * 0.03) + 0.1f * random.nextFloat();
+            }
+        }
+        return frame;
+    }
+}
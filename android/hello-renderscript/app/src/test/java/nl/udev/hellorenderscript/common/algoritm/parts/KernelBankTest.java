@@ -0,0 +1,80 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the persisted kernel bank file: saved kernels map back unchanged and corrupt files
+ * are rejected by {@link KernelBank#map(File)} instead of failing later on decoding.
+ */
+public class KernelBankTest {
+
+    private static final int FILE_MAGIC = 0x4B424E4B;
+    private static final int FILE_VERSION = 1;
+
+    @Test
+    public void savedKernelsMapBack() throws Exception {
+        File file = File.createTempFile("kernelbank", ".bin");
+        try {
+            KernelBank bank = KernelBank.getInstance();
+            bank.prebuild(9);
+            bank.save(file);
+            assertTrue(bank.map(file));
+            assertTrue(!new File(file.getPath() + ".tmp").exists());
+
+            float[] expected = Kernels.createWeightedAngularVectorKernel(9);
+            assertArrayEquals(expected, bank.getWeightedAngularVectorKernel(9).getEntries(), 0.0f);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectsInvalidKernelSizes() throws Exception {
+        for(int kernelSize : new int[] { 0, -3, 4, KernelBank.MAX_FILE_KERNEL_SIZE + 2, Integer.MAX_VALUE }) {
+            File file = File.createTempFile("kernelbank", ".bin");
+            try {
+                writeFile(file, 1, kernelSize, 64);
+                assertTrue("Kernel size " + kernelSize + " accepted", !KernelBank.getInstance().map(file));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws Exception {
+        File file = File.createTempFile("kernelbank", ".bin");
+        try {
+            // A 5x5 kernel needs 12 + 5 x 5 x 12 bytes
+            writeFile(file, 1, 5, 12 + 100);
+            assertTrue(!KernelBank.getInstance().map(file));
+            writeFile(file, -1, 5, 0);
+            assertTrue(!KernelBank.getInstance().map(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void writeFile(File file, int count, int kernelSize, int kernelBytes) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * 4 + 4 + kernelBytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(FILE_VERSION);
+        buffer.putInt(count);
+        buffer.putInt(kernelSize);
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(buffer.array());
+        } finally {
+            outputStream.close();
+        }
+    }
+}
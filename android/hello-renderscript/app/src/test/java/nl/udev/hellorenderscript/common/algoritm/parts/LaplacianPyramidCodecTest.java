@@ -0,0 +1,184 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import nl.udev.hellorenderscript.common.algoritm.parts.LaplacianPyramidCodec.Quantization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trip of frames through the quantized laplacian pyramid encoding.
+ *
+ * Prints the encoded size against the F32 frame and against the F32 laplacian levels, also
+ * after deflate to show how well the ordering compresses.
+ *
+ * The error of a level is at most half its quantization step (max |level| / 127 or / 32767),
+ * the expand of the collapse averages, so the error of the frame is at most the sum over the
+ * levels. On top of that bound the test checks what the codec claims for this frame: INT16
+ * within 1e-4 and INT8 above 60 dB PSNR.
+ */
+public class LaplacianPyramidCodecTest {
+
+    private static final int WIDTH = 1440;
+    private static final int HEIGHT = 1080;
+    private static final int LEVELS = 6;
+
+    // Rounding of the float pyramid itself, see collapseReconstructsFrame
+    private static final float COLLAPSE_ERROR = 1e-5f;
+
+    @Test
+    public void collapseReconstructsFrame() throws Exception {
+        float[] frame = createFrame(WIDTH, HEIGHT);
+        JvmImagePyramid pyramid = new JvmImagePyramid(WIDTH, HEIGHT, LEVELS);
+        pyramid.calculate(frame);
+
+        float[] reconstructed = pyramid.collapseLaplacian();
+        assertTrue(maxError(frame, reconstructed) < 1e-5f);
+    }
+
+    @Test
+    public void quantizedRoundTrip() throws Exception {
+        float[] frame = createFrame(WIDTH, HEIGHT);
+        JvmImagePyramid pyramid = new JvmImagePyramid(WIDTH, HEIGHT, LEVELS);
+        pyramid.calculate(frame);
+
+        float[][] laplacians = new float[pyramid.getLevelCount()][];
+        long laplacianBytes = 0;
+        for(int level = 0; level < laplacians.length; level++) {
+            laplacians[level] = pyramid.getLevelLaplacian(level).clone();
+            laplacianBytes += laplacians[level].length * 4;
+        }
+        long frameBytes = frame.length * 4L;
+
+        for(Quantization quantization : Quantization.values()) {
+            byte[] encoded = LaplacianPyramidCodec.encode(WIDTH, HEIGHT, laplacians, quantization);
+            assertEquals(laplacians.length, LaplacianPyramidCodec.getLevelCount(encoded));
+
+            long start = System.nanoTime();
+            JvmImagePyramid decoder = new JvmImagePyramid(WIDTH, HEIGHT, LEVELS);
+            LaplacianPyramidCodec.decode(encoded, decoder);
+            float[] reconstructed = decoder.collapseLaplacian();
+            long decodeNanos = System.nanoTime() - start;
+
+            float maxError = maxError(frame, reconstructed);
+            double psnr = psnr(frame, reconstructed);
+            int deflated = deflatedSize(encoded);
+
+            System.out.println(String.format(
+                    "%-5s %6.2f MB (%4.1f%% of F32 frame, %4.1f%% of F32 levels), deflated %6.2f MB (%4.1f%%) | max error %.4f, PSNR %5.1f dB | decode+collapse %5.1f ms",
+                    quantization, encoded.length / 1e6,
+                    100.0 * encoded.length / frameBytes, 100.0 * encoded.length / laplacianBytes,
+                    deflated / 1e6, 100.0 * deflated / frameBytes,
+                    maxError, psnr, decodeNanos / 1e6));
+
+            float bound = COLLAPSE_ERROR;
+            for(float[] laplacian : laplacians) {
+                bound += maxAbs(laplacian) / quantization.maxValue / 2.0f;
+            }
+            assertTrue(quantization + " error " + maxError + " above " + bound, maxError <= bound);
+
+            if(quantization == Quantization.INT16) {
+                assertTrue("INT16 error " + maxError, maxError < 1e-4f);
+            } else {
+                assertTrue("INT8 PSNR " + psnr, psnr > 60.0);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidStreams() throws Exception {
+        int width = 64;
+        int height = 48;
+        JvmImagePyramid pyramid = new JvmImagePyramid(width, height, 3);
+        pyramid.calculate(createFrame(width, height));
+        float[][] laplacians = new float[pyramid.getLevelCount()][];
+        for(int level = 0; level < laplacians.length; level++) {
+            laplacians[level] = pyramid.getLevelLaplacian(level);
+        }
+        byte[] encoded = LaplacianPyramidCodec.encode(width, height, laplacians, Quantization.INT16);
+
+        assertRejected(Arrays.copyOf(encoded, encoded.length - 1), "Truncated");
+        assertRejected(Arrays.copyOf(encoded, 10), "Not an encoded");
+        assertRejected(Arrays.copyOf(encoded, encoded.length + 1), "Trailing data");
+
+        byte[] badQuantization = encoded.clone();
+        badQuantization[4] = 7;
+        assertRejected(badQuantization, "Unknown quantization 7");
+
+        byte[] badLevels = encoded.clone();
+        badLevels[5] = 20;
+        assertRejected(badLevels, "cannot have 21 levels");
+    }
+
+    private static void assertRejected(byte[] encoded, String message) {
+        try {
+            LaplacianPyramidCodec.decode(encoded);
+            fail("Decoded an invalid stream, expected: " + message);
+        } catch(IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static float maxAbs(float[] values) {
+        float max = 0.0f;
+        for(float value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+
+    private static float maxError(float[] expected, float[] actual) {
+        float max = 0.0f;
+        for(int i = 0; i < expected.length; i++) {
+            max = Math.max(max, Math.abs(expected[i] - actual[i]));
+        }
+        return max;
+    }
+
+    private static double psnr(float[] expected, float[] actual) {
+        double sum = 0.0;
+        for(int i = 0; i < expected.length; i++) {
+            double error = expected[i] - actual[i];
+            sum += error * error;
+        }
+        return 10.0 * Math.log10(1.0 / (sum / expected.length));
+    }
+
+    private static int deflatedSize(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] output = new byte[64 * 1024];
+        int size = 0;
+        while(!deflater.finished()) {
+            size += deflater.deflate(output);
+        }
+        deflater.end();
+        return size;
+    }
+
+    private static float[] createFrame(int width, int height) {
+        Random random = new Random(7);
+        float[] frame = new float[width * height];
+
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                // Smooth gradients, a few hard edges and some sensor noise
+                float value = 0.3f + 0.2f * (float) Math.sin(x * 0.01) * (float) Math.cos(y * 0.013);
+                if((x / 120 + y / 90) % 3 == 0) {
+                    value += 0.3f;
+                }
+                value += 0.01f * (random.nextFloat() - 0.5f);
+                frame[y * width + x] = Math.max(0.0f, Math.min(1.0f, value));
+            }
+        }
+
+        return frame;
+    }
+}
@@ -0,0 +1,88 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.udev.hellorenderscript.common.algoritm.parts.MipChainLayout.Plane;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the packed mip-chain layout for common camera sizes.
+ */
+public class MipChainLayoutTest {
+
+    private static final int[][] RESOLUTIONS = {
+            { 352, 288 },
+            { 640, 480 },
+            { 1280, 720 },
+            { 1440, 1080 },
+            { 1920, 1080 },
+            { 1001, 333 }
+    };
+    private static final int LEVELS = 6;
+
+    @Test
+    public void levelSizesAreRoundedUp() throws Exception {
+        MipChainLayout layout = new MipChainLayout(1440, 1080, 20);
+
+        int[] expectedWidths = { 1440, 720, 360, 180, 90, 45, 23, 12, 6, 3, 2, 1 };
+        int[] expectedHeights = { 1080, 540, 270, 135, 68, 34, 17, 9, 5, 3, 2, 1 };
+        assertEquals(expectedWidths.length, layout.getLevelCount());
+        for(int level = 0; level < expectedWidths.length; level++) {
+            assertEquals(expectedWidths[level], layout.getLevelWidth(level));
+            assertEquals(expectedHeights[level], layout.getLevelHeight(level));
+        }
+    }
+
+    @Test
+    public void planesDoNotOverlap() throws Exception {
+        for(int[] resolution : RESOLUTIONS) {
+            MipChainLayout layout = new MipChainLayout(resolution[0], resolution[1], LEVELS);
+
+            List<int[]> rects = new ArrayList<>();
+            for(int level = 0; level < layout.getLevelCount(); level++) {
+                for(Plane plane : Plane.values()) {
+                    if(!layout.contains(plane, level)) {
+                        continue;
+                    }
+                    int[] rect = {
+                            layout.getOffsetX(plane, level),
+                            layout.getOffsetY(plane, level),
+                            layout.getPlaneWidth(plane, level),
+                            layout.getPlaneHeight(plane, level)
+                    };
+                    assertTrue(rect[0] >= 0 && rect[0] + rect[2] <= layout.getChainWidth());
+                    assertTrue(rect[1] >= 0 && rect[1] + rect[3] <= layout.getChainHeight());
+                    for(int[] other : rects) {
+                        assertFalse(overlaps(rect, other));
+                    }
+                    rects.add(rect);
+                }
+            }
+
+            assertEquals(layout.getPlaneCount(), rects.size());
+            assertTrue(layout.getChainElementCount() >= layout.getPlaneElementCount());
+        }
+    }
+
+    @Test
+    public void chainHasLittleUnusedSpace() throws Exception {
+        for(int[] resolution : RESOLUTIONS) {
+            MipChainLayout layout = new MipChainLayout(resolution[0], resolution[1], LEVELS);
+            double used = (double) layout.getPlaneElementCount() / layout.getChainElementCount();
+
+            // The odd size rounds up at every level, so the planes of a level do not tile
+            double minimal = resolution[0] == 1001 ? 0.95 : 0.985;
+            assertTrue(resolution[0] + "x" + resolution[1] + " uses " + used, used >= minimal);
+        }
+    }
+
+    private static boolean overlaps(int[] a, int[] b) {
+        return a[0] < b[0] + b[2] && b[0] < a[0] + a[2] && a[1] < b[1] + b[3] && b[1] < a[1] + a[3];
+    }
+}
@@ -0,0 +1,105 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the progressive probabilistic Hough transform finds the segments of drawn lines
+ * and does not follow curves. The timing against the full voting of {@link JvmHoughTransform}
+ * is in {@link Benchmarks}.
+ */
+public class ProbabilisticHoughTest {
+
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+    private static final float NOISE_DENSITY = 0.01f;
+    private static final int ENDPOINT_TOLERANCE = 15;
+
+    // x1, y1, x2, y2 of the drawn segments
+    private static final int[][] LINES = {
+            { 40, 60, 600, 60 },
+            { 100, 20, 100, 460 },
+            { 150, 400, 550, 100 },
+            { 200, 150, 500, 450 },
+            { 320, 300, 620, 340 },
+    };
+
+    @Test
+    public void findsDrawnSegments() throws Exception {
+        byte[] edges = createScene(42, LINES);
+        JvmProbabilisticHough hough = new JvmProbabilisticHough(WIDTH, HEIGHT, 1);
+        hough.setThreshold(60);
+        hough.setMinLineLength(100);
+
+        List<JvmProbabilisticHough.Segment> segments = hough.findSegments(edges);
+        for(int[] line : LINES) {
+            assertTrue("No segment for line " + line[0] + ", " + line[1] + " - " + line[2] + ", " + line[3] + " in " + segments,
+                    containsSegment(segments, line));
+        }
+        assertTrue(hough.getVotedPointCount() < hough.getPointCount());
+    }
+
+    @Test
+    public void doesNotFollowCurves() throws Exception {
+        // Quarter circle of radius 150, the longest chord that stays within 2 pixels of the arc is about 70
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        int radius = 150;
+        int centerX = 320;
+        int centerY = 240;
+        for(int step = 0; step <= 4 * radius; step++) {
+            double angle = -Math.PI / 2 + (Math.PI / 2) * step / (4 * radius);
+            int x = (int) Math.round(centerX + radius * Math.cos(angle));
+            int y = (int) Math.round(centerY + radius * Math.sin(angle));
+            edges[y * WIDTH + x] = 63;
+        }
+
+        for(long seed = 1; seed <= 5; seed++) {
+            JvmProbabilisticHough hough = new JvmProbabilisticHough(WIDTH, HEIGHT, seed);
+            hough.setThreshold(20);
+            hough.setMinLineLength(10);
+            for(JvmProbabilisticHough.Segment segment : hough.findSegments(edges)) {
+                assertTrue("Segment along the arc " + segment, segment.getLength() < 80);
+            }
+        }
+    }
+
+    private static boolean containsSegment(List<JvmProbabilisticHough.Segment> segments, int[] line) {
+        for(JvmProbabilisticHough.Segment segment : segments) {
+            if((near(segment.getX1(), segment.getY1(), line[0], line[1]) && near(segment.getX2(), segment.getY2(), line[2], line[3]))
+                    || (near(segment.getX1(), segment.getY1(), line[2], line[3]) && near(segment.getX2(), segment.getY2(), line[0], line[1]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean near(int x, int y, int expectedX, int expectedY) {
+        return Math.abs(x - expectedX) <= ENDPOINT_TOLERANCE && Math.abs(y - expectedY) <= ENDPOINT_TOLERANCE;
+    }
+
+    /**
+     * The drawn lines on random edge noise.
+     */
+    static byte[] createScene(long seed, int[][] lines) {
+        Random random = new Random(seed);
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        for(int c = 0; c < edges.length; c++) {
+            if(random.nextFloat() < NOISE_DENSITY) {
+                edges[c] = 63;
+            }
+        }
+        for(int[] line : lines) {
+            int steps = Math.max(Math.abs(line[2] - line[0]), Math.abs(line[3] - line[1]));
+            for(int step = 0; step <= steps && steps > 0; step++) {
+                int x = Math.round(line[0] + (line[2] - line[0]) * (float) step / steps);
+                int y = Math.round(line[1] + (line[3] - line[1]) * (float) step / steps);
+                edges[y * WIDTH + x] = 63;
+            }
+        }
+        return edges;
+    }
+}
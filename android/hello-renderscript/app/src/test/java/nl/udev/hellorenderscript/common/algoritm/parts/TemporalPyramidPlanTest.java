@@ -0,0 +1,120 @@
+package nl.udev.hellorenderscript.common.algoritm.parts;
+
+import org.junit.Test;
+
+import nl.udev.hellorenderscript.common.algoritm.parts.TemporalPyramidPlan.Decimation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the level sizes and buffer counts of the temporal pyramid and what is chosen for a
+ * 1080p memory budget.
+ */
+public class TemporalPyramidPlanTest {
+
+    private static final long MB = 1000000L;
+
+    @Test
+    public void gaussianBufferCounts() throws Exception {
+        int[][] expected = {
+                { 3 },
+                { 6, 5 },
+                { 12, 11, 9 },
+                { 24, 23, 21, 17 },
+                { 48, 47, 45, 41, 33 }
+        };
+
+        for(int[] counts : expected) {
+            TemporalPyramidPlan plan = TemporalPyramidPlan.choose(352, 288, counts.length, Decimation.TEMPORAL, 0);
+            assertEquals(counts.length, plan.getLevelCount());
+            for(int level = 0; level < counts.length; level++) {
+                assertEquals(counts[level], plan.getGaussianBufferCount(level));
+            }
+        }
+    }
+
+    @Test
+    public void windowBufferCounts() throws Exception {
+        // Level samples of the window: 3, 9 + 3, 21 + 9 + 3, ...
+        int[] expected = { 3, 12, 33, 78, 171 };
+
+        for(int levels = 1; levels <= expected.length; levels++) {
+            TemporalPyramidPlan plan = TemporalPyramidPlan.choose(352, 288, levels, Decimation.TEMPORAL, 0);
+            assertEquals(expected[levels - 1], plan.getWindowGaussianBufferCount());
+        }
+    }
+
+    @Test
+    public void spatioTemporalLevelsAreHalved() throws Exception {
+        TemporalPyramidPlan plan = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.SPATIO_TEMPORAL, 0);
+
+        int[] expectedWidths = { 1920, 960, 480, 240, 120 };
+        int[] expectedHeights = { 1080, 540, 270, 135, 68 };
+        assertEquals(expectedWidths.length, plan.getLevelCount());
+        for(int level = 0; level < expectedWidths.length; level++) {
+            assertEquals(expectedWidths[level], plan.getLevelWidth(level));
+            assertEquals(expectedHeights[level], plan.getLevelHeight(level));
+        }
+
+        TemporalPyramidPlan full = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, 0);
+        assertEquals(full.getBufferCount(), plan.getBufferCount());
+        assertTrue(plan.getMemoryBytes() < full.getMemoryBytes() / 2);
+    }
+
+    @Test
+    public void memoryBytesCountAllBuffers() throws Exception {
+        TemporalPyramidPlan plan = TemporalPyramidPlan.choose(100, 10, 2, Decimation.TEMPORAL, 0);
+
+        // Level 0: 6 gaussian + 6 fixed, level 1: 5 gaussian + 6 fixed + 3 expanded
+        assertEquals(26, plan.getBufferCount());
+        assertEquals(26 * 100 * 10 * 4, plan.getMemoryBytes());
+    }
+
+    @Test
+    public void budgetFirstDecimatesThenDropsLevels() throws Exception {
+        TemporalPyramidPlan unlimited = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, 0);
+        TemporalPyramidPlan decimated = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.SPATIO_TEMPORAL, 0);
+
+        // Fits as requested
+        TemporalPyramidPlan plan = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, unlimited.getMemoryBytes());
+        assertEquals(Decimation.TEMPORAL, plan.getDecimation());
+        assertEquals(5, plan.getLevelCount());
+
+        // Only fits when the levels are also spatially decimated
+        plan = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, decimated.getMemoryBytes());
+        assertEquals(Decimation.SPATIO_TEMPORAL, plan.getDecimation());
+        assertEquals(5, plan.getLevelCount());
+
+        // Needs fewer levels as well
+        long budget = decimated.getMemoryBytes() - 1;
+        plan = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, budget);
+        assertEquals(Decimation.SPATIO_TEMPORAL, plan.getDecimation());
+        assertTrue(plan.getLevelCount() < 5);
+        assertTrue(plan.fitsBudget());
+        assertTrue(plan.getMemoryBytes() <= budget);
+
+        // A single level is always allocated
+        plan = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, 1);
+        assertEquals(1, plan.getLevelCount());
+        assertFalse(plan.fitsBudget());
+        assertTrue(plan.getMemoryReport().contains("OVER BUDGET"));
+    }
+
+    @Test
+    public void appBudgetsFit1080p() throws Exception {
+        // The budgets offered by TemporalPyramidAlgorithm, each gets at least one more level
+        int[] budgetsMb = { 128, 256, 512, 1024 };
+        int[] expectedLevels = { 1, 3, 4, 5 };
+
+        for(int i = 0; i < budgetsMb.length; i++) {
+            long budget = budgetsMb[i] * MB;
+            TemporalPyramidPlan plan = TemporalPyramidPlan.choose(1920, 1080, 5, Decimation.TEMPORAL, budget);
+            assertEquals(budgetsMb[i] + " MB", expectedLevels[i], plan.getLevelCount());
+            assertTrue(budgetsMb[i] + " MB", plan.fitsBudget());
+            assertTrue(budgetsMb[i] + " MB", plan.getMemoryBytes() <= budget);
+            assertFalse(plan.getMemoryReport().contains("OVER BUDGET"));
+        }
+    }
+}